@@ -19,7 +19,10 @@ android {
 
     buildTypes {
         release {
-            isMinifyEnabled = false
+            // R8: remove e otimiza o código não usado (menos classes para carregar na abertura)
+            // e os recursos que sobrarem
+            isMinifyEnabled = true
+            isShrinkResources = true
             proguardFiles(
                 getDefaultProguardFile("proguard-android-optimize.txt"),
                 "proguard-rules.pro"
@@ -33,16 +36,32 @@ android {
     buildFeatures {
         viewBinding = true
     }
+    testOptions {
+        unitTests.isIncludeAndroidResources = true
+        // os relatórios de medição dos testes só saem com -Dtrails.reports=true
+        unitTests.all {
+            it.systemProperty("trails.reports", System.getProperty("trails.reports", "false"))
+        }
+    }
 }
 
 dependencies {
 
+    implementation(project(":core"))
     implementation("androidx.appcompat:appcompat:1.7.0")
     implementation("com.google.android.material:material:1.12.0")
     implementation("androidx.constraintlayout:constraintlayout:2.1.4")
     implementation("com.google.android.gms:play-services-maps:19.0.0")
     implementation("com.google.android.gms:play-services-location:21.3.0")
+    // Instala o perfil de referência (src/main/baseline-prof.txt, as classes e métodos da
+    // abertura do app e das telas, compilados na instalação) também fora da Play Store.
+    // As bibliotecas do AndroidX trazem os próprios perfis, que o AGP junta a este.
+    implementation("androidx.profileinstaller:profileinstaller:1.3.1")
     testImplementation("junit:junit:4.13.2")
+    testImplementation("org.robolectric:robolectric:4.13")
+    testImplementation("androidx.test:core:1.6.1")
+    // XmlPullParser de verdade para os testes na JVM (o android.jar dos testes só tem stubs)
+    testImplementation("net.sf.kxml:kxml2:2.3.0")
     androidTestImplementation("androidx.test.ext:junit:1.2.1")
     androidTestImplementation("androidx.test.espresso:espresso-core:3.6.1")
 }
\ No newline at end of file
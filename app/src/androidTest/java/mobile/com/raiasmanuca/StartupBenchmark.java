@@ -0,0 +1,209 @@
+package mobile.com.raiasmanuca;
+
+import android.Manifest;
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// Mede a abertura de cada tela com os tempos do StartupTracer: até o primeiro quadro e, nas
+// telas com mapa, até o mapa terminar de desenhar (precisa de rede para os ladrilhos). Cada
+// tela é aberta REPEATS vezes com o processo já em pé; a primeira abertura (classes ainda não
+// carregadas) e a mediana vão para o log e para startup-benchmark.json, na pasta de arquivos
+// externos do app, no mesmo formato de startup-baseline.json.
+// Se os assets do teste tiverem um startup-baseline.json (copiado de uma execução anterior), a
+// mediana de cada tempo não pode passar da referência mais TOLERANCE.
+// A abertura a frio (processo novo) não dá para medir de dentro do processo; nela o
+// StartupTracer conta desde o início do processo e escreve no log, por exemplo:
+//   adb shell am force-stop mobile.com.raiasmanuca
+//   adb shell am start -W -n mobile.com.raiasmanuca/.MainActivity
+//   adb logcat -s StartupTracer
+// Na tela de gravação as permissões são concedidas e a gravação iniciada em cada
+// abertura é parada em seguida (fica uma sessão vazia no banco do app).
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmark {
+    private static final String TAG = "StartupBenchmark";
+    private static final String RESULTS_FILE = "startup-benchmark.json";
+    private static final String BASELINE_ASSET = "startup-baseline.json";
+    private static final int REPEATS = 10;
+    private static final long FRAME_TIMEOUT_SECONDS = 10;
+    private static final long MAP_TIMEOUT_SECONDS = 30;
+    // folga sobre a referência, para a variação entre execuções
+    private static final double TOLERANCE = 0.25;
+
+    private Instrumentation instrumentation;
+    private Context context;
+    private final JSONObject results = new JSONObject();
+
+    // tela sendo aberta e os tempos que o StartupTracer mandou para ela
+    private volatile String expectedActivity;
+    private volatile CountDownLatch frameLatch;
+    private volatile CountDownLatch mapLatch;
+    private volatile long frameMillis;
+    private volatile long mapMillis;
+
+    @Before
+    public void setUp() throws IOException {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        context = instrumentation.getTargetContext();
+        grantPermission(Manifest.permission.ACCESS_FINE_LOCATION);
+        // antes do Android 13 a permissão não existe e o comando só falha
+        grantPermission(Manifest.permission.POST_NOTIFICATIONS);
+        StartupTracer.setListener((activityName, stage, millis, processStart) -> {
+            if (processStart || !activityName.equals(expectedActivity)) return;
+            if (StartupTracer.STAGE_FIRST_FRAME.equals(stage)) {
+                frameMillis = millis;
+                frameLatch.countDown();
+            } else if (StartupTracer.STAGE_MAP_LOADED.equals(stage)) {
+                mapMillis = millis;
+                mapLatch.countDown();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        StartupTracer.setListener(null);
+    }
+
+    @Test
+    public void startupTimes() throws Exception {
+        // a primeira tela do processo conta desde o início dele (que aqui inclui o teste) e não
+        // entra nas medidas
+        Activity first = instrumentation.startActivitySync(
+                new Intent(context, MainActivity.class).addFlags(Intent.FLAG_ACTIVITY_NEW_TASK));
+        instrumentation.runOnMainSync(first::finish);
+        instrumentation.waitForIdleSync();
+
+        measure(MainActivity.class, false);
+        measure(MapConfigActivity.class, false);
+        measure(TrailListActivity.class, false);
+        measure(TrailRecordActivity.class, true);
+        measure(TrailViewActivity.class, true);
+        measure(HeatmapActivity.class, true);
+
+        File out = new File(context.getExternalFilesDir(null), RESULTS_FILE);
+        try (OutputStream stream = new FileOutputStream(out)) {
+            stream.write(results.toString(2).getBytes(StandardCharsets.UTF_8));
+        }
+        Log.i(TAG, "Resultados em " + out);
+        compareWithBaseline();
+    }
+
+    private void measure(Class<? extends Activity> activityClass, boolean hasMap) throws Exception {
+        String name = activityClass.getSimpleName();
+        List<Long> frames = new ArrayList<>();
+        List<Long> maps = new ArrayList<>();
+        for (int r = 0; r < REPEATS; r++) {
+            expectedActivity = name;
+            frameLatch = new CountDownLatch(1);
+            mapLatch = new CountDownLatch(1);
+            Activity activity = instrumentation.startActivitySync(
+                    new Intent(context, activityClass).addFlags(Intent.FLAG_ACTIVITY_NEW_TASK));
+            assertTrue(name + ": sem primeiro quadro", frameLatch.await(FRAME_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            frames.add(frameMillis);
+            if (hasMap) {
+                if (mapLatch.await(MAP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    maps.add(mapMillis);
+                } else {
+                    Log.w(TAG, name + ": o mapa não terminou de carregar (sem rede?)");
+                }
+            }
+            instrumentation.runOnMainSync(activity::finish);
+            instrumentation.waitForIdleSync();
+            if (activityClass == TrailRecordActivity.class) {
+                context.startService(new Intent(context, TrailRecordingService.class)
+                        .setAction(TrailRecordingService.ACTION_STOP));
+            }
+        }
+
+        JSONObject entry = new JSONObject();
+        entry.put(StartupTracer.STAGE_FIRST_FRAME, median(frames));
+        String line = name + ": primeiro quadro " + median(frames) + " ms (primeira abertura " + frames.get(0) + " ms)";
+        if (!maps.isEmpty()) {
+            entry.put(StartupTracer.STAGE_MAP_LOADED, median(maps));
+            line += ", mapa carregado " + median(maps) + " ms (primeira abertura " + maps.get(0) + " ms)";
+        }
+        results.put(name, entry);
+        Log.i(TAG, line);
+    }
+
+    private void compareWithBaseline() throws IOException, JSONException {
+        JSONObject baseline;
+        try (InputStream in = instrumentation.getContext().getAssets().open(BASELINE_ASSET)) {
+            baseline = new JSONObject(readAll(in));
+        } catch (IOException e) {
+            Log.i(TAG, "Sem " + BASELINE_ASSET + " nos assets do teste; nada a comparar");
+            return;
+        }
+        List<String> regressions = new ArrayList<>();
+        for (Iterator<String> names = baseline.keys(); names.hasNext(); ) {
+            String name = names.next();
+            JSONObject expected = baseline.getJSONObject(name);
+            JSONObject measured = results.optJSONObject(name);
+            for (Iterator<String> stages = expected.keys(); stages.hasNext(); ) {
+                String stage = stages.next();
+                if (measured == null || !measured.has(stage)) continue;
+                long reference = expected.getLong(stage);
+                long value = measured.getLong(stage);
+                if (value > reference * (1 + TOLERANCE)) {
+                    regressions.add(name + " " + stage + ": " + value + " ms (referência " + reference + " ms)");
+                }
+            }
+        }
+        assertTrue("Abertura mais lenta que a referência: " + regressions, regressions.isEmpty());
+    }
+
+    private void grantPermission(String permission) throws IOException {
+        ParcelFileDescriptor output = instrumentation.getUiAutomation().executeShellCommand(
+                "pm grant " + context.getPackageName() + " " + permission);
+        // espera o comando terminar
+        try (InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(output)) {
+            readAll(in);
+        }
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, n);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static long median(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+}
@@ -0,0 +1,120 @@
+package mobile.com.raiasmanuca;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// Mede o mapa de calor com 10 milhões de pontos (2000 trilhas x 5000 pontos): a montagem
+// inicial de todas as trilhas (updateHeatmap), a soma de uma trilha nova de 1 h
+// (addTrailToHeatmap, o que o serviço faz ao encerrar a gravação) e o desenho dos ladrilhos
+// pelo HeatmapTileProvider, sem e com o cache, em uma tela de mapa (5 x 5 ladrilhos) de cada zoom.
+// Gravar os 10 milhões de pontos leva alguns minutos no aparelho.
+@RunWith(AndroidJUnit4.class)
+public class TrailHeatmapBenchmark {
+    private static final String TAG = "TrailHeatmapBenchmark";
+    private static final String DB_NAME = "TrailHeatmapBenchmark.db";
+    private static final int TRAILS = 2000;
+    private static final int POINTS_PER_TRAIL = 5000;
+    private static final int NEW_TRAIL_POINTS = 3600;
+    private static final int[] ZOOMS = {10, 12, 15, 17};
+    private static final int SCREEN_TILES = 5;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        dbHelper = new DatabaseHelper(context, DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void incrementalUpdateAndTileRendering() {
+        Random random = new Random(7);
+        for (int t = 0; t < TRAILS; t++) {
+            insertTrail("trail-" + t, POINTS_PER_TRAIL, t * 86_400_000L, random);
+        }
+
+        long t0 = System.nanoTime();
+        assertEquals(TRAILS, dbHelper.updateHeatmap());
+        long buildMillis = (System.nanoTime() - t0) / 1_000_000;
+
+        insertTrail("new-trail", NEW_TRAIL_POINTS, TRAILS * 86_400_000L, random);
+        t0 = System.nanoTime();
+        assertTrue(dbHelper.addTrailToHeatmap("new-trail"));
+        long addMillis = (System.nanoTime() - t0) / 1_000_000;
+        // a mesma trilha não é somada de novo
+        assertFalse(dbHelper.addTrailToHeatmap("new-trail"));
+        Log.i(TAG, TRAILS * POINTS_PER_TRAIL + " pontos: montagem inicial " + buildMillis
+                + " ms, trilha nova de " + NEW_TRAIL_POINTS + " pontos " + addMillis + " ms");
+        assertTrue("somar uma trilha custa quase o mesmo que montar tudo", addMillis * 100 < buildMillis);
+
+        // telas de mapa centradas no meio da região
+        HeatmapTileProvider provider = new HeatmapTileProvider(dbHelper);
+        for (int zoom : ZOOMS) {
+            int centerX = Quadkey.tileX(-46.65, zoom);
+            int centerY = Quadkey.tileY(-23.55, zoom);
+            long coldMicros = 0;
+            long cachedMicros = 0;
+            int drawn = 0;
+            for (int pass = 0; pass < 2; pass++) {
+                t0 = System.nanoTime();
+                for (int dy = -SCREEN_TILES / 2; dy <= SCREEN_TILES / 2; dy++) {
+                    for (int dx = -SCREEN_TILES / 2; dx <= SCREEN_TILES / 2; dx++) {
+                        Tile tile = provider.getTile(centerX + dx, centerY + dy, zoom);
+                        if (pass == 0 && tile != TileProvider.NO_TILE) drawn++;
+                    }
+                }
+                long micros = (System.nanoTime() - t0) / 1000;
+                if (pass == 0) coldMicros = micros; else cachedMicros = micros;
+            }
+            int tiles = SCREEN_TILES * SCREEN_TILES;
+            Log.i(TAG, "zoom " + zoom + ": " + drawn + "/" + tiles + " ladrilhos com pontos, "
+                    + coldMicros / 1000.0 / tiles + " ms/ladrilho sem cache, "
+                    + cachedMicros / 1000.0 / tiles + " ms/ladrilho com cache");
+            assertTrue(drawn > 0);
+        }
+    }
+
+    // grava uma trilha de caminhada que começa em um ponto aleatório da região de ~50 km
+    private void insertTrail(String trailId, int points, long start, Random random) {
+        double[] lats = new double[points];
+        double[] lngs = new double[points];
+        long[] times = new long[points];
+        double lat = -23.8 + random.nextDouble() * 0.5;
+        double lng = -46.9 + random.nextDouble() * 0.5;
+        double heading = random.nextDouble() * 2 * Math.PI;
+        for (int i = 0; i < points; i++) {
+            heading += (random.nextDouble() - 0.5) * 0.3;
+            lat += Math.cos(heading) * 3e-5;
+            lng += Math.sin(heading) * 3e-5;
+            lats[i] = lat;
+            lngs[i] = lng;
+            times[i] = start + i * 5000L;
+        }
+        dbHelper.startSession(trailId, start);
+        dbHelper.insertPoints(trailId, lats, lngs, times, points);
+        dbHelper.finishSession(trailId, times[points - 1]);
+    }
+}
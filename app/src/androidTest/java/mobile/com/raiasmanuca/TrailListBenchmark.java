@@ -0,0 +1,100 @@
+package mobile.com.raiasmanuca;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+// Mede a leitura da lista de trilhas com 10 mil trilhas no banco: a primeira página e a
+// lista inteira, página por página. A lista só lê trail_summaries, então o tempo não depende
+// de quantos pontos cada trilha tem.
+@RunWith(AndroidJUnit4.class)
+public class TrailListBenchmark {
+    private static final String TAG = "TrailListBenchmark";
+    private static final String DB_NAME = "TrailListBenchmark.db";
+    private static final int TRAILS = 10_000;
+    private static final int POINTS_PER_TRAIL = 20;
+    private static final int REPETITIONS = 5;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        dbHelper = new DatabaseHelper(context, DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void listing10kTrailsTakesMilliseconds() {
+        double[] lats = new double[POINTS_PER_TRAIL];
+        double[] lngs = new double[POINTS_PER_TRAIL];
+        long[] times = new long[POINTS_PER_TRAIL];
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int t = 0; t < TRAILS; t++) {
+                long start = t * 3_600_000L;
+                for (int i = 0; i < POINTS_PER_TRAIL; i++) {
+                    lats[i] = -23.5 + i * 1e-4;
+                    lngs[i] = -46.6 + t * 1e-5;
+                    times[i] = start + i * 5000L;
+                }
+                String trailId = "trail-" + t;
+                dbHelper.startSession(trailId, start);
+                dbHelper.insertPoints(trailId, lats, lngs, times, POINTS_PER_TRAIL);
+                dbHelper.finishSession(trailId, times[POINTS_PER_TRAIL - 1]);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        long firstPageMicros = Long.MAX_VALUE;
+        long allPagesMicros = Long.MAX_VALUE;
+        for (int r = 0; r < REPETITIONS; r++) {
+            long t0 = System.nanoTime();
+            List<TrailSummary> first = dbHelper.getTrailSummaries(null, TrailListActivity.PAGE_SIZE);
+            firstPageMicros = Math.min(firstPageMicros, (System.nanoTime() - t0) / 1000);
+            assertEquals(TrailListActivity.PAGE_SIZE, first.size());
+            // a mais recente vem primeiro, com o resumo mantido pela gravação
+            assertEquals("trail-" + (TRAILS - 1), first.get(0).getTrailId());
+            assertEquals(POINTS_PER_TRAIL, first.get(0).getPointCount());
+            assertTrue(first.get(0).getDistanceMeters() > 0);
+
+            t0 = System.nanoTime();
+            int total = 0;
+            TrailSummary last = null;
+            while (true) {
+                List<TrailSummary> page = dbHelper.getTrailSummaries(last, TrailListActivity.PAGE_SIZE);
+                total += page.size();
+                if (page.size() < TrailListActivity.PAGE_SIZE) break;
+                last = page.get(page.size() - 1);
+            }
+            allPagesMicros = Math.min(allPagesMicros, (System.nanoTime() - t0) / 1000);
+            assertEquals(TRAILS, total);
+        }
+
+        Log.i(TAG, TRAILS + " trilhas: primeira página " + firstPageMicros / 1000.0
+                + " ms, lista inteira " + allPagesMicros / 1000.0 + " ms");
+        assertTrue("primeira página lenta: " + firstPageMicros + " us", firstPageMicros < 50_000);
+    }
+}
@@ -0,0 +1,100 @@
+package mobile.com.raiasmanuca;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+// Mede o tempo para carregar uma trilha conforme o histórico cresce até 1000 trilhas x 5000 pontos.
+// Compara a consulta por trail_id (índice trail_id + timestamp) com a varredura antiga da tabela inteira.
+@RunWith(AndroidJUnit4.class)
+public class TrailQueryBenchmark {
+    private static final String TAG = "TrailQueryBenchmark";
+    private static final String DB_NAME = "TrailQueryBenchmark.db";
+    private static final int POINTS_PER_TRAIL = 5000;
+    // tamanhos do histórico em que a leitura é medida
+    private static final int[] HISTORY_SIZES = {10, 100, 1000};
+    // a varredura antiga só é medida enquanto o histórico é pequeno, senão leva minutos
+    private static final int FULL_SCAN_LIMIT = 100;
+    private static final int REPETITIONS = 5;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        dbHelper = new DatabaseHelper(context, DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void loadTimeStaysFlatAsHistoryGrows() {
+        double[] lats = new double[POINTS_PER_TRAIL];
+        double[] lngs = new double[POINTS_PER_TRAIL];
+        long[] times = new long[POINTS_PER_TRAIL];
+
+        int trails = 0;
+        long firstIndexedMillis = -1;
+        for (int historySize : HISTORY_SIZES) {
+            // completa o histórico até o tamanho desejado
+            for (; trails < historySize; trails++) {
+                long start = trails * 86_400_000L;
+                for (int i = 0; i < POINTS_PER_TRAIL; i++) {
+                    lats[i] = -23.5 + i * 1e-5;
+                    lngs[i] = -46.6 + trails * 1e-3;
+                    times[i] = start + i * 5000L;
+                }
+                String trailId = "trail-" + trails;
+                dbHelper.startSession(trailId, start);
+                dbHelper.insertPoints(trailId, lats, lngs, times, POINTS_PER_TRAIL);
+                dbHelper.finishSession(trailId, times[POINTS_PER_TRAIL - 1]);
+            }
+
+            // sempre lê a trilha do meio do histórico
+            String target = "trail-" + (historySize / 2);
+            long indexedMillis = Long.MAX_VALUE;
+            for (int r = 0; r < REPETITIONS; r++) {
+                long t0 = System.nanoTime();
+                int count = dbHelper.forEachPoint(target, (lat, lng, ts) -> { });
+                indexedMillis = Math.min(indexedMillis, (System.nanoTime() - t0) / 1_000_000);
+                assertEquals(POINTS_PER_TRAIL, count);
+            }
+            if (firstIndexedMillis < 0) firstIndexedMillis = Math.max(indexedMillis, 1);
+
+            String fullScan = "-";
+            if (historySize <= FULL_SCAN_LIMIT) {
+                long t0 = System.nanoTime();
+                try (Cursor cursor = dbHelper.getReadableDatabase().query(DatabaseHelper.TABLE_TRAILS,
+                        null, null, null, null, null, DatabaseHelper.COLUMN_TIMESTAMP + " ASC")) {
+                    while (cursor.moveToNext()) {
+                        cursor.getDouble(cursor.getColumnIndex(DatabaseHelper.COLUMN_LATITUDE));
+                    }
+                }
+                fullScan = ((System.nanoTime() - t0) / 1_000_000) + " ms";
+            }
+
+            Log.i(TAG, historySize + " trilhas x " + POINTS_PER_TRAIL + " pontos: por trail_id "
+                    + indexedMillis + " ms, tabela inteira " + fullScan);
+
+            // a leitura indexada não pode crescer junto com o histórico
+            assertTrue("leitura cresceu com o histórico: " + indexedMillis + " ms",
+                    indexedMillis <= firstIndexedMillis * 3 + 20);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package mobile.com.raiasmanuca;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// Mede o tamanho do banco e o tempo das consultas antes e depois da manutenção, com 3 anos de
+// trilhas (uma caminhada de 1 h por dia, um ponto a cada 5 s: ~790 mil pontos) e a política
+// "compactar após 30 dias, simplificar após 1 ano". As consultas medidas são as das telas:
+// ler os pontos de uma trilha antiga, a primeira página da lista e as trilhas de uma área.
+@RunWith(AndroidJUnit4.class)
+public class TrailRetentionBenchmark {
+    private static final String TAG = "TrailRetentionBenchmark";
+    private static final String DB_NAME = "TrailRetentionBenchmark.db";
+    private static final int DAYS = 3 * 365;
+    private static final int POINTS_PER_TRAIL = 720;
+    private static final long DAY = RetentionPolicy.DAY_MILLIS;
+    private static final int REPEATS = 20;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+    private long now;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        dbHelper = new DatabaseHelper(context, DB_NAME);
+        now = System.currentTimeMillis();
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void retentionShrinksDatabase() {
+        Random random = new Random(7);
+        double[] lats = new double[POINTS_PER_TRAIL];
+        double[] lngs = new double[POINTS_PER_TRAIL];
+        long[] times = new long[POINTS_PER_TRAIL];
+        for (int d = DAYS; d > 0; d--) {
+            // caminhadas saindo de casa, cada dia para um lado
+            double lat = -23.55;
+            double lng = -46.63;
+            double heading = random.nextDouble() * 2 * Math.PI;
+            long start = now - d * DAY;
+            for (int i = 0; i < POINTS_PER_TRAIL; i++) {
+                heading += (random.nextDouble() - 0.5) * 0.3;
+                lat += Math.cos(heading) * 6e-5;
+                lng += Math.sin(heading) * 6e-5;
+                lats[i] = lat;
+                lngs[i] = lng;
+                times[i] = start + i * 5000L;
+            }
+            String trailId = "trail-" + d;
+            dbHelper.startSession(trailId, start);
+            dbHelper.insertPoints(trailId, lats, lngs, times, POINTS_PER_TRAIL);
+            dbHelper.finishSession(trailId, times[POINTS_PER_TRAIL - 1]);
+        }
+
+        long sizeBefore = dbHelper.getDatabaseSizeBytes();
+        String before = measureQueries();
+
+        RetentionPolicy policy = new RetentionPolicy(30, 365, RetentionPolicy.DEFAULT_TOLERANCE_METERS);
+        long t0 = System.nanoTime();
+        TrailMaintenance.Result result = new TrailMaintenance(dbHelper, policy).run(now);
+        long maintenanceMillis = (System.nanoTime() - t0) / 1_000_000;
+        assertTrue(result.complete);
+
+        long sizeAfter = dbHelper.getDatabaseSizeBytes();
+        String after = measureQueries();
+        Log.i(TAG, DAYS * POINTS_PER_TRAIL + " pontos em " + DAYS + " trilhas: manutenção em "
+                + maintenanceMillis + " ms (" + result + ")");
+        Log.i(TAG, "antes: " + sizeBefore / 1024 + " KB, " + before);
+        Log.i(TAG, "depois: " + sizeAfter / 1024 + " KB, " + after);
+        assertTrue(sizeAfter < sizeBefore);
+    }
+
+    // tempo médio (ms) de cada consulta, em texto
+    private String measureQueries() {
+        String oldTrail = "trail-" + (DAYS - 10);
+        long pointsMicros = 0;
+        long pageMicros = 0;
+        long areaMicros = 0;
+        for (int r = 0; r < REPEATS; r++) {
+            long t0 = System.nanoTime();
+            assertTrue(dbHelper.forEachPoint(oldTrail, (latitude, longitude, timestamp) -> { }) > 0);
+            pointsMicros += (System.nanoTime() - t0) / 1000;
+
+            t0 = System.nanoTime();
+            assertFalse(dbHelper.getTrailSummaries(null, 50).isEmpty());
+            pageMicros += (System.nanoTime() - t0) / 1000;
+
+            t0 = System.nanoTime();
+            dbHelper.findTrailsInBounds(-23.56, -46.64, -23.54, -46.62);
+            areaMicros += (System.nanoTime() - t0) / 1000;
+        }
+        return "pontos de uma trilha antiga " + pointsMicros / 1000.0 / REPEATS
+                + " ms, página da lista " + pageMicros / 1000.0 / REPEATS
+                + " ms, trilhas na área " + areaMicros / 1000.0 / REPEATS + " ms";
+    }
+}
@@ -0,0 +1,116 @@
+package mobile.com.raiasmanuca;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+// Mede a consulta "quais trilhas passam por esta área do mapa" com 10 milhões de pontos
+// (2000 trilhas x 5000 pontos): índice de células (trail_cells) contra a busca direta por
+// faixa de latitude/longitude na tabela trails, que precisa varrer todos os pontos.
+// Gravar os 10 milhões de pontos leva alguns minutos no aparelho.
+@RunWith(AndroidJUnit4.class)
+public class TrailSpatialQueryBenchmark {
+    private static final String TAG = "TrailSpatialBenchmark";
+    private static final String DB_NAME = "TrailSpatialQueryBenchmark.db";
+    private static final int TRAILS = 2000;
+    private static final int POINTS_PER_TRAIL = 5000;
+    private static final int QUERIES = 20;
+    // a varredura é lenta: só as primeiras consultas são medidas nela
+    private static final int SCAN_QUERIES = 3;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        dbHelper = new DatabaseHelper(context, DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void viewportQueryUsesCellIndex() {
+        Random random = new Random(7);
+        double[] lats = new double[POINTS_PER_TRAIL];
+        double[] lngs = new double[POINTS_PER_TRAIL];
+        long[] times = new long[POINTS_PER_TRAIL];
+        for (int t = 0; t < TRAILS; t++) {
+            // trilhas de caminhada espalhadas numa região de ~50 km
+            double lat = -23.8 + random.nextDouble() * 0.5;
+            double lng = -46.9 + random.nextDouble() * 0.5;
+            double heading = random.nextDouble() * 2 * Math.PI;
+            long start = t * 86_400_000L;
+            for (int i = 0; i < POINTS_PER_TRAIL; i++) {
+                heading += (random.nextDouble() - 0.5) * 0.3;
+                lat += Math.cos(heading) * 3e-5;
+                lng += Math.sin(heading) * 3e-5;
+                lats[i] = lat;
+                lngs[i] = lng;
+                times[i] = start + i * 5000L;
+            }
+            String trailId = "trail-" + t;
+            dbHelper.startSession(trailId, start);
+            dbHelper.insertPoints(trailId, lats, lngs, times, POINTS_PER_TRAIL);
+            dbHelper.finishSession(trailId, times[POINTS_PER_TRAIL - 1]);
+        }
+
+        long indexMicros = 0;
+        long scanMicros = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            // uma tela de mapa em zoom de bairro (~2 km)
+            double south = -23.8 + random.nextDouble() * 0.5;
+            double west = -46.9 + random.nextDouble() * 0.5;
+            double north = south + 0.02;
+            double east = west + 0.02;
+
+            long t0 = System.nanoTime();
+            List<String> indexed = dbHelper.findTrailsInBounds(south, west, north, east);
+            indexMicros += (System.nanoTime() - t0) / 1000;
+
+            if (q < SCAN_QUERIES) {
+                t0 = System.nanoTime();
+                Set<String> scanned = new HashSet<>();
+                try (Cursor cursor = dbHelper.getReadableDatabase().rawQuery(
+                        "SELECT DISTINCT " + DatabaseHelper.COLUMN_TRAIL_ID + " FROM " + DatabaseHelper.TABLE_TRAILS +
+                                " WHERE " + DatabaseHelper.COLUMN_LATITUDE + " BETWEEN ? AND ? AND " +
+                                DatabaseHelper.COLUMN_LONGITUDE + " BETWEEN ? AND ?",
+                        new String[]{Double.toString(south), Double.toString(north),
+                                Double.toString(west), Double.toString(east)})) {
+                    while (cursor.moveToNext()) {
+                        scanned.add(cursor.getString(0));
+                    }
+                }
+                scanMicros += (System.nanoTime() - t0) / 1000;
+                // o índice não deixa de fora nenhuma trilha com ponto na área
+                assertTrue(new HashSet<>(indexed).containsAll(scanned));
+            }
+        }
+
+        double indexMillis = indexMicros / 1000.0 / QUERIES;
+        double scanMillis = scanMicros / 1000.0 / SCAN_QUERIES;
+        Log.i(TAG, TRAILS * POINTS_PER_TRAIL + " pontos: índice " + indexMillis
+                + " ms/consulta, varredura lat/lng " + scanMillis + " ms/consulta");
+        assertTrue("índice mais lento que a varredura", indexMillis < scanMillis);
+    }
+}
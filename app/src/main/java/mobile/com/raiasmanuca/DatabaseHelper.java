@@ -1,16 +1,32 @@
 package mobile.com.raiasmanuca;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 // SQLiteOpenHelper é uma classe que usa o SQLite.
 // Provê métodos para criar e atualizar DBs.
-public class DatabaseHelper extends SQLiteOpenHelper {
+public class DatabaseHelper extends SQLiteOpenHelper implements TrailPointSource, TrailImporter.Target {
+    private static final String TAG = "DatabaseHelper";
+
     // nome do banco
     public static final String DATABASE_NAME = "TrailDatabase.db";
     // versão do banco. todas as vezes que for incrementada, chamará o método onUpgrade
-    public static final int DATABASE_VERSION = 2;
+    public static final int DATABASE_VERSION = 10;
 
     public static final String TABLE_TRAILS = "trails";
     public static final String COLUMN_ID = "_id";
@@ -19,6 +35,56 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public static final String COLUMN_LONGITUDE = "longitude";
     public static final String COLUMN_TIMESTAMP = "timestamp";
 
+    // tabela de cabeçalho das sessões de gravação (uma linha por trilha)
+    public static final String TABLE_TRAIL_SESSIONS = "trail_sessions";
+    public static final String COLUMN_START_TIME = "start_time";
+    public static final String COLUMN_END_TIME = "end_time";
+    // forma de armazenamento dos pontos da trilha (RetentionPolicy.STORAGE_*)
+    public static final String COLUMN_STORAGE = "storage";
+
+    // tabela das trilhas compactadas: cada linha guarda um trecho codificado pelo TrackCodec
+    public static final String TABLE_TRAIL_CHUNKS = "trail_chunks";
+    public static final String COLUMN_CHUNK_SEQ = "seq";
+    public static final String COLUMN_POINT_COUNT = "point_count";
+    public static final String COLUMN_DATA = "data";
+    // quantidade máxima de pontos por trecho compactado
+    public static final int CHUNK_SIZE = TrackCodec.CHUNK_SIZE;
+
+    // tabela com uma única linha: a maior sequência do PointJournal já gravada no banco
+    public static final String TABLE_JOURNAL_STATE = "journal_state";
+    public static final String COLUMN_COMMITTED_SEQ = "committed_seq";
+
+    // tabela dos resumos das trilhas (uma linha por trilha), usada pela lista de trilhas
+    public static final String TABLE_TRAIL_SUMMARIES = "trail_summaries";
+    public static final String COLUMN_DISTANCE = "distance";
+    public static final String COLUMN_FIRST_POINT_TIME = "first_point_time";
+    public static final String COLUMN_LAST_POINT_TIME = "last_point_time";
+    public static final String COLUMN_FIRST_LATITUDE = "first_latitude";
+    public static final String COLUMN_FIRST_LONGITUDE = "first_longitude";
+    public static final String COLUMN_LAST_LATITUDE = "last_latitude";
+    public static final String COLUMN_LAST_LONGITUDE = "last_longitude";
+    public static final String COLUMN_MIN_LATITUDE = "min_latitude";
+    public static final String COLUMN_MAX_LATITUDE = "max_latitude";
+    public static final String COLUMN_MIN_LONGITUDE = "min_longitude";
+    public static final String COLUMN_MAX_LONGITUDE = "max_longitude";
+    public static final String INDEX_TRAIL_SUMMARIES_START = "idx_trail_summaries_start_time";
+
+    // índice espacial: as células quadkey (Quadkey.INDEX_LEVEL) por onde cada trilha passa
+    public static final String TABLE_TRAIL_CELLS = "trail_cells";
+    public static final String COLUMN_CELL = "cell";
+
+    // mapa de calor: os ladrilhos de contagens (HeatmapTile) de cada nível guardado, as trilhas
+    // já somadas a eles e a maior contagem de cada nível
+    public static final String TABLE_HEATMAP_TILES = "heatmap_tiles";
+    public static final String TABLE_HEATMAP_TRAILS = "heatmap_trails";
+    public static final String TABLE_HEATMAP_LEVELS = "heatmap_levels";
+    public static final String COLUMN_ZOOM = "zoom";
+    public static final String COLUMN_TILE = "tile";
+    public static final String COLUMN_MAX_COUNT = "max_count";
+
+    // índice composto usado para ler os pontos de uma trilha já em ordem cronológica
+    public static final String INDEX_TRAILS_TRAIL_TIME = "idx_trails_trail_id_timestamp";
+
     // define a tabela trails, especifica os nomes das colunas e tipos de dados
     private static final String CREATE_TABLE_TRAILS =
             "CREATE TABLE " + TABLE_TRAILS + " (" +
@@ -28,10 +94,164 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                     COLUMN_LONGITUDE + " REAL NOT NULL, " +
                     COLUMN_TIMESTAMP + " INTEGER NOT NULL)";
 
+    // com esse índice a consulta por trail_id não varre a tabela inteira
+    // e o ORDER BY timestamp não precisa ordenar nada
+    private static final String CREATE_INDEX_TRAILS_TRAIL_TIME =
+            "CREATE INDEX IF NOT EXISTS " + INDEX_TRAILS_TRAIL_TIME + " ON " + TABLE_TRAILS +
+                    " (" + COLUMN_TRAIL_ID + ", " + COLUMN_TIMESTAMP + ")";
+
+    // define a tabela trail_sessions. end_time fica nulo enquanto a trilha está sendo gravada
+    private static final String CREATE_TABLE_TRAIL_SESSIONS =
+            "CREATE TABLE IF NOT EXISTS " + TABLE_TRAIL_SESSIONS + " (" +
+                    COLUMN_TRAIL_ID + " TEXT PRIMARY KEY, " +
+                    COLUMN_START_TIME + " INTEGER NOT NULL, " +
+                    COLUMN_END_TIME + " INTEGER, " +
+                    COLUMN_STORAGE + " INTEGER NOT NULL DEFAULT 0)";
+
+    // define a tabela trail_chunks. A chave (trail_id, seq) mantém os trechos na ordem da trilha
+    private static final String CREATE_TABLE_TRAIL_CHUNKS =
+            "CREATE TABLE IF NOT EXISTS " + TABLE_TRAIL_CHUNKS + " (" +
+                    COLUMN_TRAIL_ID + " TEXT NOT NULL, " +
+                    COLUMN_CHUNK_SEQ + " INTEGER NOT NULL, " +
+                    COLUMN_POINT_COUNT + " INTEGER NOT NULL, " +
+                    COLUMN_START_TIME + " INTEGER NOT NULL, " +
+                    COLUMN_END_TIME + " INTEGER NOT NULL, " +
+                    COLUMN_DATA + " BLOB NOT NULL, " +
+                    "PRIMARY KEY (" + COLUMN_TRAIL_ID + ", " + COLUMN_CHUNK_SEQ + "))";
+
+    // define a tabela journal_state (sempre com a linha _id = 0)
+    private static final String CREATE_TABLE_JOURNAL_STATE =
+            "CREATE TABLE IF NOT EXISTS " + TABLE_JOURNAL_STATE + " (" +
+                    COLUMN_ID + " INTEGER PRIMARY KEY, " +
+                    COLUMN_COMMITTED_SEQ + " INTEGER NOT NULL)";
+    private static final String INSERT_JOURNAL_STATE =
+            "INSERT OR IGNORE INTO " + TABLE_JOURNAL_STATE + " (" + COLUMN_ID + ", " + COLUMN_COMMITTED_SEQ + ") VALUES (0, 0)";
+    private static final String UPDATE_COMMITTED_SEQ =
+            "UPDATE " + TABLE_JOURNAL_STATE + " SET " + COLUMN_COMMITTED_SEQ + " = ? WHERE " + COLUMN_ID + " = 0";
+
+    // define a tabela trail_summaries. É atualizada a cada lote gravado e quando a sessão
+    // termina, sem reler os pontos; end_time fica nulo enquanto a trilha está sendo gravada
+    private static final String CREATE_TABLE_TRAIL_SUMMARIES =
+            "CREATE TABLE IF NOT EXISTS " + TABLE_TRAIL_SUMMARIES + " (" +
+                    COLUMN_TRAIL_ID + " TEXT PRIMARY KEY, " +
+                    COLUMN_START_TIME + " INTEGER NOT NULL, " +
+                    COLUMN_END_TIME + " INTEGER, " +
+                    COLUMN_POINT_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_DISTANCE + " REAL NOT NULL DEFAULT 0, " +
+                    COLUMN_FIRST_POINT_TIME + " INTEGER, " +
+                    COLUMN_LAST_POINT_TIME + " INTEGER, " +
+                    COLUMN_FIRST_LATITUDE + " REAL, " +
+                    COLUMN_FIRST_LONGITUDE + " REAL, " +
+                    COLUMN_LAST_LATITUDE + " REAL, " +
+                    COLUMN_LAST_LONGITUDE + " REAL, " +
+                    COLUMN_MIN_LATITUDE + " REAL, " +
+                    COLUMN_MAX_LATITUDE + " REAL, " +
+                    COLUMN_MIN_LONGITUDE + " REAL, " +
+                    COLUMN_MAX_LONGITUDE + " REAL)";
+
+    // a lista é paginada por (start_time, trail_id) em ordem decrescente, direto pelo índice
+    private static final String CREATE_INDEX_TRAIL_SUMMARIES_START =
+            "CREATE INDEX IF NOT EXISTS " + INDEX_TRAIL_SUMMARIES_START + " ON " + TABLE_TRAIL_SUMMARIES +
+                    " (" + COLUMN_START_TIME + ", " + COLUMN_TRAIL_ID + ")";
+
+    // define a tabela trail_cells. A chave (cell, trail_id) é o próprio índice: uma área do mapa
+    // vira alguns intervalos de células, lidos direto pela chave. WITHOUT ROWID guarda as linhas
+    // dentro da própria árvore da chave, sem uma segunda estrutura
+    private static final String CREATE_TABLE_TRAIL_CELLS =
+            "CREATE TABLE IF NOT EXISTS " + TABLE_TRAIL_CELLS + " (" +
+                    COLUMN_CELL + " INTEGER NOT NULL, " +
+                    COLUMN_TRAIL_ID + " TEXT NOT NULL, " +
+                    "PRIMARY KEY (" + COLUMN_CELL + ", " + COLUMN_TRAIL_ID + ")) WITHOUT ROWID";
+    private static final String INSERT_CELL =
+            "INSERT OR IGNORE INTO " + TABLE_TRAIL_CELLS + " (" + COLUMN_CELL + ", " + COLUMN_TRAIL_ID + ") VALUES (?, ?)";
+
+    // define as tabelas do mapa de calor. heatmap_tiles é lida pela chave (zoom, tile) a cada
+    // ladrilho desenhado; como em trail_cells, WITHOUT ROWID guarda o blob junto da chave
+    private static final String CREATE_TABLE_HEATMAP_TILES =
+            "CREATE TABLE IF NOT EXISTS " + TABLE_HEATMAP_TILES + " (" +
+                    COLUMN_ZOOM + " INTEGER NOT NULL, " +
+                    COLUMN_TILE + " INTEGER NOT NULL, " +
+                    COLUMN_DATA + " BLOB NOT NULL, " +
+                    "PRIMARY KEY (" + COLUMN_ZOOM + ", " + COLUMN_TILE + ")) WITHOUT ROWID";
+    private static final String CREATE_TABLE_HEATMAP_TRAILS =
+            "CREATE TABLE IF NOT EXISTS " + TABLE_HEATMAP_TRAILS + " (" +
+                    COLUMN_TRAIL_ID + " TEXT PRIMARY KEY)";
+    private static final String CREATE_TABLE_HEATMAP_LEVELS =
+            "CREATE TABLE IF NOT EXISTS " + TABLE_HEATMAP_LEVELS + " (" +
+                    COLUMN_ZOOM + " INTEGER PRIMARY KEY, " +
+                    COLUMN_MAX_COUNT + " INTEGER NOT NULL)";
+
+    private static final String[] SUMMARY_COLUMNS = {
+            COLUMN_TRAIL_ID, COLUMN_START_TIME, COLUMN_END_TIME, COLUMN_POINT_COUNT, COLUMN_DISTANCE,
+            COLUMN_FIRST_POINT_TIME, COLUMN_LAST_POINT_TIME, COLUMN_FIRST_LATITUDE, COLUMN_FIRST_LONGITUDE,
+            COLUMN_LAST_LATITUDE, COLUMN_LAST_LONGITUDE,
+            COLUMN_MIN_LATITUDE, COLUMN_MAX_LATITUDE, COLUMN_MIN_LONGITUDE, COLUMN_MAX_LONGITUDE};
+
+    // grava o resumo inteiro de uma trilha (insere ou substitui)
+    private static final String UPSERT_SUMMARY =
+            "INSERT OR REPLACE INTO " + TABLE_TRAIL_SUMMARIES + " (" +
+                    String.join(", ", SUMMARY_COLUMNS) + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // insert usado na gravação em lote dos pontos, compilado uma única vez
+    private static final String INSERT_POINT =
+            "INSERT INTO " + TABLE_TRAILS + " (" +
+                    COLUMN_TRAIL_ID + ", " +
+                    COLUMN_LATITUDE + ", " +
+                    COLUMN_LONGITUDE + ", " +
+                    COLUMN_TIMESTAMP + ") VALUES (?, ?, ?, ?)";
+
+    // métricas da gravação em lote: o lote inteiro, só o commit e os pontos gravados
+    private static final Metrics.Timer INSERT_BATCH_TIMER = Metrics.timer("db.insert_batch");
+    private static final Metrics.Timer COMMIT_TIMER = Metrics.timer("db.commit");
+    private static final Metrics.Counter POINTS_WRITTEN = Metrics.counter("db.points_written");
+    // métricas do mapa de calor: a soma de uma trilha aos ladrilhos e os ladrilhos regravados
+    private static final Metrics.Timer HEATMAP_UPDATE_TIMER = Metrics.timer("heatmap.update");
+    private static final Metrics.Counter HEATMAP_TILES_WRITTEN = Metrics.counter("heatmap.tiles_written");
+    // métricas da manutenção: a etapa de retenção de uma trilha e as páginas devolvidas ao sistema
+    private static final Metrics.Timer RETENTION_TIMER = Metrics.timer("maintenance.trail");
+    private static final Metrics.Counter PAGES_FREED = Metrics.counter("maintenance.pages_freed");
+
+    // statement reutilizado por todos os lotes; só é usado pela thread do TrailPointWriter
+    private SQLiteStatement insertPointStatement;
+    private SQLiteStatement updateCommittedStatement;
+    private SQLiteStatement upsertSummaryStatement;
+    private SQLiteStatement insertCellStatement;
+    // células da trilha do lote sendo gravado (reaproveitados entre os lotes)
+    private final TrailCellIndexer cellIndexer = new TrailCellIndexer();
+    private long[] cellBuffer = new long[256];
+    // diário dos pontos ainda não gravados; cada arquivo de banco tem o seu
+    private final File journalFile;
+    // A abertura (criar ou atualizar as tabelas e reaplicar o diário) é feita por um helper de
+    // cada vez no processo: a TrailApplication abre o banco em segundo plano enquanto as telas
+    // e o serviço de gravação podem estar abrindo o seu. Depois de aberto, não há trava.
+    private static final Object OPEN_LOCK = new Object();
+    private volatile boolean opened;
+    // maior banco antigo que a atualização passa para auto_vacuum INCREMENTAL (o VACUUM
+    // reescreve o arquivo inteiro; com até 16 MB leva uma fração de segundo)
+    static final long MAX_VACUUM_CONVERSION_BYTES = 16L * 1024 * 1024;
+    // a atualização pediu a conversão, feita no onOpen (VACUUM não roda dentro de transação)
+    private boolean convertVacuumOnOpen = false;
+
     // chama o construtor da classe SQLiteOpenHelper
     // Context: Contexto do APP, DB_NAME: nome do db, null: cursor de consultas e versão do banco
     public DatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    // permite usar outro arquivo de banco (usado nos testes e benchmarks instrumentados)
+    public DatabaseHelper(Context context, String databaseName) {
+        super(context, databaseName, null, DATABASE_VERSION);
+        journalFile = new File(context.getFilesDir(), databaseName + ".journal");
+    }
+
+    // Chamado antes de criar ou atualizar o banco. Com auto_vacuum INCREMENTAL as páginas
+    // liberadas pela manutenção podem ser devolvidas aos poucos (incrementalVacuum), sem
+    // reescrever o arquivo inteiro. Vale para bancos novos; os antigos passam para esse modo
+    // uma única vez, na atualização para a versão 10 (convertToIncrementalVacuum).
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
     }
 
     // chame automaticamente na primeira vez que o banco é acessado
@@ -40,6 +260,15 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(CREATE_TABLE_TRAILS);
+        db.execSQL(CREATE_INDEX_TRAILS_TRAIL_TIME);
+        db.execSQL(CREATE_TABLE_TRAIL_SESSIONS);
+        db.execSQL(CREATE_TABLE_TRAIL_CHUNKS);
+        db.execSQL(CREATE_TABLE_JOURNAL_STATE);
+        db.execSQL(INSERT_JOURNAL_STATE);
+        db.execSQL(CREATE_TABLE_TRAIL_SUMMARIES);
+        db.execSQL(CREATE_INDEX_TRAIL_SUMMARIES_START);
+        db.execSQL(CREATE_TABLE_TRAIL_CELLS);
+        createHeatmapTables(db);
     }
 
     // chamado quando o banco é acessado e sua versão é incrementada.
@@ -51,5 +280,862 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         if (oldVersion < 2) {
             db.execSQL("ALTER TABLE " + TABLE_TRAILS + " ADD COLUMN " + COLUMN_TRAIL_ID + " TEXT NOT NULL DEFAULT ''");
         }
+        if (oldVersion < 3) {
+            db.execSQL(CREATE_INDEX_TRAILS_TRAIL_TIME);
+            db.execSQL(CREATE_TABLE_TRAIL_SESSIONS);
+            // cria as sessões das trilhas já gravadas a partir dos pontos existentes
+            db.execSQL("INSERT OR IGNORE INTO " + TABLE_TRAIL_SESSIONS + " (" +
+                    COLUMN_TRAIL_ID + ", " + COLUMN_START_TIME + ", " + COLUMN_END_TIME + ") " +
+                    "SELECT " + COLUMN_TRAIL_ID + ", MIN(" + COLUMN_TIMESTAMP + "), MAX(" + COLUMN_TIMESTAMP + ") " +
+                    "FROM " + TABLE_TRAILS + " GROUP BY " + COLUMN_TRAIL_ID);
+        }
+        if (oldVersion < 4) {
+            db.execSQL(CREATE_TABLE_TRAIL_CHUNKS);
+        }
+        if (oldVersion < 5) {
+            db.execSQL(CREATE_TABLE_JOURNAL_STATE);
+            db.execSQL(INSERT_JOURNAL_STATE);
+        }
+        if (oldVersion < 6) {
+            db.execSQL(CREATE_TABLE_TRAIL_SUMMARIES);
+            db.execSQL(CREATE_INDEX_TRAIL_SUMMARIES_START);
+            backfillSummaries(db);
+        }
+        if (oldVersion < 7) {
+            db.execSQL(CREATE_TABLE_TRAIL_CELLS);
+            backfillCells(db);
+        }
+        // antes da versão 6 a tabela de resumos já foi criada (e preenchida) com as colunas novas
+        if (oldVersion >= 6 && oldVersion < 8) {
+            db.execSQL("ALTER TABLE " + TABLE_TRAIL_SUMMARIES + " ADD COLUMN " + COLUMN_FIRST_LATITUDE + " REAL");
+            db.execSQL("ALTER TABLE " + TABLE_TRAIL_SUMMARIES + " ADD COLUMN " + COLUMN_FIRST_LONGITUDE + " REAL");
+            backfillSummaries(db);
+        }
+        // as trilhas já gravadas entram no mapa de calor na primeira vez que ele é aberto
+        // (updateHeatmap), e não aqui, para a atualização do banco não atrasar a abertura do app
+        if (oldVersion < 9) {
+            createHeatmapTables(db);
+        }
+        // antes da versão 3 a tabela de sessões já foi criada com a coluna nova
+        if (oldVersion >= 3 && oldVersion < 10) {
+            db.execSQL("ALTER TABLE " + TABLE_TRAIL_SESSIONS + " ADD COLUMN " + COLUMN_STORAGE +
+                    " INTEGER NOT NULL DEFAULT 0");
+        }
+        if (oldVersion < 10) {
+            convertVacuumOnOpen = true;
+            // as trilhas já compactadas (packTrail leva todos os pontos para trail_chunks)
+            db.execSQL("UPDATE " + TABLE_TRAIL_SESSIONS + " SET " + COLUMN_STORAGE + " = " +
+                    RetentionPolicy.STORAGE_PACKED + " WHERE " + COLUMN_TRAIL_ID +
+                    " IN (SELECT DISTINCT " + COLUMN_TRAIL_ID + " FROM " + TABLE_TRAIL_CHUNKS + ")");
+        }
+    }
+
+    private static void createHeatmapTables(SQLiteDatabase db) {
+        db.execSQL(CREATE_TABLE_HEATMAP_TILES);
+        db.execSQL(CREATE_TABLE_HEATMAP_TRAILS);
+        db.execSQL(CREATE_TABLE_HEATMAP_LEVELS);
+    }
+
+    // Indexa as células das trilhas já gravadas (uma leitura dos pontos de cada trilha).
+    private static void backfillCells(SQLiteDatabase db) {
+        SQLiteStatement insert = db.compileStatement(INSERT_CELL);
+        long[] buffer = new long[256];
+        try (Cursor cursor = db.query(TABLE_TRAIL_SESSIONS, new String[]{COLUMN_TRAIL_ID},
+                null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                String trailId = cursor.getString(0);
+                TrailCellIndexer indexer = new TrailCellIndexer();
+                forEachPoint(db, trailId, indexer);
+                buffer = writeCells(insert, trailId, indexer, buffer);
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    // Grava as células pendentes do indexador; retorna o buffer (aumentado, se precisou).
+    private static long[] writeCells(SQLiteStatement insert, String trailId, TrailCellIndexer indexer, long[] buffer) {
+        if (buffer.length < indexer.pendingCount()) {
+            buffer = new long[indexer.pendingCount()];
+        }
+        int count = indexer.drain(buffer);
+        for (int i = 0; i < count; i++) {
+            insert.bindLong(1, buffer[i]);
+            insert.bindString(2, trailId);
+            insert.executeInsert();
+        }
+        return buffer;
+    }
+
+    // Cria os resumos das trilhas já gravadas. É a única vez que os pontos são relidos para
+    // isso: depois, os resumos são mantidos a cada lote gravado.
+    private static void backfillSummaries(SQLiteDatabase db) {
+        SQLiteStatement upsert = db.compileStatement(UPSERT_SUMMARY);
+        try (Cursor cursor = db.query(TABLE_TRAIL_SESSIONS,
+                new String[]{COLUMN_TRAIL_ID, COLUMN_START_TIME, COLUMN_END_TIME},
+                null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                TrailSummary summary = new TrailSummary(cursor.getString(0), cursor.getLong(1));
+                forEachPoint(db, summary.getTrailId(), summary);
+                // trilhas sem fim registrado (gravações antigas interrompidas) terminam no último ponto
+                if (!cursor.isNull(2)) {
+                    summary.setEndTime(cursor.getLong(2));
+                } else if (summary.getPointCount() > 0) {
+                    summary.setEndTime(summary.getLastPointTime());
+                }
+                writeSummary(upsert, summary);
+            }
+        } finally {
+            upsert.close();
+        }
+    }
+
+    @Override
+    public SQLiteDatabase getWritableDatabase() {
+        if (opened) return super.getWritableDatabase();
+        synchronized (OPEN_LOCK) {
+            SQLiteDatabase db = super.getWritableDatabase();
+            opened = true;
+            return db;
+        }
+    }
+
+    @Override
+    public SQLiteDatabase getReadableDatabase() {
+        if (opened) return super.getReadableDatabase();
+        synchronized (OPEN_LOCK) {
+            SQLiteDatabase db = super.getReadableDatabase();
+            opened = true;
+            return db;
+        }
+    }
+
+    // chamado sempre que o banco é aberto: reaplica os pontos que ficaram só no diário
+    // (o app foi morto antes do lote ser gravado)
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!db.isReadOnly()) {
+            replayJournal(db);
+            if (convertVacuumOnOpen) {
+                convertVacuumOnOpen = false;
+                convertToIncrementalVacuum(db);
+            }
+        }
+    }
+
+    // Passa um banco criado antes do auto_vacuum INCREMENTAL para esse modo, com um VACUUM
+    // completo. Roda só na primeira abertura depois da atualização, quando ainda não pode haver
+    // gravação (o serviço abre o banco antes do diário, e espera esta abertura terminar), e só
+    // em bancos pequenos: os maiores continuam como estão. Neles o incrementalVacuum não devolve
+    // nada, mas as páginas liberadas pela manutenção são reaproveitadas pelas trilhas novas.
+    private void convertToIncrementalVacuum(SQLiteDatabase db) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == 2) return;
+        long size = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        if (size > MAX_VACUUM_CONVERSION_BYTES) {
+            Log.d(TAG, "Banco de " + size / 1024 + " KB fica sem auto_vacuum incremental");
+            return;
+        }
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        db.execSQL("VACUUM");
+    }
+
+    // Grava na tabela trails os registros do diário com sequência maior que a já gravada,
+    // continua os resumos e fecha as sessões dessas trilhas, tudo em uma transação. Se o diário está aberto
+    // neste processo, quem grava os pontos dele é o TrailPointWriter vivo.
+    private void replayJournal(SQLiteDatabase db) {
+        if (!journalFile.exists() || PointJournal.isOpen(journalFile)) return;
+        long committed = DatabaseUtils.longForQuery(db,
+                "SELECT " + COLUMN_COMMITTED_SEQ + " FROM " + TABLE_JOURNAL_STATE + " WHERE " + COLUMN_ID + " = 0", null);
+        final Map<String, TrailSummary> summaries = new HashMap<>();
+        final Map<String, TrailCellIndexer> indexers = new HashMap<>();
+        db.beginTransaction();
+        SQLiteStatement insert = db.compileStatement(INSERT_POINT);
+        try {
+            long last = PointJournal.recover(journalFile, committed, (sequence, trailId, latitude, longitude, timestamp) -> {
+                insert.bindString(1, trailId);
+                insert.bindDouble(2, latitude);
+                insert.bindDouble(3, longitude);
+                insert.bindLong(4, timestamp);
+                insert.executeInsert();
+                TrailSummary summary = summaries.get(trailId);
+                if (summary == null) {
+                    summary = getTrailSummary(db, trailId);
+                    if (summary == null) summary = new TrailSummary(trailId, timestamp);
+                    summaries.put(trailId, summary);
+                    TrailCellIndexer indexer = new TrailCellIndexer();
+                    if (summary.getPointCount() > 0) {
+                        indexer.continueFrom(summary.getLastLatitude(), summary.getLastLongitude());
+                    }
+                    indexers.put(trailId, indexer);
+                }
+                summary.onPoint(latitude, longitude, timestamp);
+                indexers.get(trailId).onPoint(latitude, longitude, timestamp);
+            });
+            if (last > committed) {
+                db.execSQL(UPDATE_COMMITTED_SEQ, new Object[]{last});
+                // a gravação foi interrompida: a sessão termina no último ponto recuperado
+                SQLiteStatement upsert = db.compileStatement(UPSERT_SUMMARY);
+                SQLiteStatement insertCell = db.compileStatement(INSERT_CELL);
+                for (TrailSummary summary : summaries.values()) {
+                    if (!summary.isFinished()) summary.setEndTime(summary.getLastPointTime());
+                    writeSummary(upsert, summary);
+                    String trailId = summary.getTrailId();
+                    writeCells(insertCell, trailId, indexers.get(trailId), new long[256]);
+                    db.execSQL("UPDATE " + TABLE_TRAIL_SESSIONS + " SET " + COLUMN_END_TIME +
+                                    " = (SELECT MAX(" + COLUMN_TIMESTAMP + ") FROM " + TABLE_TRAILS +
+                                    " WHERE " + COLUMN_TRAIL_ID + " = ?) WHERE " + COLUMN_TRAIL_ID +
+                                    " = ? AND " + COLUMN_END_TIME + " IS NULL",
+                            new Object[]{trailId, trailId});
+                }
+                upsert.close();
+                insertCell.close();
+                Log.i(TAG, "Diário: " + (last - committed) + " sequências recuperadas");
+            }
+            db.setTransactionSuccessful();
+        } catch (IOException e) {
+            Log.e(TAG, "Falha ao ler o diário de pontos", e);
+        } finally {
+            insert.close();
+            db.endTransaction();
+        }
+    }
+
+    // arquivo do PointJournal usado com este banco
+    public File getJournalFile() {
+        return journalFile;
+    }
+
+    // Maior sequência do diário já gravada no banco. Abre o banco (e portanto reaplica o
+    // diário) se ainda não estiver aberto; por isso deve ser chamado antes de PointJournal.open.
+    public long getCommittedJournalSequence() {
+        return DatabaseUtils.longForQuery(getWritableDatabase(),
+                "SELECT " + COLUMN_COMMITTED_SEQ + " FROM " + TABLE_JOURNAL_STATE + " WHERE " + COLUMN_ID + " = 0", null);
+    }
+
+    // Registra o início de uma sessão de gravação.
+    public void startSession(String trailId, long startTime) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_TRAIL_ID, trailId);
+        values.put(COLUMN_START_TIME, startTime);
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.insertWithOnConflict(TABLE_TRAIL_SESSIONS, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            // o resumo já existe desde o início, para a trilha aparecer na lista enquanto é gravada
+            db.insertWithOnConflict(TABLE_TRAIL_SUMMARIES, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Marca a sessão como encerrada.
+    public void finishSession(String trailId, long endTime) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_END_TIME, endTime);
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.update(TABLE_TRAIL_SESSIONS, values, COLUMN_TRAIL_ID + " = ?", new String[]{trailId});
+            db.update(TABLE_TRAIL_SUMMARIES, values, COLUMN_TRAIL_ID + " = ?", new String[]{trailId});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Lê uma página da lista de trilhas, da mais recente para a mais antiga. "after" é o
+    // último resumo da página anterior (null para a primeira página). A paginação continua
+    // a partir da chave (start_time, trail_id) em vez de usar OFFSET, então cada página custa
+    // o mesmo, não importa quantas trilhas já foram exibidas.
+    public List<TrailSummary> getTrailSummaries(TrailSummary after, int limit) {
+        String selection = null;
+        String[] args = null;
+        if (after != null) {
+            String start = Long.toString(after.getStartTime());
+            selection = COLUMN_START_TIME + " < ? OR (" + COLUMN_START_TIME + " = ? AND " + COLUMN_TRAIL_ID + " < ?)";
+            args = new String[]{start, start, after.getTrailId()};
+        }
+        List<TrailSummary> page = new ArrayList<>(limit);
+        try (Cursor cursor = getReadableDatabase().query(TABLE_TRAIL_SUMMARIES, SUMMARY_COLUMNS,
+                selection, args, null, null,
+                COLUMN_START_TIME + " DESC, " + COLUMN_TRAIL_ID + " DESC", Integer.toString(limit))) {
+            while (cursor.moveToNext()) {
+                page.add(readSummary(cursor));
+            }
+        }
+        return page;
+    }
+
+    // Retorna o resumo de uma trilha, ou null se ela não existir.
+    public TrailSummary getTrailSummary(String trailId) {
+        return getTrailSummary(getReadableDatabase(), trailId);
+    }
+
+    private static TrailSummary getTrailSummary(SQLiteDatabase db, String trailId) {
+        try (Cursor cursor = db.query(TABLE_TRAIL_SUMMARIES, SUMMARY_COLUMNS,
+                COLUMN_TRAIL_ID + " = ?", new String[]{trailId}, null, null, null)) {
+            return cursor.moveToFirst() ? readSummary(cursor) : null;
+        }
+    }
+
+    // monta um resumo a partir da linha atual (colunas na ordem de SUMMARY_COLUMNS)
+    private static TrailSummary readSummary(Cursor cursor) {
+        return new TrailSummary(cursor.getString(0), cursor.getLong(1),
+                cursor.isNull(2) ? 0 : cursor.getLong(2), cursor.getInt(3), cursor.getDouble(4),
+                cursor.getLong(5), cursor.getLong(6), cursor.getDouble(7), cursor.getDouble(8),
+                cursor.getDouble(9), cursor.getDouble(10), cursor.getDouble(11), cursor.getDouble(12),
+                cursor.getDouble(13), cursor.getDouble(14));
+    }
+
+    private static void writeSummary(SQLiteStatement upsert, TrailSummary summary) {
+        upsert.bindString(1, summary.getTrailId());
+        upsert.bindLong(2, summary.getStartTime());
+        if (summary.isFinished()) {
+            upsert.bindLong(3, summary.getEndTime());
+        } else {
+            upsert.bindNull(3);
+        }
+        upsert.bindLong(4, summary.getPointCount());
+        upsert.bindDouble(5, summary.getDistanceMeters());
+        if (summary.getPointCount() > 0) {
+            upsert.bindLong(6, summary.getFirstPointTime());
+            upsert.bindLong(7, summary.getLastPointTime());
+            upsert.bindDouble(8, summary.getFirstLatitude());
+            upsert.bindDouble(9, summary.getFirstLongitude());
+            upsert.bindDouble(10, summary.getLastLatitude());
+            upsert.bindDouble(11, summary.getLastLongitude());
+            upsert.bindDouble(12, summary.getMinLatitude());
+            upsert.bindDouble(13, summary.getMaxLatitude());
+            upsert.bindDouble(14, summary.getMinLongitude());
+            upsert.bindDouble(15, summary.getMaxLongitude());
+        } else {
+            for (int i = 6; i <= 15; i++) upsert.bindNull(i);
+        }
+        upsert.executeInsert();
+    }
+
+    // Continua o resumo e o índice espacial da trilha com os pontos de um lote, a partir do
+    // último ponto já gravado. Roda dentro da transação do lote.
+    private void updateSummaryAndCells(SQLiteDatabase db, String trailId,
+                                       double[] latitudes, double[] longitudes, long[] timestamps, int count) {
+        if (count == 0) return;
+        if (upsertSummaryStatement == null) {
+            upsertSummaryStatement = db.compileStatement(UPSERT_SUMMARY);
+            insertCellStatement = db.compileStatement(INSERT_CELL);
+        }
+        TrailSummary summary = getTrailSummary(db, trailId);
+        if (summary == null) {
+            // pontos gravados sem startSession: a trilha começa no primeiro ponto
+            summary = new TrailSummary(trailId, timestamps[0]);
+        }
+        cellIndexer.reset();
+        if (summary.getPointCount() > 0) {
+            cellIndexer.continueFrom(summary.getLastLatitude(), summary.getLastLongitude());
+        }
+        for (int i = 0; i < count; i++) {
+            summary.onPoint(latitudes[i], longitudes[i], timestamps[i]);
+            cellIndexer.onPoint(latitudes[i], longitudes[i], timestamps[i]);
+        }
+        writeSummary(upsertSummaryStatement, summary);
+        cellBuffer = writeCells(insertCellStatement, trailId, cellIndexer, cellBuffer);
+    }
+
+    // Trilhas que passam pela área visível do mapa.
+    public List<String> findTrailsInBounds(LatLngBounds bounds) {
+        return findTrailsInBounds(bounds.southwest.latitude, bounds.southwest.longitude,
+                bounds.northeast.latitude, bounds.northeast.longitude);
+    }
+
+    // Trilhas que passam pela área (em graus; west > east atravessa o antimeridiano).
+    // A área é coberta por intervalos de células quadkey e a consulta lê só esses intervalos
+    // da chave de trail_cells, sem tocar na tabela de pontos. A precisão é a de uma célula
+    // (~1 km): uma trilha que passa perto da borda, na mesma célula, também é retornada.
+    public List<String> findTrailsInBounds(double south, double west, double north, double east) {
+        long[] ranges = new long[Quadkey.MAX_RANGE_VALUES];
+        int count = Quadkey.cover(south, west, north, east, ranges);
+        StringBuilder sql = new StringBuilder("SELECT DISTINCT ").append(COLUMN_TRAIL_ID)
+                .append(" FROM ").append(TABLE_TRAIL_CELLS).append(" WHERE ");
+        String[] args = new String[count * 2];
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sql.append(" OR ");
+            sql.append(COLUMN_CELL).append(" BETWEEN ? AND ?");
+            args[i * 2] = Long.toString(ranges[i * 2]);
+            args[i * 2 + 1] = Long.toString(ranges[i * 2 + 1]);
+        }
+        List<String> trailIds = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().rawQuery(sql.toString(), args)) {
+            while (cursor.moveToNext()) {
+                trailIds.add(cursor.getString(0));
+            }
+        }
+        return trailIds;
+    }
+
+    // Trilhas a até radiusMeters do ponto, aproximado pelo quadrado que contém o círculo
+    // (e pela precisão de uma célula).
+    public List<String> findTrailsNear(double latitude, double longitude, double radiusMeters) {
+        double dLat = Math.toDegrees(radiusMeters / TrailStats.EARTH_RADIUS_METERS);
+        double dLng = dLat / Math.max(Math.cos(Math.toRadians(latitude)), 1e-6);
+        double west = longitude - dLng;
+        double east = longitude + dLng;
+        if (dLng >= 180) {
+            west = -180;
+            east = 180;
+        } else {
+            if (west < -180) west += 360;
+            if (east > 180) east -= 360;
+        }
+        return findTrailsInBounds(Math.max(-90, latitude - dLat), west, Math.min(90, latitude + dLat), east);
+    }
+
+    // Resumos das trilhas encerradas que começam a até radiusMeters do ponto (aproximado pelo
+    // quadrado que contém o círculo). Lê só a tabela trail_summaries; é a primeira etapa da
+    // comparação de percursos (TrailMatcher.prefilter refina o resultado). Perto de ±180° o
+    // quadrado é dividido em duas faixas de longitude, como em findTrailsNear.
+    public List<TrailSummary> findTrailSummariesStartingNear(double latitude, double longitude, double radiusMeters) {
+        double dLat = Math.toDegrees(radiusMeters / TrailStats.EARTH_RADIUS_METERS);
+        double dLng = dLat / Math.max(Math.cos(Math.toRadians(latitude)), 1e-6);
+        double west = longitude - dLng;
+        double east = longitude + dLng;
+        if (dLng >= 180) {
+            west = -180;
+            east = 180;
+        } else {
+            if (west < -180) west += 360;
+            if (east > 180) east -= 360;
+        }
+        String selection = COLUMN_END_TIME + " IS NOT NULL AND " +
+                COLUMN_FIRST_LATITUDE + " BETWEEN ? AND ? AND " +
+                (west <= east
+                        ? COLUMN_FIRST_LONGITUDE + " BETWEEN ? AND ?"
+                        : "(" + COLUMN_FIRST_LONGITUDE + " >= ? OR " + COLUMN_FIRST_LONGITUDE + " <= ?)");
+        String[] args = {
+                Double.toString(latitude - dLat), Double.toString(latitude + dLat),
+                Double.toString(west), Double.toString(east)};
+        List<TrailSummary> summaries = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_TRAIL_SUMMARIES, SUMMARY_COLUMNS,
+                selection, args, null, null, null)) {
+            while (cursor.moveToNext()) {
+                summaries.add(readSummary(cursor));
+            }
+        }
+        return summaries;
+    }
+
+    // Retorna o id da trilha gravada mais recentemente, ou null se não houver nenhuma.
+    @Override
+    public String getLatestTrailId() {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_TRAIL_SESSIONS,
+                new String[]{COLUMN_TRAIL_ID}, null, null, null, null,
+                COLUMN_START_TIME + " DESC", "1")) {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        }
+    }
+
+    // Percorre os pontos de uma única trilha em ordem cronológica, entregando cada um ao visitor.
+    // Primeiro decodifica os trechos compactados (se a trilha foi compactada) e depois
+    // lê as linhas da tabela trails. A consulta usa o índice (trail_id, timestamp): o custo
+    // depende só do tamanho da trilha, e não de quantas trilhas existem no banco.
+    // Retorna a quantidade de pontos lidos.
+    @Override
+    public int forEachPoint(String trailId, TrailPointVisitor visitor) {
+        return forEachPoint(getReadableDatabase(), trailId, visitor);
+    }
+
+    private static int forEachPoint(SQLiteDatabase db, String trailId, TrailPointVisitor visitor) {
+        int count = 0;
+        try (Cursor cursor = db.query(TABLE_TRAIL_CHUNKS, new String[]{COLUMN_DATA},
+                COLUMN_TRAIL_ID + " = ?", new String[]{trailId},
+                null, null, COLUMN_CHUNK_SEQ + " ASC")) {
+            while (cursor.moveToNext()) {
+                count += TrackCodec.decode(cursor.getBlob(0), visitor);
+            }
+        }
+        try (Cursor cursor = db.query(TABLE_TRAILS,
+                new String[]{COLUMN_LATITUDE, COLUMN_LONGITUDE, COLUMN_TIMESTAMP},
+                COLUMN_TRAIL_ID + " = ?", new String[]{trailId},
+                null, null, COLUMN_TIMESTAMP + " ASC")) {
+            while (cursor.moveToNext()) {
+                visitor.onPoint(cursor.getDouble(0), cursor.getDouble(1), cursor.getLong(2));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Soma os pontos de uma trilha encerrada ao mapa de calor. Só os ladrilhos por onde a
+    // trilha passa são lidos e regravados, então o custo depende do tamanho da trilha e não de
+    // quantas já foram gravadas. Tudo acontece em uma transação, e a trilha fica registrada em
+    // heatmap_trails: chamar de novo para a mesma trilha não conta os pontos duas vezes.
+    // Retorna false se a trilha já estava no mapa de calor.
+    public boolean addTrailToHeatmap(String trailId) {
+        long t0 = Metrics.start();
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TABLE_HEATMAP_TRAILS +
+                    " WHERE " + COLUMN_TRAIL_ID + " = ?", new String[]{trailId}) > 0) {
+                // nada foi escrito; sem marcar como concluída, a transação de fora
+                // (applyRetention) seria desfeita
+                db.setTransactionSuccessful();
+                return false;
+            }
+            HeatmapBinner binner = new HeatmapBinner();
+            forEachPoint(db, trailId, binner);
+
+            // maior contagem de cada nível, atualizada com os ladrilhos regravados
+            Map<Integer, Integer> levelMax = new HashMap<>();
+            try (Cursor cursor = db.query(TABLE_HEATMAP_LEVELS, new String[]{COLUMN_ZOOM, COLUMN_MAX_COUNT},
+                    null, null, null, null, null)) {
+                while (cursor.moveToNext()) {
+                    levelMax.put(cursor.getInt(0), cursor.getInt(1));
+                }
+            }
+            SQLiteStatement upsert = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_HEATMAP_TILES +
+                    " (" + COLUMN_ZOOM + ", " + COLUMN_TILE + ", " + COLUMN_DATA + ") VALUES (?, ?, ?)");
+            try {
+                for (Map.Entry<Long, HeatmapTile> entry : binner.getTiles().entrySet()) {
+                    int level = HeatmapBinner.levelOf(entry.getKey());
+                    long tile = HeatmapBinner.tileOf(entry.getKey());
+                    HeatmapTile merged = getHeatmapTile(db, level, tile);
+                    if (merged == null) {
+                        merged = entry.getValue();
+                    } else {
+                        merged.addAll(entry.getValue());
+                    }
+                    upsert.bindLong(1, level);
+                    upsert.bindLong(2, tile);
+                    upsert.bindBlob(3, merged.encode());
+                    upsert.executeInsert();
+                    Integer max = levelMax.get(level);
+                    if (max == null || merged.getMax() > max) {
+                        levelMax.put(level, merged.getMax());
+                    }
+                }
+            } finally {
+                upsert.close();
+            }
+            for (Map.Entry<Integer, Integer> entry : levelMax.entrySet()) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_ZOOM, entry.getKey());
+                values.put(COLUMN_MAX_COUNT, entry.getValue());
+                db.insertWithOnConflict(TABLE_HEATMAP_LEVELS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_TRAIL_ID, trailId);
+            db.insert(TABLE_HEATMAP_TRAILS, null, values);
+            db.setTransactionSuccessful();
+            HEATMAP_TILES_WRITTEN.add(binner.getTiles().size());
+            return true;
+        } finally {
+            db.endTransaction();
+            HEATMAP_UPDATE_TIMER.stop(t0);
+        }
+    }
+
+    // Soma ao mapa de calor as trilhas encerradas que ainda não estão nele: as gravadas antes
+    // da versão 9 do banco e as que o serviço não chegou a somar (processo morto antes).
+    // Retorna a quantidade de trilhas somadas.
+    public int updateHeatmap() {
+        List<String> pending = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().rawQuery("SELECT " + COLUMN_TRAIL_ID +
+                " FROM " + TABLE_TRAIL_SESSIONS + " WHERE " + COLUMN_END_TIME + " IS NOT NULL AND " +
+                COLUMN_TRAIL_ID + " NOT IN (SELECT " + COLUMN_TRAIL_ID + " FROM " + TABLE_HEATMAP_TRAILS + ")" +
+                " ORDER BY " + COLUMN_START_TIME, null)) {
+            while (cursor.moveToNext()) {
+                pending.add(cursor.getString(0));
+            }
+        }
+        int added = 0;
+        for (String trailId : pending) {
+            if (addTrailToHeatmap(trailId)) added++;
+        }
+        return added;
+    }
+
+    // Ladrilho guardado do mapa de calor (nível e quadkey), ou null se nenhuma trilha passa por ele.
+    public HeatmapTile getHeatmapTile(int level, long tile) {
+        return getHeatmapTile(getReadableDatabase(), level, tile);
+    }
+
+    private static HeatmapTile getHeatmapTile(SQLiteDatabase db, int level, long tile) {
+        try (Cursor cursor = db.query(TABLE_HEATMAP_TILES, new String[]{COLUMN_DATA},
+                COLUMN_ZOOM + " = ? AND " + COLUMN_TILE + " = ?",
+                new String[]{Integer.toString(level), Long.toString(tile)}, null, null, null)) {
+            return cursor.moveToFirst() ? HeatmapTile.decode(cursor.getBlob(0)) : null;
+        }
+    }
+
+    // Maior contagem de uma célula no nível guardado (0 se o mapa de calor está vazio).
+    public int getHeatmapMax(int level) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_HEATMAP_LEVELS, new String[]{COLUMN_MAX_COUNT},
+                COLUMN_ZOOM + " = ?", new String[]{Integer.toString(level)}, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        }
+    }
+
+    // Converte uma trilha já encerrada para o formato compacto: os pontos da tabela trails
+    // são codificados em trechos de até CHUNK_SIZE pontos e as linhas originais são apagadas,
+    // tudo na mesma transação. Retorna a quantidade de pontos compactados.
+    public int packTrail(String trailId) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            int seq = (int) DatabaseUtils.longForQuery(db,
+                    "SELECT IFNULL(MAX(" + COLUMN_CHUNK_SEQ + ") + 1, 0) FROM " + TABLE_TRAIL_CHUNKS +
+                            " WHERE " + COLUMN_TRAIL_ID + " = ?", new String[]{trailId});
+            ChunkPacker packer = new ChunkPacker(db, trailId, seq);
+            try (Cursor cursor = db.query(TABLE_TRAILS,
+                    new String[]{COLUMN_LATITUDE, COLUMN_LONGITUDE, COLUMN_TIMESTAMP},
+                    COLUMN_TRAIL_ID + " = ?", new String[]{trailId},
+                    null, null, COLUMN_TIMESTAMP + " ASC")) {
+                while (cursor.moveToNext()) {
+                    packer.onPoint(cursor.getDouble(0), cursor.getDouble(1), cursor.getLong(2));
+                }
+            }
+            packer.finish();
+            db.delete(TABLE_TRAILS, COLUMN_TRAIL_ID + " = ?", new String[]{trailId});
+            db.execSQL("UPDATE " + TABLE_TRAIL_SESSIONS + " SET " + COLUMN_STORAGE + " = MAX(" +
+                    COLUMN_STORAGE + ", " + RetentionPolicy.STORAGE_PACKED + ") WHERE " + COLUMN_TRAIL_ID + " = ?",
+                    new Object[]{trailId});
+            db.setTransactionSuccessful();
+            return packer.total;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Trilhas encerradas com alguma etapa da política de retenção pendente, das que terminaram
+    // há mais tempo para as mais recentes, no máximo "limit". A manutenção processa uma
+    // trilha de cada vez (applyRetention).
+    public List<String> findTrailsForRetention(RetentionPolicy policy, long now, int limit) {
+        List<String> trailIds = new ArrayList<>();
+        if (!policy.isEnabled()) return trailIds;
+        StringBuilder selection = new StringBuilder(COLUMN_END_TIME + " IS NOT NULL AND (");
+        List<String> args = new ArrayList<>();
+        if (policy.packAfterDays > 0) {
+            selection.append(COLUMN_STORAGE).append(" < ").append(RetentionPolicy.STORAGE_PACKED)
+                    .append(" AND ").append(COLUMN_END_TIME).append(" <= ?");
+            args.add(Long.toString(now - policy.packAfterDays * RetentionPolicy.DAY_MILLIS));
+        }
+        if (policy.downsampleAfterDays > 0) {
+            if (!args.isEmpty()) selection.append(" OR ");
+            selection.append(COLUMN_STORAGE).append(" < ").append(RetentionPolicy.STORAGE_DOWNSAMPLED)
+                    .append(" AND ").append(COLUMN_END_TIME).append(" <= ?");
+            args.add(Long.toString(now - policy.downsampleAfterDays * RetentionPolicy.DAY_MILLIS));
+        }
+        selection.append(")");
+        try (Cursor cursor = getReadableDatabase().query(TABLE_TRAIL_SESSIONS, new String[]{COLUMN_TRAIL_ID},
+                selection.toString(), args.toArray(new String[0]), null, null,
+                COLUMN_END_TIME + " ASC", Integer.toString(limit))) {
+            while (cursor.moveToNext()) {
+                trailIds.add(cursor.getString(0));
+            }
+        }
+        return trailIds;
+    }
+
+    // Leva uma trilha encerrada para a forma de armazenamento que a política pede para ela
+    // (compactada ou simplificada), em uma única transação do tamanho de uma trilha. Antes de
+    // simplificar, a trilha é somada ao mapa de calor, que guarda a contagem dos pontos
+    // originais. Retorna a forma de armazenamento da trilha depois disso.
+    public int applyRetention(String trailId, RetentionPolicy policy, long now) {
+        long t0 = Metrics.start();
+        SQLiteDatabase db = getWritableDatabase();
+        int target;
+        db.beginTransaction();
+        try {
+            long endTime;
+            int storage;
+            try (Cursor cursor = db.query(TABLE_TRAIL_SESSIONS, new String[]{COLUMN_END_TIME, COLUMN_STORAGE},
+                    COLUMN_TRAIL_ID + " = ?", new String[]{trailId}, null, null, null)) {
+                // trilha apagada ou ainda sendo gravada: nada a fazer
+                if (!cursor.moveToFirst() || cursor.isNull(0)) return RetentionPolicy.STORAGE_FULL;
+                endTime = cursor.getLong(0);
+                storage = cursor.getInt(1);
+            }
+            target = policy.targetStorage(endTime, now, storage);
+            if (target == storage) return storage;
+
+            if (target == RetentionPolicy.STORAGE_PACKED) {
+                packTrail(trailId);
+            } else {
+                addTrailToHeatmap(trailId);
+                TrackBuffer track = new TrackBuffer();
+                forEachPoint(db, trailId, track);
+                TrackBuffer simplified = policy.downsample(track);
+                db.delete(TABLE_TRAILS, COLUMN_TRAIL_ID + " = ?", new String[]{trailId});
+                db.delete(TABLE_TRAIL_CHUNKS, COLUMN_TRAIL_ID + " = ?", new String[]{trailId});
+                ChunkPacker packer = new ChunkPacker(db, trailId, 0);
+                for (int i = 0; i < simplified.size(); i++) {
+                    packer.onPoint(simplified.latitudes()[i], simplified.longitudes()[i], simplified.timestamps()[i]);
+                }
+                packer.finish();
+            }
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_STORAGE, target);
+            db.update(TABLE_TRAIL_SESSIONS, values, COLUMN_TRAIL_ID + " = ?", new String[]{trailId});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            RETENTION_TIMER.stop(t0);
+        }
+        if (target == RetentionPolicy.STORAGE_DOWNSAMPLED) {
+            // os pontos mudaram: os níveis de detalhe em memória não valem mais
+            TrailLodCache.invalidate(trailId);
+        }
+        return target;
+    }
+
+    // Devolve ao sistema até maxPages páginas livres do fim do arquivo (auto_vacuum
+    // INCREMENTAL). Cada página é um passo curto; o bloqueio dura só esses passos.
+    // Retorna a quantidade de páginas devolvidas.
+    public int incrementalVacuum(int maxPages) {
+        SQLiteDatabase db = getWritableDatabase();
+        long before = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        // execSQL executaria só o primeiro passo (uma página); o cursor percorre todos
+        try (Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + maxPages + ")", null)) {
+            while (cursor.moveToNext()) {
+                // cada linha é um passo do vacuum
+            }
+        }
+        int freed = (int) (before - DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null));
+        PAGES_FREED.add(freed);
+        return freed;
+    }
+
+    // páginas livres dentro do arquivo (liberadas, mas ainda não devolvidas ao sistema)
+    public long getFreePageCount() {
+        return DatabaseUtils.longForQuery(getReadableDatabase(), "PRAGMA freelist_count", null);
+    }
+
+    // tamanho do arquivo do banco, em bytes
+    public long getDatabaseSizeBytes() {
+        SQLiteDatabase db = getReadableDatabase();
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
+
+    // Junta os pontos em trechos de CHUNK_SIZE e grava cada trecho cheio na tabela trail_chunks.
+    private static class ChunkPacker implements TrailPointVisitor {
+        private final SQLiteDatabase db;
+        private final String trailId;
+        private final double[] latitudes = new double[CHUNK_SIZE];
+        private final double[] longitudes = new double[CHUNK_SIZE];
+        private final long[] timestamps = new long[CHUNK_SIZE];
+        private int seq;
+        private int size = 0;
+        int total = 0;
+
+        ChunkPacker(SQLiteDatabase db, String trailId, int firstSeq) {
+            this.db = db;
+            this.trailId = trailId;
+            this.seq = firstSeq;
+        }
+
+        @Override
+        public void onPoint(double latitude, double longitude, long timestamp) {
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            timestamps[size] = timestamp;
+            size++;
+            total++;
+            if (size == CHUNK_SIZE) {
+                finish();
+            }
+        }
+
+        // grava o trecho pendente, se houver
+        void finish() {
+            if (size == 0) return;
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_TRAIL_ID, trailId);
+            values.put(COLUMN_CHUNK_SEQ, seq++);
+            values.put(COLUMN_POINT_COUNT, size);
+            values.put(COLUMN_START_TIME, timestamps[0]);
+            values.put(COLUMN_END_TIME, timestamps[size - 1]);
+            values.put(COLUMN_DATA, TrackCodec.encode(latitudes, longitudes, timestamps, 0, size));
+            db.insert(TABLE_TRAIL_CHUNKS, null, values);
+            size = 0;
+        }
+    }
+
+    @Override
+    public void writeBatch(String trailId, double[] latitudes, double[] longitudes, long[] timestamps, int count) {
+        insertPoints(trailId, latitudes, longitudes, timestamps, count, -1);
+    }
+
+    @Override
+    public void writeBatch(String trailId, double[] latitudes, double[] longitudes, long[] timestamps,
+                           int count, long journalSequence) {
+        insertPoints(trailId, latitudes, longitudes, timestamps, count, journalSequence);
+    }
+
+    // Grava um lote de pontos de uma trilha dentro de uma única transação,
+    // reaproveitando o mesmo SQLiteStatement. Usado como Sink do TrailPointWriter.
+    public void insertPoints(String trailId, double[] latitudes, double[] longitudes,
+                             long[] timestamps, int count) {
+        insertPoints(trailId, latitudes, longitudes, timestamps, count, -1);
+    }
+
+    // Igual ao anterior; se journalSequence > 0, grava também a sequência do diário na mesma
+    // transação, para que esses pontos não sejam reaplicados na próxima abertura.
+    public synchronized void insertPoints(String trailId, double[] latitudes, double[] longitudes,
+                                          long[] timestamps, int count, long journalSequence) {
+        long t0 = Metrics.start();
+        SQLiteDatabase db = getWritableDatabase();
+        if (insertPointStatement == null) {
+            insertPointStatement = db.compileStatement(INSERT_POINT);
+        }
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                insertPointStatement.bindString(1, trailId);
+                insertPointStatement.bindDouble(2, latitudes[i]);
+                insertPointStatement.bindDouble(3, longitudes[i]);
+                insertPointStatement.bindLong(4, timestamps[i]);
+                insertPointStatement.executeInsert();
+            }
+            if (journalSequence > 0) {
+                if (updateCommittedStatement == null) {
+                    updateCommittedStatement = db.compileStatement(UPDATE_COMMITTED_SEQ);
+                }
+                updateCommittedStatement.bindLong(1, journalSequence);
+                updateCommittedStatement.executeUpdateDelete();
+            }
+            updateSummaryAndCells(db, trailId, latitudes, longitudes, timestamps, count);
+            db.setTransactionSuccessful();
+        } finally {
+            // o commit (e o fsync) acontece no endTransaction; é medido à parte
+            long commitStart = Metrics.start();
+            db.endTransaction();
+            COMMIT_TIMER.stop(commitStart);
+        }
+        INSERT_BATCH_TIMER.stop(t0);
+        POINTS_WRITTEN.add(count);
+    }
+
+    // fecha o statement compilado antes de fechar o banco
+    @Override
+    public synchronized void close() {
+        if (insertPointStatement != null) {
+            insertPointStatement.close();
+            insertPointStatement = null;
+        }
+        if (updateCommittedStatement != null) {
+            updateCommittedStatement.close();
+            updateCommittedStatement = null;
+        }
+        if (upsertSummaryStatement != null) {
+            upsertSummaryStatement.close();
+            upsertSummaryStatement = null;
+            insertCellStatement.close();
+            insertCellStatement = null;
+        }
+        opened = false;
+        super.close();
     }
 }
@@ -0,0 +1,102 @@
+package mobile.com.raiasmanuca;
+
+import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import com.google.android.gms.maps.CameraUpdateFactory;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.SupportMapFragment;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.TileOverlay;
+import com.google.android.gms.maps.model.TileOverlayOptions;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Mostra o mapa de calor de todas as trilhas gravadas. Os ladrilhos já estão somados no banco
+// (DatabaseHelper.addTrailToHeatmap, ao encerrar cada gravação); a tela só soma as trilhas que
+// ainda faltam e desenha os ladrilhos sob demanda pelo HeatmapTileProvider, então arrastar o
+// mapa não relê nenhum ponto.
+public class HeatmapActivity extends AppCompatActivity {
+    private static final String TAG = "HeatmapActivity";
+    // zoom inicial, centrado na última trilha gravada
+    private static final float INITIAL_ZOOM = 12;
+
+    private GoogleMap mMap;
+    private DatabaseHelper dbHelper;
+    private TextView infoText;
+    private TileOverlay heatmapOverlay;
+    // atualiza o mapa de calor em uma thread de fundo
+    private final ExecutorService loadExecutor = Executors.newSingleThreadExecutor();
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_heatmap);
+
+        dbHelper = new DatabaseHelper(this);
+        infoText = findViewById(R.id.heatmapInfoText);
+
+        SupportMapFragment mapFragment = (SupportMapFragment) getSupportFragmentManager()
+                .findFragmentById(R.id.map);
+        if (mapFragment != null) {
+            mapFragment.getMapAsync(this::onMapReady);
+        }
+    }
+
+    private void onMapReady(GoogleMap googleMap) {
+        mMap = googleMap;
+        mMap.setOnMapLoadedCallback(() -> StartupTracer.onMapLoaded(this));
+        infoText.setText("Atualizando o mapa de calor...");
+        loadExecutor.execute(() -> {
+            final TrailSummary latest;
+            try {
+                // soma as trilhas que ainda não estão no mapa de calor (as gravadas antes dele existir)
+                long t0 = System.nanoTime();
+                int added = dbHelper.updateHeatmap();
+                if (added > 0) {
+                    Log.d(TAG, "Trilhas somadas ao mapa de calor: " + added + " em "
+                            + (System.nanoTime() - t0) / 1000000 + " ms");
+                }
+                String latestId = dbHelper.getLatestTrailId();
+                latest = latestId == null ? null : dbHelper.getTrailSummary(latestId);
+            } catch (RuntimeException e) {
+                // o banco pode ser fechado no meio da atualização quando a Activity é destruída
+                if (isDestroyed()) return;
+                throw e;
+            }
+            runOnUiThread(() -> {
+                if (isDestroyed()) return;
+                showHeatmap(latest);
+            });
+        });
+    }
+
+    private void showHeatmap(TrailSummary latest) {
+        if (latest == null || latest.getPointCount() == 0) {
+            infoText.setText("Nenhuma trilha encontrada.");
+            return;
+        }
+        infoText.setVisibility(View.GONE);
+        mMap.moveCamera(CameraUpdateFactory.newLatLngZoom(
+                new LatLng(latest.getLastLatitude(), latest.getLastLongitude()), INITIAL_ZOOM));
+        // sem fadeIn os ladrilhos que já estão no cache aparecem na hora ao arrastar
+        heatmapOverlay = mMap.addTileOverlay(new TileOverlayOptions()
+                .tileProvider(new HeatmapTileProvider(dbHelper))
+                .fadeIn(false));
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (heatmapOverlay != null) {
+            heatmapOverlay.remove();
+        }
+        loadExecutor.shutdownNow();
+        dbHelper.close();
+    }
+}
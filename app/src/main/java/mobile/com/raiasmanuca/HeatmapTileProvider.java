@@ -0,0 +1,125 @@
+package mobile.com.raiasmanuca;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+// Fornece ao TileOverlay do mapa os ladrilhos do mapa de calor, desenhados no aparelho a
+// partir da tabela heatmap_tiles. O mapa chama getTile em várias threads de fundo; cada
+// ladrilho custa uma leitura pela chave, o desenho (HeatmapRenderer) e a compressão em PNG,
+// e não depende de quantos pontos foram gravados.
+//
+// Dois caches LRU evitam repetir esse trabalho ao arrastar o mapa de volta: o dos PNGs prontos
+// (limitado em bytes) e o dos ladrilhos guardados já decodificados, que servem a vários
+// ladrilhos do mapa nos zooms acima do nível guardado.
+public class HeatmapTileProvider implements TileProvider {
+    private static final String TAG = "HeatmapTileProvider";
+
+    // memória dos PNGs prontos; os ladrilhos vazios (NO_TILE) contam como 1 byte
+    private static final int TILE_CACHE_BYTES = 4 * 1024 * 1024;
+    // ladrilhos guardados decodificados (16 KB cada)
+    private static final int STORED_CACHE_TILES = 64;
+
+    // métricas: desenho de um ladrilho que não estava no cache e acertos do cache
+    private static final Metrics.Timer TILE_RENDER_TIMER = Metrics.timer("heatmap.tile_render");
+    private static final Metrics.Counter TILE_CACHE_HITS = Metrics.counter("heatmap.tile_cache_hits");
+
+    // marca no cache um ladrilho guardado que não existe (nenhuma trilha passa por ele)
+    private static final HeatmapTile MISSING = new HeatmapTile();
+
+    private final DatabaseHelper dbHelper;
+    private final LruCache<Long, Tile> tileCache = new LruCache<Long, Tile>(TILE_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(Long key, Tile tile) {
+            return tile.data == null ? 1 : tile.data.length;
+        }
+    };
+    private final LruCache<Long, HeatmapTile> storedCache = new LruCache<>(STORED_CACHE_TILES);
+    // maior contagem de cada nível guardado (-1 = ainda não lida)
+    private final int[] levelMax = new int[HeatmapBinner.MAX_LEVEL + 1];
+    // pixels do ladrilho sendo desenhado, um por thread do mapa
+    private final ThreadLocal<int[]> pixels = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[HeatmapRenderer.TILE_PIXELS * HeatmapRenderer.TILE_PIXELS];
+        }
+    };
+
+    public HeatmapTileProvider(DatabaseHelper dbHelper) {
+        this.dbHelper = dbHelper;
+        invalidate();
+    }
+
+    // Descarta os caches (depois de somar trilhas novas ao mapa de calor). O TileOverlay
+    // também precisa de clearTileCache para pedir os ladrilhos de novo.
+    public synchronized void invalidate() {
+        tileCache.evictAll();
+        storedCache.evictAll();
+        Arrays.fill(levelMax, -1);
+    }
+
+    @Override
+    public Tile getTile(int x, int y, int zoom) {
+        long key = ((long) zoom << 48) | ((long) x << 24) | y;
+        Tile cached = tileCache.get(key);
+        if (cached != null) {
+            TILE_CACHE_HITS.increment();
+            return cached;
+        }
+        long t0 = Metrics.start();
+        Tile tile;
+        try {
+            tile = render(x, y, zoom);
+        } catch (RuntimeException e) {
+            // o banco pode ter sido fechado com a tela; o mapa pede o ladrilho de novo se precisar
+            Log.w(TAG, "Falha ao desenhar o ladrilho " + zoom + "/" + x + "/" + y, e);
+            return NO_TILE;
+        }
+        tileCache.put(key, tile);
+        TILE_RENDER_TIMER.stop(t0);
+        return tile;
+    }
+
+    private Tile render(int x, int y, int zoom) {
+        int level = HeatmapBinner.storedLevel(zoom);
+        int depth = zoom - level;
+        HeatmapTile stored = getStoredTile(level, x >> depth, y >> depth);
+        if (stored == null) return NO_TILE;
+
+        int[] buffer = pixels.get();
+        if (!HeatmapRenderer.render(stored, level, x, y, zoom, getLevelMax(level), buffer)) {
+            return NO_TILE;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(buffer, HeatmapRenderer.TILE_PIXELS,
+                HeatmapRenderer.TILE_PIXELS, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, png);
+        bitmap.recycle();
+        return new Tile(HeatmapRenderer.TILE_PIXELS, HeatmapRenderer.TILE_PIXELS, png.toByteArray());
+    }
+
+    // ladrilho guardado (decodificado), ou null se nenhuma trilha passa por ele
+    private HeatmapTile getStoredTile(int level, int tileX, int tileY) {
+        long key = HeatmapBinner.key(level, tileX, tileY);
+        HeatmapTile tile = storedCache.get(key);
+        if (tile == null) {
+            tile = dbHelper.getHeatmapTile(level, HeatmapBinner.tileOf(key));
+            if (tile == null) tile = MISSING;
+            storedCache.put(key, tile);
+        }
+        return tile == MISSING ? null : tile;
+    }
+
+    private synchronized int getLevelMax(int level) {
+        if (levelMax[level] < 0) {
+            levelMax[level] = dbHelper.getHeatmapMax(level);
+        }
+        return levelMax[level];
+    }
+}
@@ -0,0 +1,144 @@
+package mobile.com.raiasmanuca;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Desenha a trilha que está sendo gravada mantendo uma única linha "viva" no mapa.
+// Em vez de chamar addPolyline a cada ponto (o que empilhava uma linha nova com todos os
+// pontos a cada fix), os pontos novos são enviados com setPoints em lotes, no máximo
+// a cada throttleMillis. Quando a linha viva passa de freezeThreshold pontos, o trecho
+// é simplificado e "congelado" em uma linha própria que não é mais atualizada, e a linha
+// viva recomeça do último ponto. Assim o custo por fix fica limitado, seja qual for o
+// tamanho da trilha.
+public class LiveTrackRenderer {
+    // Abstração do mapa, para que o renderizador possa ser testado sem o GoogleMap.
+    public interface Surface {
+        // cria uma nova linha no mapa com os pontos informados
+        Line addLine(List<LatLng> points);
+    }
+
+    // Linha já adicionada ao mapa (no app, uma Polyline).
+    public interface Line {
+        void setPoints(List<LatLng> points);
+    }
+
+    // intervalo mínimo entre duas atualizações da linha viva
+    public static final long DEFAULT_THROTTLE_MILLIS = 1000;
+    // quantidade de pontos da linha viva que dispara o congelamento do trecho
+    public static final int DEFAULT_FREEZE_THRESHOLD = 500;
+    // desvio máximo (Douglas-Peucker) permitido no trecho congelado
+    public static final double DEFAULT_FREEZE_TOLERANCE_METERS = 2;
+
+    // custo de cada atualização da linha viva no mapa e quantos vértices ela enviou
+    private static final Metrics.Timer PUSH_TIMER = Metrics.timer("render.polyline_update");
+    private static final Metrics.Histogram PUSH_VERTICES = Metrics.histogram("render.polyline_vertices");
+
+    private final Surface surface;
+    private final long throttleMillis;
+    private final int freezeThreshold;
+    private final double freezeToleranceMeters;
+
+    // pontos da linha viva (desde o último congelamento)
+    private final ArrayList<LatLng> activePoints = new ArrayList<>();
+    private Line activeLine;
+    private long lastPushTime = 0;
+    private boolean dirty = false;
+
+    // contadores usados nos testes e nas métricas
+    private int lineCount = 0;
+    private int pushCount = 0;
+    private long verticesPushed = 0;
+
+    public LiveTrackRenderer(Surface surface) {
+        this(surface, DEFAULT_THROTTLE_MILLIS, DEFAULT_FREEZE_THRESHOLD, DEFAULT_FREEZE_TOLERANCE_METERS);
+    }
+
+    public LiveTrackRenderer(Surface surface, long throttleMillis, int freezeThreshold, double freezeToleranceMeters) {
+        if (freezeThreshold < 2) {
+            throw new IllegalArgumentException("freezeThreshold precisa ser pelo menos 2");
+        }
+        this.surface = surface;
+        this.throttleMillis = throttleMillis;
+        this.freezeThreshold = freezeThreshold;
+        this.freezeToleranceMeters = freezeToleranceMeters;
+    }
+
+    // Acrescenta um ponto à trilha. nowMillis é um relógio monotônico (SystemClock.elapsedRealtime no app).
+    public void addPoint(LatLng point, long nowMillis) {
+        activePoints.add(point);
+        dirty = true;
+
+        if (activePoints.size() >= freezeThreshold) {
+            freezeActiveSegment();
+            push(nowMillis);
+        } else if (activeLine == null || nowMillis - lastPushTime >= throttleMillis) {
+            push(nowMillis);
+        }
+    }
+
+    // Envia ao mapa os pontos ainda pendentes, sem esperar o intervalo.
+    public void flush(long nowMillis) {
+        if (dirty) push(nowMillis);
+    }
+
+    private void push(long nowMillis) {
+        long t0 = Metrics.start();
+        if (activeLine == null) {
+            activeLine = surface.addLine(activePoints);
+            lineCount++;
+        } else {
+            activeLine.setPoints(activePoints);
+        }
+        pushCount++;
+        verticesPushed += activePoints.size();
+        lastPushTime = nowMillis;
+        dirty = false;
+        PUSH_TIMER.stop(t0);
+        PUSH_VERTICES.record(activePoints.size());
+    }
+
+    // Simplifica o trecho vivo e o adiciona como linha fixa; a linha viva recomeça
+    // no último ponto para que os trechos continuem ligados.
+    private void freezeActiveSegment() {
+        List<LatLng> simplified = simplify(activePoints, freezeToleranceMeters);
+        surface.addLine(simplified);
+        lineCount++;
+        verticesPushed += simplified.size();
+
+        LatLng last = activePoints.get(activePoints.size() - 1);
+        activePoints.clear();
+        activePoints.add(last);
+    }
+
+    // Simplifica uma lista de LatLng com o TrackSimplifier (que trabalha com arrays).
+    static List<LatLng> simplify(List<LatLng> points, double toleranceMeters) {
+        int count = points.size();
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        for (int i = 0; i < count; i++) {
+            latitudes[i] = points.get(i).latitude;
+            longitudes[i] = points.get(i).longitude;
+        }
+        int[] indices = new int[count];
+        int kept = TrackSimplifier.simplify(latitudes, longitudes, count, toleranceMeters, indices);
+        ArrayList<LatLng> result = new ArrayList<>(kept);
+        for (int i = 0; i < kept; i++) {
+            result.add(points.get(indices[i]));
+        }
+        return result;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public int getPushCount() {
+        return pushCount;
+    }
+
+    public long getVerticesPushed() {
+        return verticesPushed;
+    }
+}
@@ -2,26 +2,41 @@ package mobile.com.raiasmanuca;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Looper;
 import android.widget.Button;
 import androidx.appcompat.app.AppCompatActivity;
-import androidx.appcompat.app.AppCompatDelegate;
+
+import com.google.android.gms.maps.MapsInitializer;
 
 public class MainActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_YES);
         setContentView(R.layout.activity_main);
 
+        // as configurações, a manutenção do banco e o próprio banco são preparados pela
+        // TrailApplication, em segundo plano
+
+        // Prepara o SDK de mapas (carrega o módulo do Google Play services e escolhe o
+        // renderizador) depois do primeiro quadro, quando a thread principal fica livre; assim
+        // a primeira tela com mapa não paga esse custo ao abrir.
+        StartupTracer.runAfterFirstFrame(this, () -> Looper.myQueue().addIdleHandler(() -> {
+            MapsInitializer.initialize(getApplicationContext(), MapsInitializer.Renderer.LATEST, null);
+            return false;
+        }));
+
         // botão que navega para a tela de configuração de mapa
         Button btnMapConfig = findViewById(R.id.btnMapConfig);
 
         // navega para tela de gravação de trilha
         Button btnRecordTrail = findViewById(R.id.btnRecordTrail);
 
-        // navega para a tela de visualização de trilha
+        // navega para a lista de trilhas; de lá cada trilha abre na tela de visualização
         Button btnViewTrail = findViewById(R.id.btnViewTrail);
 
+        // navega para o mapa de calor de todas as trilhas gravadas
+        Button btnHeatmap = findViewById(R.id.btnHeatmap);
+
         // cada botão tem um onClickListener para iniciar a atividade correspondente
         // ao próprio
 
@@ -34,6 +49,9 @@ public class MainActivity extends AppCompatActivity {
                 startActivity(new Intent(this, TrailRecordActivity.class)));
 
         btnViewTrail.setOnClickListener(v ->
-                startActivity(new Intent(this, TrailViewActivity.class)));
+                startActivity(new Intent(this, TrailListActivity.class)));
+
+        btnHeatmap.setOnClickListener(v ->
+                startActivity(new Intent(this, HeatmapActivity.class)));
     }
 }
\ No newline at end of file
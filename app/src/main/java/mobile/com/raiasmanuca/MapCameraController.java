@@ -0,0 +1,82 @@
+package mobile.com.raiasmanuca;
+
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import com.google.android.gms.maps.CameraUpdateFactory;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.LatLng;
+
+// Move a câmera do GoogleMap no ritmo dos quadros da tela. Os retratos da gravação só
+// chamam follow(); o CameraCoalescer junta os pedidos e, no próximo quadro do Choreographer,
+// envia no máximo um animateCamera com posição, zoom e direção juntos.
+//
+// Quando o usuário arrasta, gira ou dá zoom no mapa, a câmera para de seguir a gravação e
+// volta alguns segundos depois que o mapa fica parado.
+public class MapCameraController implements CameraCoalescer.Camera {
+    private final GoogleMap map;
+    private final CameraCoalescer coalescer;
+    private boolean frameScheduled = false;
+
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            frameScheduled = false;
+            long now = SystemClock.uptimeMillis();
+            coalescer.onFrame(now);
+            // pedido chegou durante a pausa: volta quando ela acabar
+            if (coalescer.hasPending()) {
+                long delay = coalescer.millisUntilResume(now);
+                if (delay >= 0) scheduleFrame(delay);
+            }
+        }
+    };
+
+    public MapCameraController(GoogleMap map) {
+        this.map = map;
+        this.coalescer = new CameraCoalescer(this);
+
+        // só os gestos pausam; as animações do próprio controlador também disparam este listener
+        map.setOnCameraMoveStartedListener(reason -> {
+            if (reason == GoogleMap.OnCameraMoveStartedListener.REASON_GESTURE) {
+                coalescer.onUserInteractionStarted();
+            }
+        });
+        map.setOnCameraIdleListener(() -> {
+            long delay = coalescer.onUserInteractionEnded(SystemClock.uptimeMillis());
+            if (delay >= 0) scheduleFrame(delay);
+        });
+    }
+
+    // Pede que a câmera siga a posição; bearing NaN mantém a direção atual.
+    public void follow(LatLng target, float zoom, float bearing) {
+        if (coalescer.request(target.latitude, target.longitude, zoom, bearing)) {
+            scheduleFrame(0);
+        }
+    }
+
+    // Cancela o quadro pendente (a tela está sendo destruída).
+    public void release() {
+        Choreographer.getInstance().removeFrameCallback(frameCallback);
+        frameScheduled = false;
+    }
+
+    @Override
+    public void animateTo(double latitude, double longitude, float zoom, float bearing, long durationMillis) {
+        CameraPosition.Builder position = new CameraPosition.Builder(map.getCameraPosition())
+                .target(new LatLng(latitude, longitude))
+                .zoom(zoom);
+        if (!Float.isNaN(bearing)) position.bearing(bearing);
+        // a API exige duração positiva
+        map.animateCamera(CameraUpdateFactory.newCameraPosition(position.build()),
+                (int) Math.max(1, durationMillis), null);
+    }
+
+    private void scheduleFrame(long delayMillis) {
+        Choreographer choreographer = Choreographer.getInstance();
+        if (frameScheduled) choreographer.removeFrameCallback(frameCallback);
+        frameScheduled = true;
+        choreographer.postFrameCallbackDelayed(frameCallback, delayMillis);
+    }
+}
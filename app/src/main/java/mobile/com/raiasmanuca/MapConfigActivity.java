@@ -1,51 +1,82 @@
 package mobile.com.raiasmanuca;
 
-import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.RadioButton;
 import android.widget.RadioGroup;
 import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
-import androidx.appcompat.app.AppCompatDelegate;
 
-// classe para configuração do mapa
+// classe para configuração do mapa.
+// As configurações persistentes do mapa e da gravação ficam no MapSettings (um retrato
+// imutável em memória); salvar aqui gera um retrato novo e as telas abertas se atualizam.
+// satellite: define a visualização do mapa em modo satelite ou não
+// courseUp: define se o mapa rotaciona conforme o usuário rotacionar.
+// packedStorage: define se as trilhas encerradas são compactadas no banco.
+// fixSmoothing: define se os fixes do GPS são suavizados (filtro de Kalman) na gravação.
+// batchedDelivery: define se o GPS entrega os fixes em lote (acorda menos o aparelho).
+// metricsEnabled: define se as métricas de desempenho (Metrics) são coletadas e mostradas.
+// packAfterDays/downsampleAfterDays: retenção das trilhas antigas, escolhida entre as opções
+// de RETENTION_PRESETS (dias até compactar e até simplificar; 0 = nunca).
 public class MapConfigActivity extends AppCompatActivity {
-    // armazena (salva) configurações persistentes do mapa:
-    // isSatelite: define a visualização do mapa em modo satelite ou não
-    // isCourseUp: define se o mapa rotaciona conforme o usuário rotacionar.
-    private SharedPreferences prefs;
+    // opções de retenção: id do botão, dias até compactar, dias até simplificar
+    private static final int[][] RETENTION_PRESETS = {
+            {R.id.retentionKeepAll, 0, 0},
+            {R.id.retentionYear, 30, 365},
+            {R.id.retentionQuarter, 7, 90}};
 
     // método que é executado assim que a atividade é criada
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_YES);
         // layout da tela com xml
         setContentView(R.layout.activity_map_config);
 
-        prefs = getSharedPreferences("MapSettings", MODE_PRIVATE);
-
         RadioGroup mapTypeGroup = findViewById(R.id.mapTypeGroup);
         RadioGroup navigationModeGroup = findViewById(R.id.navigationModeGroup);
+        CheckBox packedStorageCheck = findViewById(R.id.packedStorageCheck);
+        CheckBox fixSmoothingCheck = findViewById(R.id.fixSmoothingCheck);
+        CheckBox batchedDeliveryCheck = findViewById(R.id.batchedDeliveryCheck);
+        CheckBox metricsCheck = findViewById(R.id.metricsCheck);
+        RadioGroup retentionGroup = findViewById(R.id.retentionGroup);
         Button saveButton = findViewById(R.id.saveButton);
 
-        // CARREGA AS PREFERÊNCIAS SALVAS:
-        // isSatellite Indica se o tipo do mapa está configurado como satélite (true)
-        boolean isSatellite = prefs.getBoolean("isSatellite", false);
-        // isCourseUp: Indica se a orientação da câmera segue o curso (true)
-        boolean isCourseUp = prefs.getBoolean("isCourseUp", false);
-
+        // CARREGA AS PREFERÊNCIAS SALVAS
+        MapSettings settings = MapSettings.get(this);
 
-        ((RadioButton) findViewById(isSatellite ? R.id.satelliteType : R.id.normalType)).setChecked(true);
-        ((RadioButton) findViewById(isCourseUp ? R.id.courseUp : R.id.northUp)).setChecked(true);
+        ((RadioButton) findViewById(settings.satellite ? R.id.satelliteType : R.id.normalType)).setChecked(true);
+        ((RadioButton) findViewById(settings.courseUp ? R.id.courseUp : R.id.northUp)).setChecked(true);
+        packedStorageCheck.setChecked(settings.packedStorage);
+        fixSmoothingCheck.setChecked(settings.fixSmoothing);
+        batchedDeliveryCheck.setChecked(settings.batchedDelivery);
+        metricsCheck.setChecked(settings.metricsEnabled);
+        int retentionId = R.id.retentionKeepAll;
+        for (int[] preset : RETENTION_PRESETS) {
+            if (preset[1] == settings.packAfterDays && preset[2] == settings.downsampleAfterDays) {
+                retentionId = preset[0];
+            }
+        }
+        ((RadioButton) findViewById(retentionId)).setChecked(true);
 
         // Save preferences on button click
         saveButton.setOnClickListener(v -> {
-            SharedPreferences.Editor editor = prefs.edit();
-            editor.putBoolean("isSatellite", mapTypeGroup.getCheckedRadioButtonId() == R.id.satelliteType);
-            editor.putBoolean("isCourseUp", navigationModeGroup.getCheckedRadioButtonId() == R.id.courseUp);
-            editor.apply();
+            int[] retention = RETENTION_PRESETS[0];
+            for (int[] preset : RETENTION_PRESETS) {
+                if (preset[0] == retentionGroup.getCheckedRadioButtonId()) retention = preset;
+            }
+            MapSettings saved = new MapSettings(
+                    mapTypeGroup.getCheckedRadioButtonId() == R.id.satelliteType,
+                    navigationModeGroup.getCheckedRadioButtonId() == R.id.courseUp,
+                    packedStorageCheck.isChecked(),
+                    fixSmoothingCheck.isChecked(),
+                    batchedDeliveryCheck.isChecked(),
+                    metricsCheck.isChecked(),
+                    retention[1],
+                    retention[2]);
+            MapSettings.save(this, saved);
+            // a manutenção do banco só fica agendada com a retenção ligada
+            TrailMaintenanceJobService.schedule(this, saved);
             Toast.makeText(this, "Configurações salvas!", Toast.LENGTH_SHORT).show();
         });
     }
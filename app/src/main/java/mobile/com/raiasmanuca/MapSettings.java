@@ -0,0 +1,167 @@
+package mobile.com.raiasmanuca;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Configurações do mapa e da gravação, lidas uma vez do SharedPreferences "MapSettings" e
+// guardadas em memória como um objeto imutável.
+//
+// Quem precisa de uma configuração no caminho quente (cada fix do GPS, cada retrato) lê um
+// campo final do retrato atual, sem consultar o SharedPreferences. Quando a MapConfigActivity
+// salva, o OnSharedPreferenceChangeListener monta um retrato novo e avisa os Listeners, que
+// aplicam a mudança sem reabrir a tela.
+//
+// Para acrescentar uma configuração: a chave, o campo, a leitura em read() e a escrita em
+// save(); quem não usa o campo novo não paga nada por ele.
+public final class MapSettings {
+    public static final String PREFS_NAME = "MapSettings";
+
+    static final String KEY_SATELLITE = "isSatellite";
+    static final String KEY_COURSE_UP = "isCourseUp";
+    static final String KEY_PACKED_STORAGE = "isPackedStorage";
+    static final String KEY_FIX_SMOOTHING = "isFixSmoothing";
+    static final String KEY_BATCHED_DELIVERY = "isBatchedDelivery";
+    static final String KEY_METRICS_ENABLED = "isMetricsEnabled";
+    static final String KEY_PACK_AFTER_DAYS = "packAfterDays";
+    static final String KEY_DOWNSAMPLE_AFTER_DAYS = "downsampleAfterDays";
+
+    // Recebe o retrato novo depois de uma mudança, na thread principal.
+    public interface Listener {
+        void onMapSettingsChanged(MapSettings settings);
+    }
+
+    // mapa em modo satélite (senão, vetorial)
+    public final boolean satellite;
+    // a câmera gira com a direção do movimento (senão, norte para cima)
+    public final boolean courseUp;
+    // as trilhas encerradas são compactadas no banco
+    public final boolean packedStorage;
+    // os fixes do GPS são suavizados (filtro de Kalman) na gravação
+    public final boolean fixSmoothing;
+    // o GPS entrega os fixes em lote (acorda menos o aparelho)
+    public final boolean batchedDelivery;
+    // as métricas de desempenho (Metrics) são coletadas e mostradas
+    public final boolean metricsEnabled;
+    // retenção das trilhas antigas: dias até compactar e até simplificar (0 = nunca)
+    public final int packAfterDays;
+    public final int downsampleAfterDays;
+
+    private static volatile MapSettings current;
+    private static SharedPreferences prefs;
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    // o SharedPreferences guarda o listener só por referência fraca; este campo o mantém vivo
+    private static final SharedPreferences.OnSharedPreferenceChangeListener prefsListener =
+            (sharedPreferences, key) -> refresh();
+
+    public MapSettings(boolean satellite, boolean courseUp, boolean packedStorage,
+                       boolean fixSmoothing, boolean batchedDelivery, boolean metricsEnabled,
+                       int packAfterDays, int downsampleAfterDays) {
+        this.satellite = satellite;
+        this.courseUp = courseUp;
+        this.packedStorage = packedStorage;
+        this.fixSmoothing = fixSmoothing;
+        this.batchedDelivery = batchedDelivery;
+        this.metricsEnabled = metricsEnabled;
+        this.packAfterDays = packAfterDays;
+        this.downsampleAfterDays = downsampleAfterDays;
+    }
+
+    // política de retenção usada pela manutenção do banco (TrailMaintenance)
+    public RetentionPolicy retentionPolicy() {
+        return new RetentionPolicy(packAfterDays, downsampleAfterDays, RetentionPolicy.DEFAULT_TOLERANCE_METERS);
+    }
+
+    // Retrato atual. Na primeira chamada lê o SharedPreferences e passa a acompanhar as mudanças.
+    public static MapSettings get(Context context) {
+        MapSettings settings = current;
+        if (settings == null) {
+            synchronized (MapSettings.class) {
+                if (current == null) {
+                    prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+                    prefs.registerOnSharedPreferenceChangeListener(prefsListener);
+                    apply(read(prefs));
+                }
+                settings = current;
+            }
+        }
+        return settings;
+    }
+
+    // Grava as configurações; os Listeners são avisados quando a gravação termina.
+    public static void save(Context context, MapSettings settings) {
+        get(context);
+        prefs.edit()
+                .putBoolean(KEY_SATELLITE, settings.satellite)
+                .putBoolean(KEY_COURSE_UP, settings.courseUp)
+                .putBoolean(KEY_PACKED_STORAGE, settings.packedStorage)
+                .putBoolean(KEY_FIX_SMOOTHING, settings.fixSmoothing)
+                .putBoolean(KEY_BATCHED_DELIVERY, settings.batchedDelivery)
+                .putBoolean(KEY_METRICS_ENABLED, settings.metricsEnabled)
+                .putInt(KEY_PACK_AFTER_DAYS, settings.packAfterDays)
+                .putInt(KEY_DOWNSAMPLE_AFTER_DAYS, settings.downsampleAfterDays)
+                .apply();
+    }
+
+    public static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    static MapSettings read(SharedPreferences prefs) {
+        return new MapSettings(
+                prefs.getBoolean(KEY_SATELLITE, false),
+                prefs.getBoolean(KEY_COURSE_UP, false),
+                prefs.getBoolean(KEY_PACKED_STORAGE, false),
+                prefs.getBoolean(KEY_FIX_SMOOTHING, false),
+                prefs.getBoolean(KEY_BATCHED_DELIVERY, false),
+                prefs.getBoolean(KEY_METRICS_ENABLED, false),
+                prefs.getInt(KEY_PACK_AFTER_DAYS, 0),
+                prefs.getInt(KEY_DOWNSAMPLE_AFTER_DAYS, 0));
+    }
+
+    // relê tudo depois de uma mudança e avisa os Listeners se algo mudou
+    private static void refresh() {
+        MapSettings settings = read(prefs);
+        if (settings.equals(current)) return;
+        apply(settings);
+        for (Listener listener : listeners) {
+            listener.onMapSettingsChanged(settings);
+        }
+    }
+
+    private static void apply(MapSettings settings) {
+        current = settings;
+        // as métricas valem para o processo todo
+        Metrics.setEnabled(settings.metricsEnabled);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof MapSettings)) return false;
+        MapSettings other = (MapSettings) o;
+        return satellite == other.satellite && courseUp == other.courseUp
+                && packedStorage == other.packedStorage && fixSmoothing == other.fixSmoothing
+                && batchedDelivery == other.batchedDelivery && metricsEnabled == other.metricsEnabled
+                && packAfterDays == other.packAfterDays && downsampleAfterDays == other.downsampleAfterDays;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = satellite ? 1 : 0;
+        result = 31 * result + (courseUp ? 1 : 0);
+        result = 31 * result + (packedStorage ? 1 : 0);
+        result = 31 * result + (fixSmoothing ? 1 : 0);
+        result = 31 * result + (batchedDelivery ? 1 : 0);
+        result = 31 * result + (metricsEnabled ? 1 : 0);
+        result = 31 * result + packAfterDays;
+        result = 31 * result + downsampleAfterDays;
+        return result;
+    }
+}
@@ -0,0 +1,145 @@
+package mobile.com.raiasmanuca;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+// Mede a abertura de cada tela: do início (criação da Activity; na primeira tela do processo,
+// o início do processo) até o primeiro quadro desenhado e, nas telas com mapa, até o mapa
+// terminar de desenhar os ladrilhos visíveis (OnMapLoadedCallback).
+// Os tempos vão para o log, para as métricas (startup.<Activity>.first_frame e .map_loaded,
+// se estiverem ligadas) e para o Listener, usado pelo StartupBenchmark.
+// Também guarda o trabalho que pode esperar o primeiro quadro (runAfterFirstFrame).
+// Registrado uma vez pela TrailApplication; tudo roda na thread principal.
+public class StartupTracer implements Application.ActivityLifecycleCallbacks {
+    private static final String TAG = "StartupTracer";
+    public static final String STAGE_FIRST_FRAME = "first_frame";
+    public static final String STAGE_MAP_LOADED = "map_loaded";
+
+    public interface Listener {
+        // processStart: o tempo conta desde o início do processo (abertura a frio)
+        void onStartupTiming(String activityName, String stage, long millis, boolean processStart);
+    }
+
+    // abertura de uma Activity
+    private static class Trace {
+        final long startUptimeMillis;
+        final boolean processStart;
+        ViewTreeObserver.OnDrawListener drawListener;
+        boolean drawn;
+        boolean mapLoaded;
+        final List<Runnable> afterFirstFrame = new ArrayList<>();
+
+        Trace(long startUptimeMillis, boolean processStart) {
+            this.startUptimeMillis = startUptimeMillis;
+            this.processStart = processStart;
+        }
+    }
+
+    private static final Map<Activity, Trace> traces = new WeakHashMap<>();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static boolean firstActivity = true;
+    private static volatile Listener listener;
+
+    public static void setListener(Listener value) {
+        listener = value;
+    }
+
+    // Roda "task" na thread principal logo depois do primeiro quadro da Activity (na hora, se
+    // ele já foi desenhado). Não roda se a Activity for destruída antes.
+    public static void runAfterFirstFrame(Activity activity, Runnable task) {
+        Trace trace = traces.get(activity);
+        if (trace == null || trace.drawn) {
+            task.run();
+        } else {
+            trace.afterFirstFrame.add(task);
+        }
+    }
+
+    // Chamado pelas telas com mapa; registra só o primeiro carregamento.
+    public static void onMapLoaded(Activity activity) {
+        Trace trace = traces.get(activity);
+        if (trace == null || trace.mapLoaded) return;
+        trace.mapLoaded = true;
+        report(activity, trace, STAGE_MAP_LOADED);
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        // a primeira tela do processo conta desde o início dele: carregar as classes, criar a
+        // TrailApplication e o processo em si fazem parte da abertura a frio
+        boolean processStart = firstActivity;
+        firstActivity = false;
+        long start = processStart ? Process.getStartUptimeMillis() : SystemClock.uptimeMillis();
+        traces.put(activity, new Trace(start, processStart));
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+        final Trace trace = traces.get(activity);
+        if (trace == null || trace.drawn || trace.drawListener != null) return;
+        // o layout já existe (setContentView em onCreate); o primeiro onDraw é o do primeiro quadro
+        final View decorView = activity.getWindow().getDecorView();
+        trace.drawListener = () -> {
+            if (trace.drawn) return;
+            trace.drawn = true;
+            // o listener não pode ser removido durante o onDraw; o post roda depois do quadro
+            mainHandler.post(() -> {
+                decorView.getViewTreeObserver().removeOnDrawListener(trace.drawListener);
+                if (!traces.containsKey(activity)) return;
+                report(activity, trace, STAGE_FIRST_FRAME);
+                for (Runnable task : trace.afterFirstFrame) {
+                    task.run();
+                }
+                trace.afterFirstFrame.clear();
+            });
+        };
+        decorView.getViewTreeObserver().addOnDrawListener(trace.drawListener);
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+        traces.remove(activity);
+    }
+
+    private static void report(Activity activity, Trace trace, String stage) {
+        String name = activity.getClass().getSimpleName();
+        long millis = SystemClock.uptimeMillis() - trace.startUptimeMillis;
+        Log.i(TAG, name + " " + stage + ": " + millis + " ms" + (trace.processStart ? " (desde o início do processo)" : ""));
+        if (Metrics.isEnabled()) {
+            Metrics.timer("startup." + name + "." + stage).record(millis * 1_000_000L);
+        }
+        Listener current = listener;
+        if (current != null) {
+            current.onStartupTiming(name, stage, millis, trace.processStart);
+        }
+    }
+}
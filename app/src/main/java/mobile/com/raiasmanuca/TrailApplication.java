@@ -0,0 +1,49 @@
+package mobile.com.raiasmanuca;
+
+import android.app.Application;
+import android.util.Log;
+
+import androidx.appcompat.app.AppCompatDelegate;
+
+// Inicialização do processo, feita uma única vez antes da primeira tela. Na thread principal fica
+// só o que precisa estar pronto antes do primeiro quadro (o tema e o StartupTracer); o resto
+// roda na thread "Startup", enquanto a primeira tela é montada.
+public class TrailApplication extends Application {
+    private static final String TAG = "TrailApplication";
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // tema escuro em todas as telas (antes cada Activity fazia isso no seu onCreate)
+        AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_YES);
+        registerActivityLifecycleCallbacks(new StartupTracer());
+        startWarmUp();
+    }
+
+    // os testes com Robolectric trocam por nada (TestTrailApplication)
+    void startWarmUp() {
+        new Thread(this::warmUp, "Startup").start();
+    }
+
+    // Lê as configurações, agenda a manutenção e abre o banco uma vez. A primeira abertura depois
+    // de uma atualização do app cria ou atualiza as tabelas e reaplica o diário de uma gravação
+    // interrompida; feita aqui, as telas e o serviço de gravação encontram o banco pronto.
+    private void warmUp() {
+        // isso também liga as métricas, se estiverem marcadas
+        MapSettings settings = MapSettings.get(this);
+        // agenda a manutenção do banco (retenção das trilhas antigas), se estiver ligada
+        TrailMaintenanceJobService.schedule(this, settings);
+
+        long t0 = System.nanoTime();
+        DatabaseHelper dbHelper = new DatabaseHelper(this);
+        try {
+            dbHelper.getWritableDatabase();
+            Log.d(TAG, "Banco aberto em " + (System.nanoTime() - t0) / 1000000 + " ms");
+        } catch (RuntimeException e) {
+            // quem usar o banco depois tenta de novo e trata o erro
+            Log.w(TAG, "Falha ao abrir o banco", e);
+        } finally {
+            dbHelper.close();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package mobile.com.raiasmanuca;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+// Importa trilhas de um arquivo GPX lendo o XML como fluxo (XmlPullParser), sem montar o
+// documento na memória. Os pontos vão para arrays de tamanho fixo e cada BATCH_SIZE pontos
+// viram um lote gravado numa única transação, então a memória usada não depende do tamanho
+// do arquivo.
+//
+// Cada <trk> vira uma trilha nova (com um UUID novo); os <trkseg> de um <trk> são juntados.
+// Pontos sem <time> ficam um segundo depois do anterior.
+public class TrailImporter {
+    // Destino da importação. O DatabaseHelper implementa isso com os métodos que já tem.
+    public interface Target extends TrailPointWriter.Sink {
+        void startSession(String trailId, long startTime);
+
+        void finishSession(String trailId, long endTime);
+    }
+
+    // pontos por lote (por transação)
+    static final int BATCH_SIZE = 4096;
+    // espaçamento usado para pontos sem horário
+    private static final long MISSING_TIME_STEP_MILLIS = 1000;
+
+    private final double[] latitudes = new double[BATCH_SIZE];
+    private final double[] longitudes = new double[BATCH_SIZE];
+    private final long[] timestamps = new long[BATCH_SIZE];
+    private int size = 0;
+
+    private Target target;
+    private String trailId;
+    private int trailPoints;
+    private long lastTime;
+    private long pointsImported;
+
+    // Lê o GPX e grava as trilhas. Retorna os ids das trilhas criadas.
+    public List<String> importGpx(InputStream in, Target target) throws IOException, XmlPullParserException {
+        this.target = target;
+        pointsImported = 0;
+        List<String> trailIds = new ArrayList<>();
+
+        XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+        parser.setInput(in, null);
+
+        boolean inPoint = false;
+        boolean readingTime = false;
+        double latitude = 0;
+        double longitude = 0;
+        long time = 0;
+        boolean hasTime = false;
+
+        int event = parser.getEventType();
+        while (event != XmlPullParser.END_DOCUMENT) {
+            if (event == XmlPullParser.START_TAG) {
+                String name = parser.getName();
+                if ("trk".equals(name)) {
+                    beginTrail();
+                } else if ("trkpt".equals(name) && trailId != null) {
+                    latitude = Double.parseDouble(parser.getAttributeValue(null, "lat"));
+                    longitude = Double.parseDouble(parser.getAttributeValue(null, "lon"));
+                    hasTime = false;
+                    inPoint = true;
+                } else if ("time".equals(name) && inPoint) {
+                    readingTime = true;
+                }
+            } else if (event == XmlPullParser.TEXT && readingTime) {
+                String text = parser.getText().trim();
+                if (!text.isEmpty()) {
+                    time = parseTime(text);
+                    hasTime = true;
+                }
+            } else if (event == XmlPullParser.END_TAG) {
+                String name = parser.getName();
+                if ("time".equals(name)) {
+                    readingTime = false;
+                } else if ("trkpt".equals(name) && inPoint) {
+                    inPoint = false;
+                    addPoint(latitude, longitude, hasTime ? time : lastTime + MISSING_TIME_STEP_MILLIS);
+                } else if ("trk".equals(name) && trailId != null) {
+                    if (endTrail()) trailIds.add(trailId);
+                    trailId = null;
+                }
+            }
+            event = parser.next();
+        }
+        return trailIds;
+    }
+
+    public long getPointsImported() {
+        return pointsImported;
+    }
+
+    private void beginTrail() {
+        trailId = UUID.randomUUID().toString();
+        trailPoints = 0;
+        size = 0;
+        lastTime = System.currentTimeMillis() - MISSING_TIME_STEP_MILLIS;
+    }
+
+    private void addPoint(double latitude, double longitude, long time) {
+        if (trailPoints == 0) {
+            // a sessão começa no primeiro ponto
+            target.startSession(trailId, time);
+        }
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        timestamps[size] = time;
+        size++;
+        trailPoints++;
+        lastTime = time;
+        if (size == BATCH_SIZE) flushBatch();
+    }
+
+    private void flushBatch() {
+        if (size == 0) return;
+        target.writeBatch(trailId, latitudes, longitudes, timestamps, size);
+        pointsImported += size;
+        size = 0;
+    }
+
+    // grava o resto da trilha e fecha a sessão; retorna false se a trilha não tinha pontos
+    private boolean endTrail() {
+        if (trailPoints == 0) return false;
+        flushBatch();
+        target.finishSession(trailId, lastTime);
+        return true;
+    }
+
+    // Converte uma data xsd:dateTime ("2024-05-01T12:30:00Z", com ou sem fração de segundo
+    // e com "Z", fuso "+hh:mm" ou nenhum fuso, que é tratado como UTC) em ms desde 1970.
+    static long parseTime(String text) {
+        try {
+            int year = Integer.parseInt(text.substring(0, 4));
+            int month = Integer.parseInt(text.substring(5, 7));
+            int day = Integer.parseInt(text.substring(8, 10));
+            int hour = Integer.parseInt(text.substring(11, 13));
+            int minute = Integer.parseInt(text.substring(14, 16));
+            int second = Integer.parseInt(text.substring(17, 19));
+            int pos = 19;
+            long millis = 0;
+            if (pos < text.length() && text.charAt(pos) == '.') {
+                pos++;
+                long scale = 100;
+                while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+                    millis += (text.charAt(pos) - '0') * scale;
+                    scale /= 10;
+                    pos++;
+                }
+            }
+            long offsetMillis = 0;
+            if (pos < text.length() && (text.charAt(pos) == '+' || text.charAt(pos) == '-')) {
+                int sign = text.charAt(pos) == '-' ? -1 : 1;
+                int offsetHours = Integer.parseInt(text.substring(pos + 1, pos + 3));
+                int offsetMinutes = Integer.parseInt(text.substring(pos + 4, pos + 6));
+                offsetMillis = sign * (offsetHours * 3_600_000L + offsetMinutes * 60_000L);
+            }
+            long days = daysFromCivil(year, month, day);
+            return days * 86_400_000L + hour * 3_600_000L + minute * 60_000L + second * 1000L + millis - offsetMillis;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Data inválida no GPX: " + text, e);
+        }
+    }
+
+    // dias desde 1970-01-01 (algoritmo de Howard Hinnant, o inverso do usado no TrailExporter)
+    private static long daysFromCivil(long year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = Math.floorDiv(year, 400);
+        long yoe = year - era * 400;
+        long doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+}
@@ -0,0 +1,255 @@
+package mobile.com.raiasmanuca;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.Button;
+import android.widget.ListView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Lista as trilhas gravadas, da mais recente para a mais antiga. Tocar em uma trilha abre a
+// TrailViewActivity só com ela.
+//
+// A lista lê a tabela trail_summaries (que já tem distância, duração e quantidade de pontos),
+// sem tocar nos pontos, em páginas de PAGE_SIZE trilhas. As páginas são lidas em uma thread
+// de fundo e a próxima é pedida quando a rolagem chega perto do fim.
+//
+// Tocar e segurar uma trilha exporta ela em GPX ou GeoJSON; o botão de importar lê um GPX.
+// Os arquivos são escolhidos pelo seletor de documentos do sistema e lidos/escritos como
+// fluxo na thread de fundo (TrailExporter/TrailImporter).
+public class TrailListActivity extends AppCompatActivity {
+    // quantidade de trilhas lidas por página
+    static final int PAGE_SIZE = 50;
+    // a próxima página é lida quando faltam menos que isso para o fim da lista
+    private static final int PREFETCH_DISTANCE = 10;
+
+    private static final int REQUEST_EXPORT_GPX = 1;
+    private static final int REQUEST_EXPORT_GEOJSON = 2;
+    private static final int REQUEST_IMPORT_GPX = 3;
+
+    private DatabaseHelper dbHelper;
+    private final ExecutorService loadExecutor = Executors.newSingleThreadExecutor();
+    private Executor mainExecutor;
+
+    private final List<TrailSummary> trails = new ArrayList<>();
+    private TrailAdapter adapter;
+    private TextView emptyText;
+    private boolean loading = false;
+    private boolean reachedEnd = false;
+    // trilha escolhida para exportar, enquanto o seletor de arquivo está aberto
+    private String exportTrailId;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_trail_list);
+
+        dbHelper = new DatabaseHelper(this);
+        mainExecutor = ContextCompat.getMainExecutor(this);
+
+        ListView listView = findViewById(R.id.trailList);
+        emptyText = findViewById(R.id.trailListEmptyText);
+        adapter = new TrailAdapter();
+        listView.setAdapter(adapter);
+
+        // abre a trilha escolhida
+        listView.setOnItemClickListener((parent, view, position, id) -> {
+            Intent intent = new Intent(this, TrailViewActivity.class);
+            intent.putExtra(TrailViewActivity.EXTRA_TRAIL_ID, trails.get(position).getTrailId());
+            startActivity(intent);
+        });
+
+        // exporta a trilha escolhida
+        listView.setOnItemLongClickListener((parent, view, position, id) -> {
+            chooseExportFormat(trails.get(position).getTrailId());
+            return true;
+        });
+
+        Button btnImportGpx = findViewById(R.id.btnImportGpx);
+        btnImportGpx.setOnClickListener(v -> {
+            Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("*/*");
+            startActivityForResult(intent, REQUEST_IMPORT_GPX);
+        });
+
+        // pede a próxima página quando a rolagem se aproxima do fim
+        listView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (firstVisibleItem + visibleItemCount >= totalItemCount - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
+
+        loadNextPage();
+    }
+
+    // Lê a próxima página em segundo plano e acrescenta à lista na thread principal.
+    private void loadNextPage() {
+        if (loading || reachedEnd) return;
+        loading = true;
+        final TrailSummary after = trails.isEmpty() ? null : trails.get(trails.size() - 1);
+        loadExecutor.execute(() -> {
+            final List<TrailSummary> page = dbHelper.getTrailSummaries(after, PAGE_SIZE);
+            mainExecutor.execute(() -> showPage(page));
+        });
+    }
+
+    private void showPage(List<TrailSummary> page) {
+        if (isDestroyed()) return;
+        loading = false;
+        if (page.size() < PAGE_SIZE) reachedEnd = true;
+        trails.addAll(page);
+        adapter.notifyDataSetChanged();
+        emptyText.setVisibility(trails.isEmpty() ? View.VISIBLE : View.GONE);
+    }
+
+    // Pergunta o formato e abre o seletor para criar o arquivo.
+    private void chooseExportFormat(String trailId) {
+        exportTrailId = trailId;
+        new AlertDialog.Builder(this)
+                .setTitle("Exportar trilha")
+                .setItems(new CharSequence[]{"GPX", "GeoJSON"}, (dialog, which) -> {
+                    boolean gpx = which == 0;
+                    Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+                    intent.addCategory(Intent.CATEGORY_OPENABLE);
+                    intent.setType(gpx ? "application/gpx+xml" : "application/geo+json");
+                    intent.putExtra(Intent.EXTRA_TITLE, "trilha-" + trailId + (gpx ? ".gpx" : ".geojson"));
+                    startActivityForResult(intent, gpx ? REQUEST_EXPORT_GPX : REQUEST_EXPORT_GEOJSON);
+                })
+                .show();
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) return;
+        final Uri uri = data.getData();
+        if (requestCode == REQUEST_IMPORT_GPX) {
+            importGpx(uri);
+        } else if ((requestCode == REQUEST_EXPORT_GPX || requestCode == REQUEST_EXPORT_GEOJSON) && exportTrailId != null) {
+            export(exportTrailId, uri, requestCode == REQUEST_EXPORT_GPX);
+        }
+    }
+
+    // Escreve a trilha no arquivo escolhido, na thread de fundo.
+    private void export(final String trailId, final Uri uri, final boolean gpx) {
+        loadExecutor.execute(() -> {
+            String message;
+            try (OutputStream out = getContentResolver().openOutputStream(uri)) {
+                TrailExporter exporter = new TrailExporter();
+                int count = gpx ? exporter.writeGpx(dbHelper, trailId, out)
+                        : exporter.writeGeoJson(dbHelper, trailId, out);
+                message = count + " pontos exportados.";
+            } catch (Exception e) {
+                Log.e("TrailListActivity", "Falha ao exportar a trilha", e);
+                message = "Não foi possível exportar a trilha.";
+            }
+            showMessage(message);
+        });
+    }
+
+    // Lê o GPX escolhido e recarrega a lista com as trilhas importadas.
+    private void importGpx(final Uri uri) {
+        loadExecutor.execute(() -> {
+            String message;
+            try (InputStream in = getContentResolver().openInputStream(uri)) {
+                TrailImporter importer = new TrailImporter();
+                List<String> imported = importer.importGpx(in, dbHelper);
+                message = imported.size() + " trilha(s) importada(s), " + importer.getPointsImported() + " pontos.";
+            } catch (Exception e) {
+                Log.e("TrailListActivity", "Falha ao importar o GPX", e);
+                message = "Não foi possível importar o arquivo.";
+            }
+            final String finalMessage = message;
+            mainExecutor.execute(() -> {
+                if (isDestroyed()) return;
+                Toast.makeText(this, finalMessage, Toast.LENGTH_LONG).show();
+                reload();
+            });
+        });
+    }
+
+    private void showMessage(final String message) {
+        mainExecutor.execute(() -> {
+            if (!isDestroyed()) Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+        });
+    }
+
+    // Volta para a primeira página (depois de uma importação).
+    private void reload() {
+        trails.clear();
+        adapter.notifyDataSetChanged();
+        reachedEnd = false;
+        loading = false;
+        loadNextPage();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // o banco é fechado na mesma thread das consultas, depois da última página pedida
+        loadExecutor.execute(dbHelper::close);
+        loadExecutor.shutdown();
+    }
+
+    // Adaptador da lista: cada item mostra o início da trilha e, abaixo, distância, duração e pontos.
+    private class TrailAdapter extends BaseAdapter {
+        @Override
+        public int getCount() {
+            return trails.size();
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return trails.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            View view = convertView;
+            if (view == null) {
+                view = LayoutInflater.from(parent.getContext())
+                        .inflate(android.R.layout.simple_list_item_2, parent, false);
+            }
+            TrailSummary summary = trails.get(position);
+            Locale locale = Locale.getDefault();
+            ((TextView) view.findViewById(android.R.id.text1))
+                    .setText(TrailInfoFormatter.formatListTitle(summary, locale));
+            ((TextView) view.findViewById(android.R.id.text2))
+                    .setText(TrailInfoFormatter.formatListDetails(summary, locale));
+            return view;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package mobile.com.raiasmanuca;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+// Carrega uma trilha fora da thread principal e entrega o resultado aos poucos.
+//
+// A leitura do banco, o cálculo das estatísticas, a simplificação e a formatação do texto
+// rodam no executor de fundo. Enquanto os pontos são lidos, trechos já simplificados são
+// enviados à thread principal (onChunk) para que o começo da trilha apareça logo; no fim,
+// onLoaded entrega as estatísticas e os níveis de detalhe completos.
+// cancel() interrompe a leitura e descarta qualquer entrega pendente.
+public class TrailLoader {
+    // Recebe os resultados, sempre no executor principal.
+    public interface Listener {
+        // trecho da trilha já lido (simplificado); o primeiro ponto repete o último do trecho anterior
+        void onChunk(List<LatLng> points);
+
+        void onLoaded(String trailId, TrailStats stats, TrailLod lod, String info);
+
+        // nenhuma trilha (ou trilha sem pontos)
+        void onEmpty();
+    }
+
+    // Gancho de instrumentação com os tempos medidos em cada carga.
+    public interface TimingListener {
+        void onTimings(Timings timings);
+    }
+
+    // Tempos de uma carga, em nanossegundos.
+    public static final class Timings {
+        public final int pointCount;
+        // do start() até o primeiro trecho ser entregue na thread principal
+        public final long timeToFirstChunkNanos;
+        // do start() até o onLoaded
+        public final long totalNanos;
+        // soma do tempo gasto na thread principal pelos callbacks do Listener
+        public final long mainThreadNanos;
+        // maior bloqueio contínuo da thread principal causado pela carga
+        public final long maxMainThreadBlockNanos;
+
+        Timings(int pointCount, long timeToFirstChunkNanos, long totalNanos,
+                long mainThreadNanos, long maxMainThreadBlockNanos) {
+            this.pointCount = pointCount;
+            this.timeToFirstChunkNanos = timeToFirstChunkNanos;
+            this.totalNanos = totalNanos;
+            this.mainThreadNanos = mainThreadNanos;
+            this.maxMainThreadBlockNanos = maxMainThreadBlockNanos;
+        }
+    }
+
+    // tamanho do primeiro trecho; os seguintes dobram até MAX_CHUNK_POINTS
+    static final int FIRST_CHUNK_POINTS = 256;
+    static final int MAX_CHUNK_POINTS = 32768;
+    // tolerância usada nos trechos progressivos, antes dos níveis de detalhe ficarem prontos
+    static final double CHUNK_TOLERANCE_METERS = 5;
+
+    // fases da carga: leitura do banco (com estatísticas e trechos), níveis de detalhe,
+    // formatação do texto, primeiro trecho na tela, carga inteira e tempo na thread principal
+    private static final Metrics.Timer READ_TIMER = Metrics.timer("load.read");
+    private static final Metrics.Timer LOD_TIMER = Metrics.timer("load.lod");
+    private static final Metrics.Timer FORMAT_TIMER = Metrics.timer("load.format");
+    private static final Metrics.Timer FIRST_CHUNK_TIMER = Metrics.timer("load.first_chunk");
+    private static final Metrics.Timer TOTAL_TIMER = Metrics.timer("load.total");
+    private static final Metrics.Timer MAIN_THREAD_TIMER = Metrics.timer("load.main_thread");
+    private static final Metrics.Counter POINTS_LOADED = Metrics.counter("load.points");
+
+    private final TrailPointSource source;
+    private final Executor backgroundExecutor;
+    private final Executor mainExecutor;
+    private final Locale locale;
+    private TimingListener timingListener;
+
+    private volatile boolean cancelled = false;
+    private long startNanos;
+    private long firstChunkNanos = -1;
+    // só acessados na thread principal
+    private long mainThreadNanos = 0;
+    private long maxMainThreadBlockNanos = 0;
+
+    public TrailLoader(TrailPointSource source, Executor backgroundExecutor, Executor mainExecutor, Locale locale) {
+        this.source = source;
+        this.backgroundExecutor = backgroundExecutor;
+        this.mainExecutor = mainExecutor;
+        this.locale = locale;
+    }
+
+    public void setTimingListener(TimingListener timingListener) {
+        this.timingListener = timingListener;
+    }
+
+    // Começa a carregar a trilha; se trailId for null, carrega a última gravada.
+    public void start(String trailId, Listener listener) {
+        startNanos = System.nanoTime();
+        backgroundExecutor.execute(() -> load(trailId, listener));
+    }
+
+    // Interrompe a carga. Depois disso nenhum callback do Listener é chamado.
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void load(String requestedTrailId, Listener listener) {
+        if (cancelled) return;
+        String trailId = requestedTrailId != null ? requestedTrailId : source.getLatestTrailId();
+        if (trailId == null) {
+            postEmpty(listener);
+            return;
+        }
+
+        ProgressiveVisitor visitor = new ProgressiveVisitor(listener);
+        long readStart = Metrics.start();
+        try {
+            source.forEachPoint(trailId, visitor);
+        } catch (LoadCancelledException e) {
+            return;
+        } catch (RuntimeException e) {
+            // o banco pode ser fechado no meio da leitura quando a Activity é destruída
+            if (cancelled) return;
+            throw e;
+        }
+        if (cancelled) return;
+        READ_TIMER.stop(readStart);
+
+        TrackBuffer track = visitor.track;
+        if (track.size() == 0) {
+            postEmpty(listener);
+            return;
+        }
+        visitor.postPendingChunk();
+
+        // os níveis de detalhe ficam em cache; só são calculados na primeira vez que a trilha é aberta
+        long lodStart = Metrics.start();
+        TrailLod lod = TrailLodCache.get(trailId);
+        if (lod == null || lod.getOriginalCount() != track.size()) {
+            lod = TrailLod.build(track);
+            TrailLodCache.put(trailId, lod);
+        }
+        LOD_TIMER.stop(lodStart);
+        TrailStats stats = visitor.stats;
+        long formatStart = Metrics.start();
+        String info = TrailInfoFormatter.format(stats, locale);
+        FORMAT_TIMER.stop(formatStart);
+        if (cancelled) return;
+
+        final TrailLod finalLod = lod;
+        final String finalTrailId = trailId;
+        final int pointCount = track.size();
+        postToMain(() -> listener.onLoaded(finalTrailId, stats, finalLod, info), () -> {
+            if (Metrics.isEnabled()) {
+                // startNanos é sempre medido, então os tempos valem mesmo com as métricas
+                // ligadas no meio da carga
+                TOTAL_TIMER.record(System.nanoTime() - startNanos);
+                if (firstChunkNanos >= 0) FIRST_CHUNK_TIMER.record(firstChunkNanos - startNanos);
+                MAIN_THREAD_TIMER.record(mainThreadNanos);
+                POINTS_LOADED.add(pointCount);
+            }
+            if (timingListener != null) {
+                timingListener.onTimings(new Timings(pointCount,
+                        firstChunkNanos >= 0 ? firstChunkNanos - startNanos : -1,
+                        System.nanoTime() - startNanos, mainThreadNanos, maxMainThreadBlockNanos));
+            }
+        });
+    }
+
+    private void postEmpty(Listener listener) {
+        postToMain(listener::onEmpty, null);
+    }
+
+    // Executa a ação na thread principal, medindo o tempo gasto nela, a menos que a carga
+    // tenha sido cancelada. "after" roda logo depois, fora da medição.
+    private void postToMain(Runnable action, Runnable after) {
+        mainExecutor.execute(() -> {
+            if (cancelled) return;
+            long t0 = System.nanoTime();
+            action.run();
+            long elapsed = System.nanoTime() - t0;
+            mainThreadNanos += elapsed;
+            if (elapsed > maxMainThreadBlockNanos) maxMainThreadBlockNanos = elapsed;
+            if (after != null) after.run();
+        });
+    }
+
+    // Acumula os pontos, as estatísticas e envia trechos simplificados conforme a leitura avança.
+    private class ProgressiveVisitor implements TrailPointVisitor {
+        final TrackBuffer track = new TrackBuffer();
+        final TrailStats stats = new TrailStats();
+        private final Listener listener;
+        // início do trecho ainda não enviado (inclui o último ponto do trecho anterior)
+        private int chunkStart = 0;
+        private int chunkSize = FIRST_CHUNK_POINTS;
+        private int[] indices = new int[FIRST_CHUNK_POINTS + 1];
+
+        ProgressiveVisitor(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onPoint(double latitude, double longitude, long timestamp) {
+            if (cancelled) throw new LoadCancelledException();
+            track.onPoint(latitude, longitude, timestamp);
+            stats.onPoint(latitude, longitude, timestamp);
+            if (track.size() - chunkStart > chunkSize) {
+                postPendingChunk();
+                chunkSize = Math.min(chunkSize * 2, MAX_CHUNK_POINTS);
+            }
+        }
+
+        // simplifica e envia os pontos lidos desde o último trecho
+        void postPendingChunk() {
+            int count = track.size() - chunkStart;
+            if (count < 2 && chunkStart > 0) return;
+            double[] lats = new double[count];
+            double[] lngs = new double[count];
+            System.arraycopy(track.latitudes(), chunkStart, lats, 0, count);
+            System.arraycopy(track.longitudes(), chunkStart, lngs, 0, count);
+            if (indices.length < count) indices = new int[count];
+            int kept = TrackSimplifier.simplify(lats, lngs, count, CHUNK_TOLERANCE_METERS, indices);
+
+            final ArrayList<LatLng> points = new ArrayList<>(kept);
+            for (int i = 0; i < kept; i++) {
+                points.add(new LatLng(lats[indices[i]], lngs[indices[i]]));
+            }
+            // o próximo trecho começa no último ponto deste, para a linha continuar ligada
+            chunkStart = track.size() - 1;
+            postToMain(() -> {
+                listener.onChunk(points);
+                if (firstChunkNanos < 0) firstChunkNanos = System.nanoTime();
+            }, null);
+        }
+    }
+
+    // Usada para sair do laço de leitura do cursor quando a carga é cancelada.
+    private static class LoadCancelledException extends RuntimeException {
+        LoadCancelledException() {
+            super("Carga da trilha cancelada");
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package mobile.com.raiasmanuca;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Níveis de detalhe pré-calculados de uma trilha, um para cada faixa de zoom do mapa.
+// Em zoom baixo um pixel cobre dezenas de metros, então a linha pode ter muito menos pontos
+// sem diferença visível. Os pontos de cada nível são escolhidos pelo TrailLodLevels,
+// simplificando os pontos originais com a tolerância da faixa.
+public class TrailLod {
+    private final List<List<LatLng>> levels;
+    private final int originalCount;
+
+    private TrailLod(List<List<LatLng>> levels, int originalCount) {
+        this.levels = levels;
+        this.originalCount = originalCount;
+    }
+
+    // Calcula todos os níveis de uma trilha. Pode demorar em trilhas grandes: chamar fora da thread principal.
+    public static TrailLod build(double[] latitudes, double[] longitudes, int count) {
+        // os objetos LatLng são criados uma vez e compartilhados entre os níveis
+        LatLng[] all = new LatLng[count];
+        for (int i = 0; i < count; i++) {
+            all[i] = new LatLng(latitudes[i], longitudes[i]);
+        }
+
+        int[][] levelIndices = TrailLodLevels.build(latitudes, longitudes, count);
+        List<List<LatLng>> levels = new ArrayList<>(levelIndices.length);
+        for (int[] indices : levelIndices) {
+            if (indices == null) {
+                levels.add(Arrays.asList(all));
+                continue;
+            }
+            ArrayList<LatLng> level = new ArrayList<>(indices.length);
+            for (int index : indices) {
+                level.add(all[index]);
+            }
+            levels.add(level);
+        }
+        return new TrailLod(levels, count);
+    }
+
+    public static TrailLod build(TrackBuffer track) {
+        return build(track.latitudes(), track.longitudes(), track.size());
+    }
+
+    // Índice do nível a ser usado no zoom informado.
+    public static int levelForZoom(float zoom) {
+        return TrailLodLevels.levelForZoom(zoom);
+    }
+
+    public List<LatLng> pointsForLevel(int level) {
+        return levels.get(level);
+    }
+
+    public List<LatLng> pointsForZoom(float zoom) {
+        return pointsForLevel(levelForZoom(zoom));
+    }
+
+    public int getLevelCount() {
+        return levels.size();
+    }
+
+    public int getOriginalCount() {
+        return originalCount;
+    }
+}
@@ -0,0 +1,36 @@
+package mobile.com.raiasmanuca;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Guarda em memória os níveis de detalhe das últimas trilhas abertas, para que
+// reabrir uma trilha não precise simplificar tudo de novo.
+public final class TrailLodCache {
+    // quantidade de trilhas mantidas em memória
+    private static final int MAX_TRAILS = 4;
+
+    // LinkedHashMap em ordem de acesso: a trilha usada há mais tempo é removida primeiro
+    private static final LinkedHashMap<String, TrailLod> cache =
+            new LinkedHashMap<String, TrailLod>(MAX_TRAILS + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, TrailLod> eldest) {
+                    return size() > MAX_TRAILS;
+                }
+            };
+
+    private TrailLodCache() {
+    }
+
+    public static synchronized TrailLod get(String trailId) {
+        return cache.get(trailId);
+    }
+
+    public static synchronized void put(String trailId, TrailLod lod) {
+        cache.put(trailId, lod);
+    }
+
+    // Remove a trilha do cache (quando os pontos dela mudam).
+    public static synchronized void invalidate(String trailId) {
+        cache.remove(trailId);
+    }
+}
@@ -0,0 +1,93 @@
+package mobile.com.raiasmanuca;
+
+import java.util.List;
+
+// Aplica a política de retenção (RetentionPolicy) às trilhas antigas e devolve ao sistema o
+// espaço liberado. Roda em segundo plano (TrailMaintenanceJobService) e em passos curtos:
+// cada trilha é uma transação própria, seguida de um incrementalVacuum de no máximo
+// VACUUM_PAGES páginas e de uma pausa, então o banco nunca fica bloqueado por muito tempo.
+// Se uma gravação começa (o diário do banco está aberto) ou o job é cancelado, a manutenção
+// para no fim do passo atual e continua na próxima execução.
+public class TrailMaintenance {
+    // trilhas lidas por consulta
+    static final int BATCH_TRAILS = 16;
+    // páginas devolvidas depois de cada trilha (1 MB com páginas de 4 KB)
+    static final int VACUUM_PAGES = 256;
+    // pausa entre os passos, para quem estiver esperando o banco
+    static final long PAUSE_MILLIS = 20;
+
+    // resultado de uma execução
+    public static class Result {
+        public int trailsPacked;
+        public int trailsDownsampled;
+        public long pagesFreed;
+        public long sizeBeforeBytes;
+        public long sizeAfterBytes;
+        // false se parou antes de terminar (gravação começou ou o job foi cancelado)
+        public boolean complete;
+
+        @Override
+        public String toString() {
+            return trailsPacked + " trilhas compactadas, " + trailsDownsampled + " simplificadas, "
+                    + pagesFreed + " páginas devolvidas, banco de " + sizeBeforeBytes / 1024 + " KB para "
+                    + sizeAfterBytes / 1024 + " KB" + (complete ? "" : " (interrompida)");
+        }
+    }
+
+    private final DatabaseHelper dbHelper;
+    private final RetentionPolicy policy;
+    private volatile boolean cancelled = false;
+
+    public TrailMaintenance(DatabaseHelper dbHelper, RetentionPolicy policy) {
+        this.dbHelper = dbHelper;
+        this.policy = policy;
+    }
+
+    // Pede para parar no fim do passo atual (de qualquer thread).
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public Result run(long now) {
+        Result result = new Result();
+        result.sizeBeforeBytes = dbHelper.getDatabaseSizeBytes();
+
+        boolean done = false;
+        while (!done && !shouldStop()) {
+            List<String> trailIds = dbHelper.findTrailsForRetention(policy, now, BATCH_TRAILS);
+            done = trailIds.isEmpty();
+            for (String trailId : trailIds) {
+                if (shouldStop()) break;
+                int storage = dbHelper.applyRetention(trailId, policy, now);
+                if (storage == RetentionPolicy.STORAGE_PACKED) result.trailsPacked++;
+                else if (storage == RetentionPolicy.STORAGE_DOWNSAMPLED) result.trailsDownsampled++;
+                result.pagesFreed += dbHelper.incrementalVacuum(VACUUM_PAGES);
+                pause();
+            }
+        }
+        // o que ainda sobrou livre (trilhas apagadas, resumos regravados)
+        while (!shouldStop() && dbHelper.getFreePageCount() > 0) {
+            int freed = dbHelper.incrementalVacuum(VACUUM_PAGES);
+            if (freed == 0) break;
+            result.pagesFreed += freed;
+            pause();
+        }
+        result.complete = done && !shouldStop();
+        result.sizeAfterBytes = dbHelper.getDatabaseSizeBytes();
+        return result;
+    }
+
+    // a gravação tem prioridade: com o diário aberto, o TrailPointWriter está gravando lotes
+    private boolean shouldStop() {
+        return cancelled || PointJournal.isOpen(dbHelper.getJournalFile());
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(PAUSE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package mobile.com.raiasmanuca;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+// Job diário da manutenção do banco (TrailMaintenance), só com o aparelho ocioso e carregando.
+// O trabalho roda em uma thread própria; se o sistema interromper o job, a manutenção para no
+// fim do passo atual e o job é reagendado.
+public class TrailMaintenanceJobService extends JobService {
+    private static final String TAG = "TrailMaintenanceJob";
+    static final int JOB_ID = 1001;
+    private static final long INTERVAL_MILLIS = RetentionPolicy.DAY_MILLIS;
+
+    private volatile TrailMaintenance maintenance;
+
+    // Agenda o job se a política de retenção estiver ligada, ou cancela se não estiver.
+    public static void schedule(Context context, MapSettings settings) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null) return;
+        if (!settings.retentionPolicy().isEnabled()) {
+            scheduler.cancel(JOB_ID);
+            return;
+        }
+        if (scheduler.getPendingJob(JOB_ID) != null) return;
+        scheduler.schedule(new JobInfo.Builder(JOB_ID, new ComponentName(context, TrailMaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(INTERVAL_MILLIS)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        RetentionPolicy policy = MapSettings.get(this).retentionPolicy();
+        if (!policy.isEnabled()) return false;
+        final DatabaseHelper dbHelper = new DatabaseHelper(this);
+        final TrailMaintenance current = new TrailMaintenance(dbHelper, policy);
+        maintenance = current;
+        new Thread(() -> {
+            boolean reschedule = false;
+            try {
+                TrailMaintenance.Result result = current.run(System.currentTimeMillis());
+                Log.d(TAG, "Manutenção: " + result);
+                reschedule = !result.complete;
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Falha na manutenção do banco", e);
+            } finally {
+                dbHelper.close();
+            }
+            jobFinished(params, reschedule);
+        }, "TrailMaintenance").start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        TrailMaintenance current = maintenance;
+        if (current != null) {
+            current.cancel();
+        }
+        // continua na próxima oportunidade
+        return true;
+    }
+}
@@ -1,81 +1,142 @@
 package mobile.com.raiasmanuca;
 
 import android.Manifest;
-import android.content.ContentValues;
-import android.content.SharedPreferences;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
-import android.location.Location;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
 import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.View;
 import android.widget.Chronometer;
 import android.widget.TextView;
+import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
-import androidx.appcompat.app.AppCompatDelegate;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
-import com.google.android.gms.location.FusedLocationProviderClient;
-import com.google.android.gms.location.LocationCallback;
-import com.google.android.gms.location.LocationRequest;
-import com.google.android.gms.location.LocationResult;
-import com.google.android.gms.location.LocationServices;
-import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.SupportMapFragment;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Polyline;
 import com.google.android.gms.maps.model.PolylineOptions;
-import java.util.UUID;
 
-// Responsável por gerenciar a gravação de uma trilha
+import java.io.File;
+import java.io.IOException;
+
+// Tela da gravação de uma trilha. A gravação em si (GPS, filtro, banco) fica no
+// TrailRecordingService; esta tela só se conecta a ele e desenha os retratos recebidos,
+// então girar a tela não perde nem recomeça a trilha.
 public class TrailRecordActivity extends AppCompatActivity {
     //Código de solicitação de permissão de localização.
     private static final int LOCATION_PERMISSION_REQUEST_CODE = 1;
+    // Código de solicitação da permissão de notificação (Android 13+), usada pela notificação da gravação.
+    private static final int NOTIFICATION_PERMISSION_REQUEST_CODE = 2;
+    // intervalo de atualização da sobreposição de métricas
+    private static final long METRICS_OVERLAY_INTERVAL_MILLIS = 1000;
+
+    // tempo de cada retrato desenhado e intervalo entre quadros enquanto a tela está visível
+    private static final Metrics.Timer SNAPSHOT_RENDER_TIMER = Metrics.timer("render.snapshot");
+    private static final Metrics.Timer FRAME_TIMER = Metrics.timer("ui.frame_interval");
+    // quadros perdidos: intervalos maiores que 1,5 período da tela contam os quadros que faltaram
+    private static final Metrics.Counter DROPPED_FRAMES = Metrics.counter("ui.dropped_frames");
+    // zoom da câmera enquanto segue a gravação (o mais próximo)
+    private static final float FOLLOW_ZOOM = 17;
 
     // Objeto para manipular o mapa do Google Maps.
     private GoogleMap mMap;
-    // Cliente para obter a localização atual do dispositivo.
-    private FusedLocationProviderClient fusedLocationClient;
-    // Callback para receber atualizações de localização.
-    private LocationCallback locationCallback;
-    // Acesso ao banco de dados para armazenar as coordenadas.
-    private DatabaseHelper dbHelper;
-    // ID único da trilha
-    private String currentTrailId;
     // Cronômetro para medir o tempo de gravação da trilha.
     private Chronometer chronometer;
     //  Exibem a velocidade e a distância percorrida em tempo real.
     private TextView speedText;
     private TextView distanceText;
-    // Distância total percorrida.
-    private float totalDistance = 0;
-    // Armazena a última localização para calcular a distância.
-    private Location lastLocation;
-    //  Para recuperar as configurações de mapa salvas (como tipo de mapa e modo de navegação).
-    private SharedPreferences prefs;
-    // Configurações para desenhar a linha da trilha no mapa.
-    private PolylineOptions polylineOptions;
+    // Retrato das configurações de mapa (tipo de mapa e modo de navegação). É trocado pelo
+    // listener quando as configurações mudam; o desenho de cada retrato só lê os campos.
+    private MapSettings settings;
+    private final MapSettings.Listener settingsListener = newSettings -> {
+        settings = newSettings;
+        if (mMap != null) applyMapSettings();
+    };
+    // Desenha a trilha no mapa atualizando uma única linha em lotes.
+    private LiveTrackRenderer trackRenderer;
+    // Segue a gravação com a câmera, no máximo uma atualização por quadro.
+    private MapCameraController cameraController;
+    // Serviço que grava a trilha, disponível depois que a conexão é feita.
+    private TrailRecordingService recordingService;
+    private boolean bound = false;
+    // último retrato recebido e quantos pontos dele já foram desenhados
+    private RecordingSnapshot lastSnapshot;
+    private int drawnPointCount = 0;
+    private boolean chronometerStarted = false;
+
+    // Sobreposição de depuração com as métricas (só aparece com as métricas ligadas).
+    // Tocar nela grava as métricas em um arquivo.
+    private TextView metricsText;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable metricsOverlayUpdater = new Runnable() {
+        @Override
+        public void run() {
+            metricsText.setText(Metrics.dumpToString());
+            handler.postDelayed(this, METRICS_OVERLAY_INTERVAL_MILLIS);
+        }
+    };
+    // mede o intervalo entre quadros; cada quadro pede o próximo enquanto a tela está visível
+    private long lastFrameNanos = 0;
+    private long framePeriodNanos;
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (lastFrameNanos != 0) {
+                long interval = frameTimeNanos - lastFrameNanos;
+                FRAME_TIMER.record(interval);
+                if (interval * 2 > framePeriodNanos * 3) {
+                    DROPPED_FRAMES.add(Math.round((double) interval / framePeriodNanos) - 1);
+                }
+            }
+            lastFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+
+    // Recebe os retratos do serviço (no máximo a cada TrailRecordingService.SNAPSHOT_INTERVAL_MILLIS).
+    private final TrailRecordingService.Listener snapshotListener = this::render;
+
+    // Conexão com o serviço de gravação.
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            recordingService = ((TrailRecordingService.LocalBinder) binder).getService();
+            // já entrega o retrato atual; a tela recriada redesenha a trilha a partir do ponto zero
+            recordingService.addListener(snapshotListener);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            recordingService = null;
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_YES);
         // Define o layout da atividade.
         setContentView(R.layout.activity_trail_record);
 
-        //  Carrega as configurações de mapa salvas.
-        prefs = getSharedPreferences("MapSettings", MODE_PRIVATE);
-        //  Inicializa o helper do banco de dados.
-        dbHelper = new DatabaseHelper(this);
-        // Gera um ID único para a trilha. UUID faz com que o ID fique quase impossível de ser
-        // repetido!!11!111!!
-        currentTrailId = UUID.randomUUID().toString();
+        //  Carrega as configurações de mapa salvas e acompanha as mudanças.
+        settings = MapSettings.get(this);
+        MapSettings.addListener(settingsListener);
         // Recupera o cronômetro da interface.
         chronometer = findViewById(R.id.chronometer);
         // Recuperam as TextView para exibir a velocidade e distância.
         speedText = findViewById(R.id.speedText);
         distanceText = findViewById(R.id.distanceText);
-
-        // Configura o estilo da linha que será desenhada no mapa.
-        polylineOptions = new PolylineOptions().width(5).color(ContextCompat.getColor(this, android.R.color.holo_red_dark));
+        metricsText = findViewById(R.id.metricsText);
+        metricsText.setOnClickListener(v -> dumpMetrics());
 
         // Recupera o fragmento do mapa e o configura.
         SupportMapFragment mapFragment = (SupportMapFragment) getSupportFragmentManager()
@@ -83,17 +144,27 @@ public class TrailRecordActivity extends AppCompatActivity {
         mapFragment.getMapAsync(this::onMapReady);
 
         // Verifica e pede permissões de localização, caso necessário,
-        // e configura a atualização da localização.
+        // e inicia (ou reconecta) a gravação. O serviço é criado na thread principal e abre o
+        // banco e o GPS; isso fica para depois do primeiro quadro, para a tela aparecer antes.
         if (checkLocationPermission()) {
-            setupLocationUpdates();
+            StartupTracer.runAfterFirstFrame(this, this::startRecordingService);
         }
-        // Inicia o cronômetro.
-        chronometer.start();
     }
 
 
     private void onMapReady(GoogleMap googleMap) {
         mMap = googleMap;
+        mMap.setOnMapLoadedCallback(() -> StartupTracer.onMapLoaded(this));
+
+        // Configura o estilo da linha que será desenhada no mapa. Cada linha criada pelo
+        // renderizador é uma Polyline, atualizada depois com setPoints.
+        int trackColor = ContextCompat.getColor(this, android.R.color.holo_red_dark);
+        trackRenderer = new LiveTrackRenderer(points -> {
+            Polyline polyline = mMap.addPolyline(
+                    new PolylineOptions().addAll(points).width(5).color(trackColor));
+            return polyline::setPoints;
+        });
+        cameraController = new MapCameraController(mMap);
 
         // Habilita a localização no mapa, se a permissão de localização foi concedida.
         if (checkLocationPermission()) {
@@ -101,23 +172,24 @@ public class TrailRecordActivity extends AppCompatActivity {
         }
 
         // Apply saved settings
-        boolean isSatellite = prefs.getBoolean("isSatellite", false);
-        boolean isCourseUp = prefs.getBoolean("isCourseUp", false);
+        applyMapSettings();
 
-        // se isSatellite for true, valor após interrogação será escolhido.
+        // Se o serviço já mandou um retrato antes do mapa ficar pronto, desenha agora.
+        if (lastSnapshot != null) {
+            render(lastSnapshot);
+        }
+    }
+
+    // Aplica ao mapa o tipo (satélite ou vetorial) e o modo de navegação das configurações.
+    private void applyMapSettings() {
+        // se satellite for true, valor após interrogação será escolhido.
         // se false, será escolhido o valor após dois pontos
-        mMap.setMapType(isSatellite ? GoogleMap.MAP_TYPE_SATELLITE : GoogleMap.MAP_TYPE_NORMAL);
+        mMap.setMapType(settings.satellite ? GoogleMap.MAP_TYPE_SATELLITE : GoogleMap.MAP_TYPE_NORMAL);
 
-        // Se isCourseUp for verdadeiro:
-        // Se isCourseUp for verdadeiro, ativa a rotação e o uso da bússola.
+        // Se courseUp for verdadeiro, ativa a rotação e o uso da bússola.
         // Caso contrário, desativa essas opções.
-        if (isCourseUp) {
-            mMap.getUiSettings().setRotateGesturesEnabled(true);
-            mMap.getUiSettings().setCompassEnabled(true);
-        } else {
-            mMap.getUiSettings().setRotateGesturesEnabled(false);
-            mMap.getUiSettings().setCompassEnabled(false);
-        }
+        mMap.getUiSettings().setRotateGesturesEnabled(settings.courseUp);
+        mMap.getUiSettings().setCompassEnabled(settings.courseUp);
     }
 
     // Verifica se a permissão de acesso à localização foi concedida.
@@ -134,105 +206,144 @@ public class TrailRecordActivity extends AppCompatActivity {
     }
 
 
-    private void setupLocationUpdates() {
-        // Obtém o cliente para atualizar a localização.
-        fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
-
-        // Define uma solicitação de localização com alta precisão
-        // e intervalo de 5 segundos entre atualizações.
-        LocationRequest locationRequest = LocationRequest.create()
-                .setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY)
-                .setInterval(5000);
-
-        // Define o callback para quando uma nova localização for recebida,
-        // chamando o método updateLocationInfo(location)
-
-        locationCallback = new LocationCallback() {
-            @Override
-            // chamado automaticamente sempre que o sistema obtém uma nova localização.
-            public void onLocationResult(LocationResult locationResult) {
-                //  Esse parâmetro contém os dados de localização atualizados.
-                // getLastLocation() é chamado para obter a última localização disponível dentro do objeto
-                Location location = locationResult.getLastLocation();
-                // responsável por atualizar a interface de usuário (UI) com as novas informações
-                updateLocationInfo(location);
+    @Override
+    public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode == LOCATION_PERMISSION_REQUEST_CODE && grantResults.length > 0
+                && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+            startRecordingService();
+            if (mMap != null) {
+                mMap.setMyLocationEnabled(true);
             }
-        };
+        }
+    }
 
-        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
-                == PackageManager.PERMISSION_GRANTED) {
-            // Inicia as atualizações de localização se a permissão for concedida.
-            fusedLocationClient.requestLocationUpdates(locationRequest, locationCallback, null);
+    // Inicia o serviço de gravação (se já estiver gravando, nada muda) e se conecta a ele.
+    private void startRecordingService() {
+        // A permissão foi verificada no onCreate, mas a partida espera o primeiro quadro e ela
+        // pode ter sido revogada. Sem ela o serviço não consegue entrar em primeiro plano
+        // (exigido por startForegroundService), então não é iniciado.
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+            return;
+        }
+        // Sem a permissão de notificação a gravação funciona, mas a notificação não aparece.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS)
+                != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.POST_NOTIFICATIONS},
+                    NOTIFICATION_PERMISSION_REQUEST_CODE);
+        }
+        Intent intent = new Intent(this, TrailRecordingService.class).setAction(TrailRecordingService.ACTION_START);
+        ContextCompat.startForegroundService(this, intent);
+        bound = bindService(new Intent(this, TrailRecordingService.class), connection, BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (Metrics.isEnabled()) {
+            metricsText.setVisibility(View.VISIBLE);
+            handler.post(metricsOverlayUpdater);
+            lastFrameNanos = 0;
+            framePeriodNanos = (long) (1_000_000_000 / getWindowManager().getDefaultDisplay().getRefreshRate());
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        } else {
+            metricsText.setVisibility(View.GONE);
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        handler.removeCallbacks(metricsOverlayUpdater);
+        Choreographer.getInstance().removeFrameCallback(frameCallback);
+    }
+
+    // Grava as métricas atuais em um arquivo na pasta do app e mostra onde ficou.
+    private void dumpMetrics() {
+        File directory = getExternalFilesDir(null);
+        if (directory == null) directory = getFilesDir();
+        try {
+            File file = Metrics.dumpToFile(directory);
+            Toast.makeText(this, "Métricas salvas em " + file.getAbsolutePath(), Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Log.e("TrailRecordActivity", "Falha ao salvar as métricas", e);
+            Toast.makeText(this, "Não foi possível salvar as métricas.", Toast.LENGTH_SHORT).show();
         }
     }
 
-    // responsável por processar e atualizar as informações da localização que foi obtida
-    private void updateLocationInfo(Location location) {
-        // o método verifica se a localização fornecida é nula. Se for nula, o método retorna imediatamente,
-        //  já que não faz sentido tentar processar uma localização inexistente.
-        if (location == null) return;
+    // Desenha um retrato da gravação: pontos novos, câmera, cronômetro e textos.
+    private void render(RecordingSnapshot snapshot) {
+        long t0 = Metrics.start();
+        lastSnapshot = snapshot;
 
-        // cria um objeto LatLng que representa as coordenadas de latitude e longitude da localização.
-        // Esse objeto será usado para atualizar o mapa com a nova posição.
-        LatLng currentLatLng = new LatLng(location.getLatitude(), location.getLongitude());
+        // O cronômetro conta a partir do início da gravação, mesmo que a tela tenha sido recriada.
+        if (!chronometerStarted && snapshot.trailId != null) {
+            chronometer.setBase(snapshot.startElapsedRealtime);
+            chronometer.start();
+            chronometerStarted = true;
+        }
+        if (!snapshot.recording) {
+            chronometer.stop();
+        }
 
         // Atualiza mapa
         // Se o mapa (mMap) não for nulo, o método executa as seguintes ações:
-        if (mMap != null) {
-            // O mapa será movido para a nova posição, usando as coordenadas currentLatLng e um nível de zoom de 17 (o zoom mais próximo).
-            mMap.animateCamera(CameraUpdateFactory.newLatLngZoom(currentLatLng, 17));
-            // A nova localização é adicionada à linha poligonal que representa a trilha que está sendo percorrida.
-            polylineOptions.add(currentLatLng);
-            // O mapa é atualizado com a linha que conecta todas as localizações anteriores à nova.
-            mMap.addPolyline(polylineOptions);
-
-            // Se CourseUp estiver ativado:
-            // A câmera do mapa será rotacionada para acompanhar a direção da trilha.
-            if (prefs.getBoolean("isCourseUp", false) && location.hasBearing()) {
-                mMap.animateCamera(CameraUpdateFactory.newCameraPosition(
-                        new com.google.android.gms.maps.model.CameraPosition.Builder()
-                                .target(currentLatLng)
-                                .zoom(17)
-                                .bearing(location.getBearing())
-                                .build()));
-            }
+        if (mMap != null && recordingService != null && snapshot.pointCount > drawnPointCount) {
+            // Os pontos novos (desde o último retrato) são adicionados à linha da trilha. O
+            // renderizador só envia os pontos ao mapa em lotes e nunca cria uma linha nova por ponto.
+            long now = SystemClock.elapsedRealtime();
+            drawnPointCount = recordingService.copyPointsSince(drawnPointCount,
+                    (latitude, longitude, timestamp) -> trackRenderer.addPoint(new LatLng(latitude, longitude), now));
+            trackRenderer.flush(now);
+
+            // A câmera segue a posição atual. Se CourseUp estiver ativado, ela também gira
+            // com a direção da trilha; posição e direção vão juntas em uma única animação,
+            // no próximo quadro da tela.
+            LatLng currentLatLng = new LatLng(snapshot.lastLatitude, snapshot.lastLongitude);
+            float bearing = settings.courseUp && snapshot.hasBearing ? snapshot.bearing : Float.NaN;
+            cameraController.follow(currentLatLng, FOLLOW_ZOOM, bearing);
         }
 
-        //  se lastLocation não for nulo:
-        if (lastLocation != null) {
-            float distance = lastLocation.distanceTo(location);
-            // A distância total percorrida é acumulada
-            totalDistance += distance;
+        if (snapshot.preparing) {
+            // a primeira abertura do banco depois de uma atualização pode demorar
+            speedText.setText("Preparando a gravação...");
+        } else if (snapshot.pointCount <= 1) {
+            speedText.setText("");
+        }
+        // A partir do segundo ponto:
+        if (snapshot.pointCount > 1) {
             //  A distância e a velocidade (convertida de metros por segundo para km/h)
             //  são atualizadas na interface de usuário, nas TextViews
-            distanceText.setText(String.format("Distância: %.2f km", totalDistance / 1000));
-            speedText.setText(String.format("Velocidade: %.1f km/h", location.getSpeed() * 3.6));
+            distanceText.setText(String.format("Distância: %.2f km", snapshot.distanceMeters / 1000));
+            speedText.setText(String.format("Velocidade: %.1f km/h", snapshot.speed * 3.6));
         }
-
-        // A localização (latitude, longitude) e o timestamp atual são salvos no banco de dados.
-        ContentValues values = new ContentValues();
-        values.put(DatabaseHelper.COLUMN_TRAIL_ID, currentTrailId);
-        values.put(DatabaseHelper.COLUMN_LATITUDE, location.getLatitude());
-        values.put(DatabaseHelper.COLUMN_LONGITUDE, location.getLongitude());
-        values.put(DatabaseHelper.COLUMN_TIMESTAMP, System.currentTimeMillis());
-
-        dbHelper.getWritableDatabase().insert(DatabaseHelper.TABLE_TRAILS, null, values);
-
-        // Por fim, a lastLocation é atualizada para a nova localização
-        lastLocation = location;
+        SNAPSHOT_RENDER_TIMER.stop(t0);
     }
 
     @Override
     protected void onDestroy() {
         // garante que o comportamento padrão de destruição da Activity seja executado corretamente.
         super.onDestroy();
-        if (fusedLocationClient != null && locationCallback != null) {
-            // para as atualizações de localização e libera os recursos utilizados para receber essas atualizações.
-            fusedLocationClient.removeLocationUpdates(locationCallback);
-        }
         // para o cronômetro
         chronometer.stop();
-        // dá close no SQLite
-        dbHelper.close();
+        MapSettings.removeListener(settingsListener);
+        if (cameraController != null) cameraController.release();
+        if (recordingService != null) {
+            recordingService.removeListener(snapshotListener);
+            // Sair da tela encerra a gravação; se a tela só está sendo recriada (rotação etc.),
+            // o serviço continua gravando e a nova tela se conecta de novo.
+            if (isFinishing()) {
+                recordingService.stopRecording();
+            }
+        } else if (isFinishing()) {
+            startService(new Intent(this, TrailRecordingService.class).setAction(TrailRecordingService.ACTION_STOP));
+        }
+        if (bound) {
+            unbindService(connection);
+            bound = false;
+        }
     }
-}
\ No newline at end of file
+}
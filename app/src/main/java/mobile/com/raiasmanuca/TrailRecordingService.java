@@ -0,0 +1,515 @@
+package mobile.com.raiasmanuca;
+
+import android.Manifest;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.location.Location;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.ServiceCompat;
+import androidx.core.content.ContextCompat;
+
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.LocationServices;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Serviço em primeiro plano que faz a gravação da trilha.
+//
+// Antes, todo o estado da gravação ficava na TrailRecordActivity e o onDestroy dela parava o
+// GPS e fechava o banco, então girar a tela recomeçava a trilha. Agora o serviço é dono do
+// pedido de localização, da RecordingSession (filtro + estatísticas) e do gravador em lote,
+// e continua gravando mesmo sem a tela. A Activity se conecta pelo binder, recebe retratos
+// (RecordingSnapshot) no máximo a cada SNAPSHOT_INTERVAL_MILLIS e busca os pontos novos
+// com copyPointsSince, a partir do último que já desenhou.
+public class TrailRecordingService extends Service {
+    public static final String ACTION_START = "mobile.com.raiasmanuca.action.START_RECORDING";
+    public static final String ACTION_STOP = "mobile.com.raiasmanuca.action.STOP_RECORDING";
+
+    // intervalo mínimo entre dois retratos enviados para a tela
+    public static final long SNAPSHOT_INTERVAL_MILLIS = 500;
+
+    // Com o diário, os pontos pendentes sobrevivem à morte do processo, então o gravador
+    // pode juntar lotes bem maiores (menos transações) sem arriscar a trilha.
+    static final int JOURNALED_CAPACITY = 4096;
+    static final int JOURNALED_BATCH_SIZE = 512;
+    static final long JOURNALED_FLUSH_INTERVAL_MS = 60000;
+
+    // métricas da gravação: processamento de cada entrega, atraso entre a medição do fix e a
+    // entrega, fixes recebidos e pontos aceitos (a taxa por segundo sai no dump)
+    private static final Metrics.Timer FIX_CALLBACK_TIMER = Metrics.timer("recording.fix_callback");
+    private static final Metrics.Timer FIX_DELAY_TIMER = Metrics.timer("recording.fix_delay");
+    private static final Metrics.Counter FIXES_RECEIVED = Metrics.counter("recording.fixes");
+    private static final Metrics.Counter POINTS_ACCEPTED = Metrics.counter("recording.points");
+
+    private static final String CHANNEL_ID = "recording";
+    private static final int NOTIFICATION_ID = 1;
+
+    // Recebe os retratos da gravação, sempre na thread principal.
+    public interface Listener {
+        void onSnapshot(RecordingSnapshot snapshot);
+    }
+
+    // Armazenamento de uma gravação: criado na thread principal, preenchido e fechado na
+    // thread de armazenamento (storageExecutor), que faz uma tarefa de cada vez.
+    private static final class Storage {
+        TrailPointWriter writer;
+        PointJournal journal;
+        // o banco não pôde ser aberto ou a sessão não pôde ser registrada
+        boolean failed;
+    }
+
+    // Binder local: a Activity roda no mesmo processo e usa o serviço diretamente.
+    public class LocalBinder extends Binder {
+        public TrailRecordingService getService() {
+            return TrailRecordingService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private final List<Listener> listeners = new ArrayList<>();
+    private Handler mainHandler;
+
+    private DatabaseHelper dbHelper;
+    // Todo acesso ao disco fica fora da thread principal, em ordem: abrir o banco (que pode
+    // atualizar o esquema e reaplicar o diário) e registrar a sessão no início; gravar o resto
+    // do buffer, fechar a sessão, somar ao mapa de calor e fechar o banco no fim.
+    private final ExecutorService storageExecutor =
+            Executors.newSingleThreadExecutor(task -> new Thread(task, "TrailStorage"));
+    private MapSettings settings;
+    private FusedLocationProviderClient fusedLocationClient;
+    private LocationCallback locationCallback;
+
+    private boolean recording = false;
+    private String trailId;
+    private long startElapsedRealtime;
+    // armazenamento da gravação em andamento; a sessão só existe quando ele fica pronto
+    private Storage storage;
+    private RecordingSession session;
+    private boolean batchedDelivery;
+    // todos os pontos aceitos da gravação, para a tela (re)desenhar a trilha quando se conectar
+    private final TrackBuffer acceptedPoints = new TrackBuffer();
+    // Lote reaproveitado com os fixes de cada entrega do provedor.
+    private final FixBatch deliveredFixes = new FixBatch();
+    private float lastSpeed = 0;
+    private boolean lastHasBearing = false;
+    private float lastBearing = 0;
+
+    private RecordingSnapshot snapshot;
+    private long lastSnapshotTime = 0;
+    private boolean snapshotScheduled = false;
+    // A entrega em lote muda na hora, refazendo o pedido ao GPS; a suavização só vale para a
+    // próxima gravação (o filtro não é trocado no meio da trilha).
+    private final MapSettings.Listener settingsListener = newSettings -> {
+        settings = newSettings;
+        if (recording && session != null && newSettings.batchedDelivery != batchedDelivery) {
+            batchedDelivery = newSettings.batchedDelivery;
+            requestLocationUpdates(session.getSamplingPolicy().getBucket());
+        }
+    };
+    private final Runnable publishRunnable = () -> {
+        snapshotScheduled = false;
+        publishSnapshot();
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mainHandler = new Handler(Looper.getMainLooper());
+        // o serviço pode ser recriado num processo novo, sem passar pela MainActivity
+        settings = MapSettings.get(this);
+        MapSettings.addListener(settingsListener);
+        dbHelper = new DatabaseHelper(this);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        String action = intent != null ? intent.getAction() : null;
+        if (ACTION_STOP.equals(action)) {
+            stopRecording();
+            return START_NOT_STICKY;
+        }
+        // iniciar de novo uma gravação em andamento (por exemplo, a tela recriada) não faz nada
+        if (!recording) {
+            startRecording();
+        }
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    private void startRecording() {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+            // Sem permissão não há o que gravar; a tela só inicia o serviço com a permissão, mas ela
+            // pode ter sido revogada no meio tempo. Iniciado com startForegroundService, o serviço
+            // precisa entrar em primeiro plano antes de parar, senão o sistema encerra o app.
+            try {
+                startInForeground();
+            } catch (SecurityException e) {
+                // no Android 14 o tipo location exige a permissão
+                Log.w("TrailRecordingService", "Sem permissão de localização para o serviço", e);
+            }
+            ServiceCompat.stopForeground(this, ServiceCompat.STOP_FOREGROUND_REMOVE);
+            stopSelf();
+            return;
+        }
+        startInForeground();
+
+        recording = true;
+        startElapsedRealtime = SystemClock.elapsedRealtime();
+        // as métricas recomeçam a cada gravação, para as taxas por segundo valerem para ela
+        if (Metrics.isEnabled()) Metrics.reset();
+        // Gera um ID único para a trilha. UUID faz com que o ID fique quase impossível de ser repetido.
+        trailId = UUID.randomUUID().toString();
+        session = null;
+        // A primeira abertura do banco depois de uma atualização pode levar segundos (esquema,
+        // diário, VACUUM) e espera a thread de inicialização; por isso o banco, o diário e o
+        // registro da sessão ficam na thread de armazenamento. O GPS só é ligado quando o
+        // armazenamento estiver pronto; até lá a tela recebe um retrato "preparando".
+        final Storage prepared = new Storage();
+        final String preparedTrailId = trailId;
+        final long startTime = System.currentTimeMillis();
+        storage = prepared;
+        storageExecutor.execute(() -> {
+            openStorage(prepared, preparedTrailId, startTime);
+            mainHandler.post(() -> onStorageReady(prepared));
+        });
+        publishSnapshot();
+    }
+
+    // Na thread de armazenamento: registra a sessão de gravação (usada depois para abrir só
+    // esta trilha) e cria o gravador em lote, em que cada lote vira uma única transação.
+    private void openStorage(Storage prepared, String preparedTrailId, long startTime) {
+        try {
+            dbHelper.startSession(preparedTrailId, startTime);
+        } catch (RuntimeException e) {
+            // banco corrompido, disco cheio etc.: sem o banco não há onde gravar a trilha
+            Log.e("TrailRecordingService", "Banco indisponível; a gravação não pode começar", e);
+            prepared.failed = true;
+            return;
+        }
+        createPointWriter(prepared, preparedTrailId);
+    }
+
+    // Na thread principal, com o armazenamento pronto: cria a sessão e liga o GPS.
+    private void onStorageReady(Storage prepared) {
+        // a gravação foi parada enquanto o armazenamento era preparado (o fechamento já está
+        // na fila da thread de armazenamento)
+        if (prepared != storage) return;
+        if (prepared.failed) {
+            stopRecording();
+            return;
+        }
+        // Escolhe intervalo e prioridade do GPS conforme o movimento e filtra os fixes antes de
+        // gravar e somar a distância. A suavização e a entrega em lote são opcionais.
+        session = new RecordingSession(new SamplingPolicy(),
+                FixPipeline.createDefault(settings.fixSmoothing), prepared.writer);
+        batchedDelivery = settings.batchedDelivery;
+
+        locationCallback = new LocationCallback() {
+            @Override
+            public void onLocationResult(LocationResult locationResult) {
+                // Uma entrega pode trazer vários fixes (sempre no modo em lote); todos são
+                // processados, em ordem, e não só o último.
+                onLocations(locationResult.getLocations());
+            }
+        };
+        requestLocationUpdates(session.getSamplingPolicy().getBucket());
+        publishSnapshot();
+    }
+
+    // Abre o diário de pontos e cria o gravador com lotes grandes. Se o diário não puder ser
+    // aberto, grava como antes, com os lotes padrão.
+    private void createPointWriter(Storage prepared, String preparedTrailId) {
+        // os erros de gravação que não param a trilha vão para o log
+        StorageErrorListener errorListener = (message, e) -> Log.e("TrailRecordingService", message, e);
+        TrailPointWriter writer;
+        PointJournal journal = null;
+        try {
+            // lê a sequência gravada antes de abrir o diário: o banco já foi aberto (e o que
+            // tiver sobrado de uma gravação interrompida, reaplicado) pelo startSession
+            long committed = dbHelper.getCommittedJournalSequence();
+            journal = PointJournal.open(dbHelper.getJournalFile(), committed);
+            journal.setErrorListener(errorListener);
+            writer = new TrailPointWriter(dbHelper, preparedTrailId, journal,
+                    JOURNALED_CAPACITY, JOURNALED_BATCH_SIZE, JOURNALED_FLUSH_INTERVAL_MS);
+        } catch (IOException | RuntimeException e) {
+            // inclui a SQLiteException de uma leitura do estado do diário que falhou
+            Log.e("TrailRecordingService", "Diário de pontos indisponível", e);
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+            writer = new TrailPointWriter(dbHelper, preparedTrailId);
+        }
+        writer.setErrorListener(errorListener);
+        prepared.writer = writer;
+        prepared.journal = journal;
+    }
+
+    // Coloca o serviço em primeiro plano com a notificação da gravação.
+    private void startInForeground() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "Gravação de trilha",
+                    NotificationManager.IMPORTANCE_LOW);
+            ((NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE)).createNotificationChannel(channel);
+        }
+        // tocar na notificação volta para a tela de gravação
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0,
+                new Intent(this, TrailRecordActivity.class), PendingIntent.FLAG_IMMUTABLE);
+        Notification notification = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setContentTitle("Gravando trilha")
+                .setContentText("A trilha continua sendo gravada em segundo plano.")
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .build();
+        ServiceCompat.startForeground(this, NOTIFICATION_ID, notification,
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q ? ServiceInfo.FOREGROUND_SERVICE_TYPE_LOCATION : 0);
+    }
+
+    // Pede atualizações de localização com os parâmetros da faixa de amostragem.
+    // Um novo pedido com o mesmo callback substitui o anterior.
+    void requestLocationUpdates(SamplingPolicy.Bucket bucket) {
+        if (fusedLocationClient == null) {
+            fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
+        }
+        // Alta precisão (GPS) quando em movimento; parado, a precisão balanceada gasta menos bateria.
+        LocationRequest locationRequest = LocationRequest.create()
+                .setPriority(bucket.highAccuracy
+                        ? LocationRequest.PRIORITY_HIGH_ACCURACY
+                        : LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY)
+                .setInterval(bucket.intervalMillis)
+                .setFastestInterval(bucket.intervalMillis)
+                .setSmallestDisplacement(bucket.minDisplacementMeters);
+        if (batchedDelivery) {
+            // os fixes continuam sendo medidos no intervalo, mas são entregues juntos
+            locationRequest.setMaxWaitTime(SamplingPolicy.BATCH_MAX_WAIT_MILLIS);
+        }
+
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
+                == PackageManager.PERMISSION_GRANTED) {
+            fusedLocationClient.requestLocationUpdates(locationRequest, locationCallback, Looper.getMainLooper());
+        }
+    }
+
+    void removeLocationUpdates() {
+        if (fusedLocationClient != null && locationCallback != null) {
+            fusedLocationClient.removeLocationUpdates(locationCallback);
+        }
+    }
+
+    // Processa uma entrega de fixes. Chamado na thread principal pelo LocationCallback
+    // (e diretamente pelos testes).
+    void onLocations(List<Location> locations) {
+        if (!recording || session == null || locations == null || locations.isEmpty()) return;
+        long t0 = Metrics.start();
+
+        // Copia os fixes para o lote reaproveitado. O horário de cada fix vem do próprio
+        // Location: no modo em lote eles chegam até um minuto depois de medidos.
+        deliveredFixes.clear();
+        for (Location location : locations) {
+            deliveredFixes.add(location.getLatitude(), location.getLongitude(),
+                    location.hasAccuracy() ? location.getAccuracy() : 0,
+                    location.getElapsedRealtimeNanos() / 1_000_000, location.getTime());
+        }
+
+        // A sessão passa os fixes pela política de amostragem e pelo filtro, atualiza as
+        // estatísticas e envia os aceitos ao gravador em lote, como uma unidade.
+        // O pedido ao GPS só é refeito quando a faixa de amostragem muda.
+        if (session.onFixes(deliveredFixes)) {
+            requestLocationUpdates(session.getSamplingPolicy().getBucket());
+        }
+
+        FixBatch accepted = session.getAccepted();
+        for (int i = 0; i < accepted.size(); i++) {
+            acceptedPoints.onPoint(accepted.getLatitude(i), accepted.getLongitude(i), accepted.getTimestamp(i));
+        }
+        Location last = locations.get(locations.size() - 1);
+        lastSpeed = last.getSpeed();
+        lastHasBearing = last.hasBearing();
+        lastBearing = last.getBearing();
+        if (accepted.size() > 0) {
+            scheduleSnapshot();
+        }
+
+        if (t0 != 0) {
+            long nowNanos = SystemClock.elapsedRealtimeNanos();
+            for (Location location : locations) {
+                FIX_DELAY_TIMER.record(nowNanos - location.getElapsedRealtimeNanos());
+            }
+            FIXES_RECEIVED.add(locations.size());
+            POINTS_ACCEPTED.add(accepted.size());
+            FIX_CALLBACK_TIMER.stop(t0);
+        }
+    }
+
+    // Publica um retrato agora, ou agenda para quando o intervalo mínimo tiver passado.
+    private void scheduleSnapshot() {
+        if (snapshotScheduled) return;
+        long wait = lastSnapshotTime + SNAPSHOT_INTERVAL_MILLIS - SystemClock.uptimeMillis();
+        if (wait <= 0) {
+            publishSnapshot();
+        } else {
+            snapshotScheduled = true;
+            mainHandler.postDelayed(publishRunnable, wait);
+        }
+    }
+
+    private void publishSnapshot() {
+        lastSnapshotTime = SystemClock.uptimeMillis();
+        TrailStats stats = session != null ? session.getStats() : null;
+        snapshot = new RecordingSnapshot(trailId, startElapsedRealtime,
+                acceptedPoints.size(),
+                stats != null ? stats.getDistanceMeters() : 0,
+                stats != null ? stats.getLastLatitude() : 0,
+                stats != null ? stats.getLastLongitude() : 0,
+                lastSpeed, lastHasBearing, lastBearing, recording, recording && session == null);
+        for (Listener listener : new ArrayList<>(listeners)) {
+            listener.onSnapshot(snapshot);
+        }
+    }
+
+    // Registra um Listener e já entrega o retrato atual.
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+        if (snapshot != null) listener.onSnapshot(snapshot);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public RecordingSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    // Entrega ao visitor os pontos aceitos a partir do índice "from" e retorna o total de pontos.
+    // A tela guarda esse total e pede só os pontos novos no próximo retrato; ao ser recriada,
+    // começa do zero e redesenha a trilha inteira, sem perder nem repetir pontos.
+    public int copyPointsSince(int from, TrailPointVisitor visitor) {
+        int size = acceptedPoints.size();
+        double[] latitudes = acceptedPoints.latitudes();
+        double[] longitudes = acceptedPoints.longitudes();
+        long[] timestamps = acceptedPoints.timestamps();
+        for (int i = Math.max(from, 0); i < size; i++) {
+            visitor.onPoint(latitudes[i], longitudes[i], timestamps[i]);
+        }
+        return size;
+    }
+
+    // Encerra a gravação: para o GPS, tira o serviço do primeiro plano e, em segundo plano, grava
+    // o que falta e fecha a sessão. O banco é fechado no onDestroy.
+    public void stopRecording() {
+        if (recording) {
+            recording = false;
+            removeLocationUpdates();
+            if (session != null) {
+                Log.d("TrailRecordingService", session.getFixPipeline().describe()
+                        + "; entregas: " + session.getDeliveries());
+            }
+            // O close do writer espera a thread de gravação passar para o SQLite até um buffer
+            // inteiro de pontos; na thread principal isso podia travar a tela (ANR). Parada
+            // ainda na preparação, a tarefa roda depois dela e fecha o que ela abriu.
+            final Storage finished = storage;
+            final DatabaseHelper helper = dbHelper;
+            final String finishedTrailId = trailId;
+            final long endTime = System.currentTimeMillis();
+            final boolean pack = settings.packedStorage;
+            storage = null;
+            storageExecutor.execute(() -> {
+                if (finished.writer != null) {
+                    finished.writer.close();
+                }
+                if (finished.journal != null) {
+                    finished.journal.close();
+                }
+                if (!finished.failed) {
+                    // marca o fim da sessão de gravação
+                    helper.finishSession(finishedTrailId, endTime);
+                    // cada trilha encerrada entra no mapa de calor (e é compactada, se o
+                    // armazenamento compacto estiver ativado) logo depois de gravada, mesmo
+                    // que o serviço grave outras antes de ser destruído
+                    helper.addTrailToHeatmap(finishedTrailId);
+                    if (pack) {
+                        helper.packTrail(finishedTrailId);
+                    }
+                }
+            });
+            mainHandler.removeCallbacks(publishRunnable);
+            snapshotScheduled = false;
+            publishSnapshot();
+        }
+        ServiceCompat.stopForeground(this, ServiceCompat.STOP_FOREGROUND_REMOVE);
+        stopSelf();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        // se o sistema destruir o serviço no meio da gravação, o que já foi recebido é gravado
+        if (recording) {
+            stopRecording();
+        }
+        listeners.clear();
+        MapSettings.removeListener(settingsListener);
+
+        // o banco só é fechado depois das tarefas de encerramento já enfileiradas
+        final DatabaseHelper helper = dbHelper;
+        storageExecutor.execute(() -> {
+            // dá close no SQLite
+            helper.close();
+        });
+        storageExecutor.shutdown();
+    }
+
+    // para os testes: espera as tarefas já enviadas para a thread de armazenamento
+    void awaitStorage(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        storageExecutor.submit(() -> { }).get(timeout, unit);
+    }
+
+    // para os testes: espera o encerramento em segundo plano depois do onDestroy
+    boolean awaitFinished(long timeout, TimeUnit unit) throws InterruptedException {
+        return storageExecutor.awaitTermination(timeout, unit);
+    }
+
+    public String getTrailId() {
+        return trailId;
+    }
+}
@@ -1,14 +1,10 @@
 package mobile.com.raiasmanuca;
 
-import android.annotation.SuppressLint;
-import android.database.Cursor;
-import android.location.Location;
 import android.os.Bundle;
 import android.util.Log;
 import android.widget.TextView;
 
 import androidx.appcompat.app.AppCompatActivity;
-import androidx.appcompat.app.AppCompatDelegate;
 import androidx.core.content.ContextCompat;
 
 import com.google.android.gms.maps.CameraUpdateFactory;
@@ -16,27 +12,44 @@ import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.SupportMapFragment;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Polyline;
 import com.google.android.gms.maps.model.PolylineOptions;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 // Esta classe é responsável por exibir no mapa uma trilha salva no banco de dados,
 // calcular a distância e a velocidade média do trajeto,
 // e apresentar algumas informações sobre o percurso.
 public class TrailViewActivity extends AppCompatActivity {
+    // Extra do Intent com o id da trilha a ser exibida
+    public static final String EXTRA_TRAIL_ID = "trail_id";
+
     // Variável que armazena o objeto GoogleMap
     private GoogleMap mMap;
     // Instância de DatabaseHelper, que é responsável por gerenciar o banco de dados do aplicativo
     private DatabaseHelper dbHelper;
     // Um TextView usado para exibir informações sobre a trilha, como a duração, distância e velocidade média.
     private TextView infoText;
+    // Níveis de detalhe da trilha exibida e a linha desenhada no mapa.
+    private TrailLod trailLod;
+    private Polyline trailPolyline;
+    // Nível de detalhe que está sendo exibido no momento.
+    private int displayedLevel = -1;
+    // Linhas provisórias desenhadas enquanto a trilha é carregada.
+    private final List<Polyline> chunkPolylines = new ArrayList<>();
+    // Carrega a trilha em uma thread de fundo.
+    private final ExecutorService loadExecutor = Executors.newSingleThreadExecutor();
+    private TrailLoader trailLoader;
+    // Texto das informações da trilha, sem a linha das trilhas na área visível.
+    private String trailInfo;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_YES);
         setContentView(R.layout.activity_trail_view);
 
         dbHelper = new DatabaseHelper(this);
@@ -55,110 +68,182 @@ public class TrailViewActivity extends AppCompatActivity {
     // Este método é chamado quando o GoogleMap está pronto para ser usado.
     private void onMapReady(GoogleMap googleMap) {
         mMap = googleMap;
+        mMap.setOnMapLoadedCallback(() -> StartupTracer.onMapLoaded(this));
+        // Quando a câmera para, troca os pontos da linha se o zoom mudou de faixa.
+        mMap.setOnCameraIdleListener(this::updateDisplayedLevel);
         // é chamado para carregar os dados da trilha e exibi-los no mapa.
         loadTrailData();
     }
 
-    // é responsável por carregar os dados da trilha do banco de dados e exibi-los no mapa.
-    @SuppressLint("Range")
+    // Começa a carregar a trilha em segundo plano. A leitura do banco, as estatísticas e a
+    // formatação do texto não rodam mais na thread principal; os pontos chegam aos poucos.
     private void loadTrailData() {
-        // Consulta o banco de dados para obter todos os pontos de trilha.
-        // Consulta da tabela TABLE_TRAILS
-        // Coluna COLUMN_TIMESTAMP em ordem crescente
-        Cursor cursor = dbHelper.getReadableDatabase().query(
-                DatabaseHelper.TABLE_TRAILS,
-                null,
-                null,
-                null,
-                null,
-                null,
-                DatabaseHelper.COLUMN_TIMESTAMP + " ASC" // Ordem cronológica
-        );
-
-        // Se não houver dados, uma mensagem é exibida informando que nenhuma trilha foi encontrada.
-        if (cursor == null || !cursor.moveToFirst()) {
-            infoText.setText("Nenhuma trilha encontrada.");
-            return;
-        }
+        // A trilha a ser exibida vem pelo Intent; se não vier (null), o loader usa a última gravada.
+        String trailId = getIntent().getStringExtra(EXTRA_TRAIL_ID);
+
+        trailLoader = new TrailLoader(dbHelper, loadExecutor,
+                ContextCompat.getMainExecutor(this), Locale.getDefault());
+        trailLoader.setTimingListener(timings -> Log.d("TrailViewActivity", String.format(Locale.US,
+                "Carga de %d pontos: primeiro trecho em %.1f ms, total %.1f ms, "
+                        + "thread principal %.1f ms (maior bloqueio %.1f ms)",
+                timings.pointCount, timings.timeToFirstChunkNanos / 1e6, timings.totalNanos / 1e6,
+                timings.mainThreadNanos / 1e6, timings.maxMainThreadBlockNanos / 1e6)));
+        trailLoader.start(trailId, new TrailLoader.Listener() {
+            @Override
+            public void onChunk(List<LatLng> points) {
+                showChunk(points);
+            }
 
-        // Armazena os pontos de latitude e longitude da trilha.
-        ArrayList<LatLng> points = new ArrayList<>();
-        long startTime = cursor.getLong(cursor.getColumnIndex(DatabaseHelper.COLUMN_TIMESTAMP));
-        long endTime = startTime;
-        float totalDistance = 0f;
-        Location lastPoint = null;
-        // Usado para ajustar a visualização do mapa com base nos pontos da trilha.
-        LatLngBounds.Builder boundsBuilder = new LatLngBounds.Builder();
-
-        // O do-while percorre cada linha do cursor (resultado da consulta ao banco de dados)
-        // e extrai as informações de latitude, longitude e timestamp.
-        do {
-            double lat = cursor.getDouble(cursor.getColumnIndex(DatabaseHelper.COLUMN_LATITUDE));
-            double lng = cursor.getDouble(cursor.getColumnIndex(DatabaseHelper.COLUMN_LONGITUDE));
-            long timestamp = cursor.getLong(cursor.getColumnIndex(DatabaseHelper.COLUMN_TIMESTAMP));
-
-            LatLng point = new LatLng(lat, lng);
-            points.add(point);
-            boundsBuilder.include(point);
-
-            // Calcula a distância entre pontos consecutivos
-            if (lastPoint != null) {
-                Location currentPoint = new Location("");
-                currentPoint.setLatitude(lat);
-                currentPoint.setLongitude(lng);
-                // A cada ponto, é calculada a distância entre o ponto atual e o ponto anterior utilizando
-                // o método distanceTo() da classe Location.
-                totalDistance += lastPoint.distanceTo(currentPoint);
+            @Override
+            public void onLoaded(String loadedTrailId, TrailStats stats, TrailLod lod, String info) {
+                showTrail(stats, lod, info);
+                compareWithPastTrails(loadedTrailId, stats.getDurationMillis());
             }
 
-            Location currentLocation = new Location("");
-            currentLocation.setLatitude(lat);
-            currentLocation.setLongitude(lng);
-            lastPoint = currentLocation;
+            @Override
+            public void onEmpty() {
+                // Se não houver dados, uma mensagem é exibida informando que nenhuma trilha foi encontrada.
+                infoText.setText("Nenhuma trilha encontrada.");
+            }
+        });
+    }
 
-            endTime = timestamp;
-        } while (cursor.moveToNext());
-        cursor.close();
+    // Desenha um trecho provisório da trilha enquanto o resto ainda está sendo lido.
+    private void showChunk(List<LatLng> points) {
+        if (chunkPolylines.isEmpty()) {
+            // no primeiro trecho a câmera já vai para o início da trilha
+            mMap.moveCamera(CameraUpdateFactory.newLatLngZoom(points.get(0), 15));
+            infoText.setText("Carregando trilha...");
+        }
+        chunkPolylines.add(mMap.addPolyline(new PolylineOptions()
+                .addAll(points)
+                .width(5)
+                .color(ContextCompat.getColor(this, android.R.color.holo_red_dark))));
+    }
 
-        // Adiciona os pontos ao mapa e
-        // calcula os limites da trilha (para centralizar o mapa na área da trilha).
-        // Se a lista de pontos não estiver vazia,
-        // é criada uma PolylineOptions que representa a trilha, com os pontos da lista.
-        if (!points.isEmpty()) {
-            PolylineOptions polylineOptions = new PolylineOptions()
-                    .addAll(points)
-                    .width(5)
-                    .color(ContextCompat.getColor(this, android.R.color.holo_red_dark));
-            //  A polyline é adicionada ao mapa com a cor definida
-            mMap.addPolyline(polylineOptions);
-
-            // O mapa é centralizado nos limites da trilha utilizando animateCamera() e a LatLngBounds calculada.
-            mMap.animateCamera(CameraUpdateFactory.newLatLngBounds(boundsBuilder.build(), 100));
+    // Troca os trechos provisórios pela trilha completa e mostra as informações.
+    private void showTrail(TrailStats stats, TrailLod lod, String info) {
+        trailLod = lod;
+        for (Polyline chunk : chunkPolylines) {
+            chunk.remove();
         }
+        chunkPolylines.clear();
 
-        // Calcula a duração e a velocidade média
-        // A duração total da trilha é calculada subtraindo o timestamp de startTime de endTime.
-        long durationMillis = endTime - startTime;
-        // A duração é convertida de milissegundos para horas.
-        float durationHours = durationMillis / (3600f * 1000);
-        //  A velocidade média é calculada dividindo a distância total pela duração em horas.
-        float averageSpeed = (durationHours > 0) ? (totalDistance / 1000f) / durationHours : 0;
+        // Adiciona os pontos ao mapa e
+        // calcula os limites da trilha (para centralizar o mapa na área da trilha).
+        // É criada uma PolylineOptions com o nível de detalhe adequado ao zoom atual.
+        displayedLevel = TrailLod.levelForZoom(mMap.getCameraPosition().zoom);
+        PolylineOptions polylineOptions = new PolylineOptions()
+                .addAll(trailLod.pointsForLevel(displayedLevel))
+                .width(5)
+                .color(ContextCompat.getColor(this, android.R.color.holo_red_dark));
+        //  A polyline é adicionada ao mapa com a cor definida
+        trailPolyline = mMap.addPolyline(polylineOptions);
+
+        // O mapa é centralizado nos limites da trilha utilizando animateCamera() e a LatLngBounds
+        // calculada pelo TrailStats na mesma passada da distância.
+        LatLngBounds bounds = new LatLngBounds(
+                new LatLng(stats.getMinLatitude(), stats.getMinLongitude()),
+                new LatLng(stats.getMaxLatitude(), stats.getMaxLongitude()));
+        mMap.animateCamera(CameraUpdateFactory.newLatLngBounds(bounds, 100));
 
         // Logs para depuração
-        Log.d("TrailViewActivity", "Duração em milissegundos: " + durationMillis);
-        Log.d("TrailViewActivity", "Duração em horas: " + durationHours);
-        Log.d("TrailViewActivity", "Distância total (km): " + (totalDistance / 1000f));
-        Log.d("TrailViewActivity", "Velocidade média (km/h): " + averageSpeed);
-
-        // Formata os dados e exibe na interface com simple date format.
-        SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss", Locale.getDefault());
-        long durationSeconds = durationMillis / 1000;
-        String info = String.format(Locale.getDefault(),
-                "Início: %s\nDuração: %02d:%02d:%02d\nDistância: %.2f km\nVelocidade Média: %.2f km/h",
-                sdf.format(startTime),
-                durationSeconds / 3600, (durationSeconds % 3600) / 60, (durationSeconds % 60),
-                totalDistance / 1000f, averageSpeed);
-        // o texto formatado (na String info) é exibido na interface usando o TextView
+        Log.d("TrailViewActivity", "Duração em milissegundos: " + stats.getDurationMillis());
+        Log.d("TrailViewActivity", "Distância total (km): " + stats.getDistanceMeters() / 1000);
+        Log.d("TrailViewActivity", "Velocidade média (km/h): " + stats.getAverageSpeedMetersPerSecond() * 3.6);
+        Log.d("TrailViewActivity", "Velocidade máxima (km/h): " + stats.getMaxSpeedMetersPerSecond() * 3.6);
+
+        // o texto formatado (já montado em segundo plano) é exibido na interface usando o TextView
+        trailInfo = info;
         infoText.setText(info);
     }
-}
\ No newline at end of file
+
+    // Procura as trilhas gravadas antes no mesmo percurso e acrescenta a comparação às
+    // informações. Os resumos escolhem as candidatas; só os pontos delas são lidos, na thread
+    // de carga, e o alinhamento roda em paralelo no TrailMatcher.
+    private void compareWithPastTrails(final String trailId, final long durationMillis) {
+        loadExecutor.execute(() -> {
+            final String comparison;
+            try {
+                TrailSummary summary = dbHelper.getTrailSummary(trailId);
+                if (summary == null || summary.getPointCount() < 2) return;
+                TrailMatcher matcher = new TrailMatcher();
+                List<TrailSummary> candidates = matcher.prefilter(summary,
+                        dbHelper.findTrailSummariesStartingNear(summary.getFirstLatitude(),
+                                summary.getFirstLongitude(), TrailMatcher.DEFAULT_ENDPOINT_RADIUS_METERS));
+                List<TrailMatcher.Route> routes = new ArrayList<>(candidates.size());
+                for (TrailSummary candidate : candidates) {
+                    routes.add(TrailMatcher.Route.load(dbHelper, candidate.getTrailId(),
+                            TrailMatcher.DEFAULT_SPACING_METERS));
+                }
+                TrailMatcher.Route query = TrailMatcher.Route.load(dbHelper, trailId,
+                        TrailMatcher.DEFAULT_SPACING_METERS);
+                comparison = TrailInfoFormatter.formatMatches(durationMillis,
+                        matcher.matchAll(query, routes), Locale.getDefault());
+            } catch (RuntimeException e) {
+                // o banco pode ser fechado no meio da consulta quando a Activity é destruída;
+                // fora isso, a comparação é opcional e um erro nela não pode derrubar o app
+                if (isDestroyed()) return;
+                Log.e("TrailViewActivity", "Falha ao comparar com as trilhas anteriores", e);
+                runOnUiThread(() -> {
+                    if (isDestroyed() || trailInfo == null) return;
+                    trailInfo = trailInfo + "\nComparação indisponível";
+                    infoText.setText(trailInfo);
+                });
+                return;
+            }
+            runOnUiThread(() -> {
+                if (isDestroyed() || trailInfo == null) return;
+                trailInfo = trailInfo + "\n" + comparison;
+                infoText.setText(trailInfo);
+            });
+        });
+    }
+
+    // Conta, pelo índice espacial, quantas trilhas passam pela área visível do mapa.
+    // A consulta roda na thread de carga; o texto é atualizado na thread principal.
+    private void updateTrailsInView() {
+        if (trailInfo == null) return;
+        final LatLngBounds visible = mMap.getProjection().getVisibleRegion().latLngBounds;
+        loadExecutor.execute(() -> {
+            final int count;
+            try {
+                count = dbHelper.findTrailsInBounds(visible).size();
+            } catch (RuntimeException e) {
+                // o banco pode ser fechado no meio da consulta quando a Activity é destruída;
+                // fora isso, a contagem fica como estava até o próximo movimento do mapa
+                if (!isDestroyed()) {
+                    Log.e("TrailViewActivity", "Falha ao contar as trilhas na área visível", e);
+                }
+                return;
+            }
+            runOnUiThread(() -> {
+                if (isDestroyed() || trailInfo == null) return;
+                infoText.setText(trailInfo + "\nTrilhas nesta área: " + count);
+            });
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // cancela a carga em andamento antes de fechar o banco
+        if (trailLoader != null) {
+            trailLoader.cancel();
+        }
+        loadExecutor.shutdownNow();
+        dbHelper.close();
+    }
+
+    // Troca os pontos da linha pelo nível de detalhe do zoom atual, se for diferente do exibido.
+    // Também atualiza a quantidade de trilhas na área visível.
+    private void updateDisplayedLevel() {
+        if (trailLod == null || trailPolyline == null) return;
+        updateTrailsInView();
+        int level = TrailLod.levelForZoom(mMap.getCameraPosition().zoom);
+        if (level != displayedLevel) {
+            displayedLevel = level;
+            trailPolyline.setPoints(trailLod.pointsForLevel(level));
+        }
+    }
+}
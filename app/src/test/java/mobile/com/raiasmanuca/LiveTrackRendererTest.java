@@ -0,0 +1,137 @@
+package mobile.com.raiasmanuca;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+// Simula uma sessão de 10 mil fixes e conta as linhas criadas e os vértices enviados ao mapa.
+public class LiveTrackRendererTest {
+    private static final int FIXES = 10000;
+    // um fix por segundo
+    private static final long FIX_INTERVAL_MILLIS = 1000;
+
+    // Mapa falso que conta as linhas e os vértices recebidos.
+    private static class CountingSurface implements LiveTrackRenderer.Surface {
+        int lines = 0;
+        long vertices = 0;
+        int maxVerticesPerCall = 0;
+        final List<List<LatLng>> frozen = new ArrayList<>();
+        List<LatLng> lastActive;
+
+        @Override
+        public LiveTrackRenderer.Line addLine(List<LatLng> points) {
+            lines++;
+            count(points);
+            // guarda uma cópia, como a Polyline faz
+            final List<LatLng> copy = new ArrayList<>(points);
+            frozen.add(copy);
+            return newPoints -> {
+                count(newPoints);
+                copy.clear();
+                copy.addAll(newPoints);
+                lastActive = copy;
+            };
+        }
+
+        private void count(List<LatLng> points) {
+            vertices += points.size();
+            maxVerticesPerCall = Math.max(maxVerticesPerCall, points.size());
+        }
+    }
+
+    @Test
+    public void custoPorFixLimitadoEm10MilFixes() {
+        CountingSurface surface = new CountingSurface();
+        LiveTrackRenderer renderer = new LiveTrackRenderer(surface, 1000, 500, 2);
+
+        for (int i = 0; i < FIXES; i++) {
+            renderer.addPoint(point(i), i * FIX_INTERVAL_MILLIS);
+        }
+        renderer.flush(FIXES * FIX_INTERVAL_MILLIS);
+
+        // caminho antigo: uma addPolyline por fix, cada uma com todos os pontos até ali
+        long legacyVertices = (long) FIXES * (FIXES + 1) / 2;
+        TestReports.print(String.format(Locale.US,
+                "antigo: %d linhas, %d vértices | novo: %d linhas, %d vértices, máx %d por chamada",
+                FIXES, legacyVertices, surface.lines, surface.vertices, surface.maxVerticesPerCall));
+
+        // a linha viva + um trecho congelado a cada 500 pontos
+        assertTrue("linhas demais: " + surface.lines, surface.lines <= FIXES / 499 + 1);
+        assertEquals(surface.lines, renderer.getLineCount());
+        // nenhuma chamada envia mais pontos que o limite de congelamento
+        assertTrue(surface.maxVerticesPerCall <= 500);
+        // total de vértices cresce de forma linear, não quadrática
+        assertTrue("vértices demais: " + surface.vertices, surface.vertices < (long) FIXES * 300);
+        assertEquals(surface.vertices, renderer.getVerticesPushed());
+    }
+
+    @Test
+    public void atualizacoesRespeitamOIntervalo() {
+        CountingSurface surface = new CountingSurface();
+        LiveTrackRenderer renderer = new LiveTrackRenderer(surface, 1000, 10000, 0);
+
+        // 10 fixes por segundo durante 60 s
+        for (int i = 0; i < 600; i++) {
+            renderer.addPoint(point(i), i * 100L);
+        }
+        // uma atualização por segundo (a primeira cria a linha)
+        assertEquals(60, renderer.getPushCount());
+        assertEquals(1, surface.lines);
+    }
+
+    @Test
+    public void trechosContinuamLigadosEGuardamTodosOsPontos() {
+        CountingSurface surface = new CountingSurface();
+        // tolerância zero: nenhum ponto é descartado ao congelar
+        LiveTrackRenderer renderer = new LiveTrackRenderer(surface, 0, 100, 0);
+        int n = 1050;
+        for (int i = 0; i < n; i++) {
+            renderer.addPoint(point(i), i);
+        }
+        renderer.flush(n);
+
+        // junta os trechos congelados (sem repetir o ponto de ligação) e a linha viva
+        List<LatLng> all = new ArrayList<>();
+        for (List<LatLng> line : surface.frozen) {
+            if (line == surface.frozen.get(0)) continue; // a primeira é a linha viva
+            if (!all.isEmpty()) {
+                assertSame(all.get(all.size() - 1), line.get(0));
+                all.remove(all.size() - 1);
+            }
+            all.addAll(line);
+        }
+        List<LatLng> active = surface.frozen.get(0);
+        assertSame(all.get(all.size() - 1), active.get(0));
+        all.remove(all.size() - 1);
+        all.addAll(active);
+
+        assertEquals(n, all.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(point(i).latitude, all.get(i).latitude, 0);
+        }
+    }
+
+    @Test
+    public void simplificacaoDescartaPontosParados() {
+        List<LatLng> points = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            points.add(new LatLng(-23.5, -46.6)); // parado no mesmo lugar
+        }
+        points.add(new LatLng(-23.5 + 1e-3, -46.6));
+        List<LatLng> simplified = LiveTrackRenderer.simplify(points, 2);
+        assertEquals(2, simplified.size());
+        assertSame(points.get(0), simplified.get(0));
+        assertSame(points.get(100), simplified.get(1));
+    }
+
+    // anda ~5 m para o norte a cada fix
+    private static LatLng point(int i) {
+        return new LatLng(-23.5 + i * 4.5e-5, -46.6);
+    }
+}
@@ -0,0 +1,48 @@
+package mobile.com.raiasmanuca;
+
+import android.content.Context;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+// Testes do retrato das configurações: salvar troca o retrato e avisa os Listeners, e salvar
+// os mesmos valores não avisa ninguém.
+@RunWith(RobolectricTestRunner.class)
+public class MapSettingsTest {
+    @Test
+    public void saveRefreshesSnapshotAndNotifiesListeners() {
+        Context context = ApplicationProvider.getApplicationContext();
+        List<MapSettings> received = new ArrayList<>();
+        MapSettings.Listener listener = received::add;
+        MapSettings.addListener(listener);
+        try {
+            MapSettings before = MapSettings.get(context);
+            MapSettings changed = new MapSettings(!before.satellite, !before.courseUp,
+                    before.packedStorage, before.fixSmoothing, before.batchedDelivery, false,
+                    before.packAfterDays, before.downsampleAfterDays);
+            MapSettings.save(context, changed);
+            shadowOf(Looper.getMainLooper()).idle();
+
+            assertEquals(changed, MapSettings.get(context));
+            assertEquals(1, received.size());
+            assertEquals(changed, received.get(0));
+
+            // os mesmos valores de novo: nada muda, ninguém é avisado
+            MapSettings.save(context, changed);
+            shadowOf(Looper.getMainLooper()).idle();
+            assertEquals(1, received.size());
+        } finally {
+            MapSettings.removeListener(listener);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package mobile.com.raiasmanuca;
+
+// Relatórios de medição dos testes (tempos, contagens). Só são impressos com
+// -Dtrails.reports=true, para o "gradle test" de todo dia não encher a saída; as medições
+// de desempenho de verdade ficam no módulo benchmark.
+final class TestReports {
+    static final boolean ENABLED = Boolean.getBoolean("trails.reports");
+
+    private TestReports() {
+    }
+
+    static void print(Object report) {
+        if (ENABLED) {
+            System.out.println(report);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package mobile.com.raiasmanuca;
+
+// Usada pelo Robolectric no lugar da TrailApplication (pelo nome "Test" + nome da classe):
+// sem a thread de inicialização, que abriria o banco padrão no meio dos testes. Cada teste
+// abre o banco e lê as configurações de que precisa.
+public class TestTrailApplication extends TrailApplication {
+    @Override
+    void startWarmUp() {
+    }
+}
@@ -0,0 +1,136 @@
+package mobile.com.raiasmanuca;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// Testes do Douglas-Peucker iterativo e dos níveis de detalhe por zoom.
+public class TrackSimplifierTest {
+
+    @Test
+    public void desvioMaximoLimitadoPelaTolerancia() {
+        TrackBuffer track = randomTrack(new Random(20), 20000);
+        double[] lats = track.latitudes();
+        double[] lngs = track.longitudes();
+        int n = track.size();
+
+        double[] x = new double[n];
+        double[] y = new double[n];
+        TrackSimplifier.project(lats, lngs, n, x, y);
+
+        int[] indices = new int[n];
+        for (double tolerance : new double[]{0.5, 2, 10, 50}) {
+            int kept = TrackSimplifier.simplify(lats, lngs, n, tolerance, indices);
+            assertEquals(0, indices[0]);
+            assertEquals(n - 1, indices[kept - 1]);
+
+            // cada ponto descartado fica a no máximo "tolerance" do segmento que o substitui
+            double worst = 0;
+            for (int k = 0; k + 1 < kept; k++) {
+                int a = indices[k];
+                int b = indices[k + 1];
+                assertTrue(a < b);
+                for (int i = a + 1; i < b; i++) {
+                    double d = Math.sqrt(TrackSimplifier.segmentDistanceSquared(x[i], y[i], x[a], y[a], x[b], y[b]));
+                    worst = Math.max(worst, d);
+                }
+            }
+            assertTrue("desvio " + worst + " acima da tolerância " + tolerance, worst <= tolerance + 1e-9);
+            // e a trilha com ruído realmente perde pontos
+            assertTrue(kept < n);
+        }
+    }
+
+    @Test
+    public void toleranciaZeroMantemTudo() {
+        double[] lats = {0, 0, 0, 0};
+        double[] lngs = {0, 1e-5, 2e-5, 3e-5};
+        int[] indices = new int[4];
+        assertEquals(4, TrackSimplifier.simplify(lats, lngs, 4, 0, indices));
+        assertArrayEquals(new int[]{0, 1, 2, 3}, indices);
+    }
+
+    @Test
+    public void linhaRetaViraDoisPontos() {
+        int n = 1000;
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = -23.5 + i * 1e-5;
+            lngs[i] = -46.6 + i * 1e-5;
+        }
+        int[] indices = new int[n];
+        assertEquals(2, TrackSimplifier.simplify(lats, lngs, n, 0.1, indices));
+    }
+
+    @Test
+    public void poucosPontosNaoMudam() {
+        int[] indices = new int[2];
+        assertEquals(0, TrackSimplifier.simplify(new double[0], new double[0], 0, 5, indices));
+        assertEquals(1, TrackSimplifier.simplify(new double[]{1}, new double[]{1}, 1, 5, indices));
+        assertEquals(2, TrackSimplifier.simplify(new double[]{1, 2}, new double[]{1, 2}, 2, 5, indices));
+    }
+
+    @Test
+    public void nivelPorZoom() {
+        assertEquals(0, TrailLod.levelForZoom(2));
+        assertEquals(0, TrailLod.levelForZoom(9.9f));
+        assertEquals(1, TrailLod.levelForZoom(10));
+        assertEquals(2, TrailLod.levelForZoom(14));
+        assertEquals(3, TrailLod.levelForZoom(16.5f));
+        assertEquals(4, TrailLod.levelForZoom(21));
+
+        TrackBuffer track = randomTrack(new Random(21), 5000);
+        TrailLod lod = TrailLod.build(track);
+        assertEquals(TrailLodLevels.BAND_TOLERANCE_METERS.length, lod.getLevelCount());
+        // o último nível tem todos os pontos e os níveis ficam menores conforme o zoom diminui
+        assertEquals(5000, lod.pointsForLevel(lod.getLevelCount() - 1).size());
+        for (int level = 1; level < lod.getLevelCount(); level++) {
+            assertTrue(lod.pointsForLevel(level - 1).size() <= lod.pointsForLevel(level).size());
+        }
+    }
+
+    // Tempo de simplificação e redução de vértices em uma trilha de 100 mil pontos, por faixa de zoom.
+    @Test
+    public void benchmark100MilPontos() {
+        int n = 100_000;
+        TrackBuffer track = randomTrack(new Random(22), n);
+        int[] indices = new int[n];
+
+        // aquecimento
+        for (int r = 0; r < 3; r++) {
+            TrackSimplifier.simplify(track.latitudes(), track.longitudes(), n, 5, indices);
+        }
+
+        StringBuilder report = new StringBuilder("100 mil pontos:");
+        for (double tolerance : TrailLodLevels.BAND_TOLERANCE_METERS) {
+            long t0 = System.nanoTime();
+            int kept = TrackSimplifier.simplify(track.latitudes(), track.longitudes(), n, tolerance, indices);
+            long micros = (System.nanoTime() - t0) / 1000;
+            report.append(String.format(Locale.US, " | %.1f m: %d pontos (%.1f%%) em %.1f ms",
+                    tolerance, kept, kept * 100.0 / n, micros / 1000.0));
+        }
+        long t0 = System.nanoTime();
+        TrailLod.build(track);
+        report.append(String.format(Locale.US, " | todos os níveis: %.1f ms", (System.nanoTime() - t0) / 1e6));
+        TestReports.print(report);
+    }
+
+    // trilha de caminhada: direção muda aos poucos e cada passo tem alguns metros, com ruído de GPS
+    private static TrackBuffer randomTrack(Random random, int n) {
+        TrackBuffer track = new TrackBuffer(n);
+        double lat = -23.55;
+        double lng = -46.63;
+        double heading = 0;
+        for (int i = 0; i < n; i++) {
+            heading += (random.nextDouble() - 0.5) * 0.3;
+            lat += Math.cos(heading) * 4e-5 + random.nextGaussian() * 1e-6;
+            lng += Math.sin(heading) * 4e-5 + random.nextGaussian() * 1e-6;
+            track.onPoint(lat, lng, i * 5000L);
+        }
+        return track;
+    }
+}
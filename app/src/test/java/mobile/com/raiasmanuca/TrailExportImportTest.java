@@ -0,0 +1,247 @@
+package mobile.com.raiasmanuca;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// Exportação GPX/GeoJSON e importação GPX. O teste grande passa uma trilha de 2 milhões de
+// pontos do exportador para o importador por um pipe, sem guardar os pontos em lugar nenhum,
+// e mede a memória retida e a vazão.
+public class TrailExportImportTest {
+    private static final double COORDINATE_TOLERANCE = 0.6e-7;
+
+    // Trilha gerada na hora a partir de uma semente: a mesma sequência pode ser refeita para conferir.
+    private static class GeneratedTrail implements TrailPointSource {
+        final long seed;
+        final int count;
+
+        GeneratedTrail(long seed, int count) {
+            this.seed = seed;
+            this.count = count;
+        }
+
+        @Override
+        public int forEachPoint(String trailId, TrailPointVisitor visitor) {
+            Generator generator = new Generator(seed);
+            for (int i = 0; i < count; i++) {
+                generator.next();
+                visitor.onPoint(generator.lat, generator.lng, generator.time);
+            }
+            return count;
+        }
+
+        @Override
+        public String getLatestTrailId() {
+            return "trilha";
+        }
+    }
+
+    private static class Generator {
+        final Random random;
+        double lat = -23.55;
+        double lng = -46.63;
+        long time = 1_700_000_000_123L;
+
+        Generator(long seed) {
+            random = new Random(seed);
+        }
+
+        void next() {
+            lat += (random.nextDouble() - 0.5) * 1e-4;
+            lng += (random.nextDouble() - 0.5) * 1e-4;
+            time += 1000 + random.nextInt(1000);
+        }
+    }
+
+    // Destino que confere cada ponto importado contra o gerador, sem guardar nada.
+    private static class CheckingTarget implements TrailImporter.Target {
+        final Generator expected;
+        long points = 0;
+        int sessions = 0;
+        long startTime = -1;
+        long endTime = -1;
+        long maxRetainedBytes = 0;
+        long baselineBytes;
+
+        CheckingTarget(long seed, long baselineBytes) {
+            this.expected = new Generator(seed);
+            this.baselineBytes = baselineBytes;
+        }
+
+        @Override
+        public void startSession(String trailId, long startTime) {
+            sessions++;
+            this.startTime = startTime;
+        }
+
+        @Override
+        public void finishSession(String trailId, long endTime) {
+            this.endTime = endTime;
+        }
+
+        @Override
+        public void writeBatch(String trailId, double[] latitudes, double[] longitudes, long[] timestamps, int count) {
+            assertTrue(count <= TrailImporter.BATCH_SIZE);
+            for (int i = 0; i < count; i++) {
+                expected.next();
+                assertEquals(expected.lat, latitudes[i], COORDINATE_TOLERANCE);
+                assertEquals(expected.lng, longitudes[i], COORDINATE_TOLERANCE);
+                assertEquals(expected.time, timestamps[i]);
+                points++;
+                if (baselineBytes > 0 && points % 250_000 == 0) {
+                    maxRetainedBytes = Math.max(maxRetainedBytes, usedAfterGc() - baselineBytes);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void gpxIdaEVolta() throws Exception {
+        GeneratedTrail trail = new GeneratedTrail(50, 10_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(10_000, new TrailExporter().writeGpx(trail, "trilha", out));
+
+        CheckingTarget target = new CheckingTarget(50, 0);
+        TrailImporter importer = new TrailImporter();
+        List<String> ids = importer.importGpx(new ByteArrayInputStream(out.toByteArray()), target);
+        assertEquals(1, ids.size());
+        assertEquals(10_000, target.points);
+        assertEquals(10_000, importer.getPointsImported());
+        assertEquals(1, target.sessions);
+        assertEquals(target.expected.time, target.endTime);
+    }
+
+    @Test
+    public void gpxDeOutrosAplicativos() throws Exception {
+        String gpx = "<?xml version=\"1.0\"?>\n" +
+                "<gpx version=\"1.1\" creator=\"x\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n" +
+                "<wpt lat=\"1\" lon=\"1\"><time>2020-01-01T00:00:00Z</time></wpt>\n" +
+                "<trk><name>a</name>\n" +
+                "<trkseg><trkpt lat=\"-23.5\" lon=\"-46.6\"><ele>760</ele><time>2024-05-01T12:30:00Z</time></trkpt></trkseg>\n" +
+                "<trkseg><trkpt lat=\"-23.6\" lon=\"-46.7\"><time>2024-05-01T09:30:01.5-03:00</time></trkpt>\n" +
+                "<trkpt lat=\"-23.7\" lon=\"-46.8\"></trkpt></trkseg></trk>\n" +
+                "<trk><name>vazia</name></trk>\n" +
+                "</gpx>\n";
+        final long[] times = new long[3];
+        final int[] count = {0};
+        List<String> ids = new TrailImporter().importGpx(
+                new ByteArrayInputStream(gpx.getBytes(StandardCharsets.UTF_8)), new TrailImporter.Target() {
+                    @Override
+                    public void startSession(String trailId, long startTime) {
+                    }
+
+                    @Override
+                    public void finishSession(String trailId, long endTime) {
+                    }
+
+                    @Override
+                    public void writeBatch(String trailId, double[] latitudes, double[] longitudes,
+                                           long[] timestamps, int n) {
+                        for (int i = 0; i < n; i++) times[count[0]++] = timestamps[i];
+                    }
+                });
+        // a trilha sem pontos e o waypoint são ignorados; os dois segmentos viram uma trilha
+        assertEquals(1, ids.size());
+        assertEquals(3, count[0]);
+        assertEquals(1714566600000L, times[0]);
+        assertEquals(1714566601500L, times[1]);
+        // ponto sem horário: um segundo depois do anterior
+        assertEquals(1714566602500L, times[2]);
+    }
+
+    @Test
+    public void datasIdaEVolta() {
+        Random random = new Random(51);
+        char[] buffer = new char[32];
+        for (int i = 0; i < 10_000; i++) {
+            long millis = (long) (random.nextDouble() * 4_000_000_000_000L) - 1_000_000_000_000L;
+            int length = TrailExporter.formatTime(millis, buffer);
+            assertEquals(millis, TrailImporter.parseTime(new String(buffer, 0, length)));
+        }
+        int length = TrailExporter.formatTime(0, buffer);
+        assertEquals("1970-01-01T00:00:00.000Z", new String(buffer, 0, length));
+        assertEquals(951782400000L, TrailImporter.parseTime("2000-02-29T00:00:00Z"));
+    }
+
+    @Test
+    public void numerosComCasasFixas() {
+        char[] buffer = new char[32];
+        assertEquals("-23.5505200", new String(buffer, 0, TrailExporter.formatFixed(-23.55052, 7, buffer)));
+        assertEquals("0.0000000", new String(buffer, 0, TrailExporter.formatFixed(-1e-9, 7, buffer)));
+        assertEquals("179.9999999", new String(buffer, 0, TrailExporter.formatFixed(179.9999999, 7, buffer)));
+        assertEquals("5.0000000", new String(buffer, 0, TrailExporter.formatFixed(4.99999999, 7, buffer)));
+    }
+
+    @Test
+    public void geoJsonComHorarios() throws IOException {
+        GeneratedTrail trail = new GeneratedTrail(52, 3);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(3, new TrailExporter().writeGeoJson(trail, "trilha", out));
+        String json = out.toString("UTF-8");
+        assertTrue(json.startsWith("{\"type\":\"Feature\",\"properties\":{\"trail_id\":\"trilha\",\"coordTimes\":[\"2023-11-14T"));
+        assertTrue(json.contains("\"geometry\":{\"type\":\"LineString\",\"coordinates\":[\n[-46.6"));
+        assertTrue(json.trim().endsWith("]]}}"));
+        // uma coordenada por linha
+        assertEquals(3, json.split("\n\\[-46\\.").length - 1);
+    }
+
+    // Trilha de 2 milhões de pontos: exporta para um pipe e importa do outro lado ao mesmo
+    // tempo. A memória retida (medida após GC a cada 250 mil pontos) não pode crescer com a trilha.
+    @Test
+    public void doisMilhoesDePontosComMemoriaConstante() throws Exception {
+        final int n = 2_000_000;
+        final GeneratedTrail trail = new GeneratedTrail(53, n);
+        long baseline = usedAfterGc();
+
+        final PipedOutputStream pipeOut = new PipedOutputStream();
+        PipedInputStream pipeIn = new PipedInputStream(pipeOut, 64 * 1024);
+        final long[] bytes = {0};
+        final Exception[] exportError = {null};
+        Thread exporter = new Thread(() -> {
+            try (PipedOutputStream out = pipeOut) {
+                new TrailExporter().writeGpx(trail, "trilha", new java.io.FilterOutputStream(out) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        bytes[0] += len;
+                        out.write(b, off, len);
+                    }
+                });
+            } catch (Exception e) {
+                exportError[0] = e;
+            }
+        }, "exportador");
+
+        CheckingTarget target = new CheckingTarget(53, baseline);
+        long t0 = System.nanoTime();
+        exporter.start();
+        new TrailImporter().importGpx(pipeIn, target);
+        exporter.join();
+        long nanos = System.nanoTime() - t0;
+        assertNull(exportError[0]);
+
+        assertEquals(n, target.points);
+        TestReports.print(String.format(Locale.US,
+                "2 milhões de pontos: %.1f MB de GPX em %.1f s (%.0f pontos/s ida e volta), memória retida máx. %.1f MB",
+                bytes[0] / 1e6, nanos / 1e9, n / (nanos / 1e9), target.maxRetainedBytes / 1e6));
+        // uma trilha de 2 milhões de pontos na memória ocuparia pelo menos 48 MB (3 arrays)
+        assertTrue("memória cresceu com a trilha: " + target.maxRetainedBytes, target.maxRetainedBytes < 8_000_000);
+    }
+
+    private static long usedAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,197 @@
+package mobile.com.raiasmanuca;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+// Carga assíncrona da trilha: trechos progressivos, cancelamento e tempos na "thread principal"
+// (aqui um executor de thread única, no lugar do Looper do Android).
+public class TrailLoaderTest {
+    private ExecutorService background;
+    private ExecutorService main;
+
+    // Fonte falsa que gera uma trilha de caminhada sintética com n pontos, sem banco
+    // (direção muda aos poucos, passos de alguns metros e ruído de GPS).
+    private static class SyntheticSource implements TrailPointSource {
+        final int count;
+        volatile int visited = 0;
+
+        SyntheticSource(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public int forEachPoint(String trailId, TrailPointVisitor visitor) {
+            Random random = new Random(30);
+            double lat = -23.55;
+            double lng = -46.63;
+            double heading = 0;
+            for (int i = 0; i < count; i++) {
+                heading += (random.nextDouble() - 0.5) * 0.3;
+                lat += Math.cos(heading) * 4e-5 + random.nextGaussian() * 1e-6;
+                lng += Math.sin(heading) * 4e-5 + random.nextGaussian() * 1e-6;
+                visitor.onPoint(lat, lng, i * 1000L);
+                visited++;
+            }
+            return count;
+        }
+
+        @Override
+        public String getLatestTrailId() {
+            return count > 0 ? "sintetica" : null;
+        }
+    }
+
+    // Guarda o que chegou no Listener.
+    private static class RecordingListener implements TrailLoader.Listener {
+        final List<List<LatLng>> chunks = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        TrailStats stats;
+        TrailLod lod;
+        String info;
+        boolean empty = false;
+
+        @Override
+        public void onChunk(List<LatLng> points) {
+            chunks.add(points);
+        }
+
+        @Override
+        public void onLoaded(String trailId, TrailStats stats, TrailLod lod, String info) {
+            this.stats = stats;
+            this.lod = lod;
+            this.info = info;
+            done.countDown();
+        }
+
+        @Override
+        public void onEmpty() {
+            empty = true;
+            done.countDown();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        background = Executors.newSingleThreadExecutor();
+        main = Executors.newSingleThreadExecutor();
+        TrailLodCache.invalidate("sintetica");
+    }
+
+    @After
+    public void tearDown() {
+        background.shutdownNow();
+        main.shutdownNow();
+    }
+
+    @Test
+    public void trechosChegamLigadosEAntesDoFim() throws Exception {
+        SyntheticSource source = new SyntheticSource(5000);
+        RecordingListener listener = new RecordingListener();
+        new TrailLoader(source, background, main, Locale.US).start(null, listener);
+        assertTrue(listener.done.await(10, TimeUnit.SECONDS));
+
+        assertTrue(listener.chunks.size() > 1);
+        assertEquals(5000, listener.stats.getPointCount());
+        assertEquals(5000, listener.lod.getOriginalCount());
+        assertTrue(listener.info.startsWith("Início: "));
+        // cada trecho começa no último ponto do anterior
+        for (int i = 1; i < listener.chunks.size(); i++) {
+            List<LatLng> previous = listener.chunks.get(i - 1);
+            assertEquals(previous.get(previous.size() - 1).latitude, listener.chunks.get(i).get(0).latitude, 0);
+        }
+        // o primeiro trecho é pequeno, para aparecer rápido
+        assertTrue(listener.chunks.get(0).size() <= TrailLoader.FIRST_CHUNK_POINTS + 1);
+    }
+
+    @Test
+    public void semTrilhaChamaOnEmpty() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        new TrailLoader(new SyntheticSource(0), background, main, Locale.US).start(null, listener);
+        assertTrue(listener.done.await(10, TimeUnit.SECONDS));
+        assertTrue(listener.empty);
+        assertTrue(listener.chunks.isEmpty());
+    }
+
+    @Test
+    public void cancelarInterrompeALeitura() throws Exception {
+        SyntheticSource source = new SyntheticSource(1_000_000);
+        RecordingListener listener = new RecordingListener();
+        TrailLoader loader = new TrailLoader(source, background, main, Locale.US);
+        // o cancelamento acontece no primeiro trecho entregue
+        AtomicReference<TrailLoader> ref = new AtomicReference<>(loader);
+        loader.start("sintetica", new TrailLoader.Listener() {
+            @Override
+            public void onChunk(List<LatLng> points) {
+                listener.onChunk(points);
+                ref.get().cancel();
+            }
+
+            @Override
+            public void onLoaded(String trailId, TrailStats stats, TrailLod lod, String info) {
+                listener.onLoaded(trailId, stats, lod, info);
+            }
+
+            @Override
+            public void onEmpty() {
+                listener.onEmpty();
+            }
+        });
+
+        background.shutdown();
+        assertTrue(background.awaitTermination(10, TimeUnit.SECONDS));
+        main.shutdown();
+        assertTrue(main.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertTrue(loader.isCancelled());
+        assertEquals(1, listener.chunks.size());
+        assertNull(listener.stats);
+        assertFalse(listener.empty);
+        // a leitura parou antes de percorrer a trilha toda
+        assertTrue("pontos lidos: " + source.visited, source.visited < source.count);
+    }
+
+    // Tempo até o primeiro trecho e bloqueio da thread principal para 1 mil, 100 mil e 1 milhão de pontos.
+    @Test
+    public void benchmarkTemposDeCarga() throws Exception {
+        StringBuilder report = new StringBuilder("carga assíncrona:");
+        for (int n : new int[]{1000, 100_000, 1_000_000}) {
+            TrailLodCache.invalidate("sintetica");
+            RecordingListener listener = new RecordingListener();
+            AtomicReference<TrailLoader.Timings> timings = new AtomicReference<>();
+            CountDownLatch timed = new CountDownLatch(1);
+            TrailLoader loader = new TrailLoader(new SyntheticSource(n), background, main, Locale.US);
+            loader.setTimingListener(t -> {
+                timings.set(t);
+                timed.countDown();
+            });
+            loader.start("sintetica", listener);
+            assertTrue(timed.await(60, TimeUnit.SECONDS));
+
+            TrailLoader.Timings t = timings.get();
+            assertEquals(n, t.pointCount);
+            assertTrue(t.timeToFirstChunkNanos >= 0);
+            assertTrue(t.timeToFirstChunkNanos <= t.totalNanos);
+            assertTrue(t.maxMainThreadBlockNanos <= t.mainThreadNanos);
+            report.append(String.format(Locale.US,
+                    " | %d pontos: primeiro trecho %.1f ms, total %.1f ms, thread principal %.2f ms (máx %.2f ms)",
+                    n, t.timeToFirstChunkNanos / 1e6, t.totalNanos / 1e6,
+                    t.mainThreadNanos / 1e6, t.maxMainThreadBlockNanos / 1e6));
+        }
+        TestReports.print(report);
+    }
+}
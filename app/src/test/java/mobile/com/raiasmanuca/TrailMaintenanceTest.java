@@ -0,0 +1,156 @@
+package mobile.com.raiasmanuca;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// Manutenção do banco com Robolectric (SQLite de verdade): trilhas de idades diferentes vão
+// para a forma de armazenamento da política, o resumo e o mapa de calor não mudam, e o
+// espaço liberado volta para o sistema.
+@RunWith(RobolectricTestRunner.class)
+public class TrailMaintenanceTest {
+    private static final String DB_NAME = "TrailMaintenanceTest.db";
+    private static final long NOW = 1_700_000_000_000L;
+    private static final long DAY = RetentionPolicy.DAY_MILLIS;
+    private static final int POINTS = 2000;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(DB_NAME);
+        dbHelper = new DatabaseHelper(context, DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    // caminhada quase reta de POINTS pontos, um a cada 5 s, terminada "age" antes de NOW
+    private void insertTrail(String trailId, long age, long seed) {
+        Random random = new Random(seed);
+        double[] lats = new double[POINTS];
+        double[] lngs = new double[POINTS];
+        long[] times = new long[POINTS];
+        long start = NOW - age - POINTS * 5000L;
+        double heading = random.nextDouble() * 2 * Math.PI;
+        for (int i = 0; i < POINTS; i++) {
+            heading += (random.nextDouble() - 0.5) * 0.05;
+            lats[i] = (i == 0 ? -23.55 : lats[i - 1]) + Math.cos(heading) * 6e-5;
+            lngs[i] = (i == 0 ? -46.63 : lngs[i - 1]) + Math.sin(heading) * 6e-5;
+            times[i] = start + i * 5000L;
+        }
+        dbHelper.startSession(trailId, start);
+        dbHelper.insertPoints(trailId, lats, lngs, times, POINTS);
+        dbHelper.finishSession(trailId, times[POINTS - 1]);
+    }
+
+    private int countPoints(String trailId) {
+        return dbHelper.forEachPoint(trailId, (latitude, longitude, timestamp) -> { });
+    }
+
+    @Test
+    public void aplicaAsEtapasPelaIdade() {
+        insertTrail("nova", 2 * DAY, 1);
+        insertTrail("mes", 40 * DAY, 2);
+        insertTrail("antiga", 500 * DAY, 3);
+        TrailSummary before = dbHelper.getTrailSummary("antiga");
+
+        RetentionPolicy policy = new RetentionPolicy(30, 365, RetentionPolicy.DEFAULT_TOLERANCE_METERS);
+        TrailMaintenance.Result result = new TrailMaintenance(dbHelper, policy).run(NOW);
+        assertTrue(result.complete);
+        assertEquals(1, result.trailsPacked);
+        assertEquals(1, result.trailsDownsampled);
+
+        // a nova e a compactada continuam com todos os pontos
+        assertEquals(POINTS, countPoints("nova"));
+        assertEquals(POINTS, countPoints("mes"));
+        // a antiga ficou só com os pontos da linha simplificada, e o resumo é o da gravação
+        int kept = countPoints("antiga");
+        assertTrue(kept > 1 && kept < POINTS / 4);
+        TrailSummary after = dbHelper.getTrailSummary("antiga");
+        assertEquals(before.getPointCount(), after.getPointCount());
+        assertEquals(before.getDistanceMeters(), after.getDistanceMeters(), 0);
+        // o mapa de calor conta os pontos originais da antiga
+        int level = HeatmapBinner.MIN_LEVEL;
+        HeatmapTile world = dbHelper.getHeatmapTile(level, HeatmapBinner.tileOf(HeatmapBinner.key(level, 0, 0)));
+        assertNotNull(world);
+        assertEquals(POINTS, world.getMax());
+
+        // nada mais a fazer na mesma data
+        assertTrue(dbHelper.findTrailsForRetention(policy, NOW, 10).isEmpty());
+        TrailMaintenance.Result again = new TrailMaintenance(dbHelper, policy).run(NOW);
+        assertEquals(0, again.trailsPacked + again.trailsDownsampled);
+        assertEquals(0, dbHelper.getFreePageCount());
+    }
+
+    @Test
+    public void paraQuandoCancelada() {
+        insertTrail("antiga", 500 * DAY, 1);
+        RetentionPolicy policy = new RetentionPolicy(30, 365, RetentionPolicy.DEFAULT_TOLERANCE_METERS);
+        TrailMaintenance maintenance = new TrailMaintenance(dbHelper, policy);
+        maintenance.cancel();
+        TrailMaintenance.Result result = maintenance.run(NOW);
+        assertFalse(result.complete);
+        assertEquals(POINTS, countPoints("antiga"));
+        assertEquals(1, dbHelper.findTrailsForRetention(policy, NOW, 10).size());
+    }
+
+    @Test
+    public void atualizacaoPassaOBancoAntigoParaVacuumIncremental() {
+        // banco da versão 2 sem auto_vacuum, com uma trilha. O padrão do SQLite do Android é
+        // FULL, que passa para INCREMENTAL só com o PRAGMA do onConfigure; sem auto_vacuum
+        // (NONE) é preciso o VACUUM. Sem a tabela android_metadata (NO_LOCALIZED_COLLATORS),
+        // o PRAGMA ainda vale antes da primeira tabela.
+        dbHelper.close();
+        context.deleteDatabase(DB_NAME);
+        File file = context.getDatabasePath(DB_NAME);
+        file.getParentFile().mkdirs();
+        SQLiteDatabase old = SQLiteDatabase.openDatabase(file.getPath(), null,
+                SQLiteDatabase.CREATE_IF_NECESSARY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        old.execSQL("PRAGMA auto_vacuum = NONE");
+        old.execSQL("CREATE TABLE " + DatabaseHelper.TABLE_TRAILS + " (" +
+                DatabaseHelper.COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                DatabaseHelper.COLUMN_TRAIL_ID + " TEXT NOT NULL, " +
+                DatabaseHelper.COLUMN_LATITUDE + " REAL NOT NULL, " +
+                DatabaseHelper.COLUMN_LONGITUDE + " REAL NOT NULL, " +
+                DatabaseHelper.COLUMN_TIMESTAMP + " INTEGER NOT NULL)");
+        for (int i = 0; i < 100; i++) {
+            old.execSQL("INSERT INTO " + DatabaseHelper.TABLE_TRAILS + " (" +
+                    DatabaseHelper.COLUMN_TRAIL_ID + ", " + DatabaseHelper.COLUMN_LATITUDE + ", " +
+                    DatabaseHelper.COLUMN_LONGITUDE + ", " + DatabaseHelper.COLUMN_TIMESTAMP +
+                    ") VALUES ('antiga', " + (-23.55 + i * 1e-4) + ", -46.63, " + (NOW + i * 5000L) + ")");
+        }
+        assertEquals(0, DatabaseUtils.longForQuery(old, "PRAGMA auto_vacuum", null));
+        old.setVersion(2);
+        old.close();
+
+        // a primeira abertura atualiza o esquema e converte o arquivo (VACUUM fora da transação)
+        dbHelper = new DatabaseHelper(context, DB_NAME);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        assertEquals(2, DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null));
+        assertEquals(100, countPoints("antiga"));
+
+        // nas aberturas seguintes não há nada a converter
+        dbHelper.close();
+        dbHelper = new DatabaseHelper(context, DB_NAME);
+        assertEquals(2, DatabaseUtils.longForQuery(dbHelper.getReadableDatabase(), "PRAGMA auto_vacuum", null));
+    }
+}
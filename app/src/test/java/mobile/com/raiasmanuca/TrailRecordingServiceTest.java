@@ -0,0 +1,230 @@
+package mobile.com.raiasmanuca;
+
+import android.Manifest;
+import android.app.Application;
+import android.content.Intent;
+import android.location.Location;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ServiceController;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+// Testes do serviço de gravação com Robolectric: a tela (simulada por um Listener) é
+// "recriada" no meio da gravação e nenhum ponto pode ser perdido ou repetido, nem no
+// banco nem no que a tela desenha.
+@RunWith(RobolectricTestRunner.class)
+public class TrailRecordingServiceTest {
+    private static final long START_TIME = 1_700_000_000_000L;
+
+    // Serviço sem o FusedLocationProviderClient: os fixes são entregues direto em onLocations.
+    public static class TestRecordingService extends TrailRecordingService {
+        int locationRequests = 0;
+
+        @Override
+        void requestLocationUpdates(SamplingPolicy.Bucket bucket) {
+            locationRequests++;
+        }
+
+        @Override
+        void removeLocationUpdates() {
+        }
+    }
+
+    // Tela falsa: como a TrailRecordActivity, busca os pontos novos a cada retrato.
+    private static class FakeScreen implements TrailRecordingService.Listener {
+        final TrailRecordingService service;
+        final List<Long> drawn = new ArrayList<>();
+        int drawnCount = 0;
+        int snapshots = 0;
+
+        FakeScreen(TrailRecordingService service) {
+            this.service = service;
+        }
+
+        @Override
+        public void onSnapshot(RecordingSnapshot snapshot) {
+            snapshots++;
+            drawnCount = service.copyPointsSince(drawnCount, (latitude, longitude, timestamp) -> drawn.add(timestamp));
+        }
+    }
+
+    private Application context;
+    private ServiceController<TestRecordingService> controller;
+    private TestRecordingService service;
+    private int fixCount = 0;
+
+    @Before
+    public void setUp() throws Exception {
+        context = ApplicationProvider.getApplicationContext();
+        shadowOf(context).grantPermissions(Manifest.permission.ACCESS_FINE_LOCATION);
+        controller = Robolectric.buildService(TestRecordingService.class,
+                new Intent().setAction(TrailRecordingService.ACTION_START));
+        service = controller.create().startCommand(0, 1).get();
+        // o banco e o diário são abertos na thread de armazenamento; o GPS é ligado depois
+        assertTrue(service.getSnapshot().preparing);
+        assertEquals(0, service.locationRequests);
+        awaitStorage();
+        assertFalse(service.getSnapshot().preparing);
+        assertEquals(1, service.locationRequests);
+    }
+
+    @Test
+    public void telaRecriadaNaoPerdeNemRepetePontos() throws InterruptedException {
+        assertTrue(service.isRecording());
+        String trailId = service.getTrailId();
+        assertNotNull(trailId);
+
+        FakeScreen first = new FakeScreen(service);
+        service.addListener(first);
+        deliver(300, 1);
+
+        // a tela é destruída (rotação) e o serviço continua recebendo fixes sem ninguém olhando
+        service.removeListener(first);
+        deliver(100, 5);
+
+        // a tela nova se conecta e redesenha desde o primeiro ponto
+        FakeScreen second = new FakeScreen(service);
+        service.addListener(second);
+        deliver(300, 3);
+        idle(Duration.ofSeconds(1));
+
+        // a tela encerra a gravação
+        service.stopRecording();
+        controller.destroy();
+        // o resto do buffer é gravado em segundo plano
+        assertTrue(service.awaitFinished(10, TimeUnit.SECONDS));
+
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < 700; i++) {
+            expected.add(START_TIME + i * 1000L);
+        }
+        assertEquals(expected, second.drawn);
+        // a primeira tela viu só o começo, sem repetições
+        assertEquals(expected.subList(0, first.drawn.size()), first.drawn);
+
+        // tudo foi gravado no banco, em ordem, uma vez
+        DatabaseHelper dbHelper = new DatabaseHelper(context);
+        List<Long> stored = new ArrayList<>();
+        dbHelper.forEachPoint(trailId, (latitude, longitude, timestamp) -> stored.add(timestamp));
+        dbHelper.close();
+        assertEquals(expected, stored);
+    }
+
+    @Test
+    public void retratosSaoLimitados() {
+        FakeScreen screen = new FakeScreen(service);
+        service.addListener(screen);
+        int before = screen.snapshots;
+
+        // 10 fixes por segundo durante 5 s
+        for (int i = 0; i < 50; i++) {
+            deliver(1, 1);
+            idle(Duration.ofMillis(100));
+        }
+        idle(Duration.ofSeconds(1));
+
+        int published = screen.snapshots - before;
+        assertTrue("retratos: " + published,
+                published <= 5000 / TrailRecordingService.SNAPSHOT_INTERVAL_MILLIS + 2);
+        // mas o último retrato tem todos os pontos
+        assertEquals(50, service.getSnapshot().pointCount);
+        assertEquals(50, screen.drawn.size());
+    }
+
+    @Test
+    public void iniciarDeNovoNaoRecomecaATrilha() {
+        String trailId = service.getTrailId();
+        deliver(10, 1);
+        int requests = service.locationRequests;
+        // a tela recriada manda ACTION_START outra vez
+        controller.withIntent(new Intent().setAction(TrailRecordingService.ACTION_START)).startCommand(0, 2);
+        assertEquals(trailId, service.getTrailId());
+        assertEquals(requests, service.locationRequests);
+        List<Long> points = new ArrayList<>();
+        assertEquals(10, service.copyPointsSince(0, (latitude, longitude, timestamp) -> points.add(timestamp)));
+        assertEquals(START_TIME, (long) points.get(0));
+    }
+
+    @Test
+    public void pararDuranteAPreparacaoNaoLigaOGps() throws Exception {
+        service.stopRecording();
+        controller.destroy();
+        assertTrue(service.awaitFinished(10, TimeUnit.SECONDS));
+
+        // outra gravação, parada antes de o banco e o diário ficarem prontos
+        ServiceController<TestRecordingService> other = Robolectric.buildService(TestRecordingService.class,
+                new Intent().setAction(TrailRecordingService.ACTION_START));
+        TestRecordingService stopped = other.create().startCommand(0, 1).get();
+        stopped.stopRecording();
+        other.destroy();
+        assertTrue(stopped.awaitFinished(10, TimeUnit.SECONDS));
+        shadowOf(Looper.getMainLooper()).idle();
+        assertFalse(stopped.isRecording());
+        assertEquals(0, stopped.locationRequests);
+    }
+
+    @Test
+    public void cadaTrilhaGravadaEntraNoMapaDeCalor() throws Exception {
+        String firstId = service.getTrailId();
+        deliver(20, 1);
+        service.stopRecording();
+
+        // a tela começa outra gravação antes de o serviço ser destruído
+        controller.withIntent(new Intent().setAction(TrailRecordingService.ACTION_START)).startCommand(0, 2);
+        awaitStorage();
+        String secondId = service.getTrailId();
+        assertNotEquals(firstId, secondId);
+        deliver(20, 1);
+        service.stopRecording();
+        controller.destroy();
+        assertTrue(service.awaitFinished(10, TimeUnit.SECONDS));
+
+        // as duas já estão no mapa de calor: somar de novo não faz nada
+        DatabaseHelper dbHelper = new DatabaseHelper(context);
+        assertFalse(dbHelper.addTrailToHeatmap(firstId));
+        assertFalse(dbHelper.addTrailToHeatmap(secondId));
+        dbHelper.close();
+    }
+
+    // Entrega "count" fixes em entregas de "perBatch" fixes; cada fix anda ~10 m para o norte em 1 s.
+    private void deliver(int count, int perBatch) {
+        List<Location> batch = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Location location = new Location("gps");
+            location.setLatitude(-23.5 + fixCount * 9e-5);
+            location.setLongitude(-46.6);
+            location.setAccuracy(5);
+            location.setTime(START_TIME + fixCount * 1000L);
+            location.setElapsedRealtimeNanos(fixCount * 1_000_000_000L);
+            fixCount++;
+            batch.add(location);
+            if (batch.size() == perBatch || i == count - 1) {
+                service.onLocations(new ArrayList<>(batch));
+                batch.clear();
+            }
+        }
+    }
+
+    private void awaitStorage() throws Exception {
+        service.awaitStorage(10, TimeUnit.SECONDS);
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    private static void idle(Duration duration) {
+        shadowOf(Looper.getMainLooper()).idleFor(duration);
+    }
+}
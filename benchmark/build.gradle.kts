@@ -0,0 +1,91 @@
+// Micro-benchmarks (JMH) dos caminhos quentes do módulo :core, rodando na JVM:
+//   ./gradlew :benchmark:jmh             roda tudo e grava build/results/jmh/results.json
+//   ./gradlew :benchmark:checkBaseline   roda e compara com baseline.json
+//   ./gradlew :benchmark:updateBaseline  roda e troca o baseline.json pelo resultado novo
+//
+// Todos os benchmarks medem tempo médio por operação (menor é melhor). O baseline só vale
+// para a máquina em que foi medido; ao trocar de máquina, gere um novo antes de comparar.
+import groovy.json.JsonSlurper
+
+plugins {
+    id("java")
+    id("me.champeau.jmh")
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+// os comentários são em português; sem isso o javac usa a codificação do sistema
+tasks.withType<JavaCompile>().configureEach {
+    options.encoding = "UTF-8"
+}
+
+dependencies {
+    jmh(project(":core"))
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    fork.set(1)
+    warmupIterations.set(3)
+    warmup.set("1s")
+    iterations.set(5)
+    timeOnIteration.set("1s")
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+}
+
+// quanto um benchmark pode ficar mais lento que o baseline antes de ser tratado como regressão
+val regressionTolerance = 0.25
+val baselineFile = file("baseline.json")
+val resultsFile = layout.buildDirectory.file("results/jmh/results.json")
+
+// pontuação (tempo médio) de cada benchmark, com os parâmetros no nome
+fun readScores(file: File): Map<String, Double> {
+    @Suppress("UNCHECKED_CAST")
+    val results = JsonSlurper().parse(file) as List<Map<String, Any?>>
+    return results.associate { result ->
+        @Suppress("UNCHECKED_CAST")
+        val params = (result["params"] as Map<String, Any?>?)
+            ?.entries?.sortedBy { it.key }?.joinToString(",") { "${it.key}=${it.value}" }
+        @Suppress("UNCHECKED_CAST")
+        val metric = result["primaryMetric"] as Map<String, Any?>
+        val name = result["benchmark"].toString() + if (params != null) "[$params]" else ""
+        name to (metric["score"] as Number).toDouble()
+    }
+}
+
+tasks.register("checkBaseline") {
+    group = "verification"
+    description = "Roda os benchmarks e falha se algum ficar mais lento que o baseline.json."
+    dependsOn("jmh")
+    doLast {
+        val baseline = readScores(baselineFile)
+        val current = readScores(resultsFile.get().asFile)
+        val regressions = mutableListOf<String>()
+        for ((name, score) in current) {
+            val reference = baseline[name]
+            if (reference == null) {
+                logger.lifecycle("sem baseline: $name")
+                continue
+            }
+            val change = score / reference - 1
+            logger.lifecycle(String.format("%-90s %12.3f %12.3f %+7.1f%%", name, reference, score, change * 100))
+            if (change > regressionTolerance) regressions.add(name)
+        }
+        if (regressions.isNotEmpty()) {
+            throw GradleException("Benchmarks mais lentos que o baseline: " + regressions.joinToString())
+        }
+    }
+}
+
+tasks.register<Copy>("updateBaseline") {
+    group = "verification"
+    description = "Roda os benchmarks e grava o resultado como o novo baseline.json."
+    dependsOn("jmh")
+    from(resultsFile)
+    into(projectDir)
+    rename { "baseline.json" }
+}
@@ -0,0 +1,120 @@
+package mobile.com.raiasmanuca;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Mapa de calor de 10 milhões de pontos (2000 trilhas x 5000 pontos espalhadas numa região
+// de ~50 km), guardado em memória como no banco: um blob (HeatmapTile.encode) por ladrilho.
+//
+// addTrail mede o que o app faz ao encerrar uma gravação de 1 h: contar os pontos da trilha
+// nos níveis guardados e somar cada ladrilho tocado ao guardado (decodificar, somar e
+// codificar de novo). renderTile mede um ladrilho do mapa que não está no cache: decodificar
+// o ladrilho guardado e desenhar os 256 x 256 pixels. Ficam de fora a leitura e a escrita no
+// SQLite e a compressão em PNG, que só existem no aparelho (TrailHeatmapBenchmark, nos
+// testes instrumentados).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HeatmapBenchmark {
+    private static final int STORED_TRAILS = 2000;
+    private static final int POINTS_PER_TRAIL = 5000;
+    private static final int NEW_TRAIL_POINTS = 3600;
+    private static final double REGION_DEGREES = 0.5;
+
+    private final Map<Long, byte[]> storedTiles = new HashMap<>();
+    private final int[] levelMax = new int[HeatmapBinner.MAX_LEVEL + 1];
+    private TrackBuffer newTrail;
+
+    // O ladrilho do mapa desenhado em renderTile: o que contém o início da trilha nova.
+    @State(Scope.Benchmark)
+    public static class Tile {
+        // zoom do mapa: 12 e 16 são níveis guardados, 15 e 17 ampliam o nível abaixo
+        @Param({"12", "15", "16", "17"})
+        public int zoom;
+
+        private int level;
+        private int x;
+        private int y;
+        private byte[] storedData;
+        private int maxCount;
+        private final int[] pixels = new int[HeatmapRenderer.TILE_PIXELS * HeatmapRenderer.TILE_PIXELS];
+
+        @Setup
+        public void setUp(HeatmapBenchmark heatmap) {
+            x = Quadkey.tileX(heatmap.newTrail.longitudes()[0], zoom);
+            y = Quadkey.tileY(heatmap.newTrail.latitudes()[0], zoom);
+            level = HeatmapBinner.storedLevel(zoom);
+            int depth = zoom - level;
+            storedData = heatmap.storedTiles.get(HeatmapBinner.key(level, x >> depth, y >> depth));
+            maxCount = heatmap.levelMax[level];
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        HeatmapBinner binner = new HeatmapBinner();
+        for (int t = 0; t < STORED_TRAILS; t++) {
+            TrackBuffer track = SyntheticTrails.track(POINTS_PER_TRAIL, 1000 + t);
+            double dLat = random.nextDouble() * REGION_DEGREES;
+            double dLng = random.nextDouble() * REGION_DEGREES;
+            for (int i = 0; i < track.size(); i++) {
+                binner.onPoint(track.latitudes()[i] - dLat, track.longitudes()[i] - dLng, track.timestamps()[i]);
+            }
+        }
+        for (Map.Entry<Long, HeatmapTile> entry : binner.getTiles().entrySet()) {
+            storedTiles.put(entry.getKey(), entry.getValue().encode());
+            int level = HeatmapBinner.levelOf(entry.getKey());
+            levelMax[level] = Math.max(levelMax[level], entry.getValue().getMax());
+        }
+
+        // a trilha nova passa pelo meio da região, onde já há outras
+        newTrail = new TrackBuffer();
+        TrackBuffer track = SyntheticTrails.track(NEW_TRAIL_POINTS, 1);
+        for (int i = 0; i < track.size(); i++) {
+            newTrail.onPoint(track.latitudes()[i] - REGION_DEGREES / 2, track.longitudes()[i] - REGION_DEGREES / 2,
+                    track.timestamps()[i]);
+        }
+    }
+
+    // Soma uma trilha de 1 h ao mapa de calor (os blobs novos não substituem os guardados,
+    // para todas as execuções medirem o mesmo trabalho).
+    @Benchmark
+    public int addTrail() {
+        HeatmapBinner binner = new HeatmapBinner();
+        double[] latitudes = newTrail.latitudes();
+        double[] longitudes = newTrail.longitudes();
+        long[] timestamps = newTrail.timestamps();
+        for (int i = 0; i < newTrail.size(); i++) {
+            binner.onPoint(latitudes[i], longitudes[i], timestamps[i]);
+        }
+        int bytes = 0;
+        for (Map.Entry<Long, HeatmapTile> entry : binner.getTiles().entrySet()) {
+            byte[] stored = storedTiles.get(entry.getKey());
+            HeatmapTile merged = entry.getValue();
+            if (stored != null) {
+                merged = HeatmapTile.decode(stored);
+                merged.addAll(entry.getValue());
+            }
+            bytes += merged.encode().length;
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public boolean renderTile(Tile tile) {
+        return HeatmapRenderer.render(HeatmapTile.decode(tile.storedData), tile.level, tile.x, tile.y,
+                tile.zoom, tile.maxCount, tile.pixels);
+    }
+}
@@ -0,0 +1,120 @@
+package mobile.com.raiasmanuca;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Entrada de pontos na gravação: o caminho de cada fix (amostragem, filtro, estatísticas e
+// buffer do gravador), a compactação de uma trilha encerrada e a escrita no diário.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IngestionBenchmark {
+    // uma hora e dez horas de gravação a um fix por segundo
+    @Param({"3600", "36000"})
+    public int points;
+
+    private FixBatch fixes;
+    private final FixBatch delivery = new FixBatch(1);
+    private TrackBuffer track;
+    private File journalFile;
+    private PointJournal journal;
+
+    @Setup
+    public void setUp() {
+        fixes = SyntheticTrails.fixes(points, 1);
+        track = SyntheticTrails.track(points, 1);
+    }
+
+    @Setup(Level.Iteration)
+    public void openJournal() throws IOException {
+        journalFile = File.createTempFile("bench", ".journal");
+        journal = PointJournal.open(journalFile, 0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeJournal() {
+        journal.close();
+        journalFile.delete();
+    }
+
+    // A gravação inteira, um fix por entrega, como no TrailRecordingService. O Sink só conta
+    // os pontos, então o tempo é o do app, não o do SQLite.
+    @Benchmark
+    public long recordingSession() {
+        CountingSink sink = new CountingSink();
+        TrailPointWriter writer = new TrailPointWriter(sink, "bench");
+        RecordingSession session = new RecordingSession(new SamplingPolicy(), FixPipeline.createDefault(false), writer);
+        for (int i = 0; i < points; i++) {
+            delivery.clear();
+            delivery.add(fixes.getLatitude(i), fixes.getLongitude(i), fixes.getAccuracy(i),
+                    fixes.getElapsedMillis(i), fixes.getTimestamp(i));
+            session.onFixes(delivery);
+        }
+        writer.close();
+        return sink.points;
+    }
+
+    // Igual, com a suavização (Kalman) ligada.
+    @Benchmark
+    public long recordingSessionSmoothed() {
+        CountingSink sink = new CountingSink();
+        TrailPointWriter writer = new TrailPointWriter(sink, "bench");
+        RecordingSession session = new RecordingSession(new SamplingPolicy(), FixPipeline.createDefault(true), writer);
+        for (int i = 0; i < points; i++) {
+            delivery.clear();
+            delivery.add(fixes.getLatitude(i), fixes.getLongitude(i), fixes.getAccuracy(i),
+                    fixes.getElapsedMillis(i), fixes.getTimestamp(i));
+            session.onFixes(delivery);
+        }
+        writer.close();
+        return sink.points;
+    }
+
+    // Compactação da trilha em blocos, como o DatabaseHelper.packTrail faz.
+    @Benchmark
+    public long packTrail() {
+        long bytes = 0;
+        for (int offset = 0; offset < track.size(); offset += TrackCodec.CHUNK_SIZE) {
+            int count = Math.min(TrackCodec.CHUNK_SIZE, track.size() - offset);
+            bytes += TrackCodec.encode(track.latitudes(), track.longitudes(), track.timestamps(), offset, count).length;
+        }
+        return bytes;
+    }
+
+    // Escrita de todos os pontos no diário mapeado em memória; no fim, todos são confirmados
+    // e o diário volta para o começo, pronto para a próxima operação.
+    @Benchmark
+    public long journalAppend() {
+        long sequence = 0;
+        double[] latitudes = track.latitudes();
+        double[] longitudes = track.longitudes();
+        long[] timestamps = track.timestamps();
+        for (int i = 0; i < track.size(); i++) {
+            sequence = journal.append("bench", latitudes[i], longitudes[i], timestamps[i]);
+        }
+        journal.markCommitted(sequence);
+        return sequence;
+    }
+
+    // Sink que só conta os pontos recebidos.
+    static final class CountingSink implements TrailPointWriter.Sink {
+        volatile long points;
+
+        @Override
+        public void writeBatch(String trailId, double[] latitudes, double[] longitudes, long[] timestamps, int count) {
+            points += count;
+        }
+    }
+}
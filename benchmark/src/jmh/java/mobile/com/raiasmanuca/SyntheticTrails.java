@@ -0,0 +1,97 @@
+package mobile.com.raiasmanuca;
+
+import java.util.Random;
+
+// Trilhas sintéticas para os benchmarks: uma caminhada a ~1,4 m/s partindo de São Paulo, com
+// um fix por segundo, direção mudando aos poucos e precisão entre 3 e 20 m. Cerca de 1% dos
+// fixes é um salto de centenas de metros (fix ruim), que o filtro da gravação descarta.
+// A semente fixa faz cada execução medir exatamente os mesmos pontos.
+final class SyntheticTrails {
+    static final double START_LATITUDE = -23.55;
+    static final double START_LONGITUDE = -46.63;
+    static final long START_TIME = 1_700_000_000_000L;
+    static final long FIX_INTERVAL_MILLIS = 1000;
+    private static final double METERS_PER_DEGREE = Math.PI * TrailStats.EARTH_RADIUS_METERS / 180;
+
+    private SyntheticTrails() {
+    }
+
+    // Fixes como chegam do GPS, com os saltos.
+    static FixBatch fixes(int count, long seed) {
+        Random random = new Random(seed);
+        FixBatch fixes = new FixBatch(count);
+        double latitude = START_LATITUDE;
+        double longitude = START_LONGITUDE;
+        double heading = random.nextDouble() * 2 * Math.PI;
+        for (int i = 0; i < count; i++) {
+            heading += random.nextGaussian() * 0.2;
+            double step = 1.4 + random.nextGaussian() * 0.2;
+            latitude += step * Math.cos(heading) / METERS_PER_DEGREE;
+            longitude += step * Math.sin(heading) / (METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+            float accuracy = 3 + random.nextFloat() * 17;
+            double fixLatitude = latitude;
+            double fixLongitude = longitude;
+            if (random.nextInt(100) == 0) {
+                fixLatitude += (200 + random.nextDouble() * 800) / METERS_PER_DEGREE;
+            }
+            long elapsed = i * FIX_INTERVAL_MILLIS;
+            fixes.add(fixLatitude, fixLongitude, accuracy, elapsed, START_TIME + elapsed);
+        }
+        return fixes;
+    }
+
+    // Pontos já gravados (sem os saltos), como são lidos do banco.
+    static TrackBuffer track(int count, long seed) {
+        FixBatch fixes = fixes(count, seed);
+        TrackBuffer track = new TrackBuffer();
+        for (int i = 0; i < count; i++) {
+            double latitude = fixes.getLatitude(i);
+            // desfaz os saltos: cada ponto fica perto do anterior
+            if (i > 0 && Math.abs(latitude - track.latitudes()[i - 1]) * METERS_PER_DEGREE > 100) {
+                latitude = track.latitudes()[i - 1];
+            }
+            track.onPoint(latitude, fixes.getLongitude(i), fixes.getTimestamp(i));
+        }
+        return track;
+    }
+
+    // A mesma trilha percorrida de novo: tempos multiplicados por slowdown (maior é mais
+    // lento) e outro erro de GPS, que muda devagar de um ponto para o outro (~5 m).
+    static TrackBuffer repeat(TrackBuffer route, double slowdown, long seed) {
+        Random random = new Random(seed);
+        TrackBuffer track = new TrackBuffer(route.size());
+        double errorNorth = 0;
+        double errorEast = 0;
+        double cosLatitude = Math.cos(Math.toRadians(START_LATITUDE));
+        for (int i = 0; i < route.size(); i++) {
+            errorNorth = 0.99 * errorNorth + random.nextGaussian() * 0.7;
+            errorEast = 0.99 * errorEast + random.nextGaussian() * 0.7;
+            track.onPoint(route.latitudes()[i] + errorNorth / METERS_PER_DEGREE,
+                    route.longitudes()[i] + errorEast / (METERS_PER_DEGREE * cosLatitude),
+                    START_TIME + Math.round((route.timestamps()[i] - START_TIME) * slowdown));
+        }
+        return track;
+    }
+
+    // Origem em memória com uma única trilha, para os benchmarks que leem pontos.
+    static TrailPointSource source(final String trailId, final TrackBuffer track) {
+        return new TrailPointSource() {
+            @Override
+            public int forEachPoint(String id, TrailPointVisitor visitor) {
+                if (!trailId.equals(id)) return 0;
+                double[] latitudes = track.latitudes();
+                double[] longitudes = track.longitudes();
+                long[] timestamps = track.timestamps();
+                for (int i = 0; i < track.size(); i++) {
+                    visitor.onPoint(latitudes[i], longitudes[i], timestamps[i]);
+                }
+                return track.size();
+            }
+
+            @Override
+            public String getLatestTrailId() {
+                return trailId;
+            }
+        };
+    }
+}
@@ -0,0 +1,75 @@
+package mobile.com.raiasmanuca;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// Formatação de texto: o painel de informações da trilha, os itens da lista e a exportação
+// em GPX (números e datas formatados ponto a ponto).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrailFormatBenchmark {
+    static final Locale LOCALE = new Locale("pt", "BR");
+    private static final int EXPORT_POINTS = 10000;
+
+    private TrailStats stats;
+    private TrailSummary summary;
+    private TrailPointSource source;
+    private final TrailExporter exporter = new TrailExporter();
+    private final char[] scratch = new char[32];
+    private final OutputStream discard = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        TrackBuffer track = SyntheticTrails.track(EXPORT_POINTS, 5);
+        stats = TrailStats.compute(track.latitudes(), track.longitudes(), track.timestamps(), track.size());
+        summary = new TrailSummary("bench", SyntheticTrails.START_TIME);
+        summary.addAll(track.latitudes(), track.longitudes(), track.timestamps(), track.size());
+        summary.setEndTime(track.timestamps()[track.size() - 1]);
+        source = SyntheticTrails.source("bench", track);
+    }
+
+    // texto do painel da TrailViewActivity
+    @Benchmark
+    public String infoPanel() {
+        return TrailInfoFormatter.format(stats, LOCALE);
+    }
+
+    // título e detalhes de um item da lista de trilhas
+    @Benchmark
+    public int listItem() {
+        return TrailInfoFormatter.formatListTitle(summary, LOCALE).length()
+                + TrailInfoFormatter.formatListDetails(summary, LOCALE).length();
+    }
+
+    // uma coordenada e um horário no buffer reaproveitado do exportador
+    @Benchmark
+    public int coordinateAndTime() {
+        return TrailExporter.formatFixed(-46.6333094, TrailExporter.COORDINATE_DECIMALS, scratch)
+                + TrailExporter.formatTime(SyntheticTrails.START_TIME, scratch);
+    }
+
+    // GPX de uma trilha de EXPORT_POINTS pontos, descartando a saída
+    @Benchmark
+    public int exportGpx() throws IOException {
+        return exporter.writeGpx(source, "bench", discard);
+    }
+}
@@ -0,0 +1,80 @@
+package mobile.com.raiasmanuca;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Carga de uma trilha gravada: leitura dos pontos (linhas ou blocos compactados), as
+// estatísticas e os níveis de detalhe, o trabalho que o TrailLoader faz em segundo plano.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TrailLoadBenchmark {
+    @Param({"10000", "100000"})
+    public int points;
+
+    private TrackBuffer track;
+    private TrailPointSource source;
+    private List<byte[]> packedChunks;
+
+    @Setup
+    public void setUp() {
+        track = SyntheticTrails.track(points, 2);
+        source = SyntheticTrails.source("bench", track);
+        packedChunks = new ArrayList<>();
+        for (int offset = 0; offset < track.size(); offset += TrackCodec.CHUNK_SIZE) {
+            int count = Math.min(TrackCodec.CHUNK_SIZE, track.size() - offset);
+            packedChunks.add(TrackCodec.encode(track.latitudes(), track.longitudes(), track.timestamps(), offset, count));
+        }
+    }
+
+    // Leitura ponto a ponto para o TrackBuffer e as estatísticas, como o visitor do TrailLoader.
+    @Benchmark
+    public double readRows() {
+        final TrackBuffer buffer = new TrackBuffer();
+        final TrailStats stats = new TrailStats();
+        source.forEachPoint("bench", (latitude, longitude, timestamp) -> {
+            buffer.onPoint(latitude, longitude, timestamp);
+            stats.onPoint(latitude, longitude, timestamp);
+        });
+        return stats.getDistanceMeters() + buffer.size();
+    }
+
+    // Leitura da trilha compactada (decodificação dos blocos) com as estatísticas.
+    @Benchmark
+    public double readPacked() {
+        final TrackBuffer buffer = new TrackBuffer();
+        final TrailStats stats = new TrailStats();
+        TrailPointVisitor visitor = (latitude, longitude, timestamp) -> {
+            buffer.onPoint(latitude, longitude, timestamp);
+            stats.onPoint(latitude, longitude, timestamp);
+        };
+        for (byte[] chunk : packedChunks) {
+            TrackCodec.decode(chunk, visitor);
+        }
+        return stats.getDistanceMeters() + buffer.size();
+    }
+
+    // Carga completa: leitura, estatísticas, níveis de detalhe e o texto do painel.
+    @Benchmark
+    public int loadTrail() {
+        final TrackBuffer buffer = new TrackBuffer();
+        final TrailStats stats = new TrailStats();
+        source.forEachPoint("bench", (latitude, longitude, timestamp) -> {
+            buffer.onPoint(latitude, longitude, timestamp);
+            stats.onPoint(latitude, longitude, timestamp);
+        });
+        int[][] levels = TrailLodLevels.build(buffer.latitudes(), buffer.longitudes(), buffer.size());
+        String info = TrailInfoFormatter.format(stats, TrailFormatBenchmark.LOCALE);
+        return levels.length + info.length();
+    }
+}
@@ -0,0 +1,108 @@
+package mobile.com.raiasmanuca;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+// Uma trilha de 1 h de caminhada comparada com 5 mil trilhas gravadas. Todas saem do mesmo
+// ponto (como quem sempre sai de casa); "sameRoute" delas repetem o percurso da consultada,
+// com outro erro de GPS e outra velocidade, e o resto vai para direções aleatórias.
+//
+// Como no app, a pré-seleção só olha os resumos e só as candidatas têm os pontos lidos: o
+// benchmark guarda em memória os percursos reamostrados das que repetem o percurso, que é o
+// que a Activity lê do banco antes de alinhar. matchAll usa o ForkJoinPool comum (todos os
+// núcleos) e matchAllSingleThread um pool de uma thread, para comparar.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TrailMatchBenchmark {
+    private static final int STORED_TRAILS = 5000;
+    private static final int POINTS = 3600;
+
+    @Param({"50", "500"})
+    public int sameRoute;
+
+    private TrailSummary querySummary;
+    private TrailMatcher.Route queryRoute;
+    private final List<TrailSummary> summaries = new ArrayList<>();
+    private final Map<String, TrailMatcher.Route> routes = new HashMap<>();
+    private TrailMatcher matcher;
+    private TrailMatcher singleThreadMatcher;
+    private ForkJoinPool singleThreadPool;
+
+    @Setup
+    public void setUp() {
+        TrackBuffer query = SyntheticTrails.track(POINTS, 20);
+        querySummary = summarize("query", query);
+        queryRoute = TrailMatcher.Route.resample("query", query, TrailMatcher.DEFAULT_SPACING_METERS);
+
+        matcher = new TrailMatcher();
+        for (int i = 0; i < STORED_TRAILS; i++) {
+            String trailId = "t" + i;
+            TrackBuffer track = i < sameRoute
+                    ? SyntheticTrails.repeat(query, 0.8 + (i % 10) * 0.05, 100 + i)
+                    : SyntheticTrails.track(POINTS, 100 + i);
+            TrailSummary summary = summarize(trailId, track);
+            summaries.add(summary);
+            // só as que passam pela pré-seleção teriam os pontos lidos
+            if (matcher.isCandidate(querySummary, summary)) {
+                routes.put(trailId, TrailMatcher.Route.resample(trailId, track, TrailMatcher.DEFAULT_SPACING_METERS));
+            }
+        }
+
+        singleThreadPool = new ForkJoinPool(1);
+        singleThreadMatcher = new TrailMatcher(singleThreadPool, TrailMatcher.DEFAULT_ENDPOINT_RADIUS_METERS,
+                TrailMatcher.DEFAULT_LENGTH_TOLERANCE, TrailMatcher.DEFAULT_BAND_FRACTION,
+                TrailMatcher.DEFAULT_MAX_DEVIATION_METERS, TrailMatcher.DEFAULT_SEGMENT_METERS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        singleThreadPool.shutdown();
+    }
+
+    private static TrailSummary summarize(String trailId, TrackBuffer track) {
+        TrailSummary summary = new TrailSummary(trailId, SyntheticTrails.START_TIME);
+        summary.addAll(track.latitudes(), track.longitudes(), track.timestamps(), track.size());
+        return summary;
+    }
+
+    // Só a pré-seleção pelos resumos.
+    @Benchmark
+    public int prefilter() {
+        return matcher.prefilter(querySummary, summaries).size();
+    }
+
+    // Pré-seleção e alinhamento das candidatas em todos os núcleos.
+    @Benchmark
+    public int matchAll() {
+        return match(matcher);
+    }
+
+    @Benchmark
+    public int matchAllSingleThread() {
+        return match(singleThreadMatcher);
+    }
+
+    private int match(TrailMatcher trailMatcher) {
+        List<TrailSummary> candidates = trailMatcher.prefilter(querySummary, summaries);
+        List<TrailMatcher.Route> candidateRoutes = new ArrayList<>(candidates.size());
+        for (TrailSummary candidate : candidates) {
+            candidateRoutes.add(routes.get(candidate.getTrailId()));
+        }
+        return trailMatcher.matchAll(queryRoute, candidateRoutes).size();
+    }
+}
@@ -0,0 +1,72 @@
+package mobile.com.raiasmanuca;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// Preparação dos pontos das linhas do mapa: a escolha dos pontos de cada nível de detalhe
+// (TrailLodLevels) e a simplificação dos trechos progressivos da carga. As listas de LatLng
+// em si são montadas no app, a partir desses índices.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TrailPolylineBenchmark {
+    @Param({"10000", "100000"})
+    public int points;
+
+    // mesmos valores do TrailLoader (trechos dobram de 256 até 32768 pontos, tolerância de 5 m)
+    private static final int FIRST_CHUNK_POINTS = 256;
+    private static final int MAX_CHUNK_POINTS = 32768;
+    private static final double CHUNK_TOLERANCE_METERS = 5;
+
+    private TrackBuffer track;
+    private int[] indices;
+
+    @Setup
+    public void setUp() {
+        track = SyntheticTrails.track(points, 4);
+        indices = new int[points];
+    }
+
+    // todos os níveis de detalhe de uma vez, como na primeira abertura da trilha
+    @Benchmark
+    public int buildLevels() {
+        int[][] levels = TrailLodLevels.build(track.latitudes(), track.longitudes(), track.size());
+        int total = 0;
+        for (int[] level : levels) total += level != null ? level.length : track.size();
+        return total;
+    }
+
+    // a trilha inteira simplificada com a tolerância dos trechos
+    @Benchmark
+    public int simplifyWhole() {
+        return TrackSimplifier.simplify(track.latitudes(), track.longitudes(), track.size(),
+                CHUNK_TOLERANCE_METERS, indices);
+    }
+
+    // os trechos progressivos da carga, cada um simplificado e copiado como o TrailLoader faz
+    @Benchmark
+    public int simplifyChunks() {
+        int kept = 0;
+        int start = 0;
+        int chunkSize = FIRST_CHUNK_POINTS;
+        while (start < track.size() - 1) {
+            int count = Math.min(chunkSize + 1, track.size() - start);
+            double[] lats = new double[count];
+            double[] lngs = new double[count];
+            System.arraycopy(track.latitudes(), start, lats, 0, count);
+            System.arraycopy(track.longitudes(), start, lngs, 0, count);
+            kept += TrackSimplifier.simplify(lats, lngs, count, CHUNK_TOLERANCE_METERS, indices);
+            start += count - 1;
+            chunkSize = Math.min(chunkSize * 2, MAX_CHUNK_POINTS);
+        }
+        return kept;
+    }
+}
@@ -0,0 +1,54 @@
+package mobile.com.raiasmanuca;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// Distância e estatísticas de uma trilha: TrailStats (distância, velocidades, parciais e
+// limites) e o TrailSummary mantido a cada lote gravado.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrailStatsBenchmark {
+    @Param({"10000", "100000"})
+    public int points;
+
+    private TrackBuffer track;
+
+    @Setup
+    public void setUp() {
+        track = SyntheticTrails.track(points, 3);
+    }
+
+    @Benchmark
+    public double trailStats() {
+        TrailStats stats = TrailStats.compute(track.latitudes(), track.longitudes(), track.timestamps(), track.size());
+        return stats.getDistanceMeters();
+    }
+
+    @Benchmark
+    public double trailSummary() {
+        TrailSummary summary = new TrailSummary("bench", SyntheticTrails.START_TIME);
+        summary.addAll(track.latitudes(), track.longitudes(), track.timestamps(), track.size());
+        return summary.getDistanceMeters();
+    }
+
+    // Só a fórmula de haversine, ponto a ponto.
+    @Benchmark
+    public double haversine() {
+        double[] latitudes = track.latitudes();
+        double[] longitudes = track.longitudes();
+        double total = 0;
+        for (int i = 1; i < track.size(); i++) {
+            total += TrailStats.haversine(latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]);
+        }
+        return total;
+    }
+}
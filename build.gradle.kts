@@ -2,4 +2,5 @@
 plugins {
     id("com.android.application") version "8.1.2" apply false
     id("com.google.android.libraries.mapsplatform.secrets-gradle-plugin") version "2.0.1" apply false
-}
\ No newline at end of file
+    id("me.champeau.jmh") version "0.7.2" apply false
+}
@@ -0,0 +1,24 @@
+// Lógica da gravação, do armazenamento e das estatísticas das trilhas, em Java puro (sem
+// Android), para poder ser testada e medida na JVM. O app usa este módulo no mesmo pacote.
+plugins {
+    id("java-library")
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+// os comentários são em português; sem isso o javac usa a codificação do sistema
+tasks.withType<JavaCompile>().configureEach {
+    options.encoding = "UTF-8"
+}
+
+// os relatórios de medição dos testes só saem com ./gradlew test -Dtrails.reports=true
+tasks.withType<Test>().configureEach {
+    systemProperty("trails.reports", System.getProperty("trails.reports", "false"))
+}
+
+dependencies {
+    testImplementation("junit:junit:4.13.2")
+}
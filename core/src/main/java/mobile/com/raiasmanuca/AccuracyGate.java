@@ -0,0 +1,23 @@
+package mobile.com.raiasmanuca;
+
+// Descarta fixes com raio de precisão maior que o limite (típico de fix por rede ou de
+// GPS recém-ligado). Fixes sem precisão informada passam.
+public class AccuracyGate extends FixStage {
+    public static final float DEFAULT_MAX_ACCURACY_METERS = 25;
+
+    private final float maxAccuracyMeters;
+
+    public AccuracyGate() {
+        this(DEFAULT_MAX_ACCURACY_METERS);
+    }
+
+    public AccuracyGate(float maxAccuracyMeters) {
+        super("precisão");
+        this.maxAccuracyMeters = maxAccuracyMeters;
+    }
+
+    @Override
+    protected boolean accept(Fix fix) {
+        return fix.accuracy <= 0 || fix.accuracy <= maxAccuracyMeters;
+    }
+}
@@ -0,0 +1,183 @@
+package mobile.com.raiasmanuca;
+
+// Junta os pedidos de câmera da gravação (posição, zoom e direção) em no máximo uma
+// atualização por quadro. Cada retrato da gravação só guarda o alvo mais recente com
+// request(); quem chama onFrame() (no app, o Choreographer) decide se vale mover a câmera:
+//
+// - se o alvo andou menos que minPixels na tela, o zoom é o mesmo e a direção mudou menos
+//   que minBearingDegrees, o pedido é descartado (a câmera não "treme" com o GPS parado);
+// - enquanto o usuário está mexendo no mapa, e por resumeDelayMillis depois que ele solta,
+//   nada é enviado; o último alvo fica guardado e é aplicado quando a pausa acaba;
+// - a animação dura o tempo desde a atualização anterior (até maxAnimationMillis), para
+//   que termine mais ou menos quando a próxima chegar, em vez de ser interrompida no meio.
+public class CameraCoalescer {
+    // Abstração da câmera, para que o coalescedor possa ser testado sem o GoogleMap.
+    public interface Camera {
+        // bearing NaN mantém a direção atual da câmera
+        void animateTo(double latitude, double longitude, float zoom, float bearing, long durationMillis);
+    }
+
+    // deslocamento mínimo na tela (em dp) para mover a câmera
+    public static final double DEFAULT_MIN_PIXELS = 2;
+    // mudança mínima de direção para girar a câmera
+    public static final float DEFAULT_MIN_BEARING_DEGREES = 2;
+    // tempo sem mexer no mapa até a câmera voltar a seguir a gravação
+    public static final long DEFAULT_RESUME_DELAY_MILLIS = 3000;
+    // duração máxima de uma animação (a primeira, ou depois de uma pausa longa)
+    public static final long DEFAULT_MAX_ANIMATION_MILLIS = 1000;
+
+    // metros por dp no equador com zoom 0 (um mundo de 256 dp)
+    private static final double METERS_PER_PIXEL_AT_ZOOM_0 = 156543.03392;
+
+    // pedidos recebidos, atualizações enviadas e pedidos descartados por estarem abaixo do limite
+    private static final Metrics.Counter REQUESTS = Metrics.counter("camera.requests");
+    private static final Metrics.Counter UPDATES = Metrics.counter("camera.updates");
+    private static final Metrics.Counter SKIPPED = Metrics.counter("camera.skipped");
+
+    private final Camera camera;
+    private final double minPixels;
+    private final float minBearingDegrees;
+    private final long resumeDelayMillis;
+    private final long maxAnimationMillis;
+
+    // alvo mais recente ainda não aplicado
+    private boolean pending = false;
+    private double pendingLatitude;
+    private double pendingLongitude;
+    private float pendingZoom;
+    private float pendingBearing;
+
+    // última posição enviada à câmera
+    private boolean hasApplied = false;
+    private double appliedLatitude;
+    private double appliedLongitude;
+    private float appliedZoom;
+    private float appliedBearing = Float.NaN;
+    private long lastUpdateMillis;
+
+    // interação do usuário com o mapa
+    private boolean interacting = false;
+    private long resumeAtMillis = 0;
+
+    // contadores usados nos testes
+    private int requestCount = 0;
+    private int updateCount = 0;
+    private int skippedCount = 0;
+
+    public CameraCoalescer(Camera camera) {
+        this(camera, DEFAULT_MIN_PIXELS, DEFAULT_MIN_BEARING_DEGREES, DEFAULT_RESUME_DELAY_MILLIS,
+                DEFAULT_MAX_ANIMATION_MILLIS);
+    }
+
+    public CameraCoalescer(Camera camera, double minPixels, float minBearingDegrees,
+                           long resumeDelayMillis, long maxAnimationMillis) {
+        this.camera = camera;
+        this.minPixels = minPixels;
+        this.minBearingDegrees = minBearingDegrees;
+        this.resumeDelayMillis = resumeDelayMillis;
+        this.maxAnimationMillis = maxAnimationMillis;
+    }
+
+    // Guarda o novo alvo da câmera, substituindo o anterior se ele ainda não foi aplicado.
+    // bearing NaN mantém a direção atual. Devolve true se é preciso pedir um quadro
+    // (não havia alvo pendente).
+    public boolean request(double latitude, double longitude, float zoom, float bearing) {
+        requestCount++;
+        REQUESTS.increment();
+        boolean needsFrame = !pending;
+        pending = true;
+        pendingLatitude = latitude;
+        pendingLongitude = longitude;
+        pendingZoom = zoom;
+        pendingBearing = bearing;
+        return needsFrame;
+    }
+
+    // Chamado a cada quadro pedido. nowMillis é um relógio monotônico. Devolve true se a
+    // câmera foi movida.
+    public boolean onFrame(long nowMillis) {
+        if (!pending || isPaused(nowMillis)) return false;
+        pending = false;
+
+        if (hasApplied && pendingZoom == appliedZoom && !bearingChanged()
+                && distancePixels() < minPixels) {
+            skippedCount++;
+            SKIPPED.increment();
+            return false;
+        }
+
+        long duration = hasApplied
+                ? Math.min(nowMillis - lastUpdateMillis, maxAnimationMillis)
+                : maxAnimationMillis;
+        camera.animateTo(pendingLatitude, pendingLongitude, pendingZoom, pendingBearing, duration);
+        hasApplied = true;
+        appliedLatitude = pendingLatitude;
+        appliedLongitude = pendingLongitude;
+        appliedZoom = pendingZoom;
+        if (!Float.isNaN(pendingBearing)) appliedBearing = pendingBearing;
+        lastUpdateMillis = nowMillis;
+        updateCount++;
+        UPDATES.increment();
+        return true;
+    }
+
+    // O usuário começou a arrastar, girar ou dar zoom no mapa.
+    public void onUserInteractionStarted() {
+        interacting = true;
+    }
+
+    // O mapa parou depois de uma interação do usuário. A câmera volta a seguir a
+    // gravação depois de resumeDelayMillis; devolve esse atraso se há um alvo esperando
+    // (o app pede um quadro para esse momento) ou -1 se não há nada a aplicar.
+    public long onUserInteractionEnded(long nowMillis) {
+        if (!interacting) return -1;
+        interacting = false;
+        resumeAtMillis = nowMillis + resumeDelayMillis;
+        // depois da interação a câmera está em outro lugar; o próximo alvo sempre é aplicado
+        hasApplied = false;
+        return pending ? resumeDelayMillis : -1;
+    }
+
+    public boolean isPaused(long nowMillis) {
+        return interacting || nowMillis < resumeAtMillis;
+    }
+
+    // Quanto falta para a pausa acabar: 0 fora da pausa, -1 enquanto o usuário ainda mexe
+    // no mapa (o fim da interação é que marca a retomada).
+    public long millisUntilResume(long nowMillis) {
+        if (interacting) return -1;
+        return Math.max(0, resumeAtMillis - nowMillis);
+    }
+
+    public boolean hasPending() {
+        return pending;
+    }
+
+    public int getRequestCount() {
+        return requestCount;
+    }
+
+    public int getUpdateCount() {
+        return updateCount;
+    }
+
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    private boolean bearingChanged() {
+        if (Float.isNaN(pendingBearing)) return false;
+        if (Float.isNaN(appliedBearing)) return true;
+        float delta = Math.abs(pendingBearing - appliedBearing) % 360;
+        if (delta > 180) delta = 360 - delta;
+        return delta >= minBearingDegrees;
+    }
+
+    // distância na tela (em dp) entre a posição aplicada e o alvo, no zoom do alvo
+    private double distancePixels() {
+        double meters = TrailStats.haversine(appliedLatitude, appliedLongitude, pendingLatitude, pendingLongitude);
+        double metersPerPixel = METERS_PER_PIXEL_AT_ZOOM_0 * Math.cos(Math.toRadians(pendingLatitude))
+                / Math.pow(2, pendingZoom);
+        return meters / metersPerPixel;
+    }
+}
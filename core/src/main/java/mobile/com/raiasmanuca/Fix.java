@@ -0,0 +1,21 @@
+package mobile.com.raiasmanuca;
+
+// Um fix de localização que passa pelo FixPipeline. É mutável e reaproveitado a cada
+// leitura do GPS, para o pipeline não criar objetos por fix; os estágios podem alterar
+// a posição (o suavizador, por exemplo).
+public class Fix {
+    public double latitude;
+    public double longitude;
+    // raio de precisão informado pelo provedor (m); <= 0 quando desconhecido
+    public float accuracy;
+    // relógio monotônico (SystemClock.elapsedRealtime no app), em ms
+    public long timeMillis;
+
+    public Fix set(double latitude, double longitude, float accuracy, long timeMillis) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.accuracy = accuracy;
+        this.timeMillis = timeMillis;
+        return this;
+    }
+}
@@ -0,0 +1,87 @@
+package mobile.com.raiasmanuca;
+
+import java.util.Arrays;
+
+// Lote de fixes em arrays primitivos, na ordem em que foram medidos. É o que a Activity
+// monta a partir de LocationResult.getLocations() e o que a RecordingSession devolve com
+// os fixes aceitos. Reaproveitado entre entregas: clear() não libera os arrays.
+public class FixBatch {
+    private double[] latitudes;
+    private double[] longitudes;
+    private float[] accuracies;
+    // relógio monotônico do fix (ms), usado pelos filtros
+    private long[] elapsedMillis;
+    // horário do fix (ms desde 1970), o que vai para o banco
+    private long[] timestamps;
+    private int size = 0;
+
+    public FixBatch() {
+        this(16);
+    }
+
+    public FixBatch(int initialCapacity) {
+        latitudes = new double[initialCapacity];
+        longitudes = new double[initialCapacity];
+        accuracies = new float[initialCapacity];
+        elapsedMillis = new long[initialCapacity];
+        timestamps = new long[initialCapacity];
+    }
+
+    public void add(double latitude, double longitude, float accuracy, long elapsed, long timestamp) {
+        if (size == latitudes.length) {
+            int capacity = size * 2;
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            accuracies = Arrays.copyOf(accuracies, capacity);
+            elapsedMillis = Arrays.copyOf(elapsedMillis, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+        }
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        accuracies[size] = accuracy;
+        elapsedMillis[size] = elapsed;
+        timestamps[size] = timestamp;
+        size++;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getLatitude(int i) {
+        return latitudes[i];
+    }
+
+    public double getLongitude(int i) {
+        return longitudes[i];
+    }
+
+    public float getAccuracy(int i) {
+        return accuracies[i];
+    }
+
+    public long getElapsedMillis(int i) {
+        return elapsedMillis[i];
+    }
+
+    public long getTimestamp(int i) {
+        return timestamps[i];
+    }
+
+    // Arrays internos (válidos até size()), para entregar ao TrailPointWriter sem copiar.
+    double[] latitudes() {
+        return latitudes;
+    }
+
+    double[] longitudes() {
+        return longitudes;
+    }
+
+    long[] timestamps() {
+        return timestamps;
+    }
+}
@@ -0,0 +1,62 @@
+package mobile.com.raiasmanuca;
+
+// Sequência de estágios entre o LocationCallback e a gravação/interface. Um fix só é
+// gravado e somado na distância se passar por todos os estágios.
+//
+// Ordem padrão: precisão -> saltos impossíveis -> suavização (opcional) -> deslocamento
+// mínimo. O filtro de deslocamento fica por último para comparar posições já suavizadas.
+public class FixPipeline {
+    private final FixStage[] stages;
+    private long received = 0;
+    private long accepted = 0;
+
+    public FixPipeline(FixStage... stages) {
+        this.stages = stages;
+    }
+
+    public static FixPipeline createDefault(boolean smoothing) {
+        if (smoothing) {
+            return new FixPipeline(new AccuracyGate(), new SpeedOutlierFilter(),
+                    new KalmanSmoother(), new MinDisplacementFilter());
+        }
+        return new FixPipeline(new AccuracyGate(), new SpeedOutlierFilter(), new MinDisplacementFilter());
+    }
+
+    // Passa o fix pelos estágios; retorna false se algum deles o descartou.
+    public boolean process(Fix fix) {
+        received++;
+        for (FixStage stage : stages) {
+            if (!stage.process(fix)) return false;
+        }
+        accepted++;
+        return true;
+    }
+
+    public void reset() {
+        for (FixStage stage : stages) {
+            stage.reset();
+        }
+    }
+
+    public FixStage[] getStages() {
+        return stages;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    // Resumo dos contadores de cada estágio, para log.
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("fixes: ").append(received).append(" recebidos, ").append(accepted).append(" aceitos");
+        for (FixStage stage : stages) {
+            sb.append("; ").append(stage.getName()).append(": -").append(stage.getRejected());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,42 @@
+package mobile.com.raiasmanuca;
+
+// Estágio do FixPipeline. Cada estágio decide se o fix segue adiante (e pode ajustá-lo)
+// e conta quantos fixes aceitou e descartou.
+public abstract class FixStage {
+    private final String name;
+    private long accepted = 0;
+    private long rejected = 0;
+
+    protected FixStage(String name) {
+        this.name = name;
+    }
+
+    // Processa o fix e atualiza os contadores. Retorna false se o fix deve ser descartado.
+    public final boolean process(Fix fix) {
+        if (accept(fix)) {
+            accepted++;
+            return true;
+        }
+        rejected++;
+        return false;
+    }
+
+    // Implementado por cada estágio; não deve criar objetos.
+    protected abstract boolean accept(Fix fix);
+
+    // Esquece o estado (último ponto etc.), por exemplo ao começar uma trilha nova.
+    public void reset() {
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+}
@@ -0,0 +1,93 @@
+package mobile.com.raiasmanuca;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Conta os pontos de uma trilha nas células do mapa de calor, em todos os níveis guardados
+// (zoom 0, 2, 4, ..., 16). É um TrailPointVisitor: recebe os pontos direto do
+// DatabaseHelper.forEachPoint, e o resultado são só os ladrilhos por onde a trilha passou,
+// que depois são somados aos do banco. Assim, encerrar uma trilha custa o tamanho dela e
+// não o de todas as trilhas já gravadas.
+//
+// Os ladrilhos são os do mapa (Web Mercator, os mesmos do Quadkey). A chave de um ladrilho
+// junta o nível e o quadkey (x e y intercalados), como a coluna tile da tabela heatmap_tiles.
+public class HeatmapBinner implements TrailPointVisitor {
+    // níveis guardados: de 2 em 2, o zoom do mapa usa o nível guardado logo abaixo dele
+    public static final int MIN_LEVEL = 0;
+    public static final int MAX_LEVEL = 16;
+    public static final int LEVEL_STEP = 2;
+
+    private static final int LEVEL_COUNT = (MAX_LEVEL - MIN_LEVEL) / LEVEL_STEP + 1;
+    private static final int CELL_BITS = 6;
+
+    private final Map<Long, HeatmapTile> tiles = new HashMap<>();
+    // último ladrilho usado em cada nível; pontos seguidos quase sempre caem no mesmo
+    private final long[] lastKeys = new long[LEVEL_COUNT];
+    private final HeatmapTile[] lastTiles = new HeatmapTile[LEVEL_COUNT];
+    private int pointCount = 0;
+
+    public HeatmapBinner() {
+        Arrays.fill(lastKeys, -1);
+    }
+
+    @Override
+    public void onPoint(double latitude, double longitude, long timestamp) {
+        // posição no mundo inteiro, de 0 a 1, na projeção do mapa
+        double worldX = (longitude + 180) / 360;
+        double lat = Math.toRadians(Math.max(-Quadkey.MAX_LATITUDE, Math.min(Quadkey.MAX_LATITUDE, latitude)));
+        double worldY = (1 - Math.log(Math.tan(lat) + 1 / Math.cos(lat)) / Math.PI) / 2;
+
+        for (int l = 0; l < LEVEL_COUNT; l++) {
+            int level = MIN_LEVEL + l * LEVEL_STEP;
+            int cells = 1 << (level + CELL_BITS);
+            int cellX = Math.max(0, Math.min(cells - 1, (int) (worldX * cells)));
+            int cellY = Math.max(0, Math.min(cells - 1, (int) (worldY * cells)));
+            long key = key(level, cellX >>> CELL_BITS, cellY >>> CELL_BITS);
+            HeatmapTile tile;
+            if (key == lastKeys[l]) {
+                tile = lastTiles[l];
+            } else {
+                tile = tiles.get(key);
+                if (tile == null) {
+                    tile = new HeatmapTile();
+                    tiles.put(key, tile);
+                }
+                lastKeys[l] = key;
+                lastTiles[l] = tile;
+            }
+            int mask = HeatmapTile.SIZE - 1;
+            tile.add((cellY & mask) * HeatmapTile.SIZE + (cellX & mask), 1);
+        }
+        pointCount++;
+    }
+
+    // ladrilhos tocados pela trilha, pela chave
+    public Map<Long, HeatmapTile> getTiles() {
+        return tiles;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    // Nível guardado usado para desenhar o zoom do mapa (o maior nível guardado que não passa
+    // do zoom).
+    public static int storedLevel(int zoom) {
+        int level = Math.min(MAX_LEVEL, zoom);
+        return level - (level - MIN_LEVEL) % LEVEL_STEP;
+    }
+
+    public static long key(int level, int tileX, int tileY) {
+        return ((long) level << 56) | Quadkey.interleave(tileX, tileY);
+    }
+
+    public static int levelOf(long key) {
+        return (int) (key >>> 56);
+    }
+
+    // quadkey do ladrilho (coluna tile da tabela)
+    public static long tileOf(long key) {
+        return key & ((1L << 56) - 1);
+    }
+}
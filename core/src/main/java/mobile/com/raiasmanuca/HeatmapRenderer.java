@@ -0,0 +1,91 @@
+package mobile.com.raiasmanuca;
+
+// Desenha um ladrilho do mapa de calor (256 x 256 px, ARGB) a partir do ladrilho guardado
+// no nível logo abaixo do zoom (HeatmapBinner.storedLevel). Se o zoom é maior que o nível,
+// o ladrilho do mapa é um pedaço do guardado, ampliado.
+//
+// A cor de cada célula vai do azul transparente (poucos pontos) ao vermelho (a célula mais
+// visitada do nível), em escala logarítmica: uma célula com 10 vezes menos pontos ainda
+// aparece. A cor é calculada uma vez por célula e depois só copiada para os pixels.
+public final class HeatmapRenderer {
+    public static final int TILE_PIXELS = 256;
+
+    // rampa de cores: azul, ciano, amarelo, vermelho, cada vez mais opaca
+    private static final int[] PALETTE = buildPalette();
+
+    private HeatmapRenderer() {
+    }
+
+    // Desenha o ladrilho (x, y, zoom) do mapa em pixels (TILE_PIXELS * TILE_PIXELS).
+    // stored é o ladrilho do nível storedLevel que contém o do mapa; maxCount é a maior
+    // contagem do nível. Retorna false se nenhuma célula desenhada tem pontos.
+    public static boolean render(HeatmapTile stored, int storedLevel, int x, int y, int zoom,
+                                 int maxCount, int[] pixels) {
+        int depth = zoom - storedLevel;
+        // posição do ladrilho do mapa dentro do guardado
+        int subX = x & ((1 << depth) - 1);
+        int subY = y & ((1 << depth) - 1);
+
+        // célula de cada coluna e de cada linha de pixels
+        int[] columnCells = new int[TILE_PIXELS];
+        int[] rowCells = new int[TILE_PIXELS];
+        for (int p = 0; p < TILE_PIXELS; p++) {
+            columnCells[p] = (int) (((long) subX * TILE_PIXELS + p) * HeatmapTile.SIZE >> (8 + depth));
+            rowCells[p] = (int) (((long) subY * TILE_PIXELS + p) * HeatmapTile.SIZE >> (8 + depth));
+        }
+
+        // cor de cada célula usada
+        int firstColumn = columnCells[0];
+        int lastColumn = columnCells[TILE_PIXELS - 1];
+        int firstRow = rowCells[0];
+        int lastRow = rowCells[TILE_PIXELS - 1];
+        int[] colors = new int[HeatmapTile.CELLS];
+        double scale = (PALETTE.length - 1) / Math.log1p(Math.max(maxCount, 1));
+        boolean any = false;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * HeatmapTile.SIZE + column;
+                int count = stored.get(cell);
+                if (count > 0) {
+                    colors[cell] = PALETTE[Math.min(PALETTE.length - 1, (int) (Math.log1p(count) * scale))];
+                    any = true;
+                }
+            }
+        }
+        if (!any) return false;
+
+        for (int py = 0; py < TILE_PIXELS; py++) {
+            int rowStart = rowCells[py] * HeatmapTile.SIZE;
+            int offset = py * TILE_PIXELS;
+            for (int px = 0; px < TILE_PIXELS; px++) {
+                pixels[offset + px] = colors[rowStart + columnCells[px]];
+            }
+        }
+        return true;
+    }
+
+    private static int[] buildPalette() {
+        // pontos da rampa: alfa, vermelho, verde, azul
+        int[][] stops = {
+                {60, 0, 0, 255},
+                {140, 0, 255, 255},
+                {200, 255, 255, 0},
+                {230, 255, 0, 0}};
+        int[] palette = new int[256];
+        for (int i = 1; i < palette.length; i++) {
+            double position = (double) (i - 1) / (palette.length - 2) * (stops.length - 1);
+            int stop = Math.min((int) position, stops.length - 2);
+            double f = position - stop;
+            int[] from = stops[stop];
+            int[] to = stops[stop + 1];
+            int a = (int) Math.round(from[0] + (to[0] - from[0]) * f);
+            int r = (int) Math.round(from[1] + (to[1] - from[1]) * f);
+            int g = (int) Math.round(from[2] + (to[2] - from[2]) * f);
+            int b = (int) Math.round(from[3] + (to[3] - from[3]) * f);
+            palette[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+        // a posição 0 nunca é usada por uma célula com pontos (log1p(1) > 0), mas fica transparente
+        palette[0] = 0;
+        return palette;
+    }
+}
@@ -0,0 +1,74 @@
+package mobile.com.raiasmanuca;
+
+// Um ladrilho do mapa de calor: SIZE x SIZE células com a quantidade de pontos gravados
+// dentro de cada uma. A célula é indexada por linha (y * SIZE + x, y = 0 no norte).
+//
+// No banco (tabela heatmap_tiles) só as células não vazias são guardadas, em ordem: para
+// cada uma, a distância até a anterior e a contagem, as duas em varint. Um ladrilho por onde
+// passam algumas trilhas ocupa poucas centenas de bytes em vez dos 16 KB das contagens.
+public final class HeatmapTile {
+    // células por lado; num ladrilho de 256 px cada célula tem 4 px
+    public static final int SIZE = 64;
+    public static final int CELLS = SIZE * SIZE;
+
+    private final int[] counts = new int[CELLS];
+    private int max = 0;
+
+    public void add(int cell, int count) {
+        int value = counts[cell] + count;
+        counts[cell] = value;
+        if (value > max) max = value;
+    }
+
+    // Soma as contagens de outro ladrilho (a mesma área) a este.
+    public void addAll(HeatmapTile other) {
+        int[] otherCounts = other.counts;
+        for (int i = 0; i < CELLS; i++) {
+            if (otherCounts[i] != 0) add(i, otherCounts[i]);
+        }
+    }
+
+    public int get(int cell) {
+        return counts[cell];
+    }
+
+    // maior contagem de uma célula
+    public int getMax() {
+        return max;
+    }
+
+    public boolean isEmpty() {
+        return max == 0;
+    }
+
+    public byte[] encode() {
+        // no pior caso, 2 bytes para a distância e 5 para a contagem por célula
+        byte[] buffer = new byte[CELLS * 7];
+        int pos = 0;
+        int previous = -1;
+        for (int i = 0; i < CELLS; i++) {
+            if (counts[i] == 0) continue;
+            pos = TrackCodec.writeVarint(buffer, pos, i - previous);
+            pos = TrackCodec.writeVarint(buffer, pos, counts[i]);
+            previous = i;
+        }
+        byte[] data = new byte[pos];
+        System.arraycopy(buffer, 0, data, 0, pos);
+        return data;
+    }
+
+    public static HeatmapTile decode(byte[] data) {
+        HeatmapTile tile = new HeatmapTile();
+        int[] pos = {0};
+        int cell = -1;
+        while (pos[0] < data.length) {
+            cell += (int) TrackCodec.readVarint(data, pos);
+            int count = (int) TrackCodec.readVarint(data, pos);
+            if (cell >= CELLS) {
+                throw new IllegalArgumentException("Ladrilho do mapa de calor corrompido na posição " + pos[0]);
+            }
+            tile.add(cell, count);
+        }
+        return tile;
+    }
+}
@@ -0,0 +1,105 @@
+package mobile.com.raiasmanuca;
+
+// Suaviza a posição com um filtro de Kalman de velocidade constante. Cada eixo (leste e
+// norte, em metros a partir do primeiro fix) tem estado [posição, velocidade]; o ruído de
+// medida vem da precisão do fix e o de processo de uma aceleração aleatória.
+// Nunca descarta fixes: só troca a posição pela estimada.
+public class KalmanSmoother extends FixStage {
+    // desvio padrão da aceleração assumida (m/s²); maior = segue mais rápido as mudanças
+    public static final double DEFAULT_ACCELERATION_NOISE = 1.5;
+    // precisão usada quando o fix não informa nenhuma
+    static final double DEFAULT_ACCURACY_METERS = 10;
+    // depois de um intervalo maior que este o filtro recomeça do fix atual
+    static final long RESET_GAP_MILLIS = 60000;
+
+    private static final double METERS_PER_DEGREE = Math.PI * TrailStats.EARTH_RADIUS_METERS / 180;
+
+    private final double accelerationVariance;
+    private boolean initialized = false;
+    private double originLatitude;
+    private double originLongitude;
+    private double cosLatitude;
+    private long lastTime;
+    // estado e covariância de cada eixo: posição, velocidade e a matriz 2x2 simétrica [pp, pv, vv]
+    private final double[] east = new double[5];
+    private final double[] north = new double[5];
+
+    public KalmanSmoother() {
+        this(DEFAULT_ACCELERATION_NOISE);
+    }
+
+    public KalmanSmoother(double accelerationNoise) {
+        super("suavização");
+        this.accelerationVariance = accelerationNoise * accelerationNoise;
+    }
+
+    @Override
+    protected boolean accept(Fix fix) {
+        double accuracy = fix.accuracy > 0 ? fix.accuracy : DEFAULT_ACCURACY_METERS;
+        double measurementVariance = accuracy * accuracy;
+
+        if (!initialized || fix.timeMillis - lastTime > RESET_GAP_MILLIS || fix.timeMillis < lastTime) {
+            initialized = true;
+            originLatitude = fix.latitude;
+            originLongitude = fix.longitude;
+            cosLatitude = Math.cos(Math.toRadians(fix.latitude));
+            lastTime = fix.timeMillis;
+            init(east, 0, measurementVariance);
+            init(north, 0, measurementVariance);
+            return true;
+        }
+
+        double dt = (fix.timeMillis - lastTime) / 1000.0;
+        lastTime = fix.timeMillis;
+        double x = (fix.longitude - originLongitude) * METERS_PER_DEGREE * cosLatitude;
+        double y = (fix.latitude - originLatitude) * METERS_PER_DEGREE;
+        step(east, x, dt, measurementVariance);
+        step(north, y, dt, measurementVariance);
+
+        fix.longitude = originLongitude + east[0] / (METERS_PER_DEGREE * cosLatitude);
+        fix.latitude = originLatitude + north[0] / METERS_PER_DEGREE;
+        return true;
+    }
+
+    private static void init(double[] axis, double position, double variance) {
+        axis[0] = position;
+        axis[1] = 0;
+        axis[2] = variance;
+        axis[3] = 0;
+        // velocidade inicial desconhecida: variância grande
+        axis[4] = 100;
+    }
+
+    // Predição por dt segundos e correção com a medida z em um eixo.
+    private void step(double[] axis, double z, double dt, double measurementVariance) {
+        double p = axis[0];
+        double v = axis[1];
+        double pp = axis[2];
+        double pv = axis[3];
+        double vv = axis[4];
+
+        // predição: p += v*dt; P = F P F' + Q
+        p += v * dt;
+        double dt2 = dt * dt;
+        double q = accelerationVariance;
+        double npp = pp + 2 * dt * pv + dt2 * vv + q * dt2 * dt2 / 4;
+        double npv = pv + dt * vv + q * dt2 * dt / 2;
+        double nvv = vv + q * dt2;
+
+        // correção (só a posição é medida)
+        double s = npp + measurementVariance;
+        double kp = npp / s;
+        double kv = npv / s;
+        double residual = z - p;
+        axis[0] = p + kp * residual;
+        axis[1] = v + kv * residual;
+        axis[2] = (1 - kp) * npp;
+        axis[3] = (1 - kp) * npv;
+        axis[4] = nvv - kv * npv;
+    }
+
+    @Override
+    public void reset() {
+        initialized = false;
+    }
+}
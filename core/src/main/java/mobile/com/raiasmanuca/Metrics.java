@@ -0,0 +1,277 @@
+package mobile.com.raiasmanuca;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Métricas internas do app: contadores, histogramas e cronômetros (Timer), usados para ver
+// onde o tempo vai na gravação e na visualização das trilhas.
+//
+// As métricas ficam desligadas por padrão (opção "isMetricsEnabled" nas configurações).
+// Desligadas, cada registro custa só a leitura de um volatile: Metrics.start() devolve 0 sem
+// ler o relógio e Timer.stop(0) não faz nada. Ligadas, um registro é um incremento atômico
+// num balde fixo, sem alocação e sem trava.
+//
+// Os histogramas usam baldes logarítmicos: 4 baldes por potência de 2 (erro de até ~20% no
+// valor de cada percentil), o que cobre de nanossegundos a horas em 256 posições.
+public final class Metrics {
+    // quantidade de baldes dos histogramas (cobre todos os valores long positivos)
+    static final int BUCKET_COUNT = 256;
+
+    private static volatile boolean enabled = false;
+    private static volatile long resetNanos = System.nanoTime();
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    // Contador com o nome dado (criado na primeira vez).
+    public static Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            Counter created = new Counter(name);
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) counter = created;
+        }
+        return counter;
+    }
+
+    // Histograma de valores sem unidade (quantidades, tamanhos de lote etc.).
+    public static Histogram histogram(String name) {
+        return register(new Histogram(name));
+    }
+
+    // Histograma de durações em nanossegundos, mostradas em milissegundos.
+    public static Timer timer(String name) {
+        return (Timer) register(new Timer(name));
+    }
+
+    private static Histogram register(Histogram created) {
+        Histogram existing = histograms.putIfAbsent(created.name, created);
+        if (existing == null) return created;
+        if (existing.getClass() != created.getClass()) {
+            throw new IllegalArgumentException("Métrica já registrada com outro tipo: " + created.name);
+        }
+        return existing;
+    }
+
+    // Início de uma medição: System.nanoTime() se as métricas estiverem ligadas, 0 se não.
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    // Zera todas as métricas (as instâncias continuam registradas) e recomeça a contagem
+    // de tempo usada nas taxas por segundo.
+    public static void reset() {
+        for (Counter counter : counters.values()) counter.reset();
+        for (Histogram histogram : histograms.values()) histogram.reset();
+        resetNanos = System.nanoTime();
+    }
+
+    // Escreve todas as métricas em texto, uma por linha, em ordem de nome.
+    public static void dump(Writer writer) throws IOException {
+        long elapsedNanos = System.nanoTime() - resetNanos;
+        double seconds = elapsedNanos / 1e9;
+        writer.write(String.format(Locale.US, "# %.1f s desde o reset%n", seconds));
+        for (Counter counter : new TreeMap<>(counters).values()) {
+            long count = counter.getCount();
+            writer.write(String.format(Locale.US, "%s %d (%.1f/s)%n", counter.name, count,
+                    seconds > 0 ? count / seconds : 0));
+        }
+        for (Histogram histogram : new TreeMap<>(histograms).values()) {
+            writer.write(histogram.describe());
+            writer.write(System.lineSeparator());
+        }
+    }
+
+    // Todas as métricas em texto (para a sobreposição de depuração).
+    public static String dumpToString() {
+        StringWriter writer = new StringWriter();
+        try {
+            dump(writer);
+        } catch (IOException e) {
+            // StringWriter não lança IOException
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    // Grava as métricas num arquivo novo "metrics-<instante>.txt" na pasta dada e retorna o arquivo.
+    public static File dumpToFile(File directory) throws IOException {
+        File file = new File(directory, "metrics-" + System.currentTimeMillis() + ".txt");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            dump(writer);
+        }
+        return file;
+    }
+
+    // Balde do histograma que contém o valor: os valores 0-3 têm um balde cada; a partir
+    // daí, cada potência de 2 é dividida em 4 baldes iguais.
+    static int bucketIndex(long value) {
+        if (value < 4) return value <= 0 ? 0 : (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - 2)) & 3;
+        return (exponent - 1) * 4 + sub;
+    }
+
+    // menor valor que cai no balde
+    static long bucketLowerBound(int index) {
+        if (index < 4) return index;
+        int exponent = index / 4 + 1;
+        return (long) (4 + index % 4) << (exponent - 2);
+    }
+
+    // maior valor que cai no balde
+    static long bucketUpperBound(int index) {
+        return index + 1 >= BUCKET_COUNT ? Long.MAX_VALUE : bucketLowerBound(index + 1) - 1;
+    }
+
+    // Contador que só cresce (pontos gravados, fixes recebidos...).
+    public static final class Counter {
+        final String name;
+        private final AtomicLong count = new AtomicLong();
+
+        Counter(String name) {
+            this.name = name;
+        }
+
+        public void increment() {
+            if (enabled) count.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            if (enabled) count.addAndGet(delta);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        void reset() {
+            count.set(0);
+        }
+    }
+
+    // Distribuição de valores não negativos em baldes logarítmicos.
+    public static class Histogram {
+        final String name;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram(String name) {
+            this.name = name;
+        }
+
+        public void record(long value) {
+            if (!enabled) return;
+            if (value < 0) value = 0;
+            buckets.incrementAndGet(bucketIndex(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public double getMean() {
+            long n = count.get();
+            return n == 0 ? 0 : (double) sum.get() / n;
+        }
+
+        // Valor aproximado do percentil (0 a 100): o meio do balde onde ele cai, limitado ao máximo.
+        public long percentile(double percent) {
+            long n = count.get();
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(percent / 100 * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    long lower = bucketLowerBound(i);
+                    long middle = lower + (bucketUpperBound(i) - lower) / 2;
+                    return Math.min(middle, max.get());
+                }
+            }
+            return max.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) buckets.set(i, 0);
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+
+        // escala usada no texto (1 para valores sem unidade)
+        double displayScale() {
+            return 1;
+        }
+
+        String displayUnit() {
+            return "";
+        }
+
+        String describe() {
+            double scale = displayScale();
+            String unit = displayUnit();
+            return String.format(Locale.US, "%s n=%d média=%.2f%s p50=%.2f%s p95=%.2f%s p99=%.2f%s máx=%.2f%s",
+                    name, getCount(), getMean() / scale, unit, percentile(50) / scale, unit,
+                    percentile(95) / scale, unit, percentile(99) / scale, unit, getMax() / scale, unit);
+        }
+    }
+
+    // Histograma de durações em nanossegundos. Uso:
+    //   long t0 = Metrics.start();
+    //   ...
+    //   TIMER.stop(t0);
+    public static final class Timer extends Histogram {
+        Timer(String name) {
+            super(name);
+        }
+
+        // Registra o tempo desde "startNanos" (vindo de Metrics.start()); 0 é ignorado.
+        public void stop(long startNanos) {
+            if (startNanos != 0) record(System.nanoTime() - startNanos);
+        }
+
+        @Override
+        double displayScale() {
+            return 1e6;
+        }
+
+        @Override
+        String displayUnit() {
+            return "ms";
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package mobile.com.raiasmanuca;
+
+// Descarta fixes a menos de minMeters do último fix aceito. Parado, o GPS fica "andando"
+// alguns metros em volta do ponto real; sem este filtro cada oscilação vira uma linha no
+// banco e soma na distância. Como a oscilação acompanha o raio de precisão, o limite usado
+// é o maior entre minMeters e a precisão informada no fix.
+public class MinDisplacementFilter extends FixStage {
+    public static final double DEFAULT_MIN_METERS = 3;
+
+    private final double minMeters;
+    private boolean hasLast = false;
+    private double lastLatitude;
+    private double lastLongitude;
+
+    public MinDisplacementFilter() {
+        this(DEFAULT_MIN_METERS);
+    }
+
+    public MinDisplacementFilter(double minMeters) {
+        super("deslocamento");
+        this.minMeters = minMeters;
+    }
+
+    @Override
+    protected boolean accept(Fix fix) {
+        double threshold = Math.max(minMeters, fix.accuracy);
+        if (hasLast && TrailStats.haversine(lastLatitude, lastLongitude, fix.latitude, fix.longitude) < threshold) {
+            return false;
+        }
+        hasLast = true;
+        lastLatitude = fix.latitude;
+        lastLongitude = fix.longitude;
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        hasLast = false;
+    }
+}
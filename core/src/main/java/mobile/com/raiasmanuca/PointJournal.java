@@ -0,0 +1,242 @@
+package mobile.com.raiasmanuca;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+// Diário (write-ahead journal) dos pontos que ainda não foram gravados no SQLite.
+//
+// O TrailPointWriter guarda os pontos na memória e grava em lotes; se o app for morto entre
+// um lote e outro, os pontos do buffer se perdiam. Agora cada ponto aceito é escrito antes
+// neste arquivo, mapeado em memória (uma escrita na memória, sem chamada ao sistema por
+// ponto). A escrita vai para o cache de páginas do sistema, então sobrevive à morte do
+// processo (não a uma queda de energia antes do sistema gravar a página).
+//
+// Cada registro tem tamanho fixo e um CRC32; um número de sequência crescente identifica o
+// ponto. O DatabaseHelper grava, na mesma transação do lote, a maior sequência já gravada
+// no banco; ao abrir o banco, os registros com sequência maior são reaplicados na tabela
+// trails. Quando tudo o que foi escrito já está no banco, o diário volta para o início do
+// arquivo, que assim fica pequeno.
+//
+// Layout do registro (RECORD_SIZE bytes, big-endian):
+//   0 int    MAGIC
+//   4 long   sequência
+//  12 long   trail_id (UUID, bits mais significativos)
+//  20 long   trail_id (UUID, bits menos significativos)
+//  28 double latitude
+//  36 double longitude
+//  44 long   timestamp
+//  52 int    CRC32 dos bytes 0..51
+public class PointJournal {
+    // Recebe os registros recuperados, em ordem de sequência.
+    public interface RecordVisitor {
+        void onRecord(long sequence, String trailId, double latitude, double longitude, long timestamp);
+    }
+
+    static final int MAGIC = 0x54524A31; // "TRJ1"
+    static final int RECORD_SIZE = 56;
+    private static final int CRC_OFFSET = 52;
+    // tamanho inicial do mapeamento; cresce em dobro se o banco ficar para trás
+    static final int INITIAL_CAPACITY = 64 * 1024;
+
+    // arquivos abertos para escrita neste processo: enquanto um diário está aberto, o
+    // gravador vivo é quem grava os pontos dele, e o DatabaseHelper não deve reaplicá-los
+    private static final Set<String> openFiles = new HashSet<>();
+    // erros de escrita ou de fechamento do arquivo
+    private static final Metrics.Counter ERRORS = Metrics.counter("journal.errors");
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int position = 0;
+    private long lastSequence;
+    private long committedSequence;
+    private boolean failed = false;
+    private volatile StorageErrorListener errorListener;
+
+    // buffers reaproveitados para montar um registro sem criar objetos
+    private final byte[] scratch = new byte[RECORD_SIZE];
+    private final ByteBuffer scratchBuffer = ByteBuffer.wrap(scratch);
+    private final CRC32 crc = new CRC32();
+    // UUID da última trilha escrita, para não converter a string a cada ponto
+    private String cachedTrailId;
+    private long cachedMostSignificant;
+    private long cachedLeastSignificant;
+
+    private PointJournal(File file, long minSequence) throws IOException {
+        this.file = file;
+        // sequência seguinte: maior que a de qualquer registro do arquivo e que a já gravada no banco
+        long last = recover(file, Long.MIN_VALUE, null);
+        lastSequence = Math.max(last, minSequence);
+        committedSequence = lastSequence;
+
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        int capacity = (int) Math.max(INITIAL_CAPACITY, Math.min(channel.size(), Integer.MAX_VALUE));
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        // tudo o que está no arquivo já foi gravado (ou reaplicado) no banco: recomeça do início
+        position = 0;
+    }
+
+    // Abre o diário para escrita. minSequence é a maior sequência já gravada no banco; as
+    // novas sequências começam depois dela, mesmo que o arquivo tenha sido apagado.
+    public static PointJournal open(File file, long minSequence) throws IOException {
+        synchronized (openFiles) {
+            if (!openFiles.add(file.getAbsolutePath())) {
+                throw new IllegalStateException("Diário já está aberto: " + file);
+            }
+        }
+        try {
+            return new PointJournal(file, minSequence);
+        } catch (IOException | RuntimeException e) {
+            synchronized (openFiles) {
+                openFiles.remove(file.getAbsolutePath());
+            }
+            throw e;
+        }
+    }
+
+    // Indica se o arquivo está aberto para escrita neste processo.
+    public static boolean isOpen(File file) {
+        synchronized (openFiles) {
+            return openFiles.contains(file.getAbsolutePath());
+        }
+    }
+
+    public void setErrorListener(StorageErrorListener listener) {
+        errorListener = listener;
+    }
+
+    // Escreve um ponto no diário e retorna a sequência dele, ou -1 se o diário falhou
+    // (nesse caso a gravação continua, só sem a proteção do diário).
+    public synchronized long append(String trailId, double latitude, double longitude, long timestamp) {
+        if (failed) return -1;
+        try {
+            if (position + RECORD_SIZE > buffer.capacity()) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) buffer.capacity() * 2);
+            }
+        } catch (IOException e) {
+            reportError("Diário não pôde crescer; a gravação segue sem ele", e);
+            failed = true;
+            return -1;
+        }
+        if (!trailId.equals(cachedTrailId)) {
+            UUID uuid = UUID.fromString(trailId);
+            cachedTrailId = trailId;
+            cachedMostSignificant = uuid.getMostSignificantBits();
+            cachedLeastSignificant = uuid.getLeastSignificantBits();
+        }
+
+        long sequence = lastSequence + 1;
+        scratchBuffer.clear();
+        scratchBuffer.putInt(MAGIC)
+                .putLong(sequence)
+                .putLong(cachedMostSignificant)
+                .putLong(cachedLeastSignificant)
+                .putDouble(latitude)
+                .putDouble(longitude)
+                .putLong(timestamp);
+        crc.reset();
+        crc.update(scratch, 0, CRC_OFFSET);
+        scratchBuffer.putInt((int) crc.getValue());
+
+        buffer.position(position);
+        buffer.put(scratch, 0, RECORD_SIZE);
+        position += RECORD_SIZE;
+        lastSequence = sequence;
+        return sequence;
+    }
+
+    // Avisa que os pontos até "sequence" já estão no banco. Se não há nada pendente,
+    // o diário volta ao início do arquivo.
+    public synchronized void markCommitted(long sequence) {
+        if (sequence > committedSequence) committedSequence = sequence;
+        if (committedSequence >= lastSequence) {
+            position = 0;
+        }
+    }
+
+    // Força a gravação das páginas do diário no armazenamento (protege também de queda de energia).
+    public synchronized void force() {
+        buffer.force();
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    // bytes em uso no início do arquivo (registros ainda não confirmados no banco ou já confirmados desde o último retorno ao início)
+    public synchronized int getPosition() {
+        return position;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized void close() {
+        try {
+            channel.close();
+            randomAccessFile.close();
+        } catch (IOException e) {
+            reportError("Falha ao fechar o diário", e);
+        } finally {
+            synchronized (openFiles) {
+                openFiles.remove(file.getAbsolutePath());
+            }
+        }
+    }
+
+    private void reportError(String message, IOException e) {
+        ERRORS.increment();
+        StorageErrorListener listener = errorListener;
+        if (listener != null) {
+            listener.onStorageError(message, e);
+        }
+    }
+
+    // Lê o diário do início e entrega os registros válidos com sequência maior que
+    // afterSequence. A leitura para no primeiro registro inválido (final cortado, CRC errado)
+    // ou quando a sequência deixa de crescer (registros antigos, de antes do diário voltar ao
+    // início). Retorna a maior sequência válida encontrada (ou afterSequence, se nenhuma).
+    public static long recover(File file, long afterSequence, RecordVisitor visitor) throws IOException {
+        long last = afterSequence;
+        if (!file.exists()) return last;
+
+        byte[] record = new byte[RECORD_SIZE];
+        ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+        CRC32 crc = new CRC32();
+        long previous = Long.MIN_VALUE;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long length = in.length();
+            for (long offset = 0; offset + RECORD_SIZE <= length; offset += RECORD_SIZE) {
+                in.readFully(record);
+                recordBuffer.clear();
+                if (recordBuffer.getInt(0) != MAGIC) break;
+                crc.reset();
+                crc.update(record, 0, CRC_OFFSET);
+                if (recordBuffer.getInt(CRC_OFFSET) != (int) crc.getValue()) break;
+                long sequence = recordBuffer.getLong(4);
+                if (sequence <= previous) break;
+                previous = sequence;
+                if (sequence <= afterSequence) continue;
+
+                last = sequence;
+                if (visitor != null) {
+                    String trailId = new UUID(recordBuffer.getLong(12), recordBuffer.getLong(20)).toString();
+                    visitor.onRecord(sequence, trailId, recordBuffer.getDouble(28),
+                            recordBuffer.getDouble(36), recordBuffer.getLong(44));
+                }
+            }
+        }
+        return last;
+    }
+}
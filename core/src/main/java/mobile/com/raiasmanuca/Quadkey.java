@@ -0,0 +1,146 @@
+package mobile.com.raiasmanuca;
+
+import java.util.Arrays;
+
+// Células quadkey (os mesmos ladrilhos do mapa, em projeção Web Mercator) usadas pelo índice
+// espacial das trilhas.
+//
+// A célula é guardada como um número: os bits de x e y do ladrilho intercalados (ordem Z),
+// que é o quadkey lido em base 4. Com isso, todas as células dentro de um ladrilho maior
+// formam um intervalo contínuo de números, e uma área do mapa vira alguns intervalos
+// (cell BETWEEN a AND b) que o SQLite resolve pela chave da tabela trail_cells.
+public final class Quadkey {
+    // nível das células do índice: no nível 15 cada célula tem ~1,2 km no equador
+    // (~1,1 km em São Paulo), pouco maior que uma tela de mapa em zoom de rua
+    public static final int INDEX_LEVEL = 15;
+    // limite de latitude da projeção Web Mercator
+    static final double MAX_LATITUDE = 85.05112878;
+    // número máximo de células na cobertura de uma área; acima disso a cobertura usa
+    // ladrilhos maiores (cada um vira um intervalo de células)
+    static final int MAX_COVER_CELLS = 128;
+    // tamanho do array "ranges" passado para cover() (dois lados do antimeridiano, pares início/fim)
+    public static final int MAX_RANGE_VALUES = 4 * MAX_COVER_CELLS;
+
+    private Quadkey() {
+    }
+
+    // coluna x do ladrilho que contém a longitude, no nível dado
+    public static int tileX(double longitude, int level) {
+        int n = 1 << level;
+        int x = (int) Math.floor((longitude + 180) / 360 * n);
+        return Math.max(0, Math.min(n - 1, x));
+    }
+
+    // linha y do ladrilho que contém a latitude, no nível dado (0 = norte)
+    public static int tileY(double latitude, int level) {
+        int n = 1 << level;
+        double lat = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+        double y = (1 - Math.log(Math.tan(lat) + 1 / Math.cos(lat)) / Math.PI) / 2 * n;
+        return Math.max(0, Math.min(n - 1, (int) Math.floor(y)));
+    }
+
+    // intercala os bits de x (posições pares) e y (posições ímpares)
+    public static long interleave(int x, int y) {
+        return spread(x) | (spread(y) << 1);
+    }
+
+    private static long spread(int value) {
+        long v = value & 0xFFFFFFFFL;
+        v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+        v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+        v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | (v << 2)) & 0x3333333333333333L;
+        v = (v | (v << 1)) & 0x5555555555555555L;
+        return v;
+    }
+
+    // célula do índice que contém o ponto
+    public static long cellAt(double latitude, double longitude) {
+        return interleave(tileX(longitude, INDEX_LEVEL), tileY(latitude, INDEX_LEVEL));
+    }
+
+    // quadkey em texto (um dígito 0-3 por nível), útil para depuração
+    public static String toString(long cell, int level) {
+        char[] digits = new char[level];
+        for (int i = level - 1; i >= 0; i--) {
+            digits[i] = (char) ('0' + (cell & 3));
+            cell >>>= 2;
+        }
+        return new String(digits);
+    }
+
+    // Cobre a área (em graus) com intervalos de células do índice. Grava os intervalos em
+    // "ranges" como pares [início, fim] (inclusivos), já ordenados e sem sobreposição, e
+    // retorna a quantidade de intervalos. Se west > east, a área atravessa o antimeridiano.
+    // "ranges" precisa ter espaço para MAX_RANGE_VALUES números.
+    public static int cover(double south, double west, double north, double east, long[] ranges) {
+        if (west > east) {
+            // divide em duas áreas, uma de cada lado do antimeridiano
+            long[] first = new long[2 * MAX_COVER_CELLS];
+            long[] second = new long[2 * MAX_COVER_CELLS];
+            int a = cover(south, west, north, 180, first);
+            int b = cover(south, -180, north, east, second);
+            System.arraycopy(first, 0, ranges, 0, a * 2);
+            System.arraycopy(second, 0, ranges, a * 2, b * 2);
+            return merge(ranges, a + b);
+        }
+
+        // sobe de nível até a área caber em MAX_COVER_CELLS ladrilhos
+        int level = INDEX_LEVEL;
+        int x0, x1, y0, y1;
+        while (true) {
+            x0 = tileX(west, level);
+            x1 = tileX(east, level);
+            // y cresce para o sul
+            y0 = tileY(north, level);
+            y1 = tileY(south, level);
+            if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) <= MAX_COVER_CELLS || level == 0) break;
+            level--;
+        }
+
+        // cada ladrilho do nível escolhido corresponde a um intervalo de células do índice
+        int shift = 2 * (INDEX_LEVEL - level);
+        int count = 0;
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                long tile = interleave(x, y);
+                ranges[count * 2] = tile << shift;
+                ranges[count * 2 + 1] = ((tile + 1) << shift) - 1;
+                count++;
+            }
+        }
+        return merge(ranges, count);
+    }
+
+    // ordena os intervalos pelo início e junta os que se tocam
+    private static int merge(long[] ranges, int count) {
+        if (count <= 1) return count;
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(ranges[a * 2], ranges[b * 2]));
+        for (int i = 0; i < count; i++) {
+            starts[i] = ranges[order[i] * 2];
+            ends[i] = ranges[order[i] * 2 + 1];
+        }
+
+        int merged = 0;
+        long start = starts[0];
+        long end = ends[0];
+        for (int i = 1; i < count; i++) {
+            if (starts[i] <= end + 1) {
+                end = Math.max(end, ends[i]);
+            } else {
+                ranges[merged * 2] = start;
+                ranges[merged * 2 + 1] = end;
+                merged++;
+                start = starts[i];
+                end = ends[i];
+            }
+        }
+        ranges[merged * 2] = start;
+        ranges[merged * 2 + 1] = end;
+        return merged + 1;
+    }
+}
@@ -0,0 +1,74 @@
+package mobile.com.raiasmanuca;
+
+// Processa os fixes de uma gravação, lote a lote, fora da Activity (e portanto testável na JVM).
+//
+// Cada entrega do provedor de localização pode trazer vários fixes (principalmente com
+// entrega em lote, setMaxWaitTime). Todos são processados em ordem: a política de
+// amostragem vê cada fix bruto, o FixPipeline decide quais ficam, as estatísticas são
+// atualizadas e os fixes aceitos vão para o TrailPointWriter juntos, numa única transação.
+public class RecordingSession {
+    private final SamplingPolicy samplingPolicy;
+    private final FixPipeline fixPipeline;
+    private final TrailPointWriter pointWriter;
+    private final TrailStats stats = new TrailStats();
+    // fixes aceitos na última entrega
+    private final FixBatch accepted = new FixBatch();
+    private final Fix fix = new Fix();
+
+    // contadores de entregas e de fixes recebidos
+    private long deliveries = 0;
+    private long fixesReceived = 0;
+
+    public RecordingSession(SamplingPolicy samplingPolicy, FixPipeline fixPipeline, TrailPointWriter pointWriter) {
+        this.samplingPolicy = samplingPolicy;
+        this.fixPipeline = fixPipeline;
+        this.pointWriter = pointWriter;
+    }
+
+    // Processa uma entrega do provedor. Retorna true se a faixa de amostragem mudou e o
+    // pedido de localização deve ser refeito. Os fixes aceitos ficam em getAccepted().
+    public boolean onFixes(FixBatch batch) {
+        deliveries++;
+        accepted.clear();
+        boolean bucketChanged = false;
+        for (int i = 0; i < batch.size(); i++) {
+            fixesReceived++;
+            // a política vê todos os fixes, inclusive os que serão filtrados,
+            // para perceber quando o usuário parou
+            bucketChanged |= samplingPolicy.onFix(batch.getLatitude(i), batch.getLongitude(i), batch.getElapsedMillis(i));
+
+            fix.set(batch.getLatitude(i), batch.getLongitude(i), batch.getAccuracy(i), batch.getElapsedMillis(i));
+            if (!fixPipeline.process(fix)) continue;
+
+            stats.onPoint(fix.latitude, fix.longitude, batch.getTimestamp(i));
+            accepted.add(fix.latitude, fix.longitude, fix.accuracy, fix.timeMillis, batch.getTimestamp(i));
+        }
+        // os fixes aceitos da entrega entram juntos no buffer (nunca divididos entre dois lotes)
+        pointWriter.addAll(accepted.latitudes(), accepted.longitudes(), accepted.timestamps(), accepted.size());
+        return bucketChanged;
+    }
+
+    public FixBatch getAccepted() {
+        return accepted;
+    }
+
+    public TrailStats getStats() {
+        return stats;
+    }
+
+    public SamplingPolicy getSamplingPolicy() {
+        return samplingPolicy;
+    }
+
+    public FixPipeline getFixPipeline() {
+        return fixPipeline;
+    }
+
+    public long getDeliveries() {
+        return deliveries;
+    }
+
+    public long getFixesReceived() {
+        return fixesReceived;
+    }
+}
@@ -0,0 +1,38 @@
+package mobile.com.raiasmanuca;
+
+// Retrato imutável do estado da gravação, publicado pelo TrailRecordingService para a tela.
+// A tela só desenha o que vem nos retratos; os pontos novos são buscados a partir de
+// pointCount com TrailRecordingService.copyPointsSince.
+public final class RecordingSnapshot {
+    public final String trailId;
+    // SystemClock.elapsedRealtime() do início da gravação (base do cronômetro)
+    public final long startElapsedRealtime;
+    // quantidade de pontos aceitos até agora
+    public final int pointCount;
+    public final double distanceMeters;
+    public final double lastLatitude;
+    public final double lastLongitude;
+    // velocidade informada pelo último fix (m/s)
+    public final float speed;
+    public final boolean hasBearing;
+    public final float bearing;
+    public final boolean recording;
+    // o banco e o diário ainda estão sendo abertos; o GPS é ligado logo depois
+    public final boolean preparing;
+
+    public RecordingSnapshot(String trailId, long startElapsedRealtime, int pointCount, double distanceMeters,
+                             double lastLatitude, double lastLongitude, float speed,
+                             boolean hasBearing, float bearing, boolean recording, boolean preparing) {
+        this.trailId = trailId;
+        this.startElapsedRealtime = startElapsedRealtime;
+        this.pointCount = pointCount;
+        this.distanceMeters = distanceMeters;
+        this.lastLatitude = lastLatitude;
+        this.lastLongitude = lastLongitude;
+        this.speed = speed;
+        this.hasBearing = hasBearing;
+        this.bearing = bearing;
+        this.recording = recording;
+        this.preparing = preparing;
+    }
+}
@@ -0,0 +1,66 @@
+package mobile.com.raiasmanuca;
+
+// Quanto tempo as trilhas encerradas ficam em cada forma de armazenamento. Cada trilha só
+// avança (STORAGE_FULL -> STORAGE_PACKED -> STORAGE_DOWNSAMPLED), pela idade contada do fim
+// da gravação:
+//   - até packAfterDays: os pontos ficam como foram gravados, uma linha por ponto;
+//   - depois: os mesmos pontos são compactados em trechos do TrackCodec (trail_chunks);
+//   - depois de downsampleAfterDays: a trilha é simplificada (TrackSimplifier, com desvio
+//     máximo de toleranceMeters) e só os pontos que sobram ficam, ainda compactados.
+// Zero dias desliga a etapa. O resumo, o índice espacial e o mapa de calor da trilha são os
+// da gravação completa e não mudam.
+public final class RetentionPolicy {
+    public static final int STORAGE_FULL = 0;
+    public static final int STORAGE_PACKED = 1;
+    public static final int STORAGE_DOWNSAMPLED = 2;
+
+    // a linha simplificada fica a até 5 m da gravada, menos que o erro de um fix do GPS
+    public static final double DEFAULT_TOLERANCE_METERS = 5;
+    public static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    // nenhuma etapa: as trilhas ficam como foram gravadas
+    public static final RetentionPolicy KEEP_ALL = new RetentionPolicy(0, 0, DEFAULT_TOLERANCE_METERS);
+
+    public final int packAfterDays;
+    public final int downsampleAfterDays;
+    public final double toleranceMeters;
+
+    public RetentionPolicy(int packAfterDays, int downsampleAfterDays, double toleranceMeters) {
+        if (packAfterDays < 0 || downsampleAfterDays < 0) {
+            throw new IllegalArgumentException("Dias de retenção negativos");
+        }
+        this.packAfterDays = packAfterDays;
+        this.downsampleAfterDays = downsampleAfterDays;
+        this.toleranceMeters = toleranceMeters;
+    }
+
+    public boolean isEnabled() {
+        return packAfterDays > 0 || downsampleAfterDays > 0;
+    }
+
+    // Forma de armazenamento que a trilha encerrada em endTime deve ter no instante now.
+    // Nunca volta para uma forma anterior à atual.
+    public int targetStorage(long endTime, long now, int currentStorage) {
+        long age = now - endTime;
+        int target = STORAGE_FULL;
+        if (downsampleAfterDays > 0 && age >= downsampleAfterDays * DAY_MILLIS) {
+            target = STORAGE_DOWNSAMPLED;
+        } else if (packAfterDays > 0 && age >= packAfterDays * DAY_MILLIS) {
+            target = STORAGE_PACKED;
+        }
+        return Math.max(target, currentStorage);
+    }
+
+    // Trilha simplificada: só os pontos mantidos pelo TrackSimplifier, com os horários originais.
+    public TrackBuffer downsample(TrackBuffer track) {
+        int[] kept = new int[Math.max(track.size(), 1)];
+        int count = TrackSimplifier.simplify(track.latitudes(), track.longitudes(), track.size(),
+                toleranceMeters, kept);
+        TrackBuffer result = new TrackBuffer(count);
+        for (int i = 0; i < count; i++) {
+            int index = kept[i];
+            result.onPoint(track.latitudes()[index], track.longitudes()[index], track.timestamps()[index]);
+        }
+        return result;
+    }
+}
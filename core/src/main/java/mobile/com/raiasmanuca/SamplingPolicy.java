@@ -0,0 +1,179 @@
+package mobile.com.raiasmanuca;
+
+// Decide com que frequência o GPS deve ser consultado durante a gravação.
+//
+// Em vez de um intervalo fixo de 5 s para a sessão toda, os fixes recentes são usados para
+// escolher uma faixa (Bucket): parado, caminhando, correndo/pedalando ou rápido. Cada faixa
+// tem seu intervalo, prioridade e deslocamento mínimo. Curvas fechadas puxam para a faixa
+// mais rápida seguinte, para não cortar a trilha nas curvas.
+//
+// A classe é Java puro (não conhece LocationRequest); a Activity só refaz o
+// requestLocationUpdates quando onFix() avisa que a faixa mudou.
+public class SamplingPolicy {
+    // Faixas de amostragem, da mais econômica para a mais detalhada.
+    public enum Bucket {
+        STATIONARY(30000, false, 10),
+        WALKING(5000, true, 0),
+        RUNNING(4000, true, 0),
+        FAST(3000, true, 0);
+
+        // intervalo entre fixes pedido ao provedor
+        public final long intervalMillis;
+        // true = alta precisão (GPS); false = precisão balanceada (rede/wi-fi, gasta menos)
+        public final boolean highAccuracy;
+        // deslocamento mínimo para o provedor entregar um fix novo. Só é usado parado: em
+        // movimento os fixes precisam continuar chegando para a política perceber a parada.
+        public final float minDisplacementMeters;
+
+        Bucket(long intervalMillis, boolean highAccuracy, float minDisplacementMeters) {
+            this.intervalMillis = intervalMillis;
+            this.highAccuracy = highAccuracy;
+            this.minDisplacementMeters = minDisplacementMeters;
+        }
+    }
+
+    // Atraso máximo de entrega no modo em lote (setMaxWaitTime): o provedor junta os fixes
+    // e acorda o app no máximo uma vez por minuto. Precisa ser pelo menos o dobro do
+    // intervalo da faixa para ter efeito.
+    public static final long BATCH_MAX_WAIT_MILLIS = 60000;
+
+    // abaixo disso (m/s, na janela) o usuário é considerado parado
+    static final double STATIONARY_SPEED = 0.4;
+    // limites de velocidade entre as faixas (m/s): ~9 km/h e ~25 km/h
+    static final double RUNNING_SPEED = 2.5;
+    static final double FAST_SPEED = 7;
+    // mudança de direção (graus) na janela que conta como curva
+    static final double TURN_DEGREES = 35;
+    // cada metade da janela precisa andar isso para a direção valer (abaixo disso é ruído)
+    static final double TURN_MIN_LEG_METERS = 10;
+    // janela de tempo usada para calcular velocidade e direção
+    static final long WINDOW_MILLIS = 30000;
+    // tempo mínimo numa faixa antes de ir para uma faixa mais econômica;
+    // ir para uma faixa mais detalhada é imediato
+    static final long MIN_DWELL_MILLIS = 20000;
+
+    private static final int WINDOW_CAPACITY = 32;
+
+    // janela circular dos fixes recentes
+    private final double[] latitudes = new double[WINDOW_CAPACITY];
+    private final double[] longitudes = new double[WINDOW_CAPACITY];
+    private final long[] times = new long[WINDOW_CAPACITY];
+    private int head = 0;
+    private int size = 0;
+
+    private Bucket bucket;
+    private long bucketSince;
+    private int changeCount = 0;
+    private double lastSpeed = 0;
+
+    // Começa caminhando, que é o mesmo intervalo de 5 s usado antes.
+    public SamplingPolicy() {
+        this(Bucket.WALKING);
+    }
+
+    public SamplingPolicy(Bucket initial) {
+        this.bucket = initial;
+        this.bucketSince = Long.MIN_VALUE / 2;
+    }
+
+    // Registra um fix e retorna true se a faixa mudou (e o pedido de localização deve ser refeito).
+    // timeMillis precisa ser crescente.
+    public boolean onFix(double latitude, double longitude, long timeMillis) {
+        // descarta fixes que já saíram da janela, mas guarda pelo menos o anterior
+        // (parado, os fixes chegam espaçados e a janela ficaria vazia)
+        while (size > 1 && timeMillis - times[oldest()] > WINDOW_MILLIS) {
+            size--;
+        }
+        latitudes[head] = latitude;
+        longitudes[head] = longitude;
+        times[head] = timeMillis;
+        head = (head + 1) % WINDOW_CAPACITY;
+        if (size < WINDOW_CAPACITY) size++;
+
+        Bucket target = classify();
+        if (target == bucket) return false;
+        // subir de faixa é imediato; descer só depois do tempo mínimo, para não ficar oscilando
+        boolean faster = target.ordinal() > bucket.ordinal();
+        if (!faster && timeMillis - bucketSince < MIN_DWELL_MILLIS) return false;
+
+        bucket = target;
+        bucketSince = timeMillis;
+        changeCount++;
+        return true;
+    }
+
+    // Escolhe a faixa pela velocidade média e pela mudança de direção na janela.
+    private Bucket classify() {
+        if (size < 2) return bucket;
+        int first = oldest();
+        int last = index(size - 1);
+        long span = times[last] - times[first];
+        if (span <= 0) return bucket;
+
+        // deslocamento entre o primeiro e o último fix: o ruído de quem está parado quase não soma
+        double displacement = TrailStats.haversine(latitudes[first], longitudes[first],
+                latitudes[last], longitudes[last]);
+        lastSpeed = displacement * 1000.0 / span;
+
+        Bucket target;
+        if (lastSpeed < STATIONARY_SPEED) {
+            return Bucket.STATIONARY;
+        } else if (lastSpeed < RUNNING_SPEED) {
+            target = Bucket.WALKING;
+        } else if (lastSpeed < FAST_SPEED) {
+            target = Bucket.RUNNING;
+        } else {
+            target = Bucket.FAST;
+        }
+        // numa curva, amostra como a faixa seguinte
+        if (target != Bucket.FAST && size >= 3 && headingChange() > TURN_DEGREES) {
+            target = Bucket.values()[target.ordinal() + 1];
+        }
+        return target;
+    }
+
+    // Diferença (graus) entre a direção da primeira metade e a da segunda metade da janela.
+    private double headingChange() {
+        int first = oldest();
+        int middle = index(size / 2);
+        int last = index(size - 1);
+        if (TrailStats.haversine(latitudes[first], longitudes[first], latitudes[middle], longitudes[middle]) < TURN_MIN_LEG_METERS
+                || TrailStats.haversine(latitudes[middle], longitudes[middle], latitudes[last], longitudes[last]) < TURN_MIN_LEG_METERS) {
+            return 0;
+        }
+        double before = bearing(first, middle);
+        double after = bearing(middle, last);
+        double diff = Math.abs(after - before) % 360;
+        return diff > 180 ? 360 - diff : diff;
+    }
+
+    // Direção aproximada (graus) do fix a para o fix b, em projeção local.
+    private double bearing(int a, int b) {
+        double dy = latitudes[b] - latitudes[a];
+        double dx = (longitudes[b] - longitudes[a]) * Math.cos(Math.toRadians(latitudes[a]));
+        return Math.toDegrees(Math.atan2(dx, dy));
+    }
+
+    private int oldest() {
+        return index(0);
+    }
+
+    // posição do i-ésimo fix mais antigo na janela circular
+    private int index(int i) {
+        return (head - size + i + WINDOW_CAPACITY * 2) % WINDOW_CAPACITY;
+    }
+
+    public Bucket getBucket() {
+        return bucket;
+    }
+
+    // quantas vezes a faixa mudou (cada mudança é um novo requestLocationUpdates)
+    public int getChangeCount() {
+        return changeCount;
+    }
+
+    // velocidade média na janela, calculada no último fix (m/s)
+    public double getWindowSpeed() {
+        return lastSpeed;
+    }
+}
@@ -0,0 +1,43 @@
+package mobile.com.raiasmanuca;
+
+// Descarta saltos impossíveis: se a velocidade até o último fix aceito passar do limite,
+// o fix é tratado como erro do GPS (reflexo em prédios, troca de satélites etc.).
+public class SpeedOutlierFilter extends FixStage {
+    // ~200 km/h, acima de qualquer uso do app
+    public static final double DEFAULT_MAX_SPEED = 55;
+
+    private final double maxSpeed;
+    private boolean hasLast = false;
+    private double lastLatitude;
+    private double lastLongitude;
+    private long lastTime;
+
+    public SpeedOutlierFilter() {
+        this(DEFAULT_MAX_SPEED);
+    }
+
+    public SpeedOutlierFilter(double maxSpeedMetersPerSecond) {
+        super("velocidade");
+        this.maxSpeed = maxSpeedMetersPerSecond;
+    }
+
+    @Override
+    protected boolean accept(Fix fix) {
+        if (hasLast) {
+            double distance = TrailStats.haversine(lastLatitude, lastLongitude, fix.latitude, fix.longitude);
+            // intervalos muito curtos contam como 1 s, para um fix repetido não dividir por zero
+            double seconds = Math.max(fix.timeMillis - lastTime, 1000) / 1000.0;
+            if (distance / seconds > maxSpeed) return false;
+        }
+        hasLast = true;
+        lastLatitude = fix.latitude;
+        lastLongitude = fix.longitude;
+        lastTime = fix.timeMillis;
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        hasLast = false;
+    }
+}
@@ -0,0 +1,9 @@
+package mobile.com.raiasmanuca;
+
+// Avisado dos erros de gravação que não interrompem a trilha (um lote que falhou, o diário
+// que não pôde crescer). Chamado na thread em que o erro aconteceu; o app escreve no log.
+// "e" é null quando o aviso não vem de uma exceção (o gravador desistiu de um lote ou
+// descartou pontos com o buffer cheio).
+public interface StorageErrorListener {
+    void onStorageError(String message, Exception e);
+}
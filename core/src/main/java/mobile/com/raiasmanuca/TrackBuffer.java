@@ -0,0 +1,67 @@
+package mobile.com.raiasmanuca;
+
+// Guarda os pontos de uma trilha em arrays primitivos que crescem conforme a necessidade.
+// É um TrailPointVisitor, então pode receber os pontos direto do DatabaseHelper.forEachPoint.
+public class TrackBuffer implements TrailPointVisitor {
+    private double[] latitudes;
+    private double[] longitudes;
+    private long[] timestamps;
+    private int size = 0;
+
+    public TrackBuffer() {
+        this(1024);
+    }
+
+    public TrackBuffer(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 16);
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        timestamps = new long[capacity];
+    }
+
+    @Override
+    public void onPoint(double latitude, double longitude, long timestamp) {
+        if (size == latitudes.length) {
+            grow();
+        }
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        timestamps[size] = timestamp;
+        size++;
+    }
+
+    // dobra a capacidade dos arrays
+    private void grow() {
+        int capacity = latitudes.length * 2;
+        double[] newLatitudes = new double[capacity];
+        double[] newLongitudes = new double[capacity];
+        long[] newTimestamps = new long[capacity];
+        System.arraycopy(latitudes, 0, newLatitudes, 0, size);
+        System.arraycopy(longitudes, 0, newLongitudes, 0, size);
+        System.arraycopy(timestamps, 0, newTimestamps, 0, size);
+        latitudes = newLatitudes;
+        longitudes = newLongitudes;
+        timestamps = newTimestamps;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Os arrays retornados podem ter mais posições que size(); só as primeiras size() são válidas.
+    public double[] latitudes() {
+        return latitudes;
+    }
+
+    public double[] longitudes() {
+        return longitudes;
+    }
+
+    public long[] timestamps() {
+        return timestamps;
+    }
+}
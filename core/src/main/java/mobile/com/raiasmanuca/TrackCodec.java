@@ -0,0 +1,111 @@
+package mobile.com.raiasmanuca;
+
+// Codifica um trecho de trilha em um único bloco binário compacto (usado no BLOB da tabela trail_chunks).
+//
+// Formato:
+//   varint  quantidade de pontos
+//   para cada ponto: zigzag-varint de latitude, longitude (graus * 1e7) e timestamp (ms),
+//   o primeiro ponto com valores absolutos e os seguintes com a diferença para o anterior.
+//
+// Como pontos consecutivos de GPS ficam muito próximos, as diferenças cabem em 1 a 3 bytes,
+// em vez dos 36 bytes do trail_id + 24 bytes de números que cada linha da tabela trails ocupa.
+// A precisão de 1e-7 graus (~1 cm) é bem menor que o erro do próprio GPS.
+public final class TrackCodec {
+    // fator de conversão de graus para inteiro de ponto fixo
+    public static final double COORDINATE_SCALE = 1e7;
+    // quantidade máxima de pontos por trecho compactado
+    public static final int CHUNK_SIZE = 4096;
+
+    private TrackCodec() {
+    }
+
+    // Codifica "count" pontos a partir de "offset" dos arrays.
+    public static byte[] encode(double[] latitudes, double[] longitudes, long[] timestamps, int offset, int count) {
+        // pior caso: 5 bytes para a quantidade e 10 bytes por valor
+        byte[] buffer = new byte[5 + count * 30];
+        int pos = writeVarint(buffer, 0, count);
+
+        long lastLat = 0;
+        long lastLng = 0;
+        long lastTime = 0;
+        for (int i = offset; i < offset + count; i++) {
+            long lat = toFixed(latitudes[i]);
+            long lng = toFixed(longitudes[i]);
+            long time = timestamps[i];
+            pos = writeVarint(buffer, pos, zigzag(lat - lastLat));
+            pos = writeVarint(buffer, pos, zigzag(lng - lastLng));
+            pos = writeVarint(buffer, pos, zigzag(time - lastTime));
+            lastLat = lat;
+            lastLng = lng;
+            lastTime = time;
+        }
+
+        byte[] result = new byte[pos];
+        System.arraycopy(buffer, 0, result, 0, pos);
+        return result;
+    }
+
+    // Decodifica um bloco entregando os pontos diretamente ao visitor, sem criar objetos por ponto.
+    // Retorna a quantidade de pontos lidos.
+    public static int decode(byte[] data, TrailPointVisitor visitor) {
+        // a posição de leitura fica no primeiro elemento do array para evitar um objeto leitor
+        int[] pos = {0};
+        int count = (int) readVarint(data, pos);
+
+        long lat = 0;
+        long lng = 0;
+        long time = 0;
+        for (int i = 0; i < count; i++) {
+            lat += unzigzag(readVarint(data, pos));
+            lng += unzigzag(readVarint(data, pos));
+            time += unzigzag(readVarint(data, pos));
+            visitor.onPoint(lat / COORDINATE_SCALE, lng / COORDINATE_SCALE, time);
+        }
+        return count;
+    }
+
+    // Lê só a quantidade de pontos do bloco.
+    public static int pointCount(byte[] data) {
+        return (int) readVarint(data, new int[]{0});
+    }
+
+    static long toFixed(double degrees) {
+        return Math.round(degrees * COORDINATE_SCALE);
+    }
+
+    // zigzag: leva números negativos pequenos para positivos pequenos (0,-1,1,-2 -> 0,1,2,3)
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // varint: 7 bits por byte, o bit mais alto indica que há mais bytes
+    static int writeVarint(byte[] buffer, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+
+    static long readVarint(byte[] data, int[] pos) {
+        long result = 0;
+        int shift = 0;
+        int p = pos[0];
+        while (true) {
+            if (p >= data.length || shift > 63) {
+                throw new IllegalArgumentException("Bloco de trilha corrompido na posição " + p);
+            }
+            byte b = data[p++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+            shift += 7;
+        }
+        pos[0] = p;
+        return result;
+    }
+}
@@ -0,0 +1,103 @@
+package mobile.com.raiasmanuca;
+
+// Simplificação de trilhas pelo algoritmo de Douglas-Peucker, em versão iterativa
+// (com pilha própria, sem recursão) para aguentar trilhas de centenas de milhares de pontos.
+// Um ponto só é descartado se ficar a menos de toleranceMeters do segmento que o substitui,
+// então o desvio máximo da linha simplificada é limitado pela tolerância.
+//
+// As distâncias são calculadas em uma projeção equiretangular local (metros), centrada
+// na latitude média da trilha; para a extensão de uma trilha o erro disso é desprezível.
+public final class TrackSimplifier {
+    private static final double METERS_PER_DEGREE = Math.PI * TrailStats.EARTH_RADIUS_METERS / 180;
+
+    private TrackSimplifier() {
+    }
+
+    // Simplifica os primeiros "count" pontos e escreve em outIndices os índices mantidos, em ordem.
+    // O primeiro e o último ponto sempre são mantidos. Retorna a quantidade de índices escritos.
+    // Com tolerância <= 0 nenhum ponto é descartado.
+    public static int simplify(double[] latitudes, double[] longitudes, int count,
+                               double toleranceMeters, int[] outIndices) {
+        if (count <= 2 || toleranceMeters <= 0) {
+            for (int i = 0; i < count; i++) outIndices[i] = i;
+            return count;
+        }
+
+        // projeta para metros uma única vez
+        double[] x = new double[count];
+        double[] y = new double[count];
+        project(latitudes, longitudes, count, x, y);
+
+        boolean[] keep = new boolean[count];
+        keep[0] = true;
+        keep[count - 1] = true;
+        double toleranceSquared = toleranceMeters * toleranceMeters;
+
+        // pilha de intervalos [inicio, fim] ainda não processados
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+        while (top > 0) {
+            int end = stack[--top];
+            int start = stack[--top];
+
+            double maxDistance = -1;
+            int farthest = -1;
+            for (int i = start + 1; i < end; i++) {
+                double d = segmentDistanceSquared(x[i], y[i], x[start], y[start], x[end], y[end]);
+                if (d > maxDistance) {
+                    maxDistance = d;
+                    farthest = i;
+                }
+            }
+
+            if (farthest >= 0 && maxDistance > toleranceSquared) {
+                keep[farthest] = true;
+                if (top + 4 > stack.length) {
+                    int[] grown = new int[stack.length * 2];
+                    System.arraycopy(stack, 0, grown, 0, top);
+                    stack = grown;
+                }
+                stack[top++] = start;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = end;
+            }
+        }
+
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (keep[i]) outIndices[kept++] = i;
+        }
+        return kept;
+    }
+
+    // Converte latitude/longitude para metros em torno da latitude média dos pontos.
+    static void project(double[] latitudes, double[] longitudes, int count, double[] x, double[] y) {
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            minLat = Math.min(minLat, latitudes[i]);
+            maxLat = Math.max(maxLat, latitudes[i]);
+        }
+        double cosLat = Math.cos(Math.toRadians((minLat + maxLat) / 2));
+        for (int i = 0; i < count; i++) {
+            x[i] = longitudes[i] * METERS_PER_DEGREE * cosLat;
+            y[i] = latitudes[i] * METERS_PER_DEGREE;
+        }
+    }
+
+    // Quadrado da distância do ponto (px, py) ao segmento (ax, ay)-(bx, by).
+    static double segmentDistanceSquared(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared > 0 ? ((px - ax) * dx + (py - ay) * dy) / lengthSquared : 0;
+        if (t < 0) t = 0;
+        else if (t > 1) t = 1;
+        double cx = ax + t * dx - px;
+        double cy = ay + t * dy - py;
+        return cx * cx + cy * cy;
+    }
+}
@@ -0,0 +1,102 @@
+package mobile.com.raiasmanuca;
+
+import java.util.Arrays;
+
+// Calcula as células quadkey por onde uma trilha passa, para a tabela trail_cells.
+//
+// Recebe os pontos em ordem e marca a célula de cada ponto e as células cruzadas por cada
+// segmento (um salto de GPS longo atravessa várias células). Pontos seguidos na mesma célula,
+// que são a grande maioria, não custam nada além do cálculo da célula.
+// drain() entrega as células novas ordenadas e sem repetição.
+public class TrailCellIndexer implements TrailPointVisitor {
+    // acima disso o segmento é percorrido em passos em vez de cobrir o retângulo inteiro
+    private static final int MAX_BOX_CELLS = 16;
+
+    private long[] cells = new long[64];
+    private int size = 0;
+
+    private boolean hasLast = false;
+    private int lastX;
+    private int lastY;
+    private double lastLatitude;
+    private double lastLongitude;
+
+    // Continua a partir de um ponto já indexado (o último ponto gravado da trilha); a célula
+    // dele não é marcada de novo.
+    public void continueFrom(double latitude, double longitude) {
+        hasLast = true;
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        lastX = Quadkey.tileX(longitude, Quadkey.INDEX_LEVEL);
+        lastY = Quadkey.tileY(latitude, Quadkey.INDEX_LEVEL);
+    }
+
+    @Override
+    public void onPoint(double latitude, double longitude, long timestamp) {
+        int x = Quadkey.tileX(longitude, Quadkey.INDEX_LEVEL);
+        int y = Quadkey.tileY(latitude, Quadkey.INDEX_LEVEL);
+        if (!hasLast) {
+            add(Quadkey.interleave(x, y));
+        } else if (x != lastX || y != lastY) {
+            addSegment(lastX, lastY, lastLatitude, lastLongitude, x, y, latitude, longitude);
+        }
+        hasLast = true;
+        lastX = x;
+        lastY = y;
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+    }
+
+    // marca as células do segmento entre duas células diferentes
+    private void addSegment(int x0, int y0, double lat0, double lng0, int x1, int y1, double lat1, double lng1) {
+        int width = Math.abs(x1 - x0) + 1;
+        int height = Math.abs(y1 - y0) + 1;
+        if (width * height <= MAX_BOX_CELLS) {
+            // segmento curto: o retângulo entre as duas células (inclui as vizinhas da diagonal)
+            for (int y = Math.min(y0, y1); y <= Math.max(y0, y1); y++) {
+                for (int x = Math.min(x0, x1); x <= Math.max(x0, x1); x++) {
+                    add(Quadkey.interleave(x, y));
+                }
+            }
+            return;
+        }
+        // salto longo: amostra o segmento a cada meia célula
+        int steps = 2 * Math.max(width, height);
+        for (int i = 0; i <= steps; i++) {
+            double t = (double) i / steps;
+            add(Quadkey.cellAt(lat0 + (lat1 - lat0) * t, lng0 + (lng1 - lng0) * t));
+        }
+    }
+
+    private void add(long cell) {
+        if (size == cells.length) {
+            cells = Arrays.copyOf(cells, size * 2);
+        }
+        cells[size++] = cell;
+    }
+
+    // Esquece o último ponto e as células pendentes, para indexar outra trilha.
+    public void reset() {
+        hasLast = false;
+        size = 0;
+    }
+
+    // Quantidade de células pendentes (com repetições).
+    public int pendingCount() {
+        return size;
+    }
+
+    // Ordena e remove as repetições das células pendentes, copia para "out" (que precisa ter
+    // pelo menos pendingCount() posições) e esvazia a lista. Retorna quantas foram copiadas.
+    public int drain(long[] out) {
+        Arrays.sort(cells, 0, size);
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (count == 0 || out[count - 1] != cells[i]) {
+                out[count++] = cells[i];
+            }
+        }
+        size = 0;
+        return count;
+    }
+}
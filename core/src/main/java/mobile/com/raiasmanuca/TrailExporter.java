@@ -0,0 +1,189 @@
+package mobile.com.raiasmanuca;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+// Exporta uma trilha em GPX 1.1 ou GeoJSON direto para um OutputStream.
+//
+// Os pontos são lidos com TrailPointSource.forEachPoint (o cursor do banco, que traz as
+// linhas em janelas) e escritos um a um; a trilha inteira nunca fica na memória. Os números
+// e as datas são formatados num buffer de caracteres reaproveitado, sem criar Strings por ponto.
+// Latitude e longitude saem com 7 casas decimais (~1 cm).
+public class TrailExporter {
+    // casas decimais das coordenadas
+    static final int COORDINATE_DECIMALS = 7;
+    private static final int WRITER_BUFFER = 64 * 1024;
+
+    private final char[] scratch = new char[32];
+
+    // Escreve a trilha em GPX 1.1 (um <trk> com um <trkseg>). Retorna a quantidade de pontos.
+    public int writeGpx(TrailPointSource source, String trailId, OutputStream out) throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), WRITER_BUFFER);
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        writer.write("<gpx version=\"1.1\" creator=\"raiasmanuca\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n");
+        writer.write("<trk><name>");
+        writer.write(escapeXml(trailId));
+        writer.write("</name><trkseg>\n");
+        int count;
+        try {
+            count = source.forEachPoint(trailId, (latitude, longitude, timestamp) -> {
+                try {
+                    writer.write("<trkpt lat=\"");
+                    writeCoordinate(writer, latitude);
+                    writer.write("\" lon=\"");
+                    writeCoordinate(writer, longitude);
+                    writer.write("\"><time>");
+                    writer.write(scratch, 0, formatTime(timestamp, scratch));
+                    writer.write("</time></trkpt>\n");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.write("</trkseg></trk>\n</gpx>\n");
+        writer.flush();
+        return count;
+    }
+
+    // Escreve a trilha como um Feature GeoJSON com uma LineString ([longitude, latitude]).
+    // GeoJSON não tem hora por ponto; os horários vão em properties.coordTimes (a mesma
+    // convenção do togeojson), na ordem das coordenadas. Para isso os pontos são lidos duas
+    // vezes, em vez de guardados. Retorna a quantidade de pontos.
+    public int writeGeoJson(TrailPointSource source, String trailId, OutputStream out) throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), WRITER_BUFFER);
+        final boolean[] first = {true};
+        int count;
+        try {
+            writer.write("{\"type\":\"Feature\",\"properties\":{\"trail_id\":\"");
+            writer.write(escapeJson(trailId));
+            writer.write("\",\"coordTimes\":[");
+            source.forEachPoint(trailId, (latitude, longitude, timestamp) -> {
+                try {
+                    if (!first[0]) writer.write(',');
+                    first[0] = false;
+                    writer.write('"');
+                    writer.write(scratch, 0, formatTime(timestamp, scratch));
+                    writer.write('"');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.write("]},\"geometry\":{\"type\":\"LineString\",\"coordinates\":[");
+            first[0] = true;
+            count = source.forEachPoint(trailId, (latitude, longitude, timestamp) -> {
+                try {
+                    writer.write(first[0] ? "\n[" : ",\n[");
+                    first[0] = false;
+                    writeCoordinate(writer, longitude);
+                    writer.write(',');
+                    writeCoordinate(writer, latitude);
+                    writer.write(']');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.write("]}}\n");
+        writer.flush();
+        return count;
+    }
+
+    private void writeCoordinate(Writer writer, double value) throws IOException {
+        writer.write(scratch, 0, formatFixed(value, COORDINATE_DECIMALS, scratch));
+    }
+
+    // Escreve o número com "decimals" casas decimais em "out"; retorna a quantidade de caracteres.
+    static int formatFixed(double value, int decimals, char[] out) {
+        int pos = 0;
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) scale *= 10;
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0 && scaled != 0) out[pos++] = '-';
+        long integer = scaled / scale;
+        long fraction = scaled % scale;
+        pos = appendLong(integer, out, pos);
+        if (decimals > 0) {
+            out[pos++] = '.';
+            for (long div = scale / 10; div > 0; div /= 10) {
+                out[pos++] = (char) ('0' + (fraction / div) % 10);
+            }
+        }
+        return pos;
+    }
+
+    private static int appendLong(long value, char[] out, int pos) {
+        if (value == 0) {
+            out[pos++] = '0';
+            return pos;
+        }
+        int start = pos;
+        while (value > 0) {
+            out[pos++] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        // os dígitos saíram ao contrário
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            char c = out[i];
+            out[i] = out[j];
+            out[j] = c;
+        }
+        return pos;
+    }
+
+    // Escreve o instante (ms desde 1970, UTC) como "aaaa-mm-ddThh:mm:ss.sssZ" em "out";
+    // retorna a quantidade de caracteres (24).
+    static int formatTime(long millis, char[] out) {
+        long days = Math.floorDiv(millis, 86_400_000L);
+        long dayMillis = Math.floorMod(millis, 86_400_000L);
+        // conversão de dias para data civil (algoritmo de Howard Hinnant)
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        putDigits(out, 0, year, 4);
+        out[4] = '-';
+        putDigits(out, 5, month, 2);
+        out[7] = '-';
+        putDigits(out, 8, day, 2);
+        out[10] = 'T';
+        putDigits(out, 11, dayMillis / 3_600_000, 2);
+        out[13] = ':';
+        putDigits(out, 14, dayMillis / 60_000 % 60, 2);
+        out[16] = ':';
+        putDigits(out, 17, dayMillis / 1000 % 60, 2);
+        out[19] = '.';
+        putDigits(out, 20, dayMillis % 1000, 3);
+        out[23] = 'Z';
+        return 24;
+    }
+
+    private static void putDigits(char[] out, int pos, long value, int width) {
+        for (int i = pos + width - 1; i >= pos; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static String escapeXml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String escapeJson(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,72 @@
+package mobile.com.raiasmanuca;
+
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Locale;
+
+// Monta o texto do painel de informações da trilha (início, duração, distância e velocidade média).
+// Fica separado da Activity para poder ser chamado fora da thread principal e testado na JVM.
+public final class TrailInfoFormatter {
+    private TrailInfoFormatter() {
+    }
+
+    public static String format(TrailStats stats, Locale locale) {
+        // Formata os dados com simple date format.
+        SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss", locale);
+        long durationSeconds = stats.getDurationMillis() / 1000;
+        return String.format(locale,
+                "Início: %s\nDuração: %02d:%02d:%02d\nDistância: %.2f km\nVelocidade Média: %.2f km/h",
+                sdf.format(stats.getStartTime()),
+                durationSeconds / 3600, (durationSeconds % 3600) / 60, (durationSeconds % 60),
+                stats.getDistanceMeters() / 1000, stats.getAverageSpeedMetersPerSecond() * 3.6);
+    }
+
+    // Primeira linha de um item da lista de trilhas: data e hora do início.
+    public static String formatListTitle(TrailSummary summary, Locale locale) {
+        SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy HH:mm", locale);
+        String title = sdf.format(summary.getStartTime());
+        return summary.isFinished() ? title : title + " (gravando)";
+    }
+
+    // Segunda linha de um item da lista: distância, duração e quantidade de pontos.
+    public static String formatListDetails(TrailSummary summary, Locale locale) {
+        long durationSeconds = summary.getDurationMillis() / 1000;
+        return String.format(locale, "%.2f km · %02d:%02d:%02d · %d pontos",
+                summary.getDistanceMeters() / 1000,
+                durationSeconds / 3600, (durationSeconds % 3600) / 60, (durationSeconds % 60),
+                summary.getPointCount());
+    }
+
+    // Comparação com as trilhas do mesmo percurso (matches da mais rápida para a mais lenta):
+    // quantas vezes o percurso foi feito, o melhor tempo e a diferença para ele, e o trecho
+    // em que a trilha mais ganhou ou perdeu tempo em relação à melhor.
+    public static String formatMatches(long durationMillis, List<TrailMatcher.Match> matches, Locale locale) {
+        if (matches.isEmpty()) {
+            return "Primeira vez neste percurso.";
+        }
+        TrailMatcher.Match best = matches.get(0);
+        long bestSeconds = best.durationMillis / 1000;
+        StringBuilder text = new StringBuilder(String.format(locale,
+                "Mesmo percurso: %d vez(es) antes\nMelhor tempo: %02d:%02d:%02d",
+                matches.size(), bestSeconds / 3600, (bestSeconds % 3600) / 60, bestSeconds % 60));
+        if (durationMillis <= best.durationMillis) {
+            text.append(" (esta é a melhor)");
+            return text.toString();
+        }
+        text.append(" (").append(formatDelta(best.durationDeltaMillis)).append(")");
+        // trecho com a maior perda em relação à melhor
+        int worst = 0;
+        for (int i = 1; i < best.segmentDeltaMillis.length; i++) {
+            if (best.segmentDeltaMillis[i] > best.segmentDeltaMillis[worst]) worst = i;
+        }
+        text.append(String.format(locale, "\nMaior perda: km %d a %d (%s)", worst, worst + 1,
+                formatDelta(best.segmentDeltaMillis[worst])));
+        return text.toString();
+    }
+
+    // diferença de tempo com sinal, em minutos e segundos
+    private static String formatDelta(long deltaMillis) {
+        long seconds = Math.abs(deltaMillis) / 1000;
+        return String.format(Locale.ROOT, "%s%d:%02d", deltaMillis < 0 ? "-" : "+", seconds / 60, seconds % 60);
+    }
+}
@@ -0,0 +1,48 @@
+package mobile.com.raiasmanuca;
+
+// Escolha dos pontos de cada nível de detalhe de uma trilha, um nível para cada faixa de zoom
+// do mapa. É a parte do TrailLod que não depende do mapa: aqui só se calculam os índices dos
+// pontos mantidos; o TrailLod transforma esses índices nas listas de LatLng das linhas.
+public final class TrailLodLevels {
+    // zoom mínimo de cada faixa (a última faixa vai até o zoom máximo)
+    static final float[] BAND_MIN_ZOOM = {0, 10, 13, 15, 17};
+    // tolerância em metros de cada faixa. O levelForZoom escolhe a faixa de maior zoom mínimo
+    // que não passa do zoom do mapa, e a tolerância vale para a faixa inteira; por isso ela é
+    // escolhida pelo maior zoom da faixa (o zoom mínimo da seguinte), onde o pixel é menor:
+    // no equador dá meio pixel no zoom 10 (80 m) e cerca de um pixel nos zooms 13 (20 m),
+    // 15 (5 m) e 17 (1.5 m). Nos zooms mais baixos da faixa o erro fica abaixo disso.
+    // Na última faixa a trilha é desenhada com todos os pontos.
+    static final double[] BAND_TOLERANCE_METERS = {80, 20, 5, 1.5, 0};
+
+    private TrailLodLevels() {
+    }
+
+    // Índice do nível a ser usado no zoom informado.
+    public static int levelForZoom(float zoom) {
+        int level = 0;
+        for (int i = 1; i < BAND_MIN_ZOOM.length; i++) {
+            if (zoom >= BAND_MIN_ZOOM[i]) level = i;
+        }
+        return level;
+    }
+
+    public static int getLevelCount() {
+        return BAND_TOLERANCE_METERS.length;
+    }
+
+    // Índices dos pontos mantidos em cada nível, em ordem. Um nível sem simplificação
+    // (tolerância 0) fica null: ele usa todos os pontos. Pode demorar em trilhas grandes.
+    public static int[][] build(double[] latitudes, double[] longitudes, int count) {
+        int[] indices = new int[count];
+        int[][] levels = new int[BAND_TOLERANCE_METERS.length][];
+        for (int level = 0; level < levels.length; level++) {
+            double tolerance = BAND_TOLERANCE_METERS[level];
+            if (tolerance <= 0) continue;
+            int kept = TrackSimplifier.simplify(latitudes, longitudes, count, tolerance, indices);
+            int[] levelIndices = new int[kept];
+            System.arraycopy(indices, 0, levelIndices, 0, kept);
+            levels[level] = levelIndices;
+        }
+        return levels;
+    }
+}
@@ -0,0 +1,416 @@
+package mobile.com.raiasmanuca;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Compara uma trilha com as gravadas antes: quais fizeram o mesmo percurso, quanto tempo
+// cada uma levou em cada trecho e qual foi a mais rápida.
+//
+// A comparação tem duas etapas:
+// - prefilter() descarta, só pelos resumos (trail_summaries), as trilhas que não começam e
+//   terminam perto da consultada, cujos limites não se cruzam ou cujo comprimento é muito
+//   diferente. Nenhum ponto é lido para isso;
+// - matchAll() alinha as que sobraram com DTW (dynamic time warping) limitado a uma faixa
+//   em volta da diagonal, sobre os percursos reamostrados a cada spacingMeters em arrays
+//   primitivos. Cada candidata é uma tarefa independente, espalhada pelos núcleos com um
+//   ForkJoinPool. Uma candidata é abandonada assim que o custo acumulado garante que o
+//   desvio médio vai passar de maxDeviationMeters.
+//
+// O desvio médio é a distância média entre os pontos alinhados; abaixo do limite a trilha
+// é considerada o mesmo percurso, e o alinhamento dá o tempo de cada trecho nas duas.
+public class TrailMatcher {
+    // distância máxima entre os inícios (e entre os fins) de duas trilhas do mesmo percurso
+    public static final double DEFAULT_ENDPOINT_RADIUS_METERS = 150;
+    // diferença máxima de comprimento, em fração do maior
+    public static final double DEFAULT_LENGTH_TOLERANCE = 0.25;
+    // espaçamento dos pontos reamostrados
+    public static final double DEFAULT_SPACING_METERS = 10;
+    // meia largura da faixa do DTW, em fração do maior percurso
+    public static final double DEFAULT_BAND_FRACTION = 0.1;
+    // desvio médio máximo para duas trilhas serem o mesmo percurso
+    public static final double DEFAULT_MAX_DEVIATION_METERS = 30;
+    // tamanho dos trechos comparados
+    public static final double DEFAULT_SEGMENT_METERS = 1000;
+
+    // candidatas alinhadas por uma tarefa antes de ela se dividir
+    private static final int TASK_THRESHOLD = 4;
+    private static final double METERS_PER_DEGREE = Math.PI * TrailStats.EARTH_RADIUS_METERS / 180;
+
+    // direção de onde veio cada célula do DTW, para reconstruir o alinhamento
+    private static final byte FROM_DIAGONAL = 0;
+    private static final byte FROM_PREVIOUS_QUERY = 1;
+    private static final byte FROM_PREVIOUS_OTHER = 2;
+
+    // tempo de uma comparação completa, candidatas alinhadas e abandonadas no meio
+    private static final Metrics.Timer MATCH_TIMER = Metrics.timer("match.total");
+    private static final Metrics.Counter ALIGNED = Metrics.counter("match.aligned");
+    private static final Metrics.Counter ABANDONED = Metrics.counter("match.abandoned");
+
+    // Percurso de uma trilha reamostrado a cada spacingMeters ao longo do caminho.
+    public static final class Route {
+        public final String trailId;
+        final double spacingMeters;
+        final double[] latitudes;
+        final double[] longitudes;
+        final long[] timestamps;
+        final int size;
+
+        private Route(String trailId, double spacingMeters, double[] latitudes, double[] longitudes,
+                      long[] timestamps, int size) {
+            this.trailId = trailId;
+            this.spacingMeters = spacingMeters;
+            this.latitudes = latitudes;
+            this.longitudes = longitudes;
+            this.timestamps = timestamps;
+            this.size = size;
+        }
+
+        // Reamostra os primeiros "count" pontos: um ponto a cada spacingMeters percorridos
+        // (interpolado entre os pontos gravados), mais o primeiro e o último.
+        public static Route resample(String trailId, double[] latitudes, double[] longitudes, long[] timestamps,
+                                     int count, double spacingMeters) {
+            double total = 0;
+            for (int i = 1; i < count; i++) {
+                total += TrailStats.haversine(latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]);
+            }
+            int capacity = (int) (total / spacingMeters) + 2;
+            double[] outLatitudes = new double[capacity];
+            double[] outLongitudes = new double[capacity];
+            long[] outTimestamps = new long[capacity];
+            if (count == 0) {
+                return new Route(trailId, spacingMeters, outLatitudes, outLongitudes, outTimestamps, 0);
+            }
+
+            outLatitudes[0] = latitudes[0];
+            outLongitudes[0] = longitudes[0];
+            outTimestamps[0] = timestamps[0];
+            int size = 1;
+            double walked = 0;
+            double next = spacingMeters;
+            for (int i = 1; i < count; i++) {
+                double step = TrailStats.haversine(latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]);
+                while (walked + step >= next && size < capacity - 1) {
+                    double f = (next - walked) / step;
+                    outLatitudes[size] = latitudes[i - 1] + (latitudes[i] - latitudes[i - 1]) * f;
+                    outLongitudes[size] = wrapLongitude(longitudes[i - 1]
+                            + longitudeDelta(longitudes[i], longitudes[i - 1]) * f);
+                    outTimestamps[size] = timestamps[i - 1] + Math.round((timestamps[i] - timestamps[i - 1]) * f);
+                    size++;
+                    next += spacingMeters;
+                }
+                walked += step;
+            }
+            // o último ponto, se ainda não caiu exatamente em uma marca
+            if (count > 1 && outTimestamps[size - 1] != timestamps[count - 1]) {
+                outLatitudes[size] = latitudes[count - 1];
+                outLongitudes[size] = longitudes[count - 1];
+                outTimestamps[size] = timestamps[count - 1];
+                size++;
+            }
+            return new Route(trailId, spacingMeters, outLatitudes, outLongitudes, outTimestamps, size);
+        }
+
+        public static Route resample(String trailId, TrackBuffer track, double spacingMeters) {
+            return resample(trailId, track.latitudes(), track.longitudes(), track.timestamps(), track.size(),
+                    spacingMeters);
+        }
+
+        // Lê os pontos da trilha (do banco, no app) e reamostra.
+        public static Route load(TrailPointSource source, String trailId, double spacingMeters) {
+            TrackBuffer track = new TrackBuffer();
+            source.forEachPoint(trailId, track);
+            return resample(trailId, track, spacingMeters);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long getDurationMillis() {
+            return size > 0 ? timestamps[size - 1] - timestamps[0] : 0;
+        }
+    }
+
+    // Trilha que fez o mesmo percurso que a consultada.
+    public static final class Match {
+        public final String trailId;
+        // distância média entre os pontos alinhados
+        public final double meanDeviationMeters;
+        // duração da trilha encontrada
+        public final long durationMillis;
+        // duração da consultada menos a da encontrada (negativo: a consultada foi mais rápida)
+        public final long durationDeltaMillis;
+        // a mesma diferença, trecho a trecho (segmentMeters cada, o último pode ser menor)
+        public final long[] segmentDeltaMillis;
+
+        Match(String trailId, double meanDeviationMeters, long durationMillis, long durationDeltaMillis,
+              long[] segmentDeltaMillis) {
+            this.trailId = trailId;
+            this.meanDeviationMeters = meanDeviationMeters;
+            this.durationMillis = durationMillis;
+            this.durationDeltaMillis = durationDeltaMillis;
+            this.segmentDeltaMillis = segmentDeltaMillis;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final double endpointRadiusMeters;
+    private final double lengthTolerance;
+    private final double bandFraction;
+    private final double maxDeviationMeters;
+    private final double segmentMeters;
+
+    public TrailMatcher() {
+        this(ForkJoinPool.commonPool(), DEFAULT_ENDPOINT_RADIUS_METERS, DEFAULT_LENGTH_TOLERANCE,
+                DEFAULT_BAND_FRACTION, DEFAULT_MAX_DEVIATION_METERS, DEFAULT_SEGMENT_METERS);
+    }
+
+    public TrailMatcher(ForkJoinPool pool, double endpointRadiusMeters, double lengthTolerance,
+                        double bandFraction, double maxDeviationMeters, double segmentMeters) {
+        this.pool = pool;
+        this.endpointRadiusMeters = endpointRadiusMeters;
+        this.lengthTolerance = lengthTolerance;
+        this.bandFraction = bandFraction;
+        this.maxDeviationMeters = maxDeviationMeters;
+        this.segmentMeters = segmentMeters;
+    }
+
+    // Resumos que podem ser o mesmo percurso que query (a própria query fica de fora).
+    public List<TrailSummary> prefilter(TrailSummary query, List<TrailSummary> summaries) {
+        List<TrailSummary> candidates = new ArrayList<>();
+        for (TrailSummary summary : summaries) {
+            if (isCandidate(query, summary)) candidates.add(summary);
+        }
+        return candidates;
+    }
+
+    public boolean isCandidate(TrailSummary query, TrailSummary other) {
+        if (other.getTrailId().equals(query.getTrailId()) || other.getPointCount() < 2 || query.getPointCount() < 2) {
+            return false;
+        }
+        double longest = Math.max(query.getDistanceMeters(), other.getDistanceMeters());
+        if (Math.abs(query.getDistanceMeters() - other.getDistanceMeters()) > lengthTolerance * longest) {
+            return false;
+        }
+        // os limites precisam se cruzar (com a folga do raio)
+        double margin = endpointRadiusMeters / METERS_PER_DEGREE;
+        if (other.getMinLatitude() > query.getMaxLatitude() + margin
+                || other.getMaxLatitude() < query.getMinLatitude() - margin) {
+            return false;
+        }
+        // também do outro lado do antimeridiano (os limites de uma das duas deslocados 360°)
+        double longitudeMargin = margin / Math.max(Math.cos(Math.toRadians(query.getFirstLatitude())), 1e-6);
+        boolean overlaps = false;
+        for (int shift = -360; shift <= 360 && !overlaps; shift += 360) {
+            overlaps = other.getMinLongitude() + shift <= query.getMaxLongitude() + longitudeMargin
+                    && other.getMaxLongitude() + shift >= query.getMinLongitude() - longitudeMargin;
+        }
+        if (!overlaps) {
+            return false;
+        }
+        return TrailStats.haversine(query.getFirstLatitude(), query.getFirstLongitude(),
+                other.getFirstLatitude(), other.getFirstLongitude()) <= endpointRadiusMeters
+                && TrailStats.haversine(query.getLastLatitude(), query.getLastLongitude(),
+                other.getLastLatitude(), other.getLastLongitude()) <= endpointRadiusMeters;
+    }
+
+    // diferença a - b em graus de longitude, pelo lado mais curto (atravessando o antimeridiano
+    // se for o caso)
+    static double longitudeDelta(double a, double b) {
+        double delta = a - b;
+        if (delta > 180) return delta - 360;
+        if (delta < -180) return delta + 360;
+        return delta;
+    }
+
+    private static double wrapLongitude(double longitude) {
+        if (longitude > 180) return longitude - 360;
+        if (longitude < -180) return longitude + 360;
+        return longitude;
+    }
+
+    // Alinha query com cada candidata, em paralelo. Retorna as que fizeram o mesmo percurso,
+    // da mais rápida para a mais lenta.
+    public List<Match> matchAll(Route query, List<Route> candidates) {
+        long t0 = Metrics.start();
+        Match[] results = new Match[candidates.size()];
+        pool.invoke(new AlignTask(query, candidates, results, 0, candidates.size()));
+        List<Match> matches = new ArrayList<>();
+        for (Match match : results) {
+            if (match != null) matches.add(match);
+        }
+        Collections.sort(matches, (a, b) -> Long.compare(a.durationMillis, b.durationMillis));
+        MATCH_TIMER.stop(t0);
+        return matches;
+    }
+
+    // Alinha as duas trilhas; retorna null se não são o mesmo percurso.
+    public Match align(Route query, Route other) {
+        if (query.spacingMeters != other.spacingMeters) {
+            throw new IllegalArgumentException("os percursos precisam ter o mesmo espaçamento");
+        }
+        int n = query.size;
+        int m = other.size;
+        if (n < 2 || m < 2) return null;
+
+        // faixa em volta da diagonal (que já compensa a diferença de tamanho)
+        int halfWidth = Math.max(2, (int) Math.ceil(bandFraction * Math.max(n, m)));
+        int width = 2 * halfWidth + 1;
+        double cosLatitude = Math.cos(Math.toRadians(query.latitudes[0]));
+        // maior custo acumulado que ainda pode dar um desvio médio aceitável
+        double abandonCost = maxDeviationMeters * (n + m - 1);
+
+        double[] previous = new double[width];
+        double[] current = new double[width];
+        int[] previousSteps = new int[width];
+        int[] currentSteps = new int[width];
+        byte[] from = new byte[n * width];
+        int previousStart = 0;
+        int previousEnd = -1;
+
+        for (int i = 0; i < n; i++) {
+            int center = (int) Math.round((double) i * (m - 1) / (n - 1));
+            int start = Math.max(0, center - halfWidth);
+            int end = Math.min(m - 1, center + halfWidth);
+            double rowMin = Double.POSITIVE_INFINITY;
+            double qLatitude = query.latitudes[i];
+            double qLongitude = query.longitudes[i];
+
+            for (int j = start; j <= end; j++) {
+                double dy = qLatitude - other.latitudes[j];
+                double dx = longitudeDelta(qLongitude, other.longitudes[j]) * cosLatitude;
+                double distance = Math.sqrt(dx * dx + dy * dy) * METERS_PER_DEGREE;
+
+                double best;
+                int steps;
+                byte direction;
+                if (i == 0 && j == 0) {
+                    best = 0;
+                    steps = 0;
+                    direction = FROM_DIAGONAL;
+                } else {
+                    best = Double.POSITIVE_INFINITY;
+                    steps = 0;
+                    direction = FROM_DIAGONAL;
+                    if (j - 1 >= previousStart && j - 1 <= previousEnd) {
+                        best = previous[j - 1 - previousStart];
+                        steps = previousSteps[j - 1 - previousStart];
+                    }
+                    if (j >= previousStart && j <= previousEnd && previous[j - previousStart] < best) {
+                        best = previous[j - previousStart];
+                        steps = previousSteps[j - previousStart];
+                        direction = FROM_PREVIOUS_QUERY;
+                    }
+                    if (j - 1 >= start && current[j - 1 - start] < best) {
+                        best = current[j - 1 - start];
+                        steps = currentSteps[j - 1 - start];
+                        direction = FROM_PREVIOUS_OTHER;
+                    }
+                }
+                double cost = best + distance;
+                current[j - start] = cost;
+                currentSteps[j - start] = steps + 1;
+                from[i * width + (j - start)] = direction;
+                if (cost < rowMin) rowMin = cost;
+            }
+
+            // o custo só cresce: se até o menor da linha já passou, nenhum caminho serve
+            if (rowMin > abandonCost) {
+                ABANDONED.increment();
+                return null;
+            }
+            double[] swapCost = previous;
+            previous = current;
+            current = swapCost;
+            int[] swapSteps = previousSteps;
+            previousSteps = currentSteps;
+            currentSteps = swapSteps;
+            previousStart = start;
+            previousEnd = end;
+        }
+
+        double total = previous[m - 1 - previousStart];
+        int pathLength = previousSteps[m - 1 - previousStart];
+        double meanDeviation = total / pathLength;
+        ALIGNED.increment();
+        if (meanDeviation > maxDeviationMeters) return null;
+
+        // volta pelo caminho: para cada ponto da query, o primeiro ponto da outra alinhado a ele
+        // (o último da query fica com o último da outra, para os trechos somarem a duração toda)
+        int[] matchedIndex = new int[n];
+        int i = n - 1;
+        int j = m - 1;
+        while (true) {
+            matchedIndex[i] = j;
+            if (i == 0 && j == 0) break;
+            int center = (int) Math.round((double) i * (m - 1) / (n - 1));
+            int start = Math.max(0, center - halfWidth);
+            byte direction = from[i * width + (j - start)];
+            if (direction == FROM_DIAGONAL) {
+                i--;
+                j--;
+            } else if (direction == FROM_PREVIOUS_QUERY) {
+                i--;
+            } else {
+                j--;
+            }
+        }
+        matchedIndex[n - 1] = m - 1;
+
+        return new Match(other.trailId, meanDeviation, other.getDurationMillis(),
+                query.getDurationMillis() - other.getDurationMillis(),
+                segmentDeltas(query, other, matchedIndex));
+    }
+
+    // diferença de tempo em cada trecho, usando o alinhamento para achar onde cada trecho
+    // da query começa e termina na outra trilha
+    private long[] segmentDeltas(Route query, Route other, int[] matchedIndex) {
+        int pointsPerSegment = Math.max(1, (int) Math.round(segmentMeters / query.spacingMeters));
+        int last = query.size - 1;
+        int segments = (last + pointsPerSegment - 1) / pointsPerSegment;
+        long[] deltas = new long[segments];
+        for (int k = 0; k < segments; k++) {
+            int from = k * pointsPerSegment;
+            int to = Math.min(last, from + pointsPerSegment);
+            long queryTime = query.timestamps[to] - query.timestamps[from];
+            long otherTime = other.timestamps[matchedIndex[to]] - other.timestamps[matchedIndex[from]];
+            deltas[k] = queryTime - otherTime;
+        }
+        return deltas;
+    }
+
+    // Alinha um intervalo das candidatas; divide ao meio enquanto o intervalo for grande.
+    private final class AlignTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Route query;
+        private final List<Route> candidates;
+        private final Match[] results;
+        private final int from;
+        private final int to;
+
+        AlignTask(Route query, List<Route> candidates, Match[] results, int from, int to) {
+            this.query = query;
+            this.candidates = candidates;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= TASK_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    results[i] = align(query, candidates.get(i));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new AlignTask(query, candidates, results, from, middle),
+                    new AlignTask(query, candidates, results, middle, to));
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package mobile.com.raiasmanuca;
+
+// Origem dos pontos gravados. O DatabaseHelper implementa essa interface; nos testes
+// ela é substituída por trilhas sintéticas geradas em memória.
+public interface TrailPointSource {
+    // Entrega ao visitor os pontos da trilha em ordem cronológica e retorna quantos foram lidos.
+    int forEachPoint(String trailId, TrailPointVisitor visitor);
+
+    // Id da trilha gravada mais recentemente, ou null se não houver nenhuma.
+    String getLatestTrailId();
+}
@@ -0,0 +1,7 @@
+package mobile.com.raiasmanuca;
+
+// Recebe os pontos de uma trilha um a um, em ordem cronológica.
+// Usa tipos primitivos para que a leitura não precise criar um objeto por ponto.
+public interface TrailPointVisitor {
+    void onPoint(double latitude, double longitude, long timestamp);
+}
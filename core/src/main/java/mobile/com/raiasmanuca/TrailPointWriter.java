@@ -0,0 +1,415 @@
+package mobile.com.raiasmanuca;
+
+// Responsável por gravar os pontos da trilha fora da thread principal.
+// Os pontos recebidos do GPS são colocados em um buffer circular limitado e uma thread
+// de fundo os grava em lotes, cada lote dentro de uma única transação do banco.
+// Assim evitamos um commit (e um fsync) por ponto, que travava a UI em gravações longas.
+// Com um PointJournal, cada ponto também é escrito no diário antes de entrar no buffer, e os
+// pontos pendentes sobrevivem à morte do processo; isso permite lotes bem maiores.
+public class TrailPointWriter {
+    // Destino dos lotes. O DatabaseHelper implementa isso com um SQLiteStatement reutilizado.
+    public interface Sink {
+        // grava os primeiros "count" pontos dos arrays, todos da mesma trilha, em uma transação
+        void writeBatch(String trailId, double[] latitudes, double[] longitudes, long[] timestamps, int count);
+
+        // igual ao anterior, mas também registra, na mesma transação, a sequência do diário
+        // do último ponto do lote (os pontos até ela não precisam mais ser recuperados)
+        default void writeBatch(String trailId, double[] latitudes, double[] longitudes, long[] timestamps,
+                                int count, long journalSequence) {
+            writeBatch(trailId, latitudes, longitudes, timestamps, count);
+        }
+    }
+
+    // quantidade máxima de pontos pendentes no buffer
+    public static final int DEFAULT_CAPACITY = 1024;
+    // quantidade de pontos que dispara a gravação de um lote
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    // tempo máximo (ms) que um ponto fica no buffer antes de ser gravado
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 10000;
+    // espera (ms) antes de tentar de novo um lote que falhou
+    static final long RETRY_DELAY_MS = 1000;
+    // tentativas de um lote com erro antes de desistir dele (com o erro persistente, como disco
+    // cheio ou banco corrompido, tentar para sempre encheria o buffer)
+    static final int MAX_ATTEMPTS = 5;
+    // espera máxima (ms) de add()/addAll() por espaço no buffer cheio; depois o ponto é
+    // descartado, para não travar quem entrega os fixes (a thread principal)
+    static final long ADD_TIMEOUT_MS = 500;
+
+    // lotes que falharam (cada tentativa conta)
+    private static final Metrics.Counter BATCH_FAILURES = Metrics.counter("writer.batch_failures");
+    // pontos que não chegaram ao banco nem ficaram no diário
+    private static final Metrics.Counter DROPPED_POINTS = Metrics.counter("writer.dropped_points");
+
+    private final Sink sink;
+    private final String trailId;
+    // diário dos pontos pendentes; null = sem diário
+    private final PointJournal journal;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+
+    // Buffer circular em arrays primitivos, para não alocar objetos por ponto.
+    private final double[] ringLatitudes;
+    private final double[] ringLongitudes;
+    private final long[] ringTimestamps;
+    // sequência de cada ponto no diário (só usado com diário)
+    private final long[] ringSequences;
+    private int head = 0;
+    private int size = 0;
+
+    // Arrays usados pela thread de fundo para copiar um lote para fora do buffer.
+    private final double[] batchLatitudes;
+    private final double[] batchLongitudes;
+    private final long[] batchTimestamps;
+    // maior sequência do diário no lote copiado (-1 se nenhuma)
+    private long batchSequence = -1;
+    // O lote copiado falhou e ainda não foi gravado. Ele é tentado de novo antes de qualquer
+    // ponto novo: se um lote seguinte fosse gravado antes, a sequência confirmada no diário
+    // passaria dos pontos do lote com erro e eles nunca seriam recuperados.
+    private boolean retryPending = false;
+    // O banco falhou MAX_ATTEMPTS vezes no mesmo lote e havia diário: daí em diante nada mais
+    // vai para o banco nesta gravação. Os pontos continuam no diário e são reaplicados na
+    // próxima abertura do banco; confirmar um lote seguinte pularia os do lote com erro.
+    private boolean journalOnly = false;
+    // a última espera por espaço no buffer esgotou ADD_TIMEOUT_MS; até a thread de fundo
+    // liberar espaço, os pontos seguintes são descartados sem esperar de novo
+    private boolean overflowing = false;
+
+    private final Object lock = new Object();
+    private volatile StorageErrorListener errorListener;
+    private final Thread worker;
+    // indica se um lote está sendo gravado neste momento
+    private boolean writing = false;
+    private boolean flushRequested = false;
+    private boolean closed = false;
+
+    // contadores de lotes gravados (commits), pontos gravados, lotes que falharam e pontos
+    // descartados
+    private long commitCount = 0;
+    private long pointsWritten = 0;
+    private long failedBatches = 0;
+    private long droppedPoints = 0;
+
+    public TrailPointWriter(Sink sink, String trailId) {
+        this(sink, trailId, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MS);
+    }
+
+    public TrailPointWriter(Sink sink, String trailId, int capacity, int batchSize, long flushIntervalMillis) {
+        this(sink, trailId, null, capacity, batchSize, flushIntervalMillis);
+    }
+
+    public TrailPointWriter(Sink sink, String trailId, PointJournal journal,
+                            int capacity, int batchSize, long flushIntervalMillis) {
+        if (capacity <= 0 || batchSize <= 0 || batchSize > capacity) {
+            throw new IllegalArgumentException("Capacidade/lote inválidos: " + capacity + "/" + batchSize);
+        }
+        this.sink = sink;
+        this.trailId = trailId;
+        this.journal = journal;
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+
+        ringLatitudes = new double[capacity];
+        ringLongitudes = new double[capacity];
+        ringTimestamps = new long[capacity];
+        ringSequences = journal != null ? new long[capacity] : null;
+        batchLatitudes = new double[capacity];
+        batchLongitudes = new double[capacity];
+        batchTimestamps = new long[capacity];
+
+        worker = new Thread(this::runWorker, "TrailPointWriter");
+        worker.start();
+    }
+
+    public void setErrorListener(StorageErrorListener listener) {
+        errorListener = listener;
+    }
+
+    // Adiciona um ponto ao buffer. Não acessa o banco. Com o buffer cheio (a gravação em disco
+    // está atrasada em relação ao GPS, ou tentando de novo um lote com erro), espera no máximo
+    // ADD_TIMEOUT_MS por espaço; se não houver, o ponto é descartado e contado
+    // (getDroppedPoints) e o errorListener é avisado.
+    public void add(double latitude, double longitude, long timestamp) {
+        synchronized (lock) {
+            if (!awaitSpaceLocked()) {
+                dropLocked(1);
+            } else {
+                int tail = (head + size) % ringLatitudes.length;
+                ringLatitudes[tail] = latitude;
+                ringLongitudes[tail] = longitude;
+                ringTimestamps[tail] = timestamp;
+                if (journal != null) ringSequences[tail] = journal.append(trailId, latitude, longitude, timestamp);
+                size++;
+                // acorda a thread de fundo quando um lote completo estiver disponível
+                if (size >= batchSize) {
+                    lock.notifyAll();
+                }
+                return;
+            }
+        }
+        reportDropped(1);
+    }
+
+    // Adiciona vários pontos de uma vez (um lote entregue pelo GPS). Os pontos entram no buffer
+    // sem que a thread de fundo grave no meio, então a entrega nunca fica dividida entre duas
+    // transações, a não ser que seja maior que o buffer. Como em add(), a thread de fundo só é
+    // acordada quando um lote completo estiver disponível; o resto espera o intervalo. Com o
+    // buffer cheio, a espera também é limitada e o resto da entrega é descartado.
+    public void addAll(double[] latitudes, double[] longitudes, long[] timestamps, int count) {
+        int dropped = 0;
+        synchronized (lock) {
+            for (int i = 0; i < count; i++) {
+                if (!awaitSpaceLocked()) {
+                    dropped = count - i;
+                    dropLocked(dropped);
+                    break;
+                }
+                int tail = (head + size) % ringLatitudes.length;
+                ringLatitudes[tail] = latitudes[i];
+                ringLongitudes[tail] = longitudes[i];
+                ringTimestamps[tail] = timestamps[i];
+                if (journal != null) {
+                    ringSequences[tail] = journal.append(trailId, latitudes[i], longitudes[i], timestamps[i]);
+                }
+                size++;
+            }
+            if (size >= batchSize) {
+                lock.notifyAll();
+            }
+        }
+        if (dropped > 0) reportDropped(dropped);
+    }
+
+    // Espera espaço no buffer por no máximo ADD_TIMEOUT_MS, pedindo à thread de fundo que grave
+    // o que já entrou. Retorna false se continuar cheio. Depois de uma espera esgotada, as
+    // seguintes não esperam até haver espaço de novo: uma sequência de entregas com o banco
+    // travado não pode segurar quem chama ADD_TIMEOUT_MS a cada uma.
+    private boolean awaitSpaceLocked() {
+        if (closed) {
+            throw new IllegalStateException("TrailPointWriter já foi fechado");
+        }
+        if (size < ringLatitudes.length) {
+            overflowing = false;
+            return true;
+        }
+        if (overflowing) return false;
+        long deadline = System.currentTimeMillis() + ADD_TIMEOUT_MS;
+        while (size == ringLatitudes.length && !closed) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) break;
+            // buffer cheio: deixa a thread de fundo gravar o que já entrou
+            flushRequested = true;
+            lock.notifyAll();
+            try {
+                lock.wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (closed) {
+            throw new IllegalStateException("TrailPointWriter já foi fechado");
+        }
+        overflowing = size == ringLatitudes.length;
+        return !overflowing;
+    }
+
+    private void dropLocked(int count) {
+        droppedPoints += count;
+        DROPPED_POINTS.add(count);
+    }
+
+    private void reportDropped(int count) {
+        StorageErrorListener listener = errorListener;
+        if (listener != null) {
+            listener.onStorageError("Buffer de gravação cheio; " + count + " pontos descartados", null);
+        }
+    }
+
+    // Grava imediatamente tudo o que estiver pendente e espera terminar (ou a próxima falha do
+    // banco, para não esperar para sempre se ele continuar com erro).
+    public void flush() {
+        synchronized (lock) {
+            flushRequested = true;
+            lock.notifyAll();
+            long failures = failedBatches;
+            while ((size > 0 || writing || retryPending) && worker.isAlive() && failedBatches == failures) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // Grava os pontos pendentes e encerra a thread de fundo. Chamado no onDestroy.
+    public void close() {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // laço da thread de fundo: espera um lote completo, o intervalo de tempo,
+    // um pedido de flush ou o fechamento, e então grava o que estiver no buffer.
+    // Um lote com erro fica nos arrays do lote e é tentado de novo (depois de RETRY_DELAY_MS,
+    // ou logo, depois do close()) antes dos pontos seguintes, até MAX_ATTEMPTS vezes. Então o
+    // gravador desiste do lote e avisa o errorListener: com diário, passa a só esvaziar o
+    // buffer (journalOnly), e o lote com erro e o que vier depois ficam no diário; sem diário,
+    // o lote é descartado e a gravação segue com os pontos seguintes.
+    private void runWorker() {
+        int count = 0;
+        long sequence = -1;
+        int attempts = 0;
+        while (true) {
+            synchronized (lock) {
+                if (retryPending) {
+                    if (!closed) {
+                        try {
+                            lock.wait(Math.min(RETRY_DELAY_MS, flushIntervalMillis));
+                        } catch (InterruptedException e) {
+                            closed = true;
+                        }
+                    }
+                } else {
+                    long deadline = System.currentTimeMillis() + flushIntervalMillis;
+                    while (!closed && !flushRequested && size < batchSize) {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0 && size > 0) break;
+                        try {
+                            // sem pontos pendentes não há prazo: espera o próximo ponto
+                            lock.wait(remaining > 0 ? remaining : flushIntervalMillis);
+                        } catch (InterruptedException e) {
+                            closed = true;
+                        }
+                        if (size == 0) deadline = System.currentTimeMillis() + flushIntervalMillis;
+                    }
+                    if (size == 0) {
+                        flushRequested = false;
+                        lock.notifyAll();
+                        if (closed) return;
+                        continue;
+                    }
+                    count = drainLocked();
+                    sequence = batchSequence;
+                    attempts = 0;
+                    if (journalOnly) {
+                        // os pontos já estão no diário; o buffer só é esvaziado
+                        lock.notifyAll();
+                        continue;
+                    }
+                }
+                writing = true;
+                // libera espaço no buffer para quem estiver bloqueado em add()
+                lock.notifyAll();
+            }
+
+            boolean success = false;
+            try {
+                if (sequence > 0) {
+                    sink.writeBatch(trailId, batchLatitudes, batchLongitudes, batchTimestamps, count, sequence);
+                } else {
+                    sink.writeBatch(trailId, batchLatitudes, batchLongitudes, batchTimestamps, count);
+                }
+                success = true;
+            } catch (RuntimeException e) {
+                // um lote com erro não pode derrubar a gravação do restante da trilha
+                BATCH_FAILURES.increment();
+                StorageErrorListener listener = errorListener;
+                if (listener != null) {
+                    listener.onStorageError("Falha ao gravar lote de " + count + " pontos", e);
+                }
+            }
+            attempts++;
+
+            // o lote está no banco: o diário pode descartar esses pontos
+            if (success && sequence > 0) journal.markCommitted(sequence);
+
+            String gaveUp = null;
+            synchronized (lock) {
+                writing = false;
+                if (success) {
+                    commitCount++;
+                    pointsWritten += count;
+                    retryPending = false;
+                } else {
+                    failedBatches++;
+                    retryPending = attempts < MAX_ATTEMPTS;
+                    if (!retryPending) {
+                        if (journal != null) {
+                            journalOnly = true;
+                            gaveUp = "Banco com erro em " + attempts + " tentativas; os pontos ficam só no diário";
+                        } else {
+                            // sem diário não há onde guardar o lote: segue com o restante
+                            droppedPoints += count;
+                            DROPPED_POINTS.add(count);
+                            gaveUp = "Banco com erro em " + attempts + " tentativas; lote de " + count + " pontos descartado";
+                        }
+                    }
+                }
+                if (size == 0 && !retryPending) flushRequested = false;
+                lock.notifyAll();
+            }
+            StorageErrorListener listener = errorListener;
+            if (gaveUp != null && listener != null) {
+                listener.onStorageError(gaveUp, null);
+            }
+        }
+    }
+
+    // copia todos os pontos pendentes para os arrays do lote e esvazia o buffer
+    private int drainLocked() {
+        int count = size;
+        int capacity = ringLatitudes.length;
+        int first = Math.min(count, capacity - head);
+        System.arraycopy(ringLatitudes, head, batchLatitudes, 0, first);
+        System.arraycopy(ringLongitudes, head, batchLongitudes, 0, first);
+        System.arraycopy(ringTimestamps, head, batchTimestamps, 0, first);
+        if (first < count) {
+            System.arraycopy(ringLatitudes, 0, batchLatitudes, first, count - first);
+            System.arraycopy(ringLongitudes, 0, batchLongitudes, first, count - first);
+            System.arraycopy(ringTimestamps, 0, batchTimestamps, first, count - first);
+        }
+        // maior sequência do lote (se o diário falhar no meio, os últimos pontos ficam com -1)
+        batchSequence = -1;
+        if (journal != null) {
+            for (int i = 0; i < count; i++) {
+                batchSequence = Math.max(batchSequence, ringSequences[(head + i) % capacity]);
+            }
+        }
+        head = (head + count) % capacity;
+        size = 0;
+        return count;
+    }
+
+    public long getCommitCount() {
+        synchronized (lock) {
+            return commitCount;
+        }
+    }
+
+    public long getPointsWritten() {
+        synchronized (lock) {
+            return pointsWritten;
+        }
+    }
+
+    public long getFailedBatches() {
+        synchronized (lock) {
+            return failedBatches;
+        }
+    }
+
+    public long getDroppedPoints() {
+        synchronized (lock) {
+            return droppedPoints;
+        }
+    }
+}
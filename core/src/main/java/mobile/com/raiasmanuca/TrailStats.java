@@ -0,0 +1,202 @@
+package mobile.com.raiasmanuca;
+
+// Calcula as estatísticas de uma trilha em uma única passada pelos pontos:
+// distância, duração, velocidade média e máxima, tempos parciais por quilômetro (pace)
+// e os limites (bounding box). Trabalha só com tipos primitivos, sem criar objetos por ponto,
+// e não depende do Android, então pode ser testada direto na JVM.
+//
+// A distância usa a fórmula de haversine sobre uma esfera com o raio médio da Terra.
+// Comparada com o elipsoide WGS84 (o que o Location.distanceTo usa), o erro fica abaixo de 0,6%.
+public class TrailStats implements TrailPointVisitor {
+    // raio médio da Terra em metros (IUGG)
+    public static final double EARTH_RADIUS_METERS = 6371008.8;
+    // distância padrão de cada parcial (1 km)
+    public static final double DEFAULT_SPLIT_METERS = 1000;
+
+    private final double splitMeters;
+
+    private int pointCount;
+    private double distanceMeters;
+    private double maxSpeedMetersPerSecond;
+    private long startTime;
+    private long endTime;
+
+    private double lastLatitude;
+    private double lastLongitude;
+    private long lastTimestamp;
+
+    private double minLatitude;
+    private double maxLatitude;
+    private double minLongitude;
+    private double maxLongitude;
+
+    // tempo (ms) de cada parcial completa; o array só cresce quando uma parcial é fechada
+    private long[] splitMillis = new long[8];
+    private int splitCount;
+    private long lastSplitTime;
+    private double nextSplitDistance;
+
+    public TrailStats() {
+        this(DEFAULT_SPLIT_METERS);
+    }
+
+    public TrailStats(double splitMeters) {
+        this.splitMeters = splitMeters;
+        reset();
+    }
+
+    // Calcula as estatísticas dos primeiros "count" pontos dos arrays.
+    public static TrailStats compute(double[] latitudes, double[] longitudes, long[] timestamps, int count) {
+        TrailStats stats = new TrailStats();
+        for (int i = 0; i < count; i++) {
+            stats.onPoint(latitudes[i], longitudes[i], timestamps[i]);
+        }
+        return stats;
+    }
+
+    // Volta ao estado inicial, reaproveitando o objeto.
+    public void reset() {
+        pointCount = 0;
+        distanceMeters = 0;
+        maxSpeedMetersPerSecond = 0;
+        startTime = 0;
+        endTime = 0;
+        minLatitude = Double.POSITIVE_INFINITY;
+        maxLatitude = Double.NEGATIVE_INFINITY;
+        minLongitude = Double.POSITIVE_INFINITY;
+        maxLongitude = Double.NEGATIVE_INFINITY;
+        splitCount = 0;
+        lastSplitTime = 0;
+        nextSplitDistance = splitMeters;
+    }
+
+    // Acrescenta o próximo ponto da trilha (em ordem cronológica).
+    @Override
+    public void onPoint(double latitude, double longitude, long timestamp) {
+        if (pointCount == 0) {
+            startTime = timestamp;
+            lastSplitTime = timestamp;
+        } else {
+            double segment = haversine(lastLatitude, lastLongitude, latitude, longitude);
+            double previousDistance = distanceMeters;
+            distanceMeters += segment;
+
+            long elapsed = timestamp - lastTimestamp;
+            if (elapsed > 0) {
+                double speed = segment * 1000.0 / elapsed;
+                if (speed > maxSpeedMetersPerSecond) maxSpeedMetersPerSecond = speed;
+            }
+
+            // fecha as parciais cruzadas neste segmento, interpolando o instante da passagem
+            while (distanceMeters >= nextSplitDistance && segment > 0) {
+                double fraction = (nextSplitDistance - previousDistance) / segment;
+                long splitTime = lastTimestamp + Math.round(elapsed * fraction);
+                addSplit(splitTime - lastSplitTime);
+                lastSplitTime = splitTime;
+                nextSplitDistance += splitMeters;
+            }
+        }
+
+        if (latitude < minLatitude) minLatitude = latitude;
+        if (latitude > maxLatitude) maxLatitude = latitude;
+        if (longitude < minLongitude) minLongitude = longitude;
+        if (longitude > maxLongitude) maxLongitude = longitude;
+
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        lastTimestamp = timestamp;
+        endTime = timestamp;
+        pointCount++;
+    }
+
+    private void addSplit(long millis) {
+        if (splitCount == splitMillis.length) {
+            long[] grown = new long[splitMillis.length * 2];
+            System.arraycopy(splitMillis, 0, grown, 0, splitCount);
+            splitMillis = grown;
+        }
+        splitMillis[splitCount++] = millis;
+    }
+
+    // Distância em metros entre dois pontos pela fórmula de haversine.
+    public static double haversine(double lat1, double lng1, double lat2, double lng2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double sinDLat = Math.sin((phi2 - phi1) / 2);
+        double sinDLng = Math.sin(Math.toRadians(lng2 - lng1) / 2);
+        double a = sinDLat * sinDLat + Math.cos(phi1) * Math.cos(phi2) * sinDLng * sinDLng;
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public double getDistanceMeters() {
+        return distanceMeters;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public long getDurationMillis() {
+        return endTime - startTime;
+    }
+
+    // velocidade média em m/s (distância total / duração total)
+    public double getAverageSpeedMetersPerSecond() {
+        long duration = getDurationMillis();
+        return duration > 0 ? distanceMeters * 1000.0 / duration : 0;
+    }
+
+    // maior velocidade entre dois pontos consecutivos, em m/s
+    public double getMaxSpeedMetersPerSecond() {
+        return maxSpeedMetersPerSecond;
+    }
+
+    // quantidade de parciais completas (por padrão, quilômetros completos)
+    public int getSplitCount() {
+        return splitCount;
+    }
+
+    // tempo em ms gasto na parcial "index"
+    public long getSplitMillis(int index) {
+        if (index < 0 || index >= splitCount) {
+            throw new IndexOutOfBoundsException("Parcial " + index + " de " + splitCount);
+        }
+        return splitMillis[index];
+    }
+
+    public double getSplitMeters() {
+        return splitMeters;
+    }
+
+    public double getLastLatitude() {
+        return lastLatitude;
+    }
+
+    public double getLastLongitude() {
+        return lastLongitude;
+    }
+
+    public double getMinLatitude() {
+        return minLatitude;
+    }
+
+    public double getMaxLatitude() {
+        return maxLatitude;
+    }
+
+    public double getMinLongitude() {
+        return minLongitude;
+    }
+
+    public double getMaxLongitude() {
+        return maxLongitude;
+    }
+}
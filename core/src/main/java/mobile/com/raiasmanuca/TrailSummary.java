@@ -0,0 +1,157 @@
+package mobile.com.raiasmanuca;
+
+// Resumo de uma trilha, guardado na tabela trail_summaries: início e fim da sessão,
+// quantidade de pontos, distância, tempo entre o primeiro e o último ponto, onde a trilha
+// começa e termina e os limites.
+//
+// O resumo é atualizado aos poucos: cada lote gravado continua a partir do último ponto
+// guardado (lastLatitude/lastLongitude), então a lista de trilhas nunca precisa reler os pontos.
+// A distância usa o mesmo haversine do TrailStats.
+public class TrailSummary implements TrailPointVisitor {
+    private final String trailId;
+    private long startTime;
+    // fim da sessão; 0 enquanto a trilha está sendo gravada
+    private long endTime;
+
+    private int pointCount;
+    private double distanceMeters;
+    private long firstPointTime;
+    private long lastPointTime;
+    private double firstLatitude;
+    private double firstLongitude;
+    private double lastLatitude;
+    private double lastLongitude;
+
+    private double minLatitude = Double.POSITIVE_INFINITY;
+    private double maxLatitude = Double.NEGATIVE_INFINITY;
+    private double minLongitude = Double.POSITIVE_INFINITY;
+    private double maxLongitude = Double.NEGATIVE_INFINITY;
+
+    public TrailSummary(String trailId, long startTime) {
+        this.trailId = trailId;
+        this.startTime = startTime;
+    }
+
+    // Recria um resumo lido do banco.
+    public TrailSummary(String trailId, long startTime, long endTime, int pointCount, double distanceMeters,
+                        long firstPointTime, long lastPointTime, double firstLatitude, double firstLongitude,
+                        double lastLatitude, double lastLongitude, double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        this.trailId = trailId;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.pointCount = pointCount;
+        this.distanceMeters = distanceMeters;
+        this.firstPointTime = firstPointTime;
+        this.lastPointTime = lastPointTime;
+        this.firstLatitude = firstLatitude;
+        this.firstLongitude = firstLongitude;
+        this.lastLatitude = lastLatitude;
+        this.lastLongitude = lastLongitude;
+        if (pointCount > 0) {
+            this.minLatitude = minLatitude;
+            this.maxLatitude = maxLatitude;
+            this.minLongitude = minLongitude;
+            this.maxLongitude = maxLongitude;
+        }
+    }
+
+    // Acrescenta o próximo ponto da trilha (em ordem cronológica).
+    @Override
+    public void onPoint(double latitude, double longitude, long timestamp) {
+        if (pointCount == 0) {
+            firstPointTime = timestamp;
+            firstLatitude = latitude;
+            firstLongitude = longitude;
+        } else {
+            distanceMeters += TrailStats.haversine(lastLatitude, lastLongitude, latitude, longitude);
+        }
+        if (latitude < minLatitude) minLatitude = latitude;
+        if (latitude > maxLatitude) maxLatitude = latitude;
+        if (longitude < minLongitude) minLongitude = longitude;
+        if (longitude > maxLongitude) maxLongitude = longitude;
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        lastPointTime = timestamp;
+        pointCount++;
+    }
+
+    // Acrescenta os primeiros "count" pontos dos arrays (um lote do TrailPointWriter).
+    public void addAll(double[] latitudes, double[] longitudes, long[] timestamps, int count) {
+        for (int i = 0; i < count; i++) {
+            onPoint(latitudes[i], longitudes[i], timestamps[i]);
+        }
+    }
+
+    public String getTrailId() {
+        return trailId;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(long endTime) {
+        this.endTime = endTime;
+    }
+
+    public boolean isFinished() {
+        return endTime != 0;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public double getDistanceMeters() {
+        return distanceMeters;
+    }
+
+    // tempo entre o primeiro e o último ponto, igual ao TrailStats
+    public long getDurationMillis() {
+        return pointCount > 0 ? lastPointTime - firstPointTime : 0;
+    }
+
+    public long getFirstPointTime() {
+        return firstPointTime;
+    }
+
+    public long getLastPointTime() {
+        return lastPointTime;
+    }
+
+    public double getFirstLatitude() {
+        return firstLatitude;
+    }
+
+    public double getFirstLongitude() {
+        return firstLongitude;
+    }
+
+    public double getLastLatitude() {
+        return lastLatitude;
+    }
+
+    public double getLastLongitude() {
+        return lastLongitude;
+    }
+
+    public double getMinLatitude() {
+        return minLatitude;
+    }
+
+    public double getMaxLatitude() {
+        return maxLatitude;
+    }
+
+    public double getMinLongitude() {
+        return minLongitude;
+    }
+
+    public double getMaxLongitude() {
+        return maxLongitude;
+    }
+}
@@ -0,0 +1,147 @@
+package mobile.com.raiasmanuca;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// Simula uma gravação com fixes a 10 Hz e quadros a 60 Hz: caminhada, uma parada com o GPS
+// oscilando e um trecho em que o usuário arrasta o mapa. Compara quantas vezes a câmera
+// seria movida pedido a pedido (como antes, um animateCamera por retrato) com o coalescedor,
+// e verifica que uma animação não é interrompida pela seguinte.
+public class CameraCoalescerTest {
+    private static final long FRAME_MILLIS = 16;
+    private static final long FIX_MILLIS = 100;
+    private static final float ZOOM = 17;
+
+    // Câmera falsa: guarda o início e a duração de cada animação.
+    private static class FakeCamera implements CameraCoalescer.Camera {
+        final List<long[]> animations = new ArrayList<>();
+        long now;
+
+        @Override
+        public void animateTo(double latitude, double longitude, float zoom, float bearing, long durationMillis) {
+            animations.add(new long[]{now, durationMillis});
+        }
+
+        // maior sobreposição entre o fim de uma animação e o início da seguinte
+        long maxOverlapMillis() {
+            long max = 0;
+            for (int i = 1; i < animations.size(); i++) {
+                long end = animations.get(i - 1)[0] + animations.get(i - 1)[1];
+                max = Math.max(max, end - animations.get(i)[0]);
+            }
+            return max;
+        }
+
+        int updatesBetween(long from, long to) {
+            int count = 0;
+            for (long[] animation : animations) {
+                if (animation[0] >= from && animation[0] < to) count++;
+            }
+            return count;
+        }
+    }
+
+    @Test
+    public void sessaoEmAltaFrequencia() {
+        FakeCamera camera = new FakeCamera();
+        CameraCoalescer coalescer = new CameraCoalescer(camera);
+        Random random = new Random(19);
+
+        // 0-120 s andando, 120-240 s parado (oscilação de ~0,5 m), 240-360 s andando;
+        // o usuário arrasta o mapa de 300 s a 310 s
+        long end = 360_000;
+        long interactionStart = 300_000;
+        long interactionEnd = 310_000;
+        double latitude = -23.5;
+        double longitude = -46.6;
+        double metersPerDegree = 111_320;
+        boolean frameRequested = false;
+        int naiveUpdates = 0;
+        int framesWithUpdate = 0;
+
+        for (long t = 0; t < end; t += FRAME_MILLIS) {
+            camera.now = t;
+            if (t == interactionStart) coalescer.onUserInteractionStarted();
+            if (t == interactionEnd) coalescer.onUserInteractionEnded(t);
+
+            // fixes que chegaram desde o quadro anterior
+            for (long fix = (t - FRAME_MILLIS) / FIX_MILLIS + 1; fix <= t / FIX_MILLIS && t > 0; fix++) {
+                long fixTime = fix * FIX_MILLIS;
+                boolean stopped = fixTime >= 120_000 && fixTime < 240_000;
+                if (!stopped) latitude += 1.4 * FIX_MILLIS / 1000 / metersPerDegree;
+                double jitter = stopped ? 0.5 / metersPerDegree : 0;
+                double lat = latitude + (random.nextDouble() - 0.5) * jitter;
+                double lng = longitude + (random.nextDouble() - 0.5) * jitter;
+                naiveUpdates++;
+                if (coalescer.request(lat, lng, ZOOM, Float.NaN)) frameRequested = true;
+            }
+
+            // o Choreographer só chama o coalescedor nos quadros pedidos
+            if (frameRequested) {
+                frameRequested = false;
+                if (coalescer.onFrame(t)) framesWithUpdate++;
+                if (coalescer.hasPending() && !coalescer.isPaused(t)) frameRequested = true;
+            }
+            // depois da pausa o app pede um quadro para o momento em que ela acaba
+            if (!coalescer.isPaused(t) && coalescer.hasPending()) frameRequested = true;
+        }
+
+        int updates = camera.animations.size();
+        TestReports.print(String.format(
+                "pedidos=%d atualizações(antes)=%d atualizações(coalescedor)=%d descartadas=%d sobreposição máx=%d ms",
+                coalescer.getRequestCount(), naiveUpdates, updates, coalescer.getSkippedCount(),
+                camera.maxOverlapMillis()));
+
+        // no máximo uma atualização por quadro, e menos que uma por pedido
+        assertEquals(updates, framesWithUpdate);
+        assertTrue(updates < naiveUpdates);
+        // parado, a oscilação do GPS fica abaixo do limite em pixels e a câmera não se move
+        assertTrue(camera.updatesBetween(121_000, 240_000) <= 1);
+        // nada enquanto o usuário mexe no mapa e durante o atraso de retomada
+        assertEquals(0, camera.updatesBetween(interactionStart,
+                interactionEnd + CameraCoalescer.DEFAULT_RESUME_DELAY_MILLIS));
+        assertTrue(camera.updatesBetween(interactionEnd + CameraCoalescer.DEFAULT_RESUME_DELAY_MILLIS, end) > 0);
+        // cada animação termina no máximo um quadro depois do início da seguinte
+        assertTrue(camera.maxOverlapMillis() <= FRAME_MILLIS);
+    }
+
+    @Test
+    public void pedidosNoMesmoQuadroViramUmaAtualizacao() {
+        FakeCamera camera = new FakeCamera();
+        CameraCoalescer coalescer = new CameraCoalescer(camera);
+
+        assertTrue(coalescer.request(-23.5, -46.6, ZOOM, Float.NaN));
+        // posição e direção chegam separadas, mas ainda não houve quadro
+        assertFalse(coalescer.request(-23.5, -46.6, ZOOM, 90));
+        assertFalse(coalescer.request(-23.501, -46.6, ZOOM, 95));
+        assertTrue(coalescer.onFrame(0));
+
+        assertEquals(1, camera.animations.size());
+        assertEquals(3, coalescer.getRequestCount());
+        assertFalse(coalescer.onFrame(FRAME_MILLIS));
+    }
+
+    @Test
+    public void mudancaDeDirecaoMoveACameraMesmoParado() {
+        FakeCamera camera = new FakeCamera();
+        CameraCoalescer coalescer = new CameraCoalescer(camera);
+
+        coalescer.request(-23.5, -46.6, ZOOM, 10);
+        coalescer.onFrame(0);
+        // 1 grau: abaixo do limite
+        coalescer.request(-23.5, -46.6, ZOOM, 11);
+        assertFalse(coalescer.onFrame(100));
+        // de 359 para 10 graus passa pelo norte: 11 graus, não 349
+        coalescer.request(-23.5, -46.6, ZOOM, 359);
+        assertTrue(coalescer.onFrame(200));
+        coalescer.request(-23.5, -46.6, ZOOM, 10);
+        assertTrue(coalescer.onFrame(300));
+        assertEquals(3, camera.animations.size());
+        assertEquals(1, coalescer.getSkippedCount());
+    }
+}
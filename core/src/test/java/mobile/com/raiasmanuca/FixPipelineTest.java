@@ -0,0 +1,188 @@
+package mobile.com.raiasmanuca;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// Reproduz trilhas sintéticas com ruído de GPS pelo pipeline e compara linhas gravadas e
+// distância com o caminho sem filtro (todo fix gravado e somado, como antes).
+public class FixPipelineTest {
+    private static final double METERS_PER_DEGREE = Math.PI * TrailStats.EARTH_RADIUS_METERS / 180;
+
+    // Fixes gerados a partir de um caminho conhecido.
+    private static class NoisyTrack {
+        final int count;
+        final double[] lats;
+        final double[] lngs;
+        final float[] accuracies;
+        final long[] times;
+        double trueDistance = 0;
+
+        NoisyTrack(int count) {
+            this.count = count;
+            lats = new double[count];
+            lngs = new double[count];
+            accuracies = new float[count];
+            times = new long[count];
+        }
+    }
+
+    // Resultado de uma reprodução.
+    private static class Replay {
+        int rows = 0;
+        double distance = 0;
+    }
+
+    @Test
+    public void portaoDePrecisao() {
+        AccuracyGate gate = new AccuracyGate(20);
+        Fix fix = new Fix();
+        assertTrue(gate.process(fix.set(0, 0, 5, 0)));
+        assertFalse(gate.process(fix.set(0, 0, 50, 1000)));
+        // sem precisão informada passa
+        assertTrue(gate.process(fix.set(0, 0, 0, 2000)));
+        assertEquals(2, gate.getAccepted());
+        assertEquals(1, gate.getRejected());
+    }
+
+    @Test
+    public void saltoImpossivelEDescartado() {
+        SpeedOutlierFilter filter = new SpeedOutlierFilter(50);
+        Fix fix = new Fix();
+        assertTrue(filter.process(fix.set(-23.5, -46.6, 5, 0)));
+        // 1 km em 1 s
+        assertFalse(filter.process(fix.set(-23.5 + 0.009, -46.6, 5, 1000)));
+        // o ponto de referência continua sendo o último aceito
+        assertTrue(filter.process(fix.set(-23.5 + 0.0001, -46.6, 5, 2000)));
+    }
+
+    @Test
+    public void deslocamentoMinimoComparaComOUltimoAceito() {
+        MinDisplacementFilter filter = new MinDisplacementFilter(5);
+        Fix fix = new Fix();
+        assertTrue(filter.process(fix.set(-23.5, -46.6, 5, 0)));
+        // 2 m, 4 m: descartados; 6 m do primeiro: aceito mesmo tendo andado só 2 m do anterior
+        assertFalse(filter.process(fix.set(-23.5 + 2 / METERS_PER_DEGREE, -46.6, 5, 1000)));
+        assertFalse(filter.process(fix.set(-23.5 + 4 / METERS_PER_DEGREE, -46.6, 5, 2000)));
+        assertTrue(filter.process(fix.set(-23.5 + 6 / METERS_PER_DEGREE, -46.6, 5, 3000)));
+        filter.reset();
+        assertTrue(filter.process(fix.set(-23.5 + 6 / METERS_PER_DEGREE, -46.6, 5, 4000)));
+    }
+
+    @Test
+    public void kalmanReduzORuidoEmLinhaReta() {
+        Random random = new Random(4);
+        KalmanSmoother smoother = new KalmanSmoother();
+        Fix fix = new Fix();
+        double rawError = 0;
+        double smoothError = 0;
+        int n = 600;
+        for (int i = 0; i < n; i++) {
+            // 1,5 m/s para o norte, ruído de 5 m
+            double trueLat = -23.5 + i * 1.5 / METERS_PER_DEGREE;
+            double noisyLat = trueLat + random.nextGaussian() * 5 / METERS_PER_DEGREE;
+            double noisyLng = -46.6 + random.nextGaussian() * 5 / (METERS_PER_DEGREE * Math.cos(Math.toRadians(-23.5)));
+            fix.set(noisyLat, noisyLng, 5, i * 1000L);
+            assertTrue(smoother.process(fix));
+            if (i >= 30) {
+                rawError += TrailStats.haversine(trueLat, -46.6, noisyLat, noisyLng);
+                smoothError += TrailStats.haversine(trueLat, -46.6, fix.latitude, fix.longitude);
+            }
+        }
+        assertTrue("erro suavizado " + smoothError + " vs bruto " + rawError, smoothError < rawError * 0.7);
+    }
+
+    // Relatório com uma trilha parada + caminhada + fixes ruins, com e sem suavização.
+    @Test
+    public void relatorioDeLinhasEDistancia() {
+        NoisyTrack track = noisyTrack(new Random(5));
+
+        Replay raw = replay(track, null);
+        FixPipeline plain = FixPipeline.createDefault(false);
+        Replay filtered = replay(track, plain);
+        FixPipeline smoothing = FixPipeline.createDefault(true);
+        Replay smoothed = replay(track, smoothing);
+
+        TestReports.print(String.format(Locale.US,
+                "distância real %.0f m | sem filtro: %d linhas, %.0f m | filtro: %d linhas, %.0f m"
+                        + " | filtro + Kalman: %d linhas, %.0f m\n  %s\n  %s",
+                track.trueDistance, raw.rows, raw.distance, filtered.rows, filtered.distance,
+                smoothed.rows, smoothed.distance, plain.describe(), smoothing.describe()));
+
+        // sem filtro, a oscilação parada e os saltos multiplicam a distância
+        assertTrue(raw.distance > track.trueDistance * 3);
+        // com o filtro, bem menos linhas e distância perto da real (sobra um pouco da deriva parada)
+        assertTrue(filtered.rows < raw.rows / 4);
+        assertEquals(track.trueDistance, filtered.distance, track.trueDistance * 0.25);
+        assertTrue(smoothed.rows < raw.rows / 4);
+        assertEquals(track.trueDistance, smoothed.distance, track.trueDistance * 0.25);
+        // os contadores batem
+        assertEquals(track.count, plain.getReceived());
+        assertEquals(filtered.rows, plain.getAccepted());
+    }
+
+    private static Replay replay(NoisyTrack track, FixPipeline pipeline) {
+        Replay replay = new Replay();
+        TrailStats stats = new TrailStats();
+        Fix fix = new Fix();
+        for (int i = 0; i < track.count; i++) {
+            fix.set(track.lats[i], track.lngs[i], track.accuracies[i], track.times[i]);
+            if (pipeline != null && !pipeline.process(fix)) continue;
+            replay.rows++;
+            stats.onPoint(fix.latitude, fix.longitude, fix.timeMillis);
+        }
+        replay.distance = stats.getDistanceMeters();
+        return replay;
+    }
+
+    // 15 min parado, 20 min de caminhada a 1,4 m/s e 10 min parado, um fix por segundo com
+    // ~4 m de ruído que deriva aos poucos (como o do GPS); 3% dos fixes têm precisão ruim e
+    // 0,5% são saltos de centenas de metros.
+    private static NoisyTrack noisyTrack(Random random) {
+        int[] durations = {900, 1200, 600};
+        double[] speeds = {0, 1.4, 0};
+        int total = 0;
+        for (int d : durations) total += d;
+
+        NoisyTrack track = new NoisyTrack(total);
+        double cosLat = Math.cos(Math.toRadians(-23.55));
+        double x = 0;
+        double y = 0;
+        double heading = 0;
+        double driftX = 0;
+        double driftY = 0;
+        int s = 0;
+        for (int phase = 0; phase < durations.length; phase++) {
+            for (int i = 0; i < durations[phase]; i++, s++) {
+                heading += (random.nextDouble() - 0.5) * 0.05;
+                x += Math.sin(heading) * speeds[phase];
+                y += Math.cos(heading) * speeds[phase];
+                track.trueDistance += speeds[phase];
+
+                // ruído AR(1): cada fix herda 98% do erro do anterior, desvio total ~4 m
+                driftX = driftX * 0.98 + random.nextGaussian() * 4 * Math.sqrt(1 - 0.98 * 0.98);
+                driftY = driftY * 0.98 + random.nextGaussian() * 4 * Math.sqrt(1 - 0.98 * 0.98);
+                double noiseX = driftX;
+                double noiseY = driftY;
+                float accuracy = 6;
+                double roll = random.nextDouble();
+                if (roll < 0.03) {
+                    // fix de rede: longe e com precisão ruim
+                    noiseX += random.nextGaussian() * 60;
+                    accuracy = 80;
+                } else if (roll < 0.035) {
+                    // salto com precisão "boa"
+                    noiseY += 300 + random.nextDouble() * 500;
+                }
+                track.lats[s] = -23.55 + (y + noiseY) / METERS_PER_DEGREE;
+                track.lngs[s] = -46.63 + (x + noiseX) / (METERS_PER_DEGREE * cosLat);
+                track.accuracies[s] = accuracy;
+                track.times[s] = s * 1000L;
+            }
+        }
+        return track;
+    }
+}
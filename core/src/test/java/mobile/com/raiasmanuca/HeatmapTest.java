@@ -0,0 +1,102 @@
+package mobile.com.raiasmanuca;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+// Ladrilhos do mapa de calor: o formato gravado no banco, a contagem dos pontos nos níveis
+// guardados e o desenho de um ladrilho do mapa a partir do nível guardado.
+public class HeatmapTest {
+    private static final double LATITUDE = -23.55;
+    private static final double LONGITUDE = -46.63;
+
+    @Test
+    public void codificaSoAsCelulasComPontos() {
+        HeatmapTile tile = new HeatmapTile();
+        tile.add(0, 1);
+        tile.add(17, 300);
+        tile.add(HeatmapTile.CELLS - 1, 70000);
+        tile.add(17, 2);
+
+        byte[] data = tile.encode();
+        // 3 células: distância e contagem em poucos bytes cada
+        assertTrue(data.length < 16);
+        HeatmapTile decoded = HeatmapTile.decode(data);
+        assertEquals(1, decoded.get(0));
+        assertEquals(302, decoded.get(17));
+        assertEquals(70000, decoded.get(HeatmapTile.CELLS - 1));
+        assertEquals(0, decoded.get(18));
+        assertEquals(70000, decoded.getMax());
+        assertEquals(0, HeatmapTile.decode(new HeatmapTile().encode()).getMax());
+    }
+
+    @Test
+    public void somaOsLadrilhos() {
+        HeatmapTile a = new HeatmapTile();
+        a.add(5, 2);
+        HeatmapTile b = new HeatmapTile();
+        b.add(5, 3);
+        b.add(6, 1);
+        a.addAll(b);
+        assertEquals(5, a.get(5));
+        assertEquals(1, a.get(6));
+        assertEquals(5, a.getMax());
+    }
+
+    @Test
+    public void contaOPontoEmTodosOsNiveis() {
+        HeatmapBinner binner = new HeatmapBinner();
+        binner.onPoint(LATITUDE, LONGITUDE, 0);
+        binner.onPoint(LATITUDE, LONGITUDE, 1000);
+
+        Map<Long, HeatmapTile> tiles = binner.getTiles();
+        assertEquals((HeatmapBinner.MAX_LEVEL - HeatmapBinner.MIN_LEVEL) / HeatmapBinner.LEVEL_STEP + 1, tiles.size());
+        for (int level = HeatmapBinner.MIN_LEVEL; level <= HeatmapBinner.MAX_LEVEL; level += HeatmapBinner.LEVEL_STEP) {
+            // o ladrilho é o mesmo do mapa, e a célula é a do nível 6 níveis abaixo
+            long key = HeatmapBinner.key(level, Quadkey.tileX(LONGITUDE, level), Quadkey.tileY(LATITUDE, level));
+            HeatmapTile tile = tiles.get(key);
+            assertNotNull(tile);
+            int cellX = Quadkey.tileX(LONGITUDE, level + 6) & (HeatmapTile.SIZE - 1);
+            int cellY = Quadkey.tileY(LATITUDE, level + 6) & (HeatmapTile.SIZE - 1);
+            assertEquals(2, tile.get(cellY * HeatmapTile.SIZE + cellX));
+            assertEquals(level, HeatmapBinner.levelOf(key));
+        }
+        assertEquals(2, binner.getPointCount());
+    }
+
+    @Test
+    public void nivelGuardadoDeCadaZoom() {
+        assertEquals(0, HeatmapBinner.storedLevel(0));
+        assertEquals(0, HeatmapBinner.storedLevel(1));
+        assertEquals(2, HeatmapBinner.storedLevel(2));
+        assertEquals(14, HeatmapBinner.storedLevel(15));
+        assertEquals(16, HeatmapBinner.storedLevel(16));
+        assertEquals(16, HeatmapBinner.storedLevel(21));
+    }
+
+    @Test
+    public void desenhaOLadrilhoEOsPedacosAmpliados() {
+        HeatmapTile stored = new HeatmapTile();
+        // célula (40, 10): no lado direito do ladrilho, em cima
+        stored.add(10 * HeatmapTile.SIZE + 40, 5);
+        int[] pixels = new int[HeatmapRenderer.TILE_PIXELS * HeatmapRenderer.TILE_PIXELS];
+
+        // mesmo zoom do nível: cada célula tem 4 x 4 pixels
+        assertTrue(HeatmapRenderer.render(stored, 14, 100, 200, 14, 5, pixels));
+        assertNotEquals(0, pixels[40 * HeatmapRenderer.TILE_PIXELS + 160]);
+        assertNotEquals(0, pixels[43 * HeatmapRenderer.TILE_PIXELS + 163]);
+        assertEquals(0, pixels[44 * HeatmapRenderer.TILE_PIXELS + 160]);
+        assertEquals(0, pixels[40 * HeatmapRenderer.TILE_PIXELS + 164]);
+
+        // um zoom acima: a célula fica no quarto de cima à direita (x ímpar, y par), com 8 x 8 pixels
+        assertFalse(HeatmapRenderer.render(stored, 14, 200, 400, 15, 5, pixels));
+        assertTrue(HeatmapRenderer.render(stored, 14, 201, 400, 15, 5, pixels));
+        // colunas de 8 * (40 - 32) = 64 a 71, linhas de 80 a 87
+        assertNotEquals(0, pixels[80 * HeatmapRenderer.TILE_PIXELS + 64]);
+        assertNotEquals(0, pixels[87 * HeatmapRenderer.TILE_PIXELS + 71]);
+        assertEquals(0, pixels[88 * HeatmapRenderer.TILE_PIXELS + 64]);
+        assertEquals(0, pixels[80 * HeatmapRenderer.TILE_PIXELS + 72]);
+    }
+}
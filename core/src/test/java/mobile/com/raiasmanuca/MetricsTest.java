@@ -0,0 +1,124 @@
+package mobile.com.raiasmanuca;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// Testes dos baldes, dos percentis e do registro desligado das métricas.
+public class MetricsTest {
+
+    @Before
+    public void setUp() {
+        Metrics.setEnabled(true);
+        Metrics.reset();
+    }
+
+    @After
+    public void tearDown() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    @Test
+    public void baldesCobremTodosOsValores() {
+        // cada valor cai num balde cujos limites o contêm
+        Random random = new Random(16);
+        for (int i = 0; i < 100000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            int bucket = Metrics.bucketIndex(value);
+            assertTrue(bucket >= 0 && bucket < Metrics.BUCKET_COUNT);
+            assertTrue(value >= Metrics.bucketLowerBound(bucket));
+            assertTrue(value <= Metrics.bucketUpperBound(bucket));
+        }
+        // baldes vizinhos são contínuos
+        for (int bucket = 0; bucket < Metrics.bucketIndex(Long.MAX_VALUE); bucket++) {
+            assertEquals(Metrics.bucketUpperBound(bucket) + 1, Metrics.bucketLowerBound(bucket + 1));
+        }
+    }
+
+    @Test
+    public void percentisAproximados() {
+        Metrics.Histogram histogram = Metrics.histogram("teste.percentis");
+        for (int value = 1; value <= 10000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000, histogram.getMax());
+        assertEquals(5000.5, histogram.getMean(), 1e-9);
+        // erro máximo do balde: ~20%
+        assertEquals(5000, histogram.percentile(50), 1000);
+        assertEquals(9500, histogram.percentile(95), 1900);
+        assertTrue(histogram.percentile(99) <= histogram.getMax());
+    }
+
+    @Test
+    public void desligadoNaoRegistra() {
+        Metrics.Counter counter = Metrics.counter("teste.desligado");
+        Metrics.Timer timer = Metrics.timer("teste.desligado.timer");
+        Metrics.setEnabled(false);
+        assertEquals(0, Metrics.start());
+        counter.add(10);
+        timer.stop(Metrics.start());
+        timer.record(5);
+        assertEquals(0, counter.getCount());
+        assertEquals(0, timer.getCount());
+
+        Metrics.setEnabled(true);
+        long t0 = Metrics.start();
+        assertTrue(t0 != 0);
+        timer.stop(t0);
+        counter.increment();
+        assertEquals(1, timer.getCount());
+        assertEquals(1, counter.getCount());
+    }
+
+    @Test
+    public void mesmoNomeMesmaMetrica() {
+        assertSame(Metrics.counter("teste.nome"), Metrics.counter("teste.nome"));
+        assertSame(Metrics.timer("teste.nome.timer"), Metrics.timer("teste.nome.timer"));
+        try {
+            Metrics.histogram("teste.nome.timer");
+            fail("um nome não pode ser de dois tipos");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void registroConcorrente() throws InterruptedException {
+        final Metrics.Counter counter = Metrics.counter("teste.concorrente");
+        final Metrics.Histogram histogram = Metrics.histogram("teste.concorrente.histograma");
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 50000; i++) {
+                    counter.increment();
+                    histogram.record(i + offset);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(200000, counter.getCount());
+        assertEquals(200000, histogram.getCount());
+        assertEquals(49999 + 3, histogram.getMax());
+    }
+
+    @Test
+    public void dumpTemTodasAsMetricas() {
+        Metrics.counter("teste.dump.pontos").add(42);
+        Metrics.timer("teste.dump.tempo").record(2_000_000);
+        String dump = Metrics.dumpToString();
+        assertTrue(dump.contains("teste.dump.pontos 42"));
+        assertTrue(dump.contains("teste.dump.tempo n=1"));
+        assertTrue(dump.contains("ms"));
+
+        Metrics.reset();
+        assertEquals(0, Metrics.counter("teste.dump.pontos").getCount());
+        assertEquals(0, Metrics.timer("teste.dump.tempo").getCount());
+    }
+}
@@ -0,0 +1,371 @@
+package mobile.com.raiasmanuca;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+// Testes do diário de pontos, com injeção de falhas: o arquivo é cortado em posições
+// aleatórias e tem bytes corrompidos, como aconteceria se o processo morresse no meio de
+// uma escrita. A recuperação tem que devolver exatamente os registros completos e válidos.
+public class PointJournalTest {
+    private static final String TRAIL_A = UUID.randomUUID().toString();
+    private static final String TRAIL_B = UUID.randomUUID().toString();
+
+    private File dir;
+    private File file;
+
+    // registro recuperado
+    private static class Record {
+        final long sequence;
+        final String trailId;
+        final double latitude;
+        final double longitude;
+        final long timestamp;
+
+        Record(long sequence, String trailId, double latitude, double longitude, long timestamp) {
+            this.sequence = sequence;
+            this.trailId = trailId;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.timestamp = timestamp;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("journal").toFile();
+        file = new File(dir, "points.journal");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void recuperaSoOQueNaoFoiConfirmado() throws IOException {
+        PointJournal journal = PointJournal.open(file, 0);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i + 1, journal.append(i % 2 == 0 ? TRAIL_A : TRAIL_B, lat(i), lng(i), i * 1000L));
+        }
+        journal.close();
+
+        List<Record> all = recover(file, 0);
+        assertEquals(1000, all.size());
+        for (int i = 0; i < 1000; i++) {
+            Record r = all.get(i);
+            assertEquals(i + 1, r.sequence);
+            assertEquals(i % 2 == 0 ? TRAIL_A : TRAIL_B, r.trailId);
+            assertEquals(lat(i), r.latitude, 0);
+            assertEquals(lng(i), r.longitude, 0);
+            assertEquals(i * 1000L, r.timestamp);
+        }
+        // o banco já tem até a sequência 400
+        List<Record> pending = recover(file, 400);
+        assertEquals(600, pending.size());
+        assertEquals(401, pending.get(0).sequence);
+    }
+
+    @Test
+    public void arquivoCortadoDevolvePrefixoExato() throws IOException {
+        int n = 500;
+        writeRecords(n);
+        byte[] original = Files.readAllBytes(file.toPath());
+        Random random = new Random(12);
+
+        for (int round = 0; round < 300; round++) {
+            int cut = random.nextInt(n * PointJournal.RECORD_SIZE + 1);
+            File truncated = new File(dir, "cut.journal");
+            try (RandomAccessFile out = new RandomAccessFile(truncated, "rw")) {
+                out.setLength(0);
+                out.write(original, 0, cut);
+            }
+            List<Record> records = recover(truncated, 0);
+            // só os registros inteiros antes do corte, na ordem
+            assertEquals("corte em " + cut, cut / PointJournal.RECORD_SIZE, records.size());
+            for (int i = 0; i < records.size(); i++) {
+                assertEquals(i + 1, records.get(i).sequence);
+                assertEquals(lat(i), records.get(i).latitude, 0);
+            }
+        }
+    }
+
+    @Test
+    public void byteCorrompidoParaARecuperacao() throws IOException {
+        int n = 500;
+        writeRecords(n);
+        byte[] original = Files.readAllBytes(file.toPath());
+        Random random = new Random(13);
+
+        for (int round = 0; round < 300; round++) {
+            int offset = random.nextInt(n * PointJournal.RECORD_SIZE);
+            byte[] damaged = original.clone();
+            damaged[offset] ^= (byte) (1 << random.nextInt(8));
+            File corrupted = new File(dir, "bad.journal");
+            Files.write(corrupted.toPath(), damaged);
+
+            List<Record> records = recover(corrupted, 0);
+            // nada do registro corrompido (nem depois dele) é aceito
+            assertEquals("byte " + offset, offset / PointJournal.RECORD_SIZE, records.size());
+        }
+    }
+
+    @Test
+    public void voltaAoInicioQuandoTudoFoiConfirmado() throws IOException {
+        PointJournal journal = PointJournal.open(file, 0);
+        for (int i = 0; i < 100; i++) {
+            journal.append(TRAIL_A, lat(i), lng(i), i);
+        }
+        journal.markCommitted(60);
+        // ainda há pontos pendentes: continua escrevendo no fim
+        assertEquals(100 * PointJournal.RECORD_SIZE, journal.getPosition());
+        journal.markCommitted(100);
+        assertEquals(0, journal.getPosition());
+
+        // os novos registros sobrescrevem o começo; os antigos que sobram depois deles têm
+        // sequência menor e não são recuperados
+        for (int i = 0; i < 10; i++) {
+            assertEquals(101 + i, journal.append(TRAIL_B, lat(i), lng(i), i));
+        }
+        journal.close();
+        List<Record> records = recover(file, 100);
+        assertEquals(10, records.size());
+        assertEquals(TRAIL_B, records.get(0).trailId);
+        assertEquals(110, records.get(9).sequence);
+    }
+
+    @Test
+    public void sequenciaContinuaDepoisDaGravadaNoBanco() throws IOException {
+        writeRecords(20);
+        // o arquivo tem até 20, mas o banco já registrou 50 (o diário pode ter sido apagado)
+        PointJournal journal = PointJournal.open(file, 50);
+        assertEquals(51, journal.append(TRAIL_A, 0, 0, 0));
+        journal.close();
+
+        // e o arquivo com sequência maior que a do banco também é respeitado
+        journal = PointJournal.open(file, 10);
+        assertEquals(52, journal.append(TRAIL_A, 0, 0, 0));
+        assertTrue(PointJournal.isOpen(file));
+        journal.close();
+        assertFalse(PointJournal.isOpen(file));
+    }
+
+    @Test
+    public void cresceAlemDoMapeamentoInicial() throws IOException {
+        int n = PointJournal.INITIAL_CAPACITY / PointJournal.RECORD_SIZE * 3;
+        writeRecords(n);
+        assertEquals(n, recover(file, 0).size());
+    }
+
+    // Simula a morte do processo: o gravador nunca consegue gravar no banco, e os pontos
+    // aceitos têm que estar todos no diário.
+    @Test
+    public void pontosNaoGravadosSobrevivemAoKill() throws IOException {
+        PointJournal journal = PointJournal.open(file, 0);
+        TrailPointWriter writer = new TrailPointWriter((trailId, lats, lngs, ts, count) -> {
+            throw new RuntimeException("processo morto antes do commit");
+        }, TRAIL_A, journal, 4096, 512, 60000);
+        for (int i = 0; i < 700; i++) {
+            writer.add(lat(i), lng(i), i);
+        }
+        writer.close();
+        journal.close();
+
+        List<Record> records = recover(file, 0);
+        assertEquals(700, records.size());
+        assertEquals(699, records.get(699).timestamp);
+    }
+
+    @Test
+    public void loteGravadoConfirmaASequencia() throws IOException {
+        PointJournal journal = PointJournal.open(file, 0);
+        final long[] committed = {0};
+        TrailPointWriter writer = new TrailPointWriter(new TrailPointWriter.Sink() {
+            @Override
+            public void writeBatch(String trailId, double[] latitudes, double[] longitudes, long[] timestamps, int count) {
+                fail("com diário o lote deve trazer a sequência");
+            }
+
+            @Override
+            public void writeBatch(String trailId, double[] latitudes, double[] longitudes, long[] timestamps,
+                                   int count, long journalSequence) {
+                committed[0] = journalSequence;
+            }
+        }, TRAIL_A, journal, 4096, 512, 60000);
+        double[] lats = new double[300];
+        double[] lngs = new double[300];
+        long[] ts = new long[300];
+        for (int i = 0; i < 300; i++) {
+            lats[i] = lat(i);
+            lngs[i] = lng(i);
+            ts[i] = i;
+        }
+        writer.addAll(lats, lngs, ts, 300);
+        writer.flush();
+        assertEquals(300, committed[0]);
+        // tudo confirmado: o diário voltou ao início
+        assertEquals(0, journal.getPosition());
+        writer.close();
+        journal.close();
+    }
+
+    // Sink com diário que guarda os horários gravados e a sequência confirmada, e falha nas
+    // chamadas escolhidas (como um "database is locked" durante a gravação).
+    private static class FlakySink implements TrailPointWriter.Sink {
+        final List<Long> stored = new ArrayList<>();
+        long committed = 0;
+        int calls = 0;
+        final int failFrom;
+        final int failUntil;
+
+        // falha nas chamadas de número failFrom até failUntil - 1 (contando do 0)
+        FlakySink(int failFrom, int failUntil) {
+            this.failFrom = failFrom;
+            this.failUntil = failUntil;
+        }
+
+        @Override
+        public void writeBatch(String trailId, double[] latitudes, double[] longitudes, long[] timestamps, int count) {
+            fail("com diário o lote deve trazer a sequência");
+        }
+
+        @Override
+        public void writeBatch(String trailId, double[] latitudes, double[] longitudes, long[] timestamps,
+                               int count, long journalSequence) {
+            int call = calls++;
+            if (call >= failFrom && call < failUntil) throw new RuntimeException("database is locked");
+            for (int i = 0; i < count; i++) {
+                stored.add(timestamps[i]);
+            }
+            committed = journalSequence;
+        }
+    }
+
+    // Um lote que falhou é gravado de novo antes dos seguintes, que antes passavam na frente
+    // e confirmavam no diário uma sequência além dos pontos perdidos.
+    @Test
+    public void loteComErroEGravadoAntesDosSeguintes() throws IOException {
+        PointJournal journal = PointJournal.open(file, 0);
+        FlakySink sink = new FlakySink(0, 1);
+        TrailPointWriter writer = new TrailPointWriter(sink, TRAIL_A, journal, 4096, 512, 60000);
+        final List<Exception> errors = new ArrayList<>();
+        writer.setErrorListener((message, e) -> errors.add(e));
+        for (int i = 0; i < 100; i++) {
+            writer.add(lat(i), lng(i), i);
+        }
+        // o primeiro lote falha; flush volta na falha
+        writer.flush();
+        for (int i = 100; i < 200; i++) {
+            writer.add(lat(i), lng(i), i);
+        }
+        writer.flush();
+        writer.close();
+        journal.close();
+
+        assertEquals(1, writer.getFailedBatches());
+        // o erro chega ao listener, em vez de só ir para o stderr
+        assertEquals(1, errors.size());
+        assertEquals(200, sink.stored.size());
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i, (long) sink.stored.get(i));
+        }
+        assertEquals(200, sink.committed);
+        assertTrue(recover(file, sink.committed).isEmpty());
+    }
+
+    // Se o banco continua com erro até o fechamento, o gravador desiste sem confirmar nada além
+    // do que foi gravado: o banco e a recuperação do diário juntos têm todos os pontos, uma vez.
+    @Test
+    public void bancoComErroNoFimDeixaOsPontosNoDiario() throws IOException {
+        PointJournal journal = PointJournal.open(file, 0);
+        FlakySink sink = new FlakySink(1, Integer.MAX_VALUE);
+        TrailPointWriter writer = new TrailPointWriter(sink, TRAIL_A, journal, 4096, 512, 60000);
+        for (int i = 0; i < 100; i++) {
+            writer.add(lat(i), lng(i), i);
+        }
+        writer.flush();
+        for (int i = 100; i < 300; i++) {
+            writer.add(lat(i), lng(i), i);
+        }
+        writer.close();
+        journal.close();
+
+        List<Long> all = new ArrayList<>(sink.stored);
+        for (Record record : recover(file, sink.committed)) {
+            all.add(record.timestamp);
+        }
+        assertEquals(300, all.size());
+        for (int i = 0; i < 300; i++) {
+            assertEquals(i, (long) all.get(i));
+        }
+    }
+
+    // Com o banco sempre com erro e o gravador ainda aberto, ele desiste depois de MAX_ATTEMPTS
+    // tentativas e só esvazia o buffer: addAll não fica preso e todos os pontos ficam no diário.
+    @Test(timeout = 20000)
+    public void bancoSempreComErroDeixaTudoNoDiarioSemTravar() throws IOException {
+        PointJournal journal = PointJournal.open(file, 0);
+        FlakySink sink = new FlakySink(0, Integer.MAX_VALUE);
+        TrailPointWriter writer = new TrailPointWriter(sink, TRAIL_A, journal, 64, 16, 50);
+        double[] lats = new double[16];
+        double[] lngs = new double[16];
+        long[] times = new long[16];
+        for (int delivery = 0; delivery < 50; delivery++) {
+            for (int i = 0; i < 16; i++) {
+                lats[i] = lat(delivery * 16 + i);
+                lngs[i] = lng(delivery * 16 + i);
+                times[i] = delivery * 16 + i;
+            }
+            writer.addAll(lats, lngs, times, 16);
+        }
+        writer.close();
+        journal.close();
+
+        assertEquals(TrailPointWriter.MAX_ATTEMPTS, sink.calls);
+        assertEquals(0, writer.getDroppedPoints());
+        assertTrue(sink.stored.isEmpty());
+        List<Record> records = recover(file, 0);
+        assertEquals(50 * 16, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(i, records.get(i).timestamp);
+        }
+    }
+
+    private void writeRecords(int n) throws IOException {
+        PointJournal journal = PointJournal.open(file, 0);
+        for (int i = 0; i < n; i++) {
+            journal.append(TRAIL_A, lat(i), lng(i), i);
+        }
+        journal.close();
+    }
+
+    private static List<Record> recover(File file, long after) throws IOException {
+        final List<Record> records = new ArrayList<>();
+        PointJournal.recover(file, after, (sequence, trailId, latitude, longitude, timestamp) ->
+                records.add(new Record(sequence, trailId, latitude, longitude, timestamp)));
+        return records;
+    }
+
+    private static double lat(int i) {
+        return -23.5 + i * 1e-5;
+    }
+
+    private static double lng(int i) {
+        return -46.6 - i * 1e-5;
+    }
+}
@@ -0,0 +1,176 @@
+package mobile.com.raiasmanuca;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+// Testes das células quadkey, da cobertura de áreas e do índice de células por trilha.
+// O índice é simulado em memória como a tabela trail_cells: pares (célula, trilha) ordenados.
+public class QuadkeyTest {
+
+    @Test
+    public void celulasConhecidas() {
+        // o ladrilho de nível 1 que contém São Paulo é o de baixo à esquerda (quadkey "2")
+        assertEquals("2", Quadkey.toString(Quadkey.interleave(Quadkey.tileX(-46.6, 1), Quadkey.tileY(-23.5, 1)), 1));
+        assertEquals(0, Quadkey.tileX(-180, 5));
+        assertEquals(31, Quadkey.tileX(180, 5));
+        assertEquals(0, Quadkey.tileY(89, 5));
+        assertEquals(31, Quadkey.tileY(-89, 5));
+        // o quadkey de um ladrilho é prefixo do quadkey das células dentro dele
+        long cell = Quadkey.cellAt(-23.55, -46.63);
+        String key = Quadkey.toString(cell, Quadkey.INDEX_LEVEL);
+        long parent = Quadkey.interleave(Quadkey.tileX(-46.63, 10), Quadkey.tileY(-23.55, 10));
+        assertTrue(key.startsWith(Quadkey.toString(parent, 10)));
+    }
+
+    @Test
+    public void coberturaContemTodosOsPontosDaArea() {
+        Random random = new Random(40);
+        long[] ranges = new long[Quadkey.MAX_RANGE_VALUES];
+        for (int round = 0; round < 500; round++) {
+            double south = -60 + random.nextDouble() * 120;
+            double west = -179 + random.nextDouble() * 350;
+            // de alguns metros até dezenas de graus
+            double size = Math.pow(10, -3 + random.nextDouble() * 4);
+            double north = Math.min(85, south + size);
+            double east = Math.min(180, west + size * 1.5);
+            int count = Quadkey.cover(south, west, north, east, ranges);
+            assertTrue(count > 0 && count <= 2 * Quadkey.MAX_COVER_CELLS);
+            for (int i = 1; i < count; i++) {
+                assertTrue("intervalos fora de ordem", ranges[i * 2] > ranges[i * 2 - 1] + 1);
+            }
+            for (int k = 0; k < 50; k++) {
+                double lat = south + random.nextDouble() * (north - south);
+                double lng = west + random.nextDouble() * (east - west);
+                assertTrue(inRanges(Quadkey.cellAt(lat, lng), ranges, count));
+            }
+        }
+    }
+
+    @Test
+    public void coberturaAtravessaOAntimeridiano() {
+        long[] ranges = new long[Quadkey.MAX_RANGE_VALUES];
+        int count = Quadkey.cover(-18, 179.5, -17, -179.5, ranges);
+        assertTrue(inRanges(Quadkey.cellAt(-17.5, 179.9), ranges, count));
+        assertTrue(inRanges(Quadkey.cellAt(-17.5, -179.9), ranges, count));
+        assertFalse(inRanges(Quadkey.cellAt(-17.5, 0), ranges, count));
+    }
+
+    @Test
+    public void saltoLongoMarcaAsCelulasDoCaminho() {
+        TrailCellIndexer indexer = new TrailCellIndexer();
+        // dois pontos a ~20 km um do outro, sem nenhum ponto no meio
+        indexer.onPoint(-23.5, -46.8, 0);
+        indexer.onPoint(-23.5, -46.6, 1);
+        long[] cells = new long[indexer.pendingCount()];
+        int count = indexer.drain(cells);
+        long middle = Quadkey.cellAt(-23.5, -46.7);
+        assertTrue(Arrays.binarySearch(cells, 0, count, middle) >= 0);
+    }
+
+    @Test
+    public void continuaAPartirDoUltimoPontoGravado() {
+        TrailCellIndexer indexer = new TrailCellIndexer();
+        indexer.continueFrom(-23.5, -46.6);
+        // mesmo lugar: nenhuma célula nova
+        indexer.onPoint(-23.5, -46.6, 0);
+        assertEquals(0, indexer.pendingCount());
+        indexer.onPoint(-23.5, -46.5, 1);
+        assertTrue(indexer.pendingCount() > 0);
+    }
+
+    // Compara o índice com a varredura de todos os pontos em áreas aleatórias: o índice não
+    // pode deixar de fora nenhuma trilha que tenha ponto na área, e o tempo é medido.
+    @Test
+    public void indiceEncontraTodasAsTrilhasDaArea() {
+        int trails = 200;
+        int pointsPerTrail = 5000;
+        Random random = new Random(41);
+        double[][] lats = new double[trails][pointsPerTrail];
+        double[][] lngs = new double[trails][pointsPerTrail];
+        // índice em memória: célula * trails + trilha, ordenado (como a chave (cell, trail_id))
+        long[] index = new long[0];
+        int indexSize = 0;
+        long[] buffer = new long[1024];
+        for (int t = 0; t < trails; t++) {
+            // trilhas espalhadas numa região de ~50 km
+            double lat = -23.8 + random.nextDouble() * 0.5;
+            double lng = -46.9 + random.nextDouble() * 0.5;
+            double heading = random.nextDouble() * 2 * Math.PI;
+            TrailCellIndexer indexer = new TrailCellIndexer();
+            for (int i = 0; i < pointsPerTrail; i++) {
+                heading += (random.nextDouble() - 0.5) * 0.3;
+                lat += Math.cos(heading) * 3e-5;
+                lng += Math.sin(heading) * 3e-5;
+                lats[t][i] = lat;
+                lngs[t][i] = lng;
+                indexer.onPoint(lat, lng, i);
+            }
+            if (buffer.length < indexer.pendingCount()) buffer = new long[indexer.pendingCount()];
+            int count = indexer.drain(buffer);
+            if (index.length < indexSize + count) index = Arrays.copyOf(index, (indexSize + count) * 2);
+            for (int i = 0; i < count; i++) index[indexSize++] = buffer[i] * trails + t;
+        }
+        Arrays.sort(index, 0, indexSize);
+
+        long[] ranges = new long[Quadkey.MAX_RANGE_VALUES];
+        long indexNanos = 0;
+        long scanNanos = 0;
+        int queries = 200;
+        long found = 0;
+        for (int q = 0; q < queries; q++) {
+            // área de uma tela de mapa em zoom de bairro/cidade (~0,5 a 5 km)
+            double south = -23.8 + random.nextDouble() * 0.5;
+            double west = -46.9 + random.nextDouble() * 0.5;
+            double size = 0.005 + random.nextDouble() * 0.045;
+            double north = south + size;
+            double east = west + size;
+
+            long t0 = System.nanoTime();
+            int count = Quadkey.cover(south, west, north, east, ranges);
+            Set<Integer> candidates = new HashSet<>();
+            for (int r = 0; r < count; r++) {
+                int pos = Arrays.binarySearch(index, 0, indexSize, ranges[r * 2] * trails);
+                if (pos < 0) pos = -pos - 1;
+                long end = (ranges[r * 2 + 1] + 1) * trails;
+                for (; pos < indexSize && index[pos] < end; pos++) {
+                    candidates.add((int) (index[pos] % trails));
+                }
+            }
+            indexNanos += System.nanoTime() - t0;
+
+            t0 = System.nanoTime();
+            List<Integer> inArea = new ArrayList<>();
+            for (int t = 0; t < trails; t++) {
+                for (int i = 0; i < pointsPerTrail; i++) {
+                    if (lats[t][i] >= south && lats[t][i] <= north && lngs[t][i] >= west && lngs[t][i] <= east) {
+                        inArea.add(t);
+                        break;
+                    }
+                }
+            }
+            scanNanos += System.nanoTime() - t0;
+
+            assertTrue("trilha fora do índice", candidates.containsAll(inArea));
+            found += inArea.size();
+        }
+        TestReports.print(String.format(Locale.US,
+                "%d trilhas x %d pontos, %d áreas (%d trilhas encontradas): índice %.3f ms/consulta, varredura %.3f ms/consulta",
+                trails, pointsPerTrail, queries, found, indexNanos / 1e6 / queries, scanNanos / 1e6 / queries));
+    }
+
+    private static boolean inRanges(long cell, long[] ranges, int count) {
+        for (int i = 0; i < count; i++) {
+            if (cell >= ranges[i * 2] && cell <= ranges[i * 2 + 1]) return true;
+        }
+        return false;
+    }
+}
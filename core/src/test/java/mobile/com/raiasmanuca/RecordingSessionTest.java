@@ -0,0 +1,167 @@
+package mobile.com.raiasmanuca;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+// Entrega de fixes em lote: um provedor falso entrega os fixes de uma hora de gravação, um
+// por entrega ou juntos (setMaxWaitTime), e a sessão precisa gravar todos, em ordem.
+public class RecordingSessionTest {
+    private static final long HOUR_MILLIS = 3600_000;
+
+    // Sink que guarda os horários gravados e o tamanho de cada transação.
+    private static class RecordingSink implements TrailPointWriter.Sink {
+        final List<Long> timestamps = new ArrayList<>();
+        final List<Integer> transactions = new ArrayList<>();
+
+        @Override
+        public synchronized void writeBatch(String trailId, double[] latitudes, double[] longitudes,
+                                            long[] timestamps, int count) {
+            for (int i = 0; i < count; i++) {
+                this.timestamps.add(timestamps[i]);
+            }
+            transactions.add(count);
+        }
+    }
+
+    // Provedor falso: mede um fix a cada intervalo e entrega conforme o modo.
+    // Sem lote, às vezes (a cada 50 fixes) entrega dois fixes juntos, como acontece quando o
+    // aparelho sai do modo de economia; o código antigo (getLastLocation) perdia o primeiro.
+    private static class FakeProvider {
+        final long intervalMillis;
+        final long maxWaitMillis;
+        int callbacks = 0;
+        int fixes = 0;
+        int lostByLastLocationOnly = 0;
+
+        FakeProvider(long intervalMillis, long maxWaitMillis) {
+            this.intervalMillis = intervalMillis;
+            this.maxWaitMillis = maxWaitMillis;
+        }
+
+        void run(long durationMillis, RecordingSession session) {
+            FixBatch pending = new FixBatch();
+            long lastDelivery = 0;
+            for (long t = 0; t < durationMillis; t += intervalMillis) {
+                pending.add(-23.5 + fixes * 4.5e-5, -46.6, 5, t, 1_700_000_000_000L + t);
+                fixes++;
+                boolean deliver = maxWaitMillis > 0
+                        ? t + intervalMillis - lastDelivery > maxWaitMillis
+                        : fixes % 50 != 0;
+                if (deliver) {
+                    deliver(pending, session);
+                    lastDelivery = t;
+                }
+            }
+            if (pending.size() > 0) deliver(pending, session);
+        }
+
+        private void deliver(FixBatch pending, RecordingSession session) {
+            callbacks++;
+            lostByLastLocationOnly += pending.size() - 1;
+            session.onFixes(pending);
+            pending.clear();
+        }
+    }
+
+    @Test
+    public void nenhumFixPerdidoEmLote() {
+        for (long maxWait : new long[]{0, SamplingPolicy.BATCH_MAX_WAIT_MILLIS}) {
+            RecordingSink sink = new RecordingSink();
+            TrailPointWriter writer = new TrailPointWriter(sink, "trilha");
+            // pipeline sem estágios: todo fix entregue precisa chegar ao banco
+            RecordingSession session = new RecordingSession(new SamplingPolicy(), new FixPipeline(), writer);
+            FakeProvider provider = new FakeProvider(5000, maxWait);
+            provider.run(HOUR_MILLIS, session);
+            writer.close();
+
+            assertEquals(720, provider.fixes);
+            assertEquals(provider.fixes, session.getFixesReceived());
+            assertEquals(provider.callbacks, session.getDeliveries());
+            assertEquals(provider.fixes, sink.timestamps.size());
+            for (int i = 0; i < provider.fixes; i++) {
+                assertEquals(1_700_000_000_000L + i * 5000L, (long) sink.timestamps.get(i));
+            }
+            assertEquals(provider.fixes, session.getStats().getPointCount());
+            // as entregas se juntam em lotes: cada transação, fora a do fechamento, tem um lote completo
+            assertTrue(sink.transactions.size() <= provider.fixes / TrailPointWriter.DEFAULT_BATCH_SIZE + 1);
+            // o caminho antigo (só getLastLocation) teria perdido fixes nos dois modos
+            assertTrue(provider.lostByLastLocationOnly > 0);
+        }
+    }
+
+    // Um fix por entrega (o modo normal) não pode virar uma transação por entrega: as entregas
+    // se acumulam no buffer até completar um lote.
+    @Test
+    public void entregasDeUmFixSeJuntamEmLotes() {
+        int batchSize = 512;
+        int deliveries = 2000;
+        RecordingSink sink = new RecordingSink();
+        TrailPointWriter writer = new TrailPointWriter(sink, "trilha", 4096, batchSize, 60000);
+        RecordingSession session = new RecordingSession(new SamplingPolicy(), new FixPipeline(), writer);
+        FixBatch batch = new FixBatch(1);
+        for (int i = 0; i < deliveries; i++) {
+            batch.add(-23.5 + i * 4.5e-5, -46.6, 5, i * 1000L, 1_700_000_000_000L + i * 1000L);
+            session.onFixes(batch);
+            batch.clear();
+        }
+        writer.close();
+
+        assertEquals(deliveries, session.getDeliveries());
+        assertEquals(deliveries, sink.timestamps.size());
+        // cerca de deliveries / batchSize transações (3 lotes completos e o resto no fechamento,
+        // ou menos, se a thread de fundo pegar mais de um lote de uma vez)
+        assertTrue(sink.transactions.size() <= deliveries / batchSize + 1);
+        for (int i = 0; i < sink.transactions.size() - 1; i++) {
+            assertTrue(sink.transactions.get(i) >= batchSize);
+        }
+    }
+
+    @Test
+    public void fixesFiltradosNaoVaoParaOBanco() {
+        RecordingSink sink = new RecordingSink();
+        TrailPointWriter writer = new TrailPointWriter(sink, "trilha");
+        RecordingSession session = new RecordingSession(new SamplingPolicy(), new FixPipeline(new AccuracyGate(20)), writer);
+
+        FixBatch batch = new FixBatch(2);
+        batch.add(-23.5, -46.6, 5, 0, 1000);
+        batch.add(-23.5, -46.6, 90, 1000, 2000);
+        batch.add(-23.5001, -46.6, 5, 2000, 3000);
+        session.onFixes(batch);
+        writer.close();
+
+        assertEquals(2, session.getAccepted().size());
+        assertEquals(3000, session.getAccepted().getTimestamp(1));
+        assertEquals(2, sink.timestamps.size());
+        assertEquals(1, sink.transactions.size());
+    }
+
+    // Entregas (e portanto vezes que o app acorda para o callback) por hora em cada modo.
+    @Test
+    public void relatorioDeEntregasPorHora() {
+        StringBuilder report = new StringBuilder("entregas por hora:");
+        for (SamplingPolicy.Bucket bucket : SamplingPolicy.Bucket.values()) {
+            long wait = Math.max(SamplingPolicy.BATCH_MAX_WAIT_MILLIS, bucket.intervalMillis * 2);
+            int[] callbacks = new int[2];
+            long[] maxWaits = {0, wait};
+            for (int mode = 0; mode < 2; mode++) {
+                TrailPointWriter writer = new TrailPointWriter(new RecordingSink(), "trilha");
+                RecordingSession session = new RecordingSession(new SamplingPolicy(), new FixPipeline(), writer);
+                FakeProvider provider = new FakeProvider(bucket.intervalMillis, maxWaits[mode]);
+                provider.run(HOUR_MILLIS, session);
+                writer.close();
+                callbacks[mode] = provider.callbacks;
+            }
+            report.append(String.format(Locale.US, " | %s (%d s): %d um a um, %d em lote",
+                    bucket, bucket.intervalMillis / 1000, callbacks[0], callbacks[1]));
+            assertTrue(callbacks[1] < callbacks[0]);
+            // no máximo uma entrega por minuto (mais a última, no fim da sessão)
+            assertTrue(callbacks[1] <= HOUR_MILLIS / wait + 1);
+        }
+        TestReports.print(report);
+    }
+}
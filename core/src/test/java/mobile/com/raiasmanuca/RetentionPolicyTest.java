@@ -0,0 +1,56 @@
+package mobile.com.raiasmanuca;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+// Etapas da retenção pela idade da trilha e a simplificação das trilhas antigas.
+public class RetentionPolicyTest {
+    private static final long NOW = 1_700_000_000_000L;
+    private static final long DAY = RetentionPolicy.DAY_MILLIS;
+
+    @Test
+    public void etapaPelaIdade() {
+        RetentionPolicy policy = new RetentionPolicy(30, 365, RetentionPolicy.DEFAULT_TOLERANCE_METERS);
+        assertEquals(RetentionPolicy.STORAGE_FULL, policy.targetStorage(NOW - 29 * DAY, NOW, RetentionPolicy.STORAGE_FULL));
+        assertEquals(RetentionPolicy.STORAGE_PACKED, policy.targetStorage(NOW - 30 * DAY, NOW, RetentionPolicy.STORAGE_FULL));
+        assertEquals(RetentionPolicy.STORAGE_DOWNSAMPLED, policy.targetStorage(NOW - 400 * DAY, NOW, RetentionPolicy.STORAGE_FULL));
+        // nunca volta: uma trilha compactada na gravação continua compactada
+        assertEquals(RetentionPolicy.STORAGE_PACKED, policy.targetStorage(NOW - DAY, NOW, RetentionPolicy.STORAGE_PACKED));
+    }
+
+    @Test
+    public void etapasDesligadas() {
+        assertFalse(RetentionPolicy.KEEP_ALL.isEnabled());
+        assertEquals(RetentionPolicy.STORAGE_FULL,
+                RetentionPolicy.KEEP_ALL.targetStorage(NOW - 5000 * DAY, NOW, RetentionPolicy.STORAGE_FULL));
+
+        // só a simplificação, sem a compactação antes
+        RetentionPolicy downsampleOnly = new RetentionPolicy(0, 90, RetentionPolicy.DEFAULT_TOLERANCE_METERS);
+        assertEquals(RetentionPolicy.STORAGE_FULL, downsampleOnly.targetStorage(NOW - 60 * DAY, NOW, RetentionPolicy.STORAGE_FULL));
+        assertEquals(RetentionPolicy.STORAGE_DOWNSAMPLED, downsampleOnly.targetStorage(NOW - 90 * DAY, NOW, RetentionPolicy.STORAGE_FULL));
+    }
+
+    @Test
+    public void simplificaMantendoExtremosEHorarios() {
+        // 1 km em linha reta para o norte, um ponto a cada 2 m, e depois 1 km para o leste
+        double metersPerDegree = Math.PI * TrailStats.EARTH_RADIUS_METERS / 180;
+        double cosLatitude = Math.cos(Math.toRadians(-23.55));
+        TrackBuffer track = new TrackBuffer();
+        for (int i = 0; i <= 500; i++) {
+            track.onPoint(-23.55 + i * 2 / metersPerDegree, -46.63, NOW + i * 1000L);
+        }
+        for (int i = 1; i <= 500; i++) {
+            track.onPoint(-23.55 + 1000 / metersPerDegree, -46.63 + i * 2 / (metersPerDegree * cosLatitude),
+                    NOW + (500 + i) * 1000L);
+        }
+
+        TrackBuffer simplified = new RetentionPolicy(7, 90, 5).downsample(track);
+        // sobram o início, a curva e o fim
+        assertEquals(3, simplified.size());
+        assertEquals(NOW, simplified.timestamps()[0]);
+        assertEquals(NOW + 500_000L, simplified.timestamps()[1]);
+        assertEquals(NOW + 1_000_000L, simplified.timestamps()[2]);
+        assertEquals(track.latitudes()[500], simplified.latitudes()[1], 0);
+    }
+}
@@ -0,0 +1,206 @@
+package mobile.com.raiasmanuca;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// Reproduz sessões gravadas a 1 Hz (parado, caminhada, bicicleta, carro) e compara a política
+// adaptativa com o modo antigo de 5 s fixos: pontos gravados, despertares estimados do GPS
+// e maior distância entre dois pontos gravados (o quanto a trilha fica "cortada").
+public class SamplingPolicyTest {
+
+    // fases da sessão gravada
+    private static final String[] PHASES = {"parado", "caminhada", "bicicleta", "carro", "parado"};
+    private static final int[] PHASE_SECONDS = {600, 1200, 900, 600, 600};
+    private static final double[] PHASE_SPEEDS = {0, 1.4, 5, 15, 0};
+    private static final double[] PHASE_TURN_RATES = {0, 0.02, 0.08, 0.01, 0};
+
+    // Sessão gravada: um fix por segundo.
+    private static class Recording {
+        final int seconds;
+        final double[] lats;
+        final double[] lngs;
+        final int[] phase;
+
+        Recording(int seconds) {
+            this.seconds = seconds;
+            lats = new double[seconds];
+            lngs = new double[seconds];
+            phase = new int[seconds];
+        }
+    }
+
+    // Resultado da simulação de uma política sobre uma gravação, total e por fase.
+    private static class Result {
+        int stored = 0;
+        int wakeUps = 0;
+        int requests = 0;
+        final int[] phaseStored = new int[PHASES.length];
+        final int[] phaseWakeUps = new int[PHASES.length];
+        final double[] phaseMaxGap = new double[PHASES.length];
+    }
+
+    @Test
+    public void paradoDepoisDeAndarVaiParaAFaixaEconomica() {
+        SamplingPolicy policy = new SamplingPolicy();
+        long t = 0;
+        // anda 1,4 m/s por 60 s
+        for (int i = 0; i < 12; i++, t += 5000) {
+            policy.onFix(-23.5 + i * 6.3e-5, -46.6, t);
+        }
+        assertEquals(SamplingPolicy.Bucket.WALKING, policy.getBucket());
+        // para: os fixes seguintes ficam no mesmo lugar, com ruído de ~2 m
+        Random random = new Random(1);
+        double lat = -23.5 + 11 * 6.3e-5;
+        boolean changed = false;
+        for (int i = 0; i < 20; i++, t += 5000) {
+            changed |= policy.onFix(lat + random.nextGaussian() * 2e-5, -46.6, t);
+        }
+        assertTrue(changed);
+        assertEquals(SamplingPolicy.Bucket.STATIONARY, policy.getBucket());
+    }
+
+    @Test
+    public void aceleracaoSobeDeFaixaNaHora() {
+        SamplingPolicy policy = new SamplingPolicy(SamplingPolicy.Bucket.STATIONARY);
+        // parado por bastante tempo e então um fix a 15 m/s do anterior
+        policy.onFix(-23.5, -46.6, 0);
+        assertFalse(policy.onFix(-23.5, -46.6, 30000));
+        assertTrue(policy.onFix(-23.5 + 1.35e-4, -46.6, 31000));
+        assertEquals(SamplingPolicy.Bucket.FAST, policy.getBucket());
+    }
+
+    @Test
+    public void curvaFechadaAmostraMaisRapido() {
+        SamplingPolicy policy = new SamplingPolicy();
+        long t = 0;
+        // caminha para o norte por 15 s e vira 90° para o leste
+        double lat = -23.5;
+        double lng = -46.6;
+        for (int i = 0; i < 3; i++, t += 5000) {
+            policy.onFix(lat, lng, t);
+            lat += 6.3e-5;
+        }
+        for (int i = 0; i < 3; i++, t += 5000) {
+            policy.onFix(lat, lng, t);
+            lng += 6.9e-5;
+        }
+        assertEquals(SamplingPolicy.Bucket.RUNNING, policy.getBucket());
+    }
+
+    @Test
+    public void faixaNaoOscilaComRuido() {
+        SamplingPolicy policy = new SamplingPolicy();
+        Random random = new Random(2);
+        // uma hora de caminhada com ruído de GPS
+        double lat = -23.5;
+        for (int i = 0; i < 720; i++) {
+            lat += 6.3e-5 + random.nextGaussian() * 1e-5;
+            policy.onFix(lat, -46.6 + random.nextGaussian() * 1e-5, i * 5000L);
+        }
+        assertEquals(SamplingPolicy.Bucket.WALKING, policy.getBucket());
+        assertTrue("mudanças de faixa: " + policy.getChangeCount(), policy.getChangeCount() <= 4);
+    }
+
+    // Relatório por fase: parada a política grava e acorda bem menos; rápida, corta menos a trilha.
+    @Test
+    public void relatorioContraModoFixo() {
+        Recording recording = mixedSession(new Random(3));
+
+        Result fixed = simulate(recording, null);
+        Result adaptive = simulate(recording, new SamplingPolicy());
+
+        StringBuilder report = new StringBuilder(String.format(Locale.US,
+                "sessão de %d min | 5 s fixos: %d pontos, %d despertares | adaptativo: %d pontos, %d despertares, %d pedidos",
+                recording.seconds / 60, fixed.stored, fixed.wakeUps, adaptive.stored, adaptive.wakeUps, adaptive.requests));
+        for (int p = 0; p < PHASES.length; p++) {
+            report.append(String.format(Locale.US, "\n  %-9s fixo: %4d pontos, %4d despertares, maior salto %3.0f m"
+                            + " | adaptativo: %4d pontos, %4d despertares, maior salto %3.0f m",
+                    PHASES[p], fixed.phaseStored[p], fixed.phaseWakeUps[p], fixed.phaseMaxGap[p],
+                    adaptive.phaseStored[p], adaptive.phaseWakeUps[p], adaptive.phaseMaxGap[p]));
+        }
+        TestReports.print(report);
+
+        // parado: no máximo um quarto dos pontos e dos despertares do modo fixo
+        for (int p : new int[]{0, 4}) {
+            assertTrue(adaptive.phaseStored[p] * 4 <= fixed.phaseStored[p]);
+            assertTrue(adaptive.phaseWakeUps[p] * 4 <= fixed.phaseWakeUps[p]);
+        }
+        // bicicleta e carro: pontos mais próximos que os ~25 m e ~75 m do modo fixo
+        for (int p : new int[]{2, 3}) {
+            assertTrue(adaptive.phaseMaxGap[p] < fixed.phaseMaxGap[p]);
+        }
+        // no total, o GPS acorda menos
+        assertTrue(adaptive.wakeUps < fixed.wakeUps);
+        // o pedido só é refeito quando a faixa muda (nas fases e nas curvas fechadas), não a cada fix
+        assertTrue("pedidos demais: " + adaptive.requests, adaptive.requests * 10 < adaptive.stored);
+    }
+
+    // Simula o provedor de localização: a cada intervalo o GPS acorda e só entrega o fix
+    // se o deslocamento mínimo foi atingido. Sem política, usa os 5 s fixos de antes.
+    private static Result simulate(Recording recording, SamplingPolicy policy) {
+        Result result = new Result();
+        result.requests = 1;
+        long interval = policy != null ? policy.getBucket().intervalMillis : 5000;
+        float minDisplacement = policy != null ? policy.getBucket().minDisplacementMeters : 0;
+
+        long nextWake = 0;
+        int lastStored = -1;
+        for (int s = 0; s < recording.seconds; s++) {
+            long now = s * 1000L;
+            if (now < nextWake) continue;
+            int phase = recording.phase[s];
+            result.wakeUps++;
+            result.phaseWakeUps[phase]++;
+            nextWake = now + interval;
+
+            if (lastStored >= 0) {
+                double moved = TrailStats.haversine(recording.lats[lastStored], recording.lngs[lastStored],
+                        recording.lats[s], recording.lngs[s]);
+                if (moved < minDisplacement) continue;
+                result.phaseMaxGap[phase] = Math.max(result.phaseMaxGap[phase], moved);
+            }
+            result.stored++;
+            result.phaseStored[phase]++;
+            lastStored = s;
+
+            if (policy != null && policy.onFix(recording.lats[s], recording.lngs[s], now)) {
+                result.requests++;
+                interval = policy.getBucket().intervalMillis;
+                minDisplacement = policy.getBucket().minDisplacementMeters;
+                nextWake = now + interval;
+            }
+        }
+        return result;
+    }
+
+    // 10 min parado, 20 min caminhando, 15 min de bicicleta com curvas, 10 min de carro, 10 min parado.
+    private static Recording mixedSession(Random random) {
+        int total = 0;
+        for (int d : PHASE_SECONDS) total += d;
+
+        Recording recording = new Recording(total);
+        double lat = -23.55;
+        double lng = -46.63;
+        double heading = 0;
+        int s = 0;
+        for (int phase = 0; phase < PHASES.length; phase++) {
+            for (int i = 0; i < PHASE_SECONDS[phase]; i++, s++) {
+                heading += (random.nextDouble() - 0.5) * PHASE_TURN_RATES[phase] * 2;
+                // curvas fechadas de vez em quando na bicicleta
+                if (phase == 2 && i % 120 == 0) heading += Math.PI / 2;
+                double meters = PHASE_SPEEDS[phase];
+                lat += Math.cos(heading) * meters / 111195.0;
+                lng += Math.sin(heading) * meters / (111195.0 * Math.cos(Math.toRadians(lat)));
+                // ruído de GPS de ~2 m
+                recording.lats[s] = lat + random.nextGaussian() * 1.8e-5;
+                recording.lngs[s] = lng + random.nextGaussian() * 1.8e-5;
+                recording.phase[s] = phase;
+            }
+        }
+        return recording;
+    }
+}
@@ -0,0 +1,185 @@
+package mobile.com.raiasmanuca;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// Testes de ida e volta do formato compacto e comparação de tamanho com o formato em linhas.
+public class TrackCodecTest {
+    // erro máximo aceito após a conversão para ponto fixo (meio passo de 1e-7 grau)
+    private static final double EPSILON = 0.5 / TrackCodec.COORDINATE_SCALE + 1e-12;
+
+    // Bytes aproximados de uma linha da tabela trails no SQLite, sem contar o índice:
+    // trail_id (36) + latitude (8) + longitude (8) + timestamp (6) + cabeçalho do registro (5) + rowid (3).
+    private static final int ROW_BYTES_PER_POINT = 66;
+
+    // Guarda os pontos decodificados para comparação.
+    private static class Collector implements TrailPointVisitor {
+        final double[] latitudes;
+        final double[] longitudes;
+        final long[] timestamps;
+        int size = 0;
+
+        Collector(int capacity) {
+            latitudes = new double[capacity];
+            longitudes = new double[capacity];
+            timestamps = new long[capacity];
+        }
+
+        @Override
+        public void onPoint(double latitude, double longitude, long timestamp) {
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            timestamps[size] = timestamp;
+            size++;
+        }
+    }
+
+    @Test
+    public void idaEVoltaDeTrilhaRealista() {
+        int n = 20000;
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        long[] times = new long[n];
+        randomWalk(new Random(1), lats, lngs, times);
+        assertRoundTrip(lats, lngs, times, 0, n);
+    }
+
+    @Test
+    public void idaEVoltaComTrechoNoMeioDoArray() {
+        int n = 1000;
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        long[] times = new long[n];
+        randomWalk(new Random(2), lats, lngs, times);
+        assertRoundTrip(lats, lngs, times, 300, 400);
+    }
+
+    @Test
+    public void trilhaVaziaEUmPonto() {
+        byte[] empty = TrackCodec.encode(new double[0], new double[0], new long[0], 0, 0);
+        assertEquals(0, TrackCodec.pointCount(empty));
+        assertEquals(0, TrackCodec.decode(empty, (lat, lng, ts) -> fail("não deveria ter pontos")));
+
+        assertRoundTrip(new double[]{-23.5505199}, new double[]{-46.6333094}, new long[]{1700000000000L}, 0, 1);
+    }
+
+    @Test
+    public void valoresExtremosESaltos() {
+        // polos, antimeridiano, saltos grandes, tempo repetido e voltando para trás
+        double[] lats = {90, -90, 0, 89.9999999, -89.9999999, 45.1234567, 45.1234567};
+        double[] lngs = {180, -180, 0, -179.9999999, 179.9999999, 0, 0};
+        long[] times = {0, Long.MAX_VALUE / 4, Long.MAX_VALUE / 4, 1, -1000, 1700000000000L, 1700000000000L};
+        assertRoundTrip(lats, lngs, times, 0, lats.length);
+    }
+
+    @Test
+    public void pontosAleatoriosNaoCorrelacionados() {
+        Random random = new Random(3);
+        int n = 5000;
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        long[] times = new long[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = random.nextDouble() * 180 - 90;
+            lngs[i] = random.nextDouble() * 360 - 180;
+            times[i] = random.nextLong() >> 2;
+        }
+        assertRoundTrip(lats, lngs, times, 0, n);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void blocoTruncadoEhRejeitado() {
+        double[] lats = {1, 2, 3};
+        double[] lngs = {1, 2, 3};
+        long[] times = {1, 2, 3};
+        byte[] data = TrackCodec.encode(lats, lngs, times, 0, 3);
+        byte[] truncated = new byte[data.length - 1];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        TrackCodec.decode(truncated, (lat, lng, ts) -> { });
+    }
+
+    @Test
+    public void zigzagEVarint() {
+        long[] values = {0, 1, -1, 63, -64, 64, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+        byte[] buffer = new byte[10];
+        for (long value : values) {
+            assertEquals(value, TrackCodec.unzigzag(TrackCodec.zigzag(value)));
+            int end = TrackCodec.writeVarint(buffer, 0, TrackCodec.zigzag(value));
+            int[] pos = {0};
+            assertEquals(value, TrackCodec.unzigzag(TrackCodec.readVarint(buffer, pos)));
+            assertEquals(end, pos[0]);
+        }
+    }
+
+    // Compara o tamanho em disco com o formato em linhas e mede a velocidade de decodificação.
+    @Test
+    public void benchmarkTamanhoEVelocidade() {
+        int n = 500_000;
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        long[] times = new long[n];
+        randomWalk(new Random(4), lats, lngs, times);
+
+        long encodeStart = System.nanoTime();
+        byte[][] chunks = new byte[(n + TrackCodec.CHUNK_SIZE - 1) / TrackCodec.CHUNK_SIZE][];
+        long packedBytes = 0;
+        for (int c = 0; c < chunks.length; c++) {
+            int offset = c * TrackCodec.CHUNK_SIZE;
+            chunks[c] = TrackCodec.encode(lats, lngs, times, offset, Math.min(TrackCodec.CHUNK_SIZE, n - offset));
+            packedBytes += chunks[c].length;
+        }
+        long encodeNanos = System.nanoTime() - encodeStart;
+
+        final double[] checksum = {0};
+        TrailPointVisitor sum = (lat, lng, ts) -> checksum[0] += lat;
+        long decodeStart = System.nanoTime();
+        for (byte[] chunk : chunks) {
+            TrackCodec.decode(chunk, sum);
+        }
+        long decodeNanos = System.nanoTime() - decodeStart;
+
+        long rowBytes = (long) n * ROW_BYTES_PER_POINT;
+        double ratio = (double) rowBytes / packedBytes;
+        TestReports.print(String.format(Locale.US,
+                "%d pontos: linhas ~%d KB, compacto %d KB (%.1fx, %.2f bytes/ponto); "
+                        + "codifica %.1f M pontos/s, decodifica %.1f M pontos/s",
+                n, rowBytes / 1024, packedBytes / 1024, ratio, (double) packedBytes / n,
+                n * 1e3 / encodeNanos, n * 1e3 / decodeNanos));
+
+        assertTrue("redução menor que 10x: " + ratio, ratio >= 10);
+        assertTrue(checksum[0] != 0);
+    }
+
+    // caminhada com um ponto a cada ~5 s e alguns metros de deslocamento, como na gravação
+    private static void randomWalk(Random random, double[] lats, double[] lngs, long[] times) {
+        double lat = -23.55;
+        double lng = -46.63;
+        long time = 1700000000000L;
+        for (int i = 0; i < lats.length; i++) {
+            lat += (random.nextDouble() - 0.5) * 1e-4;
+            lng += (random.nextDouble() - 0.5) * 1e-4;
+            time += 5000 + random.nextInt(200) - 100;
+            lats[i] = lat;
+            lngs[i] = lng;
+            times[i] = time;
+        }
+    }
+
+    private static void assertRoundTrip(double[] lats, double[] lngs, long[] times, int offset, int count) {
+        byte[] data = TrackCodec.encode(lats, lngs, times, offset, count);
+        assertEquals(count, TrackCodec.pointCount(data));
+
+        Collector collector = new Collector(count);
+        assertEquals(count, TrackCodec.decode(data, collector));
+        assertEquals(count, collector.size);
+        for (int i = 0; i < count; i++) {
+            assertEquals(lats[offset + i], collector.latitudes[i], EPSILON);
+            assertEquals(lngs[offset + i], collector.longitudes[i], EPSILON);
+            assertEquals(times[offset + i], collector.timestamps[i]);
+        }
+    }
+}
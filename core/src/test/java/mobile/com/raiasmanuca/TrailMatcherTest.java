@@ -0,0 +1,173 @@
+package mobile.com.raiasmanuca;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// Trilhas sintéticas sobre o mesmo percurso (3 km para o norte e 1 km para o leste), com
+// ruído de GPS e velocidades diferentes, e uma trilha que sai e chega nos mesmos pontos por
+// outro caminho. Verifica a pré-seleção pelos resumos, o desvio médio e as diferenças por trecho.
+public class TrailMatcherTest {
+    private static final double START_LATITUDE = -23.55;
+    private static final double START_LONGITUDE = -46.63;
+    private static final double METERS_PER_DEGREE = Math.PI * TrailStats.EARTH_RADIUS_METERS / 180;
+
+    // percorre o caminho (norte e depois leste) a "speeds[k]" m/s no k-ésimo quilômetro. O erro
+    // do GPS muda devagar de um fix para o outro (como no aparelho), com desvio ~noiseMeters.
+    private static TrackBuffer walk(double[] speeds, double noiseMeters, boolean detour, long seed) {
+        Random random = new Random(seed);
+        TrackBuffer track = new TrackBuffer();
+        double cosLatitude = Math.cos(Math.toRadians(START_LATITUDE));
+        long time = 0;
+        double walked = 0;
+        double errorNorth = 0;
+        double errorEast = 0;
+        while (walked <= 4000) {
+            // desvio: 300 m para o oeste no meio da subida e volta
+            double north = Math.min(walked, 3000);
+            double east = Math.max(0, walked - 3000);
+            if (detour && walked > 1000 && walked < 2000) {
+                east = -300 * Math.sin(Math.PI * (walked - 1000) / 1000);
+            }
+            errorNorth = 0.99 * errorNorth + random.nextGaussian() * noiseMeters * 0.14;
+            errorEast = 0.99 * errorEast + random.nextGaussian() * noiseMeters * 0.14;
+            double latitude = START_LATITUDE + (north + errorNorth) / METERS_PER_DEGREE;
+            double longitude = START_LONGITUDE + (east + errorEast) / (METERS_PER_DEGREE * cosLatitude);
+            track.onPoint(latitude, longitude, time);
+            double speed = speeds[Math.min((int) (walked / 1000), speeds.length - 1)];
+            walked += speed;
+            time += 1000;
+        }
+        return track;
+    }
+
+    private static TrailSummary summarize(String trailId, TrackBuffer track) {
+        TrailSummary summary = new TrailSummary(trailId, 0);
+        summary.addAll(track.latitudes(), track.longitudes(), track.timestamps(), track.size());
+        return summary;
+    }
+
+    private static TrailMatcher.Route route(String trailId, TrackBuffer track) {
+        return TrailMatcher.Route.resample(trailId, track, TrailMatcher.DEFAULT_SPACING_METERS);
+    }
+
+    @Test
+    public void reamostragemMantemInicioFimETempo() {
+        TrackBuffer track = walk(new double[]{1.5}, 0, false, 1);
+        TrailMatcher.Route route = route("a", track);
+        // ~4 km a cada 10 m
+        assertEquals(401, route.size(), 2);
+        assertEquals(track.timestamps()[track.size() - 1], route.getDurationMillis());
+        assertEquals(track.latitudes()[0], route.latitudes[0], 0);
+        assertEquals(track.latitudes()[track.size() - 1], route.latitudes[route.size() - 1], 0);
+    }
+
+    @Test
+    public void mesmoPercursoComVelocidadesDiferentes() {
+        TrailMatcher matcher = new TrailMatcher();
+        // a consultada anda igual em todo o percurso; a outra é mais lenta no segundo quilômetro
+        TrackBuffer query = walk(new double[]{2}, 5, false, 1);
+        TrackBuffer slower = walk(new double[]{2, 1, 2, 2}, 5, false, 2);
+
+        TrailMatcher.Match match = matcher.align(route("q", query), route("s", slower));
+        assertNotNull(match);
+        assertTrue(match.meanDeviationMeters < 10);
+        assertTrue(match.durationDeltaMillis < 0);
+        // ~4 km (o ruído aumenta um pouco o comprimento): 4 trechos e talvez um pedaço
+        assertTrue(match.segmentDeltaMillis.length == 4 || match.segmentDeltaMillis.length == 5);
+        // 1 km a 2 m/s contra 1 m/s: 500 s mais rápida nesse quilômetro. Os trechos são medidos
+        // no caminho gravado da consultada, um pouco mais longo que o real, então a diferença
+        // fica quase toda no segundo trecho e o resto no terceiro; o primeiro e o quarto empatam
+        long[] deltas = match.segmentDeltaMillis;
+        assertTrue(deltas[1] < -400_000);
+        assertEquals(-500_000, deltas[1] + deltas[2], 20_000);
+        assertEquals(0, deltas[0], 20_000);
+        assertEquals(0, deltas[3], 20_000);
+        long sum = 0;
+        for (long delta : deltas) sum += delta;
+        assertEquals(match.durationDeltaMillis, sum);
+    }
+
+    @Test
+    public void desvioComMesmoInicioEFimNaoEOMesmoPercurso() {
+        TrailMatcher matcher = new TrailMatcher();
+        TrackBuffer query = walk(new double[]{2}, 5, false, 1);
+        TrackBuffer detour = walk(new double[]{2}, 5, true, 3);
+
+        // os resumos não distinguem (mesmo início, fim e comprimento parecido)...
+        assertTrue(matcher.isCandidate(summarize("q", query), summarize("d", detour)));
+        // ...mas o alinhamento sim
+        assertNull(matcher.align(route("q", query), route("d", detour)));
+    }
+
+    // O mesmo percurso para o norte, gravado uma vez logo a leste e outra logo a oeste de ±180°:
+    // os limites de longitude não se cruzam sem dar a volta, mas é o mesmo lugar.
+    @Test
+    public void mesmoPercursoDosDoisLadosDoAntimeridiano() {
+        TrailMatcher matcher = new TrailMatcher();
+        TrackBuffer west = new TrackBuffer();
+        TrackBuffer east = new TrackBuffer();
+        for (int i = 0; i < 300; i++) {
+            double latitude = -17 + i * 10 / METERS_PER_DEGREE;
+            west.onPoint(latitude, 179.9999, i * 1000L);
+            east.onPoint(latitude, -179.9999, i * 1000L);
+        }
+        assertTrue(matcher.isCandidate(summarize("w", west), summarize("e", east)));
+        TrailMatcher.Match match = matcher.align(route("w", west), route("e", east));
+        assertNotNull(match);
+        assertTrue(match.meanDeviationMeters < 30);
+    }
+
+    @Test
+    public void preSelecaoPelosResumos() {
+        TrailMatcher matcher = new TrailMatcher();
+        TrackBuffer query = walk(new double[]{2}, 5, false, 1);
+        TrailSummary querySummary = summarize("q", query);
+
+        // só metade do caminho: comprimento muito diferente
+        TrackBuffer half = new TrackBuffer();
+        for (int i = 0; i < query.size() / 2; i++) {
+            half.onPoint(query.latitudes()[i], query.longitudes()[i], query.timestamps()[i]);
+        }
+        // o mesmo caminho 5 km ao sul
+        TrackBuffer far = new TrackBuffer();
+        for (int i = 0; i < query.size(); i++) {
+            far.onPoint(query.latitudes()[i] - 5000 / METERS_PER_DEGREE, query.longitudes()[i], query.timestamps()[i]);
+        }
+        TrackBuffer same = walk(new double[]{1.8}, 5, false, 4);
+
+        List<TrailSummary> candidates = matcher.prefilter(querySummary, Arrays.asList(
+                querySummary, summarize("half", half), summarize("far", far), summarize("same", same)));
+        assertEquals(1, candidates.size());
+        assertEquals("same", candidates.get(0).getTrailId());
+    }
+
+    @Test
+    public void matchAllOrdenaDaMaisRapidaParaAMaisLenta() {
+        TrailMatcher matcher = new TrailMatcher();
+        TrailMatcher.Route query = route("q", walk(new double[]{2}, 5, false, 1));
+        List<TrailMatcher.Route> candidates = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            double speed = 1.5 + (i * 7 % 20) * 0.05;
+            candidates.add(route("t" + i, walk(new double[]{speed}, 5, i % 5 == 0, 10 + i)));
+        }
+
+        List<TrailMatcher.Match> matches = matcher.matchAll(query, candidates);
+        // as 4 com desvio ficam de fora
+        assertEquals(16, matches.size());
+        for (int i = 1; i < matches.size(); i++) {
+            assertTrue(matches.get(i - 1).durationMillis <= matches.get(i).durationMillis);
+        }
+        // o resultado em paralelo é o mesmo de alinhar uma por uma
+        for (TrailMatcher.Match match : matches) {
+            int index = Integer.parseInt(match.trailId.substring(1));
+            TrailMatcher.Match serial = matcher.align(query, candidates.get(index));
+            assertEquals(serial.meanDeviationMeters, match.meanDeviationMeters, 0);
+        }
+    }
+}
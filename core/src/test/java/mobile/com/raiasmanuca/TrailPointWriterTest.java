@@ -0,0 +1,206 @@
+package mobile.com.raiasmanuca;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+// Testes do gravador em lote e comparação com o caminho antigo (um insert/commit por ponto).
+// Roda na JVM: o banco é substituído por um Sink que registra os lotes recebidos.
+public class TrailPointWriterTest {
+
+    // Sink que guarda os pontos em ordem e conta os commits.
+    // commitCostNanos simula o custo fixo de cada transação (journal + fsync no SQLite).
+    private static class RecordingSink implements TrailPointWriter.Sink {
+        final long commitCostNanos;
+        final long[] received;
+        int receivedCount = 0;
+        int commits = 0;
+
+        RecordingSink(int expectedPoints, long commitCostNanos) {
+            this.received = new long[expectedPoints];
+            this.commitCostNanos = commitCostNanos;
+        }
+
+        @Override
+        public synchronized void writeBatch(String trailId, double[] latitudes, double[] longitudes,
+                                            long[] timestamps, int count) {
+            for (int i = 0; i < count; i++) {
+                received[receivedCount++] = timestamps[i];
+            }
+            commits++;
+            long end = System.nanoTime() + commitCostNanos;
+            while (System.nanoTime() < end) {
+                // espera ativa para simular o custo do commit
+            }
+        }
+    }
+
+    @Test
+    public void gravaTodosOsPontosEmOrdem() {
+        int total = 10000;
+        RecordingSink sink = new RecordingSink(total, 0);
+        TrailPointWriter writer = new TrailPointWriter(sink, "trilha", 128, 32, 1000);
+        for (int i = 0; i < total; i++) {
+            writer.add(-23.5 + i * 1e-5, -46.6, i);
+        }
+        writer.close();
+
+        assertEquals(total, sink.receivedCount);
+        for (int i = 0; i < total; i++) {
+            assertEquals(i, sink.received[i]);
+        }
+        assertEquals(total, writer.getPointsWritten());
+        assertTrue("esperava lotes com vários pontos", sink.commits < total / 4);
+    }
+
+    @Test
+    public void gravaPorTempoSemCompletarLote() throws InterruptedException {
+        RecordingSink sink = new RecordingSink(10, 0);
+        TrailPointWriter writer = new TrailPointWriter(sink, "trilha", 64, 32, 50);
+        writer.add(-23.5, -46.6, 1);
+        writer.add(-23.5, -46.6, 2);
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (writer.getPointsWritten() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, writer.getPointsWritten());
+        assertEquals(1, writer.getCommitCount());
+        writer.close();
+    }
+
+    @Test
+    public void flushEsperaGravarPendentes() {
+        RecordingSink sink = new RecordingSink(5, 0);
+        TrailPointWriter writer = new TrailPointWriter(sink, "trilha", 64, 32, 60000);
+        for (int i = 0; i < 5; i++) {
+            writer.add(0, 0, i);
+        }
+        writer.flush();
+        assertEquals(5, sink.receivedCount);
+        writer.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void naoAceitaPontosDepoisDeFechado() {
+        TrailPointWriter writer = new TrailPointWriter(new RecordingSink(1, 0), "trilha");
+        writer.close();
+        writer.add(0, 0, 0);
+    }
+
+    // Compara pontos/segundo e número de commits entre o caminho antigo
+    // (capacidade 1 = um insert com auto-commit por ponto) e o gravador em lote.
+    // Com o banco sempre com erro, cada lote é tentado MAX_ATTEMPTS vezes e descartado: o buffer
+    // não enche para sempre e quem entrega os fixes não fica preso.
+    @Test(timeout = 20000)
+    public void bancoSempreComErroNaoTravaAddAll() {
+        final int[] calls = {0};
+        TrailPointWriter writer = new TrailPointWriter((trailId, latitudes, longitudes, timestamps, count) -> {
+            calls[0]++;
+            throw new RuntimeException("disk I/O error");
+        }, "trilha", 64, 16, 50);
+        final List<String> errors = new ArrayList<>();
+        writer.setErrorListener((message, e) -> errors.add(message));
+        double[] lats = new double[16];
+        double[] lngs = new double[16];
+        long[] times = new long[16];
+        for (int delivery = 0; delivery < 50; delivery++) {
+            for (int i = 0; i < 16; i++) {
+                times[i] = delivery * 16 + i;
+            }
+            writer.addAll(lats, lngs, times, 16);
+        }
+        writer.close();
+
+        assertEquals(0, writer.getPointsWritten());
+        assertEquals(50 * 16, writer.getDroppedPoints());
+        assertEquals(calls[0], writer.getFailedBatches());
+        assertEquals(0, calls[0] % TrailPointWriter.MAX_ATTEMPTS);
+        // cada lote descartado é avisado, além de cada tentativa
+        assertEquals(calls[0] + calls[0] / TrailPointWriter.MAX_ATTEMPTS, errors.size());
+    }
+
+    // Com o banco travado, add() espera no máximo ADD_TIMEOUT_MS por espaço e descarta o ponto;
+    // as chamadas seguintes nem esperam, até a thread de fundo liberar espaço.
+    @Test(timeout = 20000)
+    public void bufferCheioDescartaEmVezDeTravar() throws InterruptedException {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        RecordingSink sink = new RecordingSink(1000, 0) {
+            @Override
+            public void writeBatch(String trailId, double[] latitudes, double[] longitudes,
+                                   long[] timestamps, int count) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.writeBatch(trailId, latitudes, longitudes, timestamps, count);
+            }
+        };
+        TrailPointWriter writer = new TrailPointWriter(sink, "trilha", 32, 8, 1000);
+        // o primeiro lote prende a thread de fundo; os 32 seguintes enchem o buffer
+        for (int i = 0; i < 8; i++) {
+            writer.add(-23.5, -46.6, i);
+        }
+        entered.await();
+        for (int i = 8; i < 40; i++) {
+            writer.add(-23.5, -46.6, i);
+        }
+        long start = System.nanoTime();
+        writer.add(-23.5, -46.6, 40);
+        long firstMillis = (System.nanoTime() - start) / 1_000_000;
+        start = System.nanoTime();
+        for (int i = 41; i < 100; i++) {
+            writer.add(-23.5, -46.6, i);
+        }
+        long restMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue("esperou " + firstMillis + " ms", firstMillis < TrailPointWriter.ADD_TIMEOUT_MS * 4);
+        assertTrue("esperou " + restMillis + " ms", restMillis < TrailPointWriter.ADD_TIMEOUT_MS);
+        assertEquals(60, writer.getDroppedPoints());
+
+        release.countDown();
+        writer.close();
+        assertEquals(40, writer.getPointsWritten());
+        for (int i = 0; i < 40; i++) {
+            assertEquals(i, sink.received[i]);
+        }
+    }
+
+    @Test
+    public void benchmarkPorPontoVersusLote() {
+        int total = 5000;
+        // custo aproximado de um commit com fsync em flash de celular
+        long commitCost = 200_000;
+
+        RecordingSink perInsert = new RecordingSink(total, commitCost);
+        long perInsertNanos = run(new TrailPointWriter(perInsert, "a", 1, 1, 1000), total);
+
+        RecordingSink batched = new RecordingSink(total, commitCost);
+        long batchedNanos = run(new TrailPointWriter(batched, "b"), total);
+
+        TestReports.print(String.format(Locale.US,
+                "por ponto: %d commits, %.0f pontos/s | em lote: %d commits, %.0f pontos/s",
+                perInsert.commits, total * 1e9 / perInsertNanos,
+                batched.commits, total * 1e9 / batchedNanos));
+
+        assertEquals(total, perInsert.commits);
+        assertTrue(batched.commits * 10 < perInsert.commits);
+        assertTrue(batchedNanos < perInsertNanos);
+    }
+
+    private static long run(TrailPointWriter writer, int total) {
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            writer.add(-23.5, -46.6, i);
+        }
+        writer.close();
+        return System.nanoTime() - start;
+    }
+}
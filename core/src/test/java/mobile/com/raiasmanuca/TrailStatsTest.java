@@ -0,0 +1,189 @@
+package mobile.com.raiasmanuca;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// Testes do TrailStats. A referência de distância é a fórmula inversa de Vincenty no elipsoide WGS84,
+// o mesmo método usado por android.location.Location.distanceTo.
+public class TrailStatsTest {
+
+    @Test
+    public void haversineDentroDoLimiteDeErroDeVincenty() {
+        Random random = new Random(10);
+        double worstRelative = 0;
+        for (int i = 0; i < 20000; i++) {
+            double lat1 = random.nextDouble() * 160 - 80;
+            double lng1 = random.nextDouble() * 360 - 180;
+            // segmentos de 1 m a ~100 km, como entre pontos de GPS e trilhas inteiras
+            double scale = Math.pow(10, -5 + random.nextDouble() * 4);
+            double lat2 = lat1 + (random.nextDouble() - 0.5) * scale;
+            double lng2 = lng1 + (random.nextDouble() - 0.5) * scale;
+
+            double expected = vincenty(lat1, lng1, lat2, lng2);
+            double actual = TrailStats.haversine(lat1, lng1, lat2, lng2);
+            if (expected > 0.5) {
+                worstRelative = Math.max(worstRelative, Math.abs(actual - expected) / expected);
+            }
+        }
+        TestReports.print(String.format(Locale.US, "erro relativo máximo haversine x Vincenty: %.3f%%",
+                worstRelative * 100));
+        assertTrue("erro relativo acima de 0,6%: " + worstRelative, worstRelative < 0.006);
+    }
+
+    @Test
+    public void distanciaConhecida() {
+        // um grau de latitude no equador tem ~111,2 km na esfera média
+        assertEquals(111195, TrailStats.haversine(0, 0, 1, 0), 1);
+        assertEquals(0, TrailStats.haversine(-23.5, -46.6, -23.5, -46.6), 0);
+    }
+
+    @Test
+    public void estatisticasDeUmaPassada() {
+        // anda 100 m para o norte a cada 10 s (10 m/s), com um trecho mais rápido no meio
+        int n = 101;
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        long[] times = new long[n];
+        double step = 100 / 111195.0;
+        for (int i = 0; i < n; i++) {
+            lats[i] = -23.5 + i * step;
+            lngs[i] = -46.6;
+            times[i] = 1000000L + i * 10000L;
+        }
+        times[51] = times[50] + 5000; // 20 m/s neste segmento
+        for (int i = 52; i < n; i++) times[i] = times[51] + (i - 51) * 10000L;
+
+        TrailStats stats = TrailStats.compute(lats, lngs, times, n);
+
+        assertEquals(n, stats.getPointCount());
+        assertEquals(10000, stats.getDistanceMeters(), 15);
+        assertEquals(995000, stats.getDurationMillis());
+        assertEquals(10000.0 / 995, stats.getAverageSpeedMetersPerSecond(), 0.05);
+        assertEquals(20, stats.getMaxSpeedMetersPerSecond(), 0.1);
+        assertEquals(lats[0], stats.getMinLatitude(), 0);
+        assertEquals(lats[n - 1], stats.getMaxLatitude(), 0);
+        assertEquals(-46.6, stats.getMinLongitude(), 0);
+        assertEquals(-46.6, stats.getMaxLongitude(), 0);
+
+        // 10 km completos: parciais de ~100 s, a que contém o trecho rápido é 5 s menor
+        assertEquals(9, stats.getSplitCount(), 1);
+        assertEquals(100000, stats.getSplitMillis(0), 200);
+        assertEquals(95000, stats.getSplitMillis(5), 200);
+    }
+
+    @Test
+    public void trilhaVaziaOuParada() {
+        TrailStats stats = new TrailStats();
+        assertEquals(0, stats.getPointCount());
+        assertEquals(0, stats.getAverageSpeedMetersPerSecond(), 0);
+
+        stats.onPoint(-23.5, -46.6, 1000);
+        stats.onPoint(-23.5, -46.6, 1000);
+        assertEquals(0, stats.getDistanceMeters(), 0);
+        assertEquals(0, stats.getMaxSpeedMetersPerSecond(), 0);
+        assertEquals(0, stats.getSplitCount());
+
+        stats.reset();
+        assertEquals(0, stats.getPointCount());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void parcialInexistente() {
+        new TrailStats().getSplitMillis(0);
+    }
+
+    // Compara o custo por ponto do haversine em arrays primitivos com o caminho antigo,
+    // que criava objetos por ponto e calculava a distância por Vincenty (Location.distanceTo).
+    @Test
+    public void benchmarkHaversineVersusVincentyComObjetos() {
+        int n = 1_000_000;
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        long[] times = new long[n];
+        Random random = new Random(11);
+        double lat = -23.55;
+        double lng = -46.63;
+        for (int i = 0; i < n; i++) {
+            lat += (random.nextDouble() - 0.5) * 1e-4;
+            lng += (random.nextDouble() - 0.5) * 1e-4;
+            lats[i] = lat;
+            lngs[i] = lng;
+            times[i] = i * 5000L;
+        }
+
+        // aquecimento
+        for (int r = 0; r < 3; r++) {
+            TrailStats.compute(lats, lngs, times, n);
+            legacyDistance(lats, lngs, n);
+        }
+
+        long t0 = System.nanoTime();
+        TrailStats stats = TrailStats.compute(lats, lngs, times, n);
+        long statsNanos = System.nanoTime() - t0;
+
+        t0 = System.nanoTime();
+        double legacy = legacyDistance(lats, lngs, n);
+        long legacyNanos = System.nanoTime() - t0;
+
+        double relative = Math.abs(stats.getDistanceMeters() - legacy) / legacy;
+        TestReports.print(String.format(Locale.US,
+                "TrailStats: %.1f ns/ponto | objetos + Vincenty: %.1f ns/ponto | diferença na distância: %.3f%%",
+                (double) statsNanos / n, (double) legacyNanos / n, relative * 100));
+        assertTrue(relative < 0.005);
+    }
+
+    // Imita o laço antigo do loadTrailData: um objeto por ponto e distância elipsoidal.
+    private static double legacyDistance(double[] lats, double[] lngs, int n) {
+        double total = 0;
+        double[] last = null;
+        for (int i = 0; i < n; i++) {
+            double[] current = {lats[i], lngs[i]};
+            if (last != null) {
+                total += vincenty(last[0], last[1], current[0], current[1]);
+            }
+            last = current;
+        }
+        return total;
+    }
+
+    // Fórmula inversa de Vincenty no elipsoide WGS84, em metros.
+    static double vincenty(double lat1, double lon1, double lat2, double lon2) {
+        double a = 6378137.0;
+        double f = 1 / 298.257223563;
+        double b = (1 - f) * a;
+        double L = Math.toRadians(lon2 - lon1);
+        double U1 = Math.atan((1 - f) * Math.tan(Math.toRadians(lat1)));
+        double U2 = Math.atan((1 - f) * Math.tan(Math.toRadians(lat2)));
+        double sinU1 = Math.sin(U1), cosU1 = Math.cos(U1);
+        double sinU2 = Math.sin(U2), cosU2 = Math.cos(U2);
+
+        double lambda = L;
+        double sinSigma = 0, cosSigma = 0, sigma = 0, cosSqAlpha = 0, cos2SigmaM = 0;
+        for (int iter = 0; iter < 200; iter++) {
+            double sinLambda = Math.sin(lambda), cosLambda = Math.cos(lambda);
+            sinSigma = Math.sqrt((cosU2 * sinLambda) * (cosU2 * sinLambda)
+                    + (cosU1 * sinU2 - sinU1 * cosU2 * cosLambda) * (cosU1 * sinU2 - sinU1 * cosU2 * cosLambda));
+            if (sinSigma == 0) return 0;
+            cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+            sigma = Math.atan2(sinSigma, cosSigma);
+            double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+            cosSqAlpha = 1 - sinAlpha * sinAlpha;
+            cos2SigmaM = cosSqAlpha != 0 ? cosSigma - 2 * sinU1 * sinU2 / cosSqAlpha : 0;
+            double C = f / 16 * cosSqAlpha * (4 + f * (4 - 3 * cosSqAlpha));
+            double previous = lambda;
+            lambda = L + (1 - C) * f * sinAlpha
+                    * (sigma + C * sinSigma * (cos2SigmaM + C * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+            if (Math.abs(lambda - previous) < 1e-12) break;
+        }
+        double uSq = cosSqAlpha * (a * a - b * b) / (b * b);
+        double A = 1 + uSq / 16384 * (4096 + uSq * (-768 + uSq * (320 - 175 * uSq)));
+        double B = uSq / 1024 * (256 + uSq * (-128 + uSq * (74 - 47 * uSq)));
+        double deltaSigma = B * sinSigma * (cos2SigmaM + B / 4 * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+                - B / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+        return b * A * (sigma - deltaSigma);
+    }
+}
@@ -0,0 +1,91 @@
+package mobile.com.raiasmanuca;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// O resumo mantido lote a lote tem que bater com as estatísticas calculadas numa passada só.
+public class TrailSummaryTest {
+
+    @Test
+    public void lotesIncrementaisIgualAPassadaUnica() {
+        int n = 5000;
+        Random random = new Random(30);
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        long[] times = new long[n];
+        double lat = -23.55;
+        double lng = -46.63;
+        for (int i = 0; i < n; i++) {
+            lat += (random.nextDouble() - 0.3) * 5e-5;
+            lng += (random.nextDouble() - 0.6) * 5e-5;
+            lats[i] = lat;
+            lngs[i] = lng;
+            times[i] = 1_000_000L + i * 3000L;
+        }
+        TrailStats stats = TrailStats.compute(lats, lngs, times, n);
+
+        // grava em lotes de tamanhos variados, recriando o resumo a cada lote como se
+        // tivesse sido lido do banco
+        TrailSummary summary = new TrailSummary("t", 999_000L);
+        int offset = 0;
+        while (offset < n) {
+            int count = Math.min(1 + random.nextInt(200), n - offset);
+            double[] bl = new double[count];
+            double[] bg = new double[count];
+            long[] bt = new long[count];
+            System.arraycopy(lats, offset, bl, 0, count);
+            System.arraycopy(lngs, offset, bg, 0, count);
+            System.arraycopy(times, offset, bt, 0, count);
+            summary.addAll(bl, bg, bt, count);
+            summary = reload(summary);
+            offset += count;
+        }
+
+        assertEquals(n, summary.getPointCount());
+        assertEquals(stats.getDistanceMeters(), summary.getDistanceMeters(), 1e-6);
+        assertEquals(stats.getDurationMillis(), summary.getDurationMillis());
+        assertEquals(stats.getMinLatitude(), summary.getMinLatitude(), 0);
+        assertEquals(stats.getMaxLatitude(), summary.getMaxLatitude(), 0);
+        assertEquals(stats.getMinLongitude(), summary.getMinLongitude(), 0);
+        assertEquals(stats.getMaxLongitude(), summary.getMaxLongitude(), 0);
+        assertEquals(lats[0], summary.getFirstLatitude(), 0);
+        assertEquals(lngs[0], summary.getFirstLongitude(), 0);
+        assertEquals(999_000L, summary.getStartTime());
+        assertFalse(summary.isFinished());
+    }
+
+    @Test
+    public void trilhaSemPontos() {
+        TrailSummary summary = new TrailSummary("t", 5000);
+        assertEquals(0, summary.getPointCount());
+        assertEquals(0, summary.getDurationMillis());
+        summary = reload(summary);
+        summary.onPoint(1, 2, 6000);
+        assertEquals(1, summary.getMinLatitude(), 0);
+        assertEquals(2, summary.getMaxLongitude(), 0);
+        summary.setEndTime(7000);
+        assertTrue(summary.isFinished());
+    }
+
+    @Test
+    public void textoDaLista() {
+        TrailSummary summary = new TrailSummary("t", 0);
+        summary.onPoint(0, 0, 0);
+        summary.onPoint(0, 0.01, 3_723_000L);
+        summary.setEndTime(3_723_000L);
+        String details = TrailInfoFormatter.formatListDetails(summary, Locale.US);
+        assertTrue(details, details.startsWith("1.11 km · 01:02:03 · 2 pontos"));
+    }
+
+    // simula a ida e volta pelo banco: só os campos guardados na tabela
+    private static TrailSummary reload(TrailSummary s) {
+        return new TrailSummary(s.getTrailId(), s.getStartTime(), s.getEndTime(), s.getPointCount(),
+                s.getDistanceMeters(), s.getFirstPointTime(), s.getLastPointTime(),
+                s.getFirstLatitude(), s.getFirstLongitude(), s.getLastLatitude(), s.getLastLongitude(),
+                s.getMinLatitude(), s.getMaxLatitude(), s.getMinLongitude(), s.getMaxLongitude());
+    }
+}
@@ -15,3 +15,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "Avaliacao2"
 include(":app")
+include(":core")
+include(":benchmark")